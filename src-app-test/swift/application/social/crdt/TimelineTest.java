@@ -0,0 +1,130 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package swift.application.social.crdt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import swift.application.social.Message;
+import swift.application.social.NamingScheme;
+import swift.application.social.Timeline;
+import swift.crdt.TxnTester;
+import swift.crdt.core.CRDTIdentifier;
+import swift.crdt.core.TxnHandle;
+import swift.exceptions.SwiftException;
+
+public class TimelineTest {
+    static final long SPAN = TimelineCRDT.SEGMENT_SPAN_MILLIS;
+
+    TxnHandle txn;
+    CRDTIdentifier id;
+    TimelineCRDT i;
+
+    @Before
+    public void setUp() throws SwiftException {
+        txn = TxnTester.createIsolatedTxnTester();
+        id = new CRDTIdentifier("A", "Timeline");
+        i = txn.get(id, true, TimelineCRDT.class);
+    }
+
+    private static Message msg(long date) {
+        return new Message("m" + date, "u", date);
+    }
+
+    @Test
+    public void orderTest() {
+        i.add(msg(1));
+        i.add(msg(3));
+        i.add(msg(2));
+        assertEquals(Arrays.asList(msg(3), msg(2), msg(1)), i.newest(10));
+        assertEquals(Arrays.asList(msg(3), msg(2)), i.newest(2));
+        assertEquals(msg(1), i.oldest());
+
+        // same date, different senders
+        i.add(new Message("x", "v", 2));
+        assertEquals(4, i.size());
+        assertEquals(Arrays.asList(msg(3), msg(2), new Message("x", "v", 2), msg(1)), i.newest(10));
+    }
+
+    @Test
+    public void rangeTest() {
+        for (long d = 0; d < 10; d++)
+            i.add(msg(d));
+        assertEquals(Arrays.asList(msg(6), msg(5), msg(4), msg(3)), i.range(3, 7, 10));
+        assertEquals(Arrays.asList(msg(6), msg(5)), i.range(3, 7, 2));
+        assertTrue(i.range(7, 3, 10).isEmpty());
+        assertTrue(i.range(20, 30, 10).isEmpty());
+    }
+
+    @Test
+    public void sealTest() {
+        assertFalse(i.isSealed(1));
+        i.seal(1);
+        i.seal(3);
+        assertTrue(i.isSealed(1));
+        assertEquals(Arrays.asList(3L, 1L), i.sealedSegments(Long.MIN_VALUE, Long.MAX_VALUE));
+        assertEquals(Arrays.asList(1L), i.sealedSegments(SPAN, 3 * SPAN));
+        assertTrue(i.copy().isSealed(3));
+    }
+
+    @Test
+    public void archiveTest() throws SwiftException {
+        final Timeline timeline = new Timeline(4);
+        for (long d = 0; d < 10; d++)
+            timeline.add(txn, id, msg(d * SPAN / 2), null);
+
+        assertTrue(i.size() <= 4);
+        assertTrue(i.isSealed(0));
+        final TimelineCRDT segment = txn.get(NamingScheme.forTimelineSegment(id, 0), false, TimelineCRDT.class);
+        assertEquals(Arrays.asList(msg(SPAN / 2), msg(0)), segment.newest(10));
+
+        // messages dated in a sealed segment go to its archive
+        timeline.add(txn, id, msg(1), null);
+        assertTrue(segment.lookup(msg(1)));
+        assertFalse(i.lookup(msg(1)));
+
+        final List<Message> all = timeline.newest(txn, id, 100, null);
+        assertEquals(11, all.size());
+        assertEquals(msg(9 * SPAN / 2), all.get(0));
+        assertEquals(msg(0), all.get(10));
+        assertEquals(Arrays.asList(msg(9 * SPAN / 2), msg(4 * SPAN)), timeline.newest(txn, id, 2, null));
+        assertEquals(Arrays.asList(msg(SPAN / 2), msg(1)), timeline.range(txn, id, 1, SPAN, 10, null));
+    }
+
+    @Test
+    public void archiveKeepsCurrentSegmentTest() throws SwiftException {
+        final Timeline timeline = new Timeline(4);
+        for (long d = 0; d < 10; d++)
+            timeline.add(txn, id, msg(d), null);
+        // all in the segment of the newest message
+        assertEquals(10, i.size());
+        assertFalse(i.isSealed(0));
+
+        timeline.add(txn, id, msg(SPAN), null);
+        assertTrue(i.isSealed(0));
+        assertFalse(i.isSealed(1));
+        assertEquals(Arrays.asList(msg(SPAN)), i.newest(10));
+        assertEquals(11, timeline.newest(txn, id, 100, null).size());
+    }
+}
@@ -16,6 +16,7 @@
  *****************************************************************************/
 package swift.application.social;
 
+import java.util.Comparator;
 import java.util.Date;
 
 import com.esotericsoftware.kryo.Kryo;
@@ -25,6 +26,21 @@ import com.esotericsoftware.kryo.io.Output;
 
 public class Message implements Cloneable, java.io.Serializable, Comparable<Message>, KryoSerializable {
     private static final long serialVersionUID = 1L;
+
+    /**
+     * Orders messages from the newest, breaking ties by sender and text, so
+     * that it is consistent with {@link #equals(Object)}.
+     */
+    public static final Comparator<Message> NEWEST_FIRST = new Comparator<Message>() {
+        @Override
+        public int compare(Message a, Message b) {
+            if (a.date != b.date)
+                return a.date > b.date ? -1 : 1;
+            final int res = a.sender.compareTo(b.sender);
+            return res != 0 ? res : a.msg.compareTo(b.msg);
+        }
+    };
+
     private String msg;
     private String sender;
     private long date;
@@ -100,4 +100,15 @@ public class NamingScheme {
     public static CRDTIdentifier forViewsCounter(String loginName) {
         return new CRDTIdentifier("views", loginName);
     }
+
+    /**
+     * @param timeline
+     *            identifier of a timeline of messages or events
+     * @param segment
+     *            segment of time archived out of the timeline
+     * @return CRDT identifier for the archive of that segment
+     */
+    public static CRDTIdentifier forTimelineSegment(CRDTIdentifier timeline, long segment) {
+        return new CRDTIdentifier(timeline.getTable(), timeline.getKey() + "@" + segment);
+    }
 }
@@ -20,6 +20,11 @@ import swift.application.social.crdt.AddWinsMessageSetCRDT;
 import swift.application.social.crdt.AddWinsMessageSetUpdate;
 import swift.application.social.crdt.LWWUserRegisterCRDT;
 import swift.application.social.crdt.LWWUserRegisterUpdate;
+import swift.application.social.crdt.TimelineCRDT;
+import swift.application.social.crdt.TimelinePage;
+import swift.application.social.crdt.TimelineQuery;
+import swift.application.social.crdt.TimelineSealUpdate;
+import swift.application.social.crdt.TimelineUpdate;
 import sys.net.impl.KryoClassRegistry;
 
 
@@ -32,5 +37,10 @@ public class SocialClassRegistry extends KryoClassRegistry {
         reg.register(LWWUserRegisterUpdate.class);
         reg.register(AddWinsMessageSetCRDT.class);
         reg.register(AddWinsMessageSetUpdate.class);
+        reg.register(TimelineCRDT.class);
+        reg.register(TimelineUpdate.class);
+        reg.register(TimelineSealUpdate.class);
+        reg.register(TimelineQuery.class);
+        reg.register(TimelinePage.class);
     }
 }
@@ -72,6 +72,8 @@ public class SwiftSocialApp {
     protected int randomOps;
     protected int opGroups;
     protected boolean recordPageViews;
+    protected int timelinePageSize = SwiftSocialOps.DEFAULT_TIMELINE_PAGE_SIZE;
+    protected int timelineCapacity = SwiftSocialOps.DEFAULT_TIMELINE_CAPACITY;
 
     protected AtomicInteger commandsDone = new AtomicInteger(0);
     protected AtomicInteger totalCommands = new AtomicInteger(0);
@@ -104,6 +106,8 @@ public class SwiftSocialApp {
         recordPageViews = Props.boolValue(props, "swiftsocial.recordPageViews", false);
         thinkTime = Props.intValue(props, "swiftsocial.thinkTime", 1000);
         targetOpsPerSec = Props.intValue(props, "swiftsocial.targetOpsPerSec", -1);
+        timelinePageSize = Props.intValue(props, "swiftsocial.timelinePageSize", timelinePageSize);
+        timelineCapacity = Props.intValue(props, "swiftsocial.timelineCapacity", timelineCapacity);
         configBloatedCounters(props);
 
         Workload.generateUsers(numUsers);
@@ -123,7 +127,7 @@ public class SwiftSocialApp {
         final SwiftOptions options = new SwiftOptions(server, DCConstants.SURROGATE_PORT, props);
         SwiftSession swiftClient = SwiftImpl.newSingleSessionInstance(options, sessionId);
         SwiftSocialOps socialClient = new SwiftSocialOps(swiftClient, isolationLevel, cachePolicy, subscribeUpdates,
-                asyncCommit, bloatedCounters);
+                asyncCommit, bloatedCounters, timelinePageSize, timelineCapacity);
         return socialClient;
     }
 
@@ -236,7 +240,7 @@ public class SwiftSocialApp {
         try {
             SwiftSession swiftClient = SwiftImpl.newSingleSessionInstance(swiftOptions);
             SwiftSocialOps client = new SwiftSocialOps(swiftClient, isolationLevel, cachePolicy, subscribeUpdates,
-                    asyncCommit, bloatedCounters);
+                    asyncCommit, bloatedCounters, timelinePageSize, timelineCapacity);
 
             TxnHandle txn = swiftClient.beginTxn(IsolationLevel.SNAPSHOT_ISOLATION, CachePolicy.CACHED, false);
             int txnSize = 0;
@@ -23,8 +23,8 @@ import java.util.Map;
 import java.util.Set;
 import java.util.logging.Logger;
 
-import swift.application.social.crdt.AddWinsMessageSetCRDT;
 import swift.application.social.crdt.LWWUserRegisterCRDT;
+import swift.application.social.crdt.TimelineCRDT;
 import swift.crdt.AddWinsIdSetCRDT;
 import swift.crdt.AddWinsSetCRDT;
 import swift.crdt.BloatedIntegerCRDT;
@@ -50,6 +50,9 @@ import swift.utils.SafeLog.ReportType;
 public class SwiftSocialOps {
     private static Logger logger = Logger.getLogger("swift.social");
 
+    public static final int DEFAULT_TIMELINE_PAGE_SIZE = 20;
+    public static final int DEFAULT_TIMELINE_CAPACITY = 200;
+
     // FIXME Add sessions? Local login possible? Cookies?
     private User currentUser;
     private SwiftSession server;
@@ -58,15 +61,34 @@ public class SwiftSocialOps {
     private final ObjectUpdatesListener updatesSubscriber;
     private final boolean asyncCommit;
     private final boolean bloatedCounters;
+    private final int timelinePageSize;
+    private final Timeline timeline;
 
     public SwiftSocialOps(SwiftSession clientServer, IsolationLevel isolationLevel, CachePolicy cachePolicy,
             boolean subscribeUpdates, boolean asyncCommit, boolean bloatedCounters) {
+        this(clientServer, isolationLevel, cachePolicy, subscribeUpdates, asyncCommit, bloatedCounters,
+                DEFAULT_TIMELINE_PAGE_SIZE, DEFAULT_TIMELINE_CAPACITY);
+    }
+
+    /**
+     * @param timelinePageSize
+     *            number of the newest messages and events returned by
+     *            {@link #read(String, Collection, Collection, boolean)}
+     * @param timelineCapacity
+     *            number of messages kept in a timeline object before the
+     *            older ones are archived, see {@link Timeline}
+     */
+    public SwiftSocialOps(SwiftSession clientServer, IsolationLevel isolationLevel, CachePolicy cachePolicy,
+            boolean subscribeUpdates, boolean asyncCommit, boolean bloatedCounters, int timelinePageSize,
+            int timelineCapacity) {
         server = clientServer;
         this.isolationLevel = isolationLevel;
         this.cachePolicy = cachePolicy;
         this.updatesSubscriber = subscribeUpdates ? TxnHandle.UPDATES_SUBSCRIBER : null;
         this.asyncCommit = asyncCommit;
         this.bloatedCounters = bloatedCounters;
+        this.timelinePageSize = timelinePageSize;
+        this.timeline = new Timeline(timelineCapacity);
     }
 
     public SwiftSession getSwift() {
@@ -181,8 +203,8 @@ public class SwiftSocialOps {
         reg.set((User) newUser.copy());
 
         // Construct the associated sets with messages, friends etc.
-        txn.get(newUser.msgList, true, AddWinsMessageSetCRDT.class, null);
-        txn.get(newUser.eventList, true, AddWinsMessageSetCRDT.class, null);
+        txn.get(newUser.msgList, true, TimelineCRDT.class, null);
+        txn.get(newUser.eventList, true, TimelineCRDT.class, null);
         txn.get(newUser.friendList, true, AddWinsIdSetCRDT.class, null);
         txn.get(newUser.inFriendReq, true, AddWinsIdSetCRDT.class, null);
         txn.get(newUser.outFriendReq, true, AddWinsIdSetCRDT.class, null);
@@ -236,10 +258,13 @@ public class SwiftSocialOps {
             LWWUserRegisterCRDT reg = get(txn, NamingScheme.forUser(name), false, LWWUserRegisterCRDT.class);
             user = reg.getValue();
 
-            bulkGet(txn, user.msgList, user.eventList, user.viewsCounter);
+            if (updatesSubscriber != null) {
+                // subscribing to updates requires the timelines themselves
+                bulkGet(txn, user.msgList, user.eventList, user.viewsCounter);
+            }
 
-            msgs.addAll((get(txn, user.msgList, false, AddWinsMessageSetCRDT.class, updatesSubscriber)).getValue());
-            evnts.addAll((get(txn, user.eventList, false, AddWinsMessageSetCRDT.class, updatesSubscriber)).getValue());
+            msgs.addAll(timeline.newest(txn, user.msgList, timelinePageSize, updatesSubscriber));
+            evnts.addAll(timeline.newest(txn, user.eventList, timelinePageSize, updatesSubscriber));
             if (readPageViewsCounter) {
                 if (bloatedCounters) {
                     final BloatedIntegerCRDT pageViewsCounter = get(txn, user.viewsCounter, false,
@@ -457,8 +482,7 @@ public class SwiftSocialOps {
 
     private void writeMessage(TxnHandle txn, Message msg, CRDTIdentifier set, ObjectUpdatesListener listener)
             throws WrongTypeException, NoSuchObjectException, VersionNotFoundException, NetworkException {
-        AddWinsMessageSetCRDT messages = txn.get(set, false, AddWinsMessageSetCRDT.class, listener);
-        messages.add(msg);
+        timeline.add(txn, set, msg, listener);
     }
 
     private void commitTxn(final TxnHandle txn) {
@@ -0,0 +1,151 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package swift.application.social;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+
+import swift.application.social.crdt.TimelineCRDT;
+import swift.application.social.crdt.TimelinePage;
+import swift.application.social.crdt.TimelineQuery;
+import swift.crdt.core.CRDTIdentifier;
+import swift.crdt.core.ObjectUpdatesListener;
+import swift.crdt.core.TxnHandle;
+import swift.exceptions.NetworkException;
+import swift.exceptions.NoSuchObjectException;
+import swift.exceptions.VersionNotFoundException;
+import swift.exceptions.WrongTypeException;
+
+/**
+ * Time-ordered list of messages, kept as a bounded head object plus archived
+ * segments.
+ * <p>
+ * The head is a {@link TimelineCRDT} holding the newest messages. When it grows
+ * beyond its capacity, the messages of its oldest segments of time are moved
+ * to one object per segment ({@link NamingScheme#forTimelineSegment}) and the
+ * segments are sealed in the head; messages later dated in a sealed segment go
+ * straight to its object. The segment of the newest message is never sealed,
+ * so archived objects only receive late messages, and the head exceeds its
+ * capacity while the messages of a single segment do. Segments depend on dates only, so clients archiving
+ * concurrently converge to the same objects, and messages that reach the head
+ * of a sealed segment anyway are moved out by the next archiving.
+ * <p>
+ * Reads query the head, then the sealed segments from the newest, only as far
+ * as needed to fill the page. Queries are evaluated by the store when the
+ * object is not cached, so only the page is shipped to the client.
+ */
+public class Timeline {
+    private final int capacity;
+
+    /**
+     * @param capacity
+     *            maximum number of messages of the head, unless they are all
+     *            dated in the same segment; archiving leaves it half full
+     */
+    public Timeline(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public void add(TxnHandle txn, CRDTIdentifier id, Message msg, ObjectUpdatesListener listener)
+            throws WrongTypeException, NoSuchObjectException, VersionNotFoundException, NetworkException {
+        final TimelineCRDT head = txn.get(id, false, TimelineCRDT.class, listener);
+        final long segment = TimelineCRDT.segmentOf(msg.getDate());
+        if (head.isSealed(segment)) {
+            txn.get(NamingScheme.forTimelineSegment(id, segment), true, TimelineCRDT.class, null).add(msg);
+            return;
+        }
+        head.add(msg);
+        if (head.size() > capacity)
+            archive(txn, id, head);
+    }
+
+    private void archive(TxnHandle txn, CRDTIdentifier id, TimelineCRDT head) throws WrongTypeException,
+            NoSuchObjectException, VersionNotFoundException, NetworkException {
+        // the segment of the newest message is still being written to
+        final long current = TimelineCRDT.segmentOf(head.newest(1).get(0).getDate());
+        while (head.size() > capacity / 2) {
+            final long segment = TimelineCRDT.segmentOf(head.oldest().getDate());
+            if (segment >= current)
+                break;
+            final TimelineCRDT archive = txn.get(NamingScheme.forTimelineSegment(id, segment), true,
+                    TimelineCRDT.class, null);
+            head.seal(segment);
+            for (Message m : head.range(TimelineCRDT.startOf(segment), TimelineCRDT.startOf(segment + 1),
+                    Integer.MAX_VALUE)) {
+                archive.add(m);
+                head.remove(m);
+            }
+        }
+    }
+
+    /**
+     * @return the newest messages, from the newest
+     */
+    public List<Message> newest(TxnHandle txn, CRDTIdentifier id, int limit, ObjectUpdatesListener listener)
+            throws WrongTypeException, NoSuchObjectException, VersionNotFoundException, NetworkException {
+        return range(txn, id, Long.MIN_VALUE, Long.MAX_VALUE, limit, listener);
+    }
+
+    /**
+     * @return the newest messages dated in [from, to), from the newest
+     */
+    public List<Message> range(TxnHandle txn, CRDTIdentifier id, long from, long to, int limit,
+            ObjectUpdatesListener listener) throws WrongTypeException, NoSuchObjectException,
+            VersionNotFoundException, NetworkException {
+        if (limit <= 0)
+            return new ArrayList<Message>();
+        final TimelineQuery query = new TimelineQuery(from, to, limit);
+        final TimelinePage head = query(txn, id, query, listener);
+
+        final TreeSet<Message> res = new TreeSet<Message>(Message.NEWEST_FIRST);
+        res.addAll(head.getEntries());
+        for (long segment : head.getSegments()) {
+            // this segment and the following ones are older than a full page
+            if (res.size() >= limit && truncate(res, limit).getDate() >= TimelineCRDT.startOf(segment + 1))
+                break;
+            try {
+                res.addAll(query(txn, NamingScheme.forTimelineSegment(id, segment), query, null).getEntries());
+            } catch (NoSuchObjectException e) {
+                // the archiving transaction is not visible in full at weaker
+                // isolation levels
+            }
+        }
+        if (res.size() > limit)
+            truncate(res, limit);
+        return new ArrayList<Message>(res);
+    }
+
+    /**
+     * Keeps the first messages of a set, and returns the last one kept.
+     */
+    private static Message truncate(TreeSet<Message> messages, int limit) {
+        while (messages.size() > limit)
+            messages.pollLast();
+        return messages.last();
+    }
+
+    private static TimelinePage query(TxnHandle txn, CRDTIdentifier id, TimelineQuery query,
+            ObjectUpdatesListener listener) throws WrongTypeException, NoSuchObjectException,
+            VersionNotFoundException, NetworkException {
+        if (listener != null) {
+            // subscribing to updates requires the object itself
+            return query.executeAt(txn.get(id, false, TimelineCRDT.class, listener));
+        }
+        return (TimelinePage) txn.query(id, TimelineCRDT.class, query);
+    }
+}
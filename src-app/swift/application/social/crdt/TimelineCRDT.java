@@ -0,0 +1,196 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package swift.application.social.crdt;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import swift.application.social.Message;
+import swift.clocks.CausalityClock;
+import swift.clocks.TripleTimestamp;
+import swift.crdt.AbstractAddWinsSetCRDT;
+import swift.crdt.AddWinsSetUpdate;
+import swift.crdt.AddWinsUtils;
+import swift.crdt.core.CRDTIdentifier;
+import swift.crdt.core.TxnHandle;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoSerializable;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Add-wins set of {@link Message}s ordered by date, from the newest, which
+ * can be read a page at a time with {@link #range(long, long, int)}.
+ * <p>
+ * Time is divided in segments of {@link #SEGMENT_SPAN_MILLIS}. A segment can be
+ * sealed, to record that its messages were archived in a separate object; the
+ * set of sealed segments only grows, so concurrent seals commute.
+ */
+public class TimelineCRDT extends AbstractAddWinsSetCRDT<Message, TimelineCRDT> implements KryoSerializable {
+    public static final long SEGMENT_SPAN_MILLIS = 60 * 60 * 1000L;
+
+    protected NavigableMap<Message, Set<TripleTimestamp>> elemsInstances;
+    protected TreeSet<Long> sealed;
+
+    public TimelineCRDT() { /* Kryo */ }
+
+    public TimelineCRDT(CRDTIdentifier id) {
+        super(id);
+        createElementsInstances();
+        sealed = new TreeSet<Long>();
+    }
+
+    private TimelineCRDT(CRDTIdentifier id, final TxnHandle txn, final CausalityClock clock) {
+        super(id, txn, clock);
+        createElementsInstances();
+        sealed = new TreeSet<Long>();
+    }
+
+    /**
+     * @return the segment of time a message date belongs to
+     */
+    public static long segmentOf(long date) {
+        return Math.floorDiv(date, SEGMENT_SPAN_MILLIS);
+    }
+
+    /**
+     * @return the first date of a segment
+     */
+    public static long startOf(long segment) {
+        return segment * SEGMENT_SPAN_MILLIS;
+    }
+
+    @Override
+    protected void createElementsInstances() {
+        elemsInstances = new TreeMap<Message, Set<TripleTimestamp>>(Message.NEWEST_FIRST);
+    }
+
+    @Override
+    protected Map<Message, Set<TripleTimestamp>> getElementsInstances() {
+        return elemsInstances;
+    }
+
+    /**
+     * Returns the newest messages dated in [from, to), from the newest.
+     * 
+     * @param limit
+     *            maximum number of messages returned
+     * @return a new list, not backed by this object
+     */
+    public List<Message> range(long from, long to, int limit) {
+        final List<Message> res = new ArrayList<Message>();
+        if (to <= from)
+            return res;
+        // the probe sorts before any other message with the same date
+        final Message probe = new Message("", "", to - 1);
+        for (Message m : elemsInstances.tailMap(probe, true).keySet()) {
+            if (m.getDate() < from || res.size() >= limit)
+                break;
+            res.add(m);
+        }
+        return res;
+    }
+
+    /**
+     * @return the newest messages, from the newest
+     */
+    public List<Message> newest(int limit) {
+        return range(Long.MIN_VALUE, Long.MAX_VALUE, limit);
+    }
+
+    /**
+     * @return the oldest message, or null if the set is empty
+     */
+    public Message oldest() {
+        return elemsInstances.isEmpty() ? null : elemsInstances.lastKey();
+    }
+
+    public boolean isSealed(long segment) {
+        return sealed.contains(segment);
+    }
+
+    /**
+     * Seals a segment of time, once its messages are archived elsewhere.
+     */
+    public void seal(long segment) {
+        if (sealed.add(segment))
+            registerLocalOperation(new TimelineSealUpdate(segment));
+    }
+
+    protected void applySeal(long segment) {
+        sealed.add(segment);
+    }
+
+    /**
+     * @return sealed segments overlapping the dates in [from, to), from the
+     *         newest
+     */
+    public List<Long> sealedSegments(long from, long to) {
+        if (to <= from)
+            return new ArrayList<Long>();
+        return new ArrayList<Long>(sealed.subSet(segmentOf(from), true, segmentOf(to - 1), true).descendingSet());
+    }
+
+    @Override
+    public TimelineCRDT copy() {
+        TimelineCRDT copy = new TimelineCRDT(id, txn, clock);
+        AddWinsUtils.deepCopy(elemsInstances, copy.elemsInstances);
+        copy.sealed.addAll(sealed);
+        return copy;
+    }
+
+    @Override
+    protected AddWinsSetUpdate<Message, TimelineCRDT> generateUpdateDownstream(Message element, TripleTimestamp ts,
+            Set<TripleTimestamp> existingInstances) {
+        return new TimelineUpdate(element, ts, existingInstances);
+    }
+
+    @Override
+    public void write(Kryo kryo, Output output) {
+        super.write(kryo, output);
+        output.writeVarInt(sealed.size(), true);
+        for (long segment : sealed)
+            output.writeLong(segment);
+    }
+
+    @Override
+    public void read(Kryo kryo, Input input) {
+        super.read(kryo, input);
+        sealed = new TreeSet<Long>();
+        for (int i = input.readVarInt(true); i > 0; i--)
+            sealed.add(input.readLong());
+    }
+
+    @Override
+    protected void writeElement(Kryo kryo, Output output, Message element) {
+        element.write(kryo, output);
+    }
+
+    @Override
+    protected Message readElement(Kryo kryo, Input input) {
+        final Message element = new Message();
+        element.read(kryo, input);
+        return element;
+    }
+}
@@ -0,0 +1,54 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package swift.application.social.crdt;
+
+import java.util.List;
+
+import swift.application.social.Message;
+
+/**
+ * Result of a {@link TimelineQuery}.
+ */
+public class TimelinePage {
+    protected List<Message> entries;
+    protected List<Long> segments;
+
+    /**
+     * Fake constructor for Kryo serialization. Do NOT use.
+     */
+    TimelinePage() {
+    }
+
+    public TimelinePage(List<Message> entries, List<Long> segments) {
+        this.entries = entries;
+        this.segments = segments;
+    }
+
+    /**
+     * @return messages, from the newest
+     */
+    public List<Message> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return sealed segments, from the newest
+     */
+    public List<Long> getSegments() {
+        return segments;
+    }
+}
@@ -0,0 +1,46 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package swift.application.social.crdt;
+
+import swift.crdt.core.CRDTQuery;
+
+/**
+ * Reads a page of a {@link TimelineCRDT}: its newest messages dated in [from,
+ * to), and the sealed segments where older messages of that range may be.
+ */
+public class TimelineQuery implements CRDTQuery<TimelineCRDT> {
+    protected long from;
+    protected long to;
+    protected int limit;
+
+    /**
+     * Fake constructor for Kryo serialization. Do NOT use.
+     */
+    TimelineQuery() {
+    }
+
+    public TimelineQuery(long from, long to, int limit) {
+        this.from = from;
+        this.to = to;
+        this.limit = limit;
+    }
+
+    @Override
+    public TimelinePage executeAt(TimelineCRDT crdtVersion) {
+        return new TimelinePage(crdtVersion.range(from, to, limit), crdtVersion.sealedSegments(from, to));
+    }
+}
@@ -0,0 +1,57 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package swift.application.social.crdt;
+
+import swift.crdt.core.CRDTUpdate;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoSerializable;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Seals a segment of a {@link TimelineCRDT}.
+ */
+public class TimelineSealUpdate implements CRDTUpdate<TimelineCRDT>, KryoSerializable {
+    protected long segment;
+
+    public TimelineSealUpdate() { /* Kryo */ }
+
+    public TimelineSealUpdate(long segment) {
+        this.segment = segment;
+    }
+
+    @Override
+    public void applyTo(TimelineCRDT crdt) {
+        crdt.applySeal(segment);
+    }
+
+    @Override
+    public Object getValueWithoutMetadata() {
+        return segment;
+    }
+
+    @Override
+    public void write(Kryo kryo, Output output) {
+        output.writeLong(segment);
+    }
+
+    @Override
+    public void read(Kryo kryo, Input input) {
+        segment = input.readLong();
+    }
+}
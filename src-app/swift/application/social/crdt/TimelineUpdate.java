@@ -0,0 +1,48 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package swift.application.social.crdt;
+
+import java.util.Set;
+
+import swift.application.social.Message;
+import swift.clocks.TripleTimestamp;
+import swift.crdt.AddWinsSetUpdate;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoSerializable;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+public class TimelineUpdate extends AddWinsSetUpdate<Message, TimelineCRDT> implements KryoSerializable {
+
+    public TimelineUpdate() { /* Kryo */ }
+
+    public TimelineUpdate(Message val, TripleTimestamp newInstance, Set<TripleTimestamp> removedInstances) {
+        super(val, newInstance, removedInstances);
+    }
+
+    @Override
+    protected void writeElement(Kryo kryo, Output output) {
+        val.write(kryo, output);
+    }
+
+    @Override
+    protected void readElement(Kryo kryo, Input input) {
+        val = new Message();
+        val.read(kryo, input);
+    }
+}
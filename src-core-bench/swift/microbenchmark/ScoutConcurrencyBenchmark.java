@@ -0,0 +1,125 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package swift.microbenchmark;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import swift.client.SwiftImpl;
+import swift.client.SwiftOptions;
+import swift.crdt.IntegerCRDT;
+import swift.crdt.core.CRDTIdentifier;
+import swift.crdt.core.CachePolicy;
+import swift.crdt.core.IsolationLevel;
+import swift.crdt.core.SwiftScout;
+import swift.crdt.core.SwiftSession;
+import swift.crdt.core.TxnHandle;
+import swift.dc.DCConstants;
+import swift.dc.DCSequencerServer;
+import swift.dc.DCServer;
+import sys.Sys;
+
+/**
+ * Throughput of read-only cached transactions on a single multi-session scout,
+ * with 1 to 64 concurrent sessions. Starts a sequencer and a DC in-process.
+ * <p>
+ * Usage: ScoutConcurrencyBenchmark [objects] [reads per txn] [seconds per run]
+ */
+public class ScoutConcurrencyBenchmark {
+    private static final String TABLE_NAME = "BENCHMARK";
+    private static final int MAX_SESSIONS = 64;
+
+    public static void main(String[] args) throws Exception {
+        final int objects = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        final int readsPerTxn = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        final int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        DCSequencerServer.main(new String[] { "-name", "localhost" });
+        DCServer.main(new String[] { "localhost" });
+        Sys.getInstance();
+        // per-transaction INFO logs would dominate the measurement
+        Logger.getLogger("swift").setLevel(Level.WARNING);
+
+        final SwiftOptions options = new SwiftOptions("localhost", DCConstants.SURROGATE_PORT);
+        options.setConcurrentOpenTransactions(true);
+        options.setCacheSize(2 * objects);
+        final SwiftScout scout = SwiftImpl.newMultiSessionInstance(options);
+
+        // Create the objects and bring them to the cache.
+        final SwiftSession loader = scout.newSession("loader");
+        final TxnHandle init = loader.beginTxn(IsolationLevel.SNAPSHOT_ISOLATION, CachePolicy.CACHED, false);
+        for (int i = 0; i < objects; i++) {
+            init.get(id(i), true, IntegerCRDT.class).add(i);
+        }
+        init.commit();
+        final TxnHandle warmup = loader.beginTxn(IsolationLevel.SNAPSHOT_ISOLATION, CachePolicy.CACHED, true);
+        for (int i = 0; i < objects; i++) {
+            warmup.get(id(i), false, IntegerCRDT.class);
+        }
+        warmup.commit();
+
+        System.out.println("sessions,txns/s,reads/s");
+        for (int sessions = 1; sessions <= MAX_SESSIONS; sessions *= 2) {
+            final long txns = run(scout, sessions, objects, readsPerTxn, seconds);
+            System.out.printf("%d,%.0f,%.0f\n", sessions, (double) txns / seconds, (double) txns * readsPerTxn
+                    / seconds);
+        }
+        scout.stop(true);
+        System.exit(0);
+    }
+
+    private static CRDTIdentifier id(int i) {
+        return new CRDTIdentifier(TABLE_NAME, "" + i);
+    }
+
+    private static long run(final SwiftScout scout, final int sessions, final int objects, final int readsPerTxn,
+            final int seconds) throws InterruptedException {
+        final AtomicLong committed = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(sessions);
+        final long deadline = System.currentTimeMillis() + seconds * 1000L;
+        for (int s = 0; s < sessions; s++) {
+            final SwiftSession session = scout.newSession("session-" + sessions + "-" + s);
+            final Random random = new Random(s);
+            new Thread("session-" + s) {
+                public void run() {
+                    long count = 0;
+                    try {
+                        while (System.currentTimeMillis() < deadline) {
+                            final TxnHandle txn = session.beginTxn(IsolationLevel.SNAPSHOT_ISOLATION,
+                                    CachePolicy.CACHED, true);
+                            for (int i = 0; i < readsPerTxn; i++) {
+                                txn.get(id(random.nextInt(objects)), false, IntegerCRDT.class);
+                            }
+                            txn.commit();
+                            count++;
+                        }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    } finally {
+                        committed.addAndGet(count);
+                        done.countDown();
+                    }
+                }
+            }.start();
+        }
+        done.await();
+        return committed.get();
+    }
+}
@@ -0,0 +1,69 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package swift.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class CommitWindowTest {
+    private static final long MS = 1000 * 1000;
+
+    private void arrivals(CommitWindow window, int n, long intervalNanos) {
+        for (int i = 0; i < n; i++)
+            window.onQueued(i * intervalNanos);
+    }
+
+    @Test
+    public void testNoSamples() {
+        final CommitWindow window = new CommitWindow(4, 100);
+        assertEquals(1, window.targetBatchSize());
+        assertFalse(window.shouldSend(0, 0, false));
+        assertTrue(window.shouldSend(1, 0, false));
+        assertTrue(window.shouldSend(1, 3, false));
+        assertFalse(window.shouldSend(1, 4, false));
+    }
+
+    @Test
+    public void testBatchSizeFollowsRTT() {
+        final CommitWindow window = new CommitWindow(4, 100);
+        arrivals(window, 10, 1 * MS);
+        window.onReply(100 * MS);
+        // 100 transactions per round trip over 4 batches
+        assertEquals(25, window.targetBatchSize());
+        assertTrue(window.shouldSend(1, 0, false));
+        assertFalse(window.shouldSend(24, 1, false));
+        assertTrue(window.shouldSend(25, 1, false));
+        assertTrue(window.shouldSend(1, 1, true));
+        assertFalse(window.shouldSend(25, 4, true));
+
+        // link gets faster
+        for (int i = 0; i < 100; i++)
+            window.onReply(2 * MS);
+        assertEquals(1, window.targetBatchSize());
+    }
+
+    @Test
+    public void testMaxBatchSize() {
+        final CommitWindow window = new CommitWindow(1, 10);
+        arrivals(window, 10, 1 * MS);
+        window.onReply(1000 * MS);
+        assertEquals(10, window.targetBatchSize());
+    }
+}
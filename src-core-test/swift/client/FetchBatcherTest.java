@@ -0,0 +1,208 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package swift.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+import swift.clocks.CausalityClock;
+import swift.clocks.ClockFactory;
+import swift.clocks.Timestamp;
+import swift.crdt.core.CRDTIdentifier;
+import swift.proto.BatchFetchObjectVersionReply;
+import swift.proto.BatchFetchObjectVersionRequest;
+
+public class FetchBatcherTest {
+    // fetched with a version of its own, its reply is held until released
+    private static final CRDTIdentifier SLOW = new CRDTIdentifier("t", "slow");
+
+    private final List<BatchFetchObjectVersionRequest> sent = Collections
+            .synchronizedList(new ArrayList<BatchFetchObjectVersionRequest>());
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    private FetchBatcher createBatcher(int maxBatchSize, long lingerMillis, final boolean fail) {
+        return new FetchBatcher("scout", true, maxBatchSize, lingerMillis, new FetchBatcher.Transport() {
+            @Override
+            public BatchFetchObjectVersionReply fetch(BatchFetchObjectVersionRequest request, int timeoutMillis) {
+                if (request.getUid(0).equals(SLOW)) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                } else {
+                    sent.add(request);
+                }
+                return fail ? null : new BatchFetchObjectVersionReply(request.getBatchSize(), null, null);
+            }
+        });
+    }
+
+    /**
+     * Starts a fetch that stays in progress until released, so the next
+     * batches linger.
+     */
+    private Thread startSlowFetch(final FetchBatcher batcher) throws InterruptedException {
+        final Thread t = new Thread() {
+            public void run() {
+                try {
+                    batcher.fetch(SLOW, null, clock(100), true, false, false, 1000);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        t.start();
+        while (t.isAlive() && (batcher.openBatches() > 0 || t.getState() != Thread.State.WAITING)) {
+            Thread.sleep(1);
+        }
+        return t;
+    }
+
+    private CRDTIdentifier id(int i) {
+        return new CRDTIdentifier("t", "" + i);
+    }
+
+    private CausalityClock clock(long counter) {
+        final CausalityClock c = ClockFactory.newClock();
+        c.record(new Timestamp("dc", counter));
+        return c;
+    }
+
+    /**
+     * Runs one fetch per id in its own thread, and returns the results in the
+     * order of ids.
+     */
+    private FetchBatcher.Result[] fetchAll(final FetchBatcher batcher, final CausalityClock[] versions,
+            final CausalityClock[] knownVersions) throws InterruptedException {
+        final FetchBatcher.Result[] results = new FetchBatcher.Result[versions.length];
+        final List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < versions.length; i++) {
+            final int k = i;
+            threads.add(new Thread() {
+                public void run() {
+                    try {
+                        results[k] = batcher.fetch(id(k), knownVersions[k], versions[k], true, false, false, 1000);
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+        }
+        for (Thread t : threads)
+            t.start();
+        for (Thread t : threads)
+            t.join();
+        return results;
+    }
+
+    @Test
+    public void testAloneSendsImmediately() throws InterruptedException {
+        final FetchBatcher batcher = createBatcher(64, 10000, false);
+        final long start = System.currentTimeMillis();
+        final FetchBatcher.Result result = batcher.fetch(id(1), null, clock(1), true, false, false, 1000);
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        assertEquals(1, sent.size());
+        assertEquals(0, result.index);
+    }
+
+    @Test
+    public void testConcurrentFetchesShareRequest() throws InterruptedException {
+        final FetchBatcher batcher = createBatcher(64, 500, false);
+        final Thread slow = startSlowFetch(batcher);
+        final CausalityClock[] versions = new CausalityClock[10];
+        final CausalityClock[] knownVersions = new CausalityClock[10];
+        for (int i = 0; i < versions.length; i++) {
+            versions[i] = clock(5);
+            knownVersions[i] = i % 2 == 0 ? null : clock(i + 1);
+        }
+        final FetchBatcher.Result[] results = fetchAll(batcher, versions, knownVersions);
+        release.countDown();
+        slow.join();
+
+        assertEquals(1, sent.size());
+        assertEquals(10, sent.get(0).getBatchSize());
+        for (int i = 0; i < results.length; i++) {
+            assertTrue(results[i].request == sent.get(0));
+            assertEquals(id(i), results[i].request.getUid(results[i].index));
+            // every object keeps its own known version
+            assertTrue(knownVersions[i] == results[i].request.getKnownVersion(results[i].index));
+        }
+        assertEquals(0, batcher.openBatches());
+    }
+
+    @Test
+    public void testMaxBatchSizeAndVersions() throws InterruptedException {
+        final FetchBatcher batcher = createBatcher(4, 500, false);
+        final Thread slow = startSlowFetch(batcher);
+        final CausalityClock[] versions = new CausalityClock[12];
+        for (int i = 0; i < versions.length; i++)
+            versions[i] = clock(1 + i % 2);
+        final FetchBatcher.Result[] results = fetchAll(batcher, versions, new CausalityClock[12]);
+        release.countDown();
+        slow.join();
+
+        int uids = 0;
+        for (BatchFetchObjectVersionRequest request : sent) {
+            assertTrue(request.getBatchSize() <= 4);
+            uids += request.getBatchSize();
+        }
+        assertEquals(12, uids);
+        for (int i = 0; i < results.length; i++) {
+            assertEquals(id(i), results[i].request.getUid(results[i].index));
+            assertEquals(CausalityClock.CMP_CLOCK.CMP_EQUALS, results[i].request.getVersion().compareTo(versions[i]));
+        }
+    }
+
+    @Test
+    public void testSameObjectAndFailure() throws InterruptedException {
+        final FetchBatcher batcher = createBatcher(64, 0, true);
+        assertNull(batcher.fetch(id(1), null, clock(1), true, false, false, 1000));
+
+        final FetchBatcher ok = createBatcher(64, 200, false);
+        final Thread slow = startSlowFetch(ok);
+        final FetchBatcher.Result[] results = new FetchBatcher.Result[2];
+        final Thread t = new Thread() {
+            public void run() {
+                try {
+                    results[0] = ok.fetch(id(1), clock(1), clock(1), true, false, false, 1000);
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        t.start();
+        results[1] = ok.fetch(id(1), clock(2), clock(1), true, false, false, 1000);
+        t.join();
+        release.countDown();
+        slow.join();
+        assertEquals(2, sent.size());
+        assertEquals(1, sent.get(1).getBatchSize());
+        assertEquals(0, results[0].index);
+        assertEquals(0, results[1].index);
+        // fetched in full, as the known versions differ
+        assertNull(sent.get(1).getKnownVersion(0));
+    }
+}
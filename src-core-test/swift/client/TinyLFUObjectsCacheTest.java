@@ -0,0 +1,217 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package swift.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import swift.client.ObjectsCache.EvictionListener;
+import swift.clocks.CausalityClock;
+import swift.clocks.ClockFactory;
+import swift.clocks.Timestamp;
+import swift.crdt.IntegerCRDT;
+import swift.crdt.core.CRDTIdentifier;
+import swift.crdt.core.ManagedCRDT;
+import swift.proto.MetadataStatsCollector;
+import swift.utils.DatabaseSizeStats;
+
+public class TinyLFUObjectsCacheTest {
+    private DatabaseSizeStats sizeStats;
+    private Set<CRDTIdentifier> evicted;
+
+    @Before
+    public void setUp() {
+        sizeStats = new DatabaseSizeStats(new MetadataStatsCollector("test"));
+        sizeStats.init(new Properties());
+        evicted = new HashSet<CRDTIdentifier>();
+    }
+
+    private TinyLFUObjectsCache createCache(int maxElements, long maxBytes) {
+        final TinyLFUObjectsCache cache = new TinyLFUObjectsCache(60 * 1000, maxElements, maxBytes, sizeStats);
+        cache.setEvictionListener(new EvictionListener() {
+            @Override
+            public void onEviction(CRDTIdentifier id) {
+                evicted.add(id);
+            }
+        });
+        return cache;
+    }
+
+    private static ManagedCRDT<IntegerCRDT> object(int i) {
+        final CRDTIdentifier id = new CRDTIdentifier("t", "" + i);
+        return new ManagedCRDT<IntegerCRDT>(id, new IntegerCRDT(id), ClockFactory.newClock(), true);
+    }
+
+    @Test
+    public void testSizeBound() {
+        final TinyLFUObjectsCache cache = createCache(100, 0);
+        for (int i = 0; i < 300; i++) {
+            final ManagedCRDT<IntegerCRDT> object = object(i);
+            cache.add(object, -1);
+            assertNotNull(cache.getAndTouch(object.getUID()));
+        }
+        assertEquals(100, cache.size());
+        assertEquals(200, evicted.size());
+        for (final CRDTIdentifier id : evicted) {
+            assertNull(cache.getWithoutTouch(id));
+        }
+    }
+
+    @Test
+    public void testScanResistance() {
+        final TinyLFUObjectsCache cache = createCache(100, 0);
+        for (int i = 0; i < 50; i++) {
+            cache.add(object(i), -1);
+        }
+        for (int round = 0; round < 20; round++) {
+            for (int i = 0; i < 50; i++) {
+                cache.getAndTouch(object(i).getUID());
+            }
+        }
+        for (int i = 1000; i < 2000; i++) {
+            cache.add(object(i), -1);
+        }
+        int hits = 0;
+        for (int i = 0; i < 50; i++) {
+            if (cache.getWithoutTouch(object(i).getUID()) != null) {
+                hits++;
+            }
+        }
+        assertTrue("frequently used objects flushed by a scan: " + hits, hits >= 45);
+        assertEquals(100, cache.size());
+    }
+
+    @Test
+    public void testProtection() {
+        final TinyLFUObjectsCache cache = createCache(10, 0);
+        for (int i = 0; i < 5; i++) {
+            cache.add(object(i), 1);
+        }
+        for (int i = 100; i < 200; i++) {
+            cache.add(object(i), -1);
+        }
+        for (int i = 0; i < 5; i++) {
+            assertNotNull(cache.getWithoutTouch(object(i).getUID()));
+        }
+        cache.removeProtection(1);
+        for (int i = 200; i < 300; i++) {
+            cache.add(object(i), -1);
+        }
+        assertEquals(10, cache.size());
+    }
+
+    @Test
+    public void testEvictAll() {
+        final TinyLFUObjectsCache cache = createCache(10, 0);
+        for (int i = 0; i < 5; i++) {
+            cache.add(object(i), i < 2 ? 1 : -1);
+        }
+        cache.evictAll();
+        // including the protected ones
+        assertEquals(0, cache.size());
+        assertEquals(5, evicted.size());
+        for (int i = 0; i < 5; i++) {
+            assertNull(cache.getWithoutTouch(object(i).getUID()));
+        }
+        cache.add(object(0), -1);
+        assertNotNull(cache.getAndTouch(object(0).getUID()));
+    }
+
+    @Test
+    public void testBytesBound() {
+        // identifiers of the same length, hence objects of the same size
+        final int objectSize = sizeStats.sizeOf(object(10));
+        final TinyLFUObjectsCache cache = createCache(1000, 10 * objectSize);
+        for (int i = 10; i < 60; i++) {
+            cache.add(object(i), -1);
+        }
+        assertEquals(10, cache.size());
+        assertEquals(40, evicted.size());
+    }
+
+    @Test
+    public void testLazyClockAugmentation() {
+        final TinyLFUObjectsCache cache = createCache(100, 0);
+        final ManagedCRDT<IntegerCRDT> a = object(1);
+        cache.add(a, -1);
+
+        final CausalityClock dcClock = ClockFactory.newClock();
+        dcClock.record(new Timestamp("dc", 1));
+        cache.augmentAllWithDCCausalClockWithoutMappings(dcClock);
+        final ManagedCRDT<IntegerCRDT> b = object(2);
+        cache.add(b, -1);
+        // applied on access only, and not to objects added later
+        assertFalse(a.getClock().includes(new Timestamp("dc", 1)));
+        assertTrue(cache.getWithoutTouch(a.getUID()).getClock().includes(new Timestamp("dc", 1)));
+        assertFalse(cache.getWithoutTouch(b.getUID()).getClock().includes(new Timestamp("dc", 1)));
+
+        // beyond the log bound, all objects are caught up
+        for (int i = 1; i <= 2 * CacheClockLog.MAX_PENDING; i++) {
+            cache.augmentAllWithScoutTimestampWithoutMappings(new Timestamp("scout", i));
+        }
+        for (int i = 1; i < CacheClockLog.MAX_PENDING; i++) {
+            assertTrue(a.getClock().includes(new Timestamp("scout", i)));
+        }
+        for (int i = 1; i <= 2 * CacheClockLog.MAX_PENDING; i++) {
+            assertTrue(cache.getAndTouch(a.getUID()).getClock().includes(new Timestamp("scout", i)));
+            assertTrue(cache.getAndTouch(b.getUID()).getClock().includes(new Timestamp("scout", i)));
+        }
+    }
+
+    @Test
+    public void testConcurrentClockAugmentation() throws InterruptedException {
+        final TinyLFUObjectsCache cache = createCache(100, 0);
+        for (int i = 0; i < 50; i++) {
+            cache.add(object(i), -1);
+        }
+        final int threads = 4, n = 10 * CacheClockLog.MAX_PENDING;
+        final Thread[] augmenters = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final String scout = "scout" + t;
+            augmenters[t] = new Thread() {
+                public void run() {
+                    for (int i = 1; i <= n; i++) {
+                        cache.augmentAllWithScoutTimestampWithoutMappings(new Timestamp(scout, i));
+                    }
+                }
+            };
+            augmenters[t].start();
+        }
+        for (final Thread t : augmenters) {
+            t.join();
+        }
+        // no augmentation is lost when the log is truncated concurrently
+        for (int i = 0; i < 50; i++) {
+            final CausalityClock clock = cache.getWithoutTouch(object(i).getUID()).getClock();
+            for (int t = 0; t < threads; t++) {
+                for (int j = 1; j <= n; j++) {
+                    assertTrue(clock.includes(new Timestamp("scout" + t, j)));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package swift.clocks;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Random;
+
+import org.junit.Test;
+
+import sys.net.impl.KryoLib;
+
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+public class PackedVersionVectorWithExceptionsTest {
+    private static final String[] SITES = { "a", "b", "c", "d" };
+
+    private static Timestamp ts(Random rg) {
+        return new Timestamp(SITES[rg.nextInt(SITES.length)], 1 + rg.nextInt(20));
+    }
+
+    // applies the same random operation to both clocks
+    private static void randomOp(Random rg, CausalityClock packed, CausalityClock linked) {
+        final Timestamp t = ts(rg);
+        switch (rg.nextInt(10)) {
+        case 0:
+            packed.drop(t);
+            linked.drop(t);
+            break;
+        case 1:
+            packed.recordAllUntil(t);
+            linked.recordAllUntil(t);
+            break;
+        case 2:
+            if (rg.nextInt(4) == 0) {
+                packed.drop(t.getIdentifier());
+                linked.drop(t.getIdentifier());
+            }
+            break;
+        default:
+            assertEquals(linked.record(t), packed.record(t));
+        }
+    }
+
+    private static void assertSame(CausalityClock linked, PackedVersionVectorWithExceptions packed) {
+        assertEquals(linked.toString(), packed.toString());
+        assertEquals(linked.getSize(), packed.getSize());
+        assertEquals(linked.getExceptionsNumber(), packed.getExceptionsNumber());
+        assertEquals(linked.getSiteIds(), packed.getSiteIds());
+        for (final String site : SITES) {
+            assertEquals(linked.getLatestCounter(site), packed.getLatestCounter(site));
+            for (int i = 1; i <= 21; i++) {
+                final Timestamp t = new Timestamp(site, i);
+                assertEquals(linked.includes(t), packed.includes(t));
+            }
+        }
+    }
+
+    @Test
+    public void testEquivalence() {
+        final Random rg = new Random(1);
+        for (int round = 0; round < 200; round++) {
+            final PackedVersionVectorWithExceptions p1 = new PackedVersionVectorWithExceptions();
+            final PackedVersionVectorWithExceptions p2 = new PackedVersionVectorWithExceptions();
+            final VersionVectorWithExceptions v1 = new VersionVectorWithExceptions();
+            final VersionVectorWithExceptions v2 = new VersionVectorWithExceptions();
+            for (int i = 0; i < 30; i++) {
+                randomOp(rg, p1, v1);
+                randomOp(rg, p2, v2);
+            }
+            assertSame(v1, p1);
+            assertEquals(v1.compareTo(v2), p1.compareTo(p2));
+            assertEquals(v2.compareTo(v1), p2.compareTo(p1));
+
+            final PackedVersionVectorWithExceptions m = p1.clone();
+            final VersionVectorWithExceptions vm = new VersionVectorWithExceptions(v1);
+            assertEquals(vm.merge(v2), m.merge(p2));
+            assertSame(vm, m);
+            final PackedVersionVectorWithExceptions x = p1.clone();
+            final VersionVectorWithExceptions vx = new VersionVectorWithExceptions(v1);
+            assertEquals(vx.intersect(v2), x.intersect(p2));
+            assertSame(vx, x);
+            x.trim();
+            vx.trim();
+            assertSame(vx, x);
+            // the originals were not affected by modifying their clones
+            assertSame(v1, p1);
+        }
+    }
+
+    @Test
+    public void testCopyOnWrite() {
+        final PackedVersionVectorWithExceptions c = new PackedVersionVectorWithExceptions();
+        c.recordAllUntil(new Timestamp("a", 5));
+        final PackedVersionVectorWithExceptions copy = c.clone();
+        copy.record(new Timestamp("a", 6));
+        c.record(new Timestamp("b", 1));
+        assertFalse(c.includes(new Timestamp("a", 6)));
+        assertFalse(copy.includes(new Timestamp("b", 1)));
+        assertEquals(CausalityClock.CMP_CLOCK.CMP_CONCURRENT, c.compareTo(copy));
+    }
+
+    @Test
+    public void testSerializationCompatibility() {
+        final PackedVersionVectorWithExceptions p = new PackedVersionVectorWithExceptions();
+        p.recordAllUntil(new Timestamp("a", 10));
+        p.record(new Timestamp("b", 3));
+        p.record(new Timestamp("b", 7));
+
+        final Output out = new Output(1 << 10);
+        p.write(KryoLib.kryo(), out);
+        final VersionVectorWithExceptions v = new VersionVectorWithExceptions();
+        v.read(KryoLib.kryo(), new Input(out.getBuffer(), 0, out.position()));
+        assertEquals(p.toString(), v.toString());
+
+        final Output out2 = new Output(1 << 10);
+        v.write(KryoLib.kryo(), out2);
+        assertTrue(out2.position() == out.position());
+        final PackedVersionVectorWithExceptions p2 = new PackedVersionVectorWithExceptions();
+        p2.read(KryoLib.kryo(), new Input(out2.getBuffer(), 0, out2.position()));
+        assertEquals(p, p2);
+    }
+
+    @Test
+    public void testUnusedSitesReclaimed() throws Exception {
+        // interning many transient sites does not grow the indices
+        int maxIndex = 0;
+        for (int i = 0; i < 10000; i++) {
+            final PackedVersionVectorWithExceptions c = new PackedVersionVectorWithExceptions();
+            c.record(new Timestamp("transient-" + i, 1));
+            maxIndex = Math.max(maxIndex, PackedVersionVectorWithExceptions.internSite("transient-" + i).index);
+            if (i % 1000 == 0) {
+                System.gc();
+            }
+        }
+        assertTrue(maxIndex < 10000);
+
+        // sites in use are never reclaimed
+        final PackedVersionVectorWithExceptions c = new PackedVersionVectorWithExceptions();
+        c.record(new Timestamp("kept", 1));
+        System.gc();
+        for (int i = 0; i < 1000; i++) {
+            PackedVersionVectorWithExceptions.internSite("other-" + i);
+        }
+        assertTrue(c.includes(new Timestamp("kept", 1)));
+        assertEquals(1, c.getLatestCounter("kept"));
+    }
+
+    @Test
+    public void testJavaSerialization() throws Exception {
+        final PackedVersionVectorWithExceptions p = new PackedVersionVectorWithExceptions();
+        p.recordAllUntil(new Timestamp("a", 10));
+        p.record(new Timestamp("b", 3));
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(p);
+        out.close();
+        final PackedVersionVectorWithExceptions p2 = (PackedVersionVectorWithExceptions) new ObjectInputStream(
+                new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        assertEquals(p, p2);
+        p2.record(new Timestamp("b", 4));
+        final PackedVersionVectorWithExceptions copy = p2.clone();
+        copy.record(new Timestamp("c", 1));
+        assertTrue(p2.includes(new Timestamp("b", 4)));
+        assertFalse(p2.includes(new Timestamp("c", 1)));
+    }
+}
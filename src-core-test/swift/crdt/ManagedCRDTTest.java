@@ -48,6 +48,7 @@ import swift.crdt.core.CRDT;
 import swift.crdt.core.CRDTIdentifier;
 import swift.crdt.core.CRDTObjectUpdatesGroup;
 import swift.crdt.core.CRDTOperationDependencyPolicy;
+import swift.crdt.core.CRDTQuery;
 import swift.crdt.core.CRDTUpdate;
 import swift.crdt.core.ManagedCRDT;
 import swift.crdt.core.ObjectUpdatesListener;
@@ -492,6 +493,13 @@ public class ManagedCRDTTest {
                 return null;
             }
 
+            @Override
+            public <V extends CRDT<V>> Object query(CRDTIdentifier id, Class<V> classOfV, CRDTQuery<V> query)
+                    throws WrongTypeException, NoSuchObjectException, VersionNotFoundException, NetworkException {
+                fail();
+                return null;
+            }
+
             @Override
             public void commitAsync(CommitListener listener) {
                 fail();
@@ -551,4 +559,134 @@ public class ManagedCRDTTest {
                 .getUpdatesTimestampMappingsSince(noVersioningClock).get(0));
         assertTrue(copy.isRegisteredInStore());
     }
+
+    @Test
+    public void testLatestVersionMaterialization() {
+        final CRDTObjectUpdatesGroup<AddWinsSetCRDT<Integer>> groupX1 = createUpdatesGroup("X",
+                ClockFactory.newClock(), 1);
+        a.execute(groupX1, CRDTOperationDependencyPolicy.CHECK);
+        final CausalityClock c1 = a.getClock().clone();
+        assertEquals(Collections.singleton(1), a.getLatestVersion(null).getValue());
+
+        // the materialized state is advanced, and versions do not share it
+        final AddWinsSetCRDT<Integer> version = a.getLatestVersion(null);
+        a.execute(createUpdatesGroup("Y", ClockFactory.newClock(), 2), CRDTOperationDependencyPolicy.CHECK);
+        assertEquals(Collections.singleton(1), version.getValue());
+        assertEquals(new HashSet<Integer>(Arrays.asList(1, 2)), a.getLatestVersion(null).getValue());
+        assertEquals(Collections.singleton(1), a.getVersion(c1, null).getValue());
+
+        // updates no longer included in the clock are not in the latest version
+        a.discardScoutClock("Y");
+        assertEquals(Collections.singleton(1), a.getLatestVersion(null).getValue());
+
+        b.execute(createUpdatesGroup("Z", ClockFactory.newClock(), 3), CRDTOperationDependencyPolicy.CHECK);
+        a.merge(b);
+        assertEquals(new HashSet<Integer>(Arrays.asList(1, 3)), a.getVersion(a.getClock(), null).getValue());
+    }
+
+    @Test
+    public void testExecuteQuery() {
+        a.execute(createUpdatesGroup("X", ClockFactory.newClock(), 1), CRDTOperationDependencyPolicy.CHECK);
+        final CausalityClock c1 = a.getClock().clone();
+        a.execute(createUpdatesGroup("Y", ClockFactory.newClock(), 2), CRDTOperationDependencyPolicy.CHECK);
+
+        final SetValueQuery<Integer, AddWinsSetCRDT<Integer>> value = new SetValueQuery<Integer, AddWinsSetCRDT<Integer>>();
+        assertEquals(Collections.singleton(1), a.executeQuery(c1, value));
+        assertEquals(false, a.executeQuery(c1, new SetLookupQuery<Integer, AddWinsSetCRDT<Integer>>(2)));
+
+        // on the materialized latest state, the result does not share it
+        a.getLatestVersion(null);
+        final Object result = a.executeQuery(a.getClock(), value);
+        assertEquals(new HashSet<Integer>(Arrays.asList(1, 2)), result);
+        a.execute(createUpdatesGroup("Z", ClockFactory.newClock(), 3), CRDTOperationDependencyPolicy.CHECK);
+        assertEquals(new HashSet<Integer>(Arrays.asList(1, 2)), result);
+        assertEquals(true, a.executeQuery(a.getClock(), new SetLookupQuery<Integer, AddWinsSetCRDT<Integer>>(3)));
+        assertEquals(Collections.singleton(1), a.executeQuery(c1, value));
+    }
+
+    @Test
+    public void testConcurrentReads() throws InterruptedException {
+        a.execute(createUpdatesGroup("X", ClockFactory.newClock(), 1), CRDTOperationDependencyPolicy.CHECK);
+        final CausalityClock c1 = a.getClock().clone();
+        a.execute(createUpdatesGroup("Y", ClockFactory.newClock(), 2), CRDTOperationDependencyPolicy.CHECK);
+        final CausalityClock c2 = a.getClock().clone();
+
+        // readers only exclude updates, so they may materialize versions
+        // concurrently
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final Thread[] readers = new Thread[4];
+        for (int i = 0; i < readers.length; i++) {
+            readers[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < 1000; j++) {
+                            assertEquals(Collections.singleton(1), a.getVersion(c1, null).getValue());
+                            assertEquals(new HashSet<Integer>(Arrays.asList(1, 2)), a.getVersion(c2, null)
+                                    .getValue());
+                            assertEquals(Collections.singleton(1),
+                                    a.executeQuery(c1, new SetValueQuery<Integer, AddWinsSetCRDT<Integer>>()));
+                        }
+                    } catch (Throwable t) {
+                        failure.compareAndSet(null, t);
+                    }
+                }
+            };
+            readers[i].start();
+        }
+        for (final Thread reader : readers) {
+            reader.join();
+        }
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+    }
+
+    @Test
+    public void testLogAccounting() {
+        a.execute(createUpdatesGroup("X", ClockFactory.newClock(), 1, 2), CRDTOperationDependencyPolicy.CHECK);
+        final CausalityClock c1 = a.getClock().clone();
+        a.execute(createUpdatesGroup("Y", ClockFactory.newClock(), 3), CRDTOperationDependencyPolicy.CHECK);
+        assertEquals(2, a.getLogLength());
+        assertEquals(3, a.getLogOperations());
+
+        assertEquals(2, a.prune(c1, true));
+        assertEquals(1, a.getLogLength());
+        assertEquals(1, a.getLogOperations());
+
+        b.execute(createUpdatesGroup("Z", ClockFactory.newClock(), 4, 5), CRDTOperationDependencyPolicy.CHECK);
+        a.merge(b);
+        assertEquals(a.getLogLength(), a.getInternalLog().size());
+        assertEquals(3, a.getLogOperations());
+    }
+    @Test
+    public void testDeltaSince() {
+        final CRDTObjectUpdatesGroup<AddWinsSetCRDT<Integer>> groupX1 = createUpdatesGroup("X",
+                ClockFactory.newClock(), 1);
+        groupX1.addSystemTimestamp(new Timestamp("DC", 1));
+        a.execute(groupX1, CRDTOperationDependencyPolicy.CHECK);
+        b.execute(groupX1, CRDTOperationDependencyPolicy.CHECK);
+        a.execute(createUpdatesGroup("Y", ClockFactory.newClock(), 2), CRDTOperationDependencyPolicy.CHECK);
+        a.execute(createUpdatesGroup("Z", ClockFactory.newClock(), 3), CRDTOperationDependencyPolicy.CHECK);
+
+        final ManagedCRDT<AddWinsSetCRDT<Integer>> delta = a.copyDeltaSince(b.getClock());
+        assertTrue(delta.isDelta());
+        assertFalse(a.isDelta());
+        assertEquals(2, delta.getUpdatesTimestampMappingsSince(b.getClock()).size());
+
+        // a replica missing the base version cannot use it
+        final ManagedCRDT<AddWinsSetCRDT<Integer>> c = new ManagedCRDT<AddWinsSetCRDT<Integer>>(ID,
+                new AddWinsSetCRDT<Integer>(ID), initClock.clone(), true);
+        assertFalse(c.applyDelta(delta));
+        assertEquals(CMP_CLOCK.CMP_EQUALS, initClock.compareTo(c.getClock()));
+
+        assertTrue(b.applyDelta(delta));
+        assertEquals(CMP_CLOCK.CMP_EQUALS, a.getClock().compareTo(b.getClock()));
+        assertEquals(new HashSet<Integer>(Arrays.asList(1, 2, 3)), b.getLatestVersion(null).getValue());
+        assertEquals(3, b.getLogLength());
+
+        // updates pruned into the checkpoint cannot be shipped as a delta
+        a.prune(b.getClock().clone(), true);
+        assertTrue(a.copyDeltaSince(initClock) == null);
+        assertEquals(0, a.copyDeltaSince(b.getClock()).getLogLength());
+    }
 }
@@ -36,6 +36,7 @@ import swift.crdt.core.CRDT;
 import swift.crdt.core.CRDTIdentifier;
 import swift.crdt.core.CRDTObjectUpdatesGroup;
 import swift.crdt.core.CRDTOperationDependencyPolicy;
+import swift.crdt.core.CRDTQuery;
 import swift.crdt.core.CRDTUpdate;
 import swift.crdt.core.ManagedCRDT;
 import swift.crdt.core.ObjectUpdatesListener;
@@ -122,6 +123,31 @@ public class TxnTester implements TxnHandle {
         }
     }
 
+    @SuppressWarnings("unchecked")
+    @Override
+    public <V extends CRDT<V>> Object query(CRDTIdentifier id, Class<V> classOfV, CRDTQuery<V> query)
+            throws WrongTypeException, NoSuchObjectException {
+        try {
+            CRDT<?> cached = versions.get(id);
+            if (cached == null) {
+                // evaluated in place, as a store would
+                return getOrCreateVersionedCRDT(id, classOfV, false).executeQuery(getClock(), query);
+            } else {
+                return query.executeAt((V) cached);
+            }
+        } catch (ClassCastException x) {
+            throw new WrongTypeException(x.toString());
+        } catch (InstantiationException e) {
+            throw new WrongTypeException(e.toString());
+        } catch (IllegalAccessException e) {
+            throw new WrongTypeException(e.toString());
+        } catch (NoSuchMethodException e) {
+            throw new WrongTypeException(e.toString());
+        } catch (InvocationTargetException e) {
+            throw new RuntimeException(e.toString());
+        }
+    }
+
     protected <V extends CRDT<V>> ManagedCRDT<V> getOrCreateVersionedCRDT(CRDTIdentifier id, Class<V> classOfV,
             boolean create) throws InstantiationException, IllegalAccessException, InvocationTargetException,
             NoSuchMethodException, NoSuchObjectException {
@@ -0,0 +1,257 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package swift.dc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import swift.clocks.CausalityClock;
+import swift.clocks.ClockFactory;
+import swift.clocks.Timestamp;
+import swift.clocks.TimestampMapping;
+import swift.crdt.IntegerCRDT;
+import swift.crdt.IntegerUpdate;
+import swift.crdt.core.CRDTIdentifier;
+import swift.crdt.core.CRDTObjectUpdatesGroup;
+import swift.crdt.core.ManagedCRDT;
+import swift.proto.BatchCommitUpdatesReply;
+import swift.proto.BatchCommitUpdatesRequest;
+import swift.proto.BatchFetchObjectVersionReply;
+import swift.proto.BatchFetchObjectVersionReply.FetchStatus;
+import swift.proto.BatchFetchObjectVersionRequest;
+import swift.proto.CommitTSReply;
+import swift.proto.CommitTSRequest;
+import swift.proto.CommitUpdatesReply;
+import swift.proto.CommitUpdatesReply.CommitStatus;
+import swift.proto.CommitUpdatesRequest;
+import swift.proto.GenerateDCTimestampBatchReply;
+import swift.proto.GenerateDCTimestampBatchRequest;
+import swift.proto.GenerateDCTimestampReply;
+import swift.proto.GenerateDCTimestampRequest;
+import swift.proto.LatestKnownClockReply;
+import swift.proto.LatestKnownClockRequest;
+import sys.net.api.Endpoint;
+import sys.net.api.Networking;
+import sys.net.api.rpc.RpcEndpoint;
+import sys.net.api.rpc.RpcMessage;
+
+/**
+ * Commits batches of transactions of a client through a local DC: the
+ * timestamps generated by the sequencer for a batch, and the commit of the
+ * batch by the surrogate. Also fetches a batch of the committed objects.
+ */
+public class BatchCommitTest {
+    private static final String SITE = "X";
+
+    static RpcEndpoint client;
+    static Endpoint sequencer;
+    static Endpoint surrogate;
+
+    @BeforeClass
+    public static void startDC() {
+        DCSequencerServer.main(new String[] { "-name", SITE });
+        DCServer.main(new String[] { "-servers", "localhost" });
+        client = Networking.getInstance().rpcConnect().toDefaultService();
+        sequencer = Networking.getInstance().resolve("localhost", DCConstants.SEQUENCER_PORT);
+        surrogate = Networking.getInstance().resolve("localhost", DCConstants.SURROGATE_PORT);
+    }
+
+    static <T extends RpcMessage> T request(Endpoint dst, RpcMessage m) throws Exception {
+        return client.<T> requestAsync(dst, m, 30000).get(30, TimeUnit.SECONDS);
+    }
+
+    static GenerateDCTimestampRequest tsRequest(String clientId, long counter, CausalityClock deps) {
+        return new GenerateDCTimestampRequest(clientId, false, new Timestamp(clientId, counter), deps);
+    }
+
+    static List<GenerateDCTimestampReply> generate(GenerateDCTimestampRequest... reqs) throws Exception {
+        return BatchCommitTest.<GenerateDCTimestampBatchReply> request(sequencer,
+                new GenerateDCTimestampBatchRequest(new ArrayList<GenerateDCTimestampRequest>(
+                        Arrays.asList(reqs)))).getReplies();
+    }
+
+    /**
+     * Commits a timestamp generated for a transaction without updates, as the
+     * sequencer commits the timestamps of a site in order.
+     */
+    static void commit(Timestamp ts, GenerateDCTimestampRequest req, Timestamp prvCltTs) throws Exception {
+        final CommitTSReply reply = request(sequencer, new CommitTSRequest(ts, req.getCltTimestamp(), prvCltTs,
+                ClockFactory.newClock(), true, Collections.<CRDTObjectUpdatesGroup<?>> emptyList(), false, req
+                        .getClientId()));
+        assertEquals(CommitTSReply.CommitTSStatus.OK, reply.getStatus());
+    }
+
+    static CommitUpdatesRequest txn(String clientId, long counter, CausalityClock deps, String... objects) {
+        final Timestamp cltTs = new Timestamp(clientId, counter);
+        final List<CRDTObjectUpdatesGroup<?>> groups = new ArrayList<CRDTObjectUpdatesGroup<?>>();
+        for (final String object : objects) {
+            final CRDTIdentifier id = new CRDTIdentifier("batch", object);
+            final CRDTObjectUpdatesGroup<IntegerCRDT> group = new CRDTObjectUpdatesGroup<IntegerCRDT>(id,
+                    new TimestampMapping(cltTs), new IntegerCRDT(id), deps);
+            group.append(new IntegerUpdate(1));
+            groups.add(group);
+        }
+        return new CommitUpdatesRequest(clientId, false, cltTs, deps, groups);
+    }
+
+    static List<CommitUpdatesReply> commitBatch(String clientId, CommitUpdatesRequest... txns) throws Exception {
+        return BatchCommitTest.<BatchCommitUpdatesReply> request(surrogate,
+                new BatchCommitUpdatesRequest(clientId, false, Arrays.asList(txns))).getReplies();
+    }
+
+    static Timestamp committedTimestamp(CommitUpdatesReply reply) {
+        assertEquals(CommitStatus.COMMITTED_WITH_KNOWN_TIMESTAMPS, reply.getStatus());
+        assertEquals(1, reply.getCommitTimestamps().size());
+        return reply.getCommitTimestamps().get(0);
+    }
+
+    @Test
+    public void testSequencerGeneratesConsecutiveTransactionsInOneBatch() throws Exception {
+        final GenerateDCTimestampRequest[] reqs = new GenerateDCTimestampRequest[3];
+        for (int i = 0; i < reqs.length; i++) {
+            reqs[i] = tsRequest("seq-a", i + 1, ClockFactory.newClock());
+        }
+        final List<GenerateDCTimestampReply> replies = generate(reqs);
+        for (int i = 0; i < reqs.length; i++) {
+            assertNotNull(replies.get(i).getTimestamp());
+            assertEquals(replies.get(0).getTimestamp().getCounter() + i, replies.get(i).getTimestamp().getCounter());
+            commit(replies.get(i).getTimestamp(), reqs[i], i == 0 ? null : reqs[i - 1].getCltTimestamp());
+        }
+
+        // committed ones get no timestamp, the next one is generated
+        final GenerateDCTimestampRequest next = tsRequest("seq-a", 4, ClockFactory.newClock());
+        final List<GenerateDCTimestampReply> again = generate(reqs[1], reqs[2], next);
+        assertNull(again.get(0).getTimestamp());
+        assertEquals(3, again.get(0).getCltClock());
+        assertNull(again.get(1).getTimestamp());
+        assertNotNull(again.get(2).getTimestamp());
+        commit(again.get(2).getTimestamp(), next, reqs[2].getCltTimestamp());
+    }
+
+    @Test
+    public void testSequencerBlocksTheTransactionsAfterABlockedOne() throws Exception {
+        final CausalityClock unknown = ClockFactory.newClock();
+        unknown.record(new Timestamp(SITE, 1000000));
+        final GenerateDCTimestampRequest first = tsRequest("seq-b", 1, ClockFactory.newClock());
+        final List<GenerateDCTimestampReply> replies = generate(first, tsRequest("seq-b", 2, unknown),
+                tsRequest("seq-b", 3, ClockFactory.newClock()));
+        assertNotNull(replies.get(0).getTimestamp());
+        assertNull(replies.get(1));
+        assertNull(replies.get(2));
+        commit(replies.get(0).getTimestamp(), first, null);
+    }
+
+    @Test
+    public void testSurrogateCommitsConsecutiveTransactions() throws Exception {
+        // enough objects to execute them in parallel, one of them updated by
+        // every transaction
+        final CommitUpdatesRequest[] txns = new CommitUpdatesRequest[3];
+        for (int i = 0; i < txns.length; i++) {
+            txns[i] = txn("srg-a", i + 1, ClockFactory.newClock(), "a-shared", "a" + i, "a" + (i + 1));
+        }
+        final List<CommitUpdatesReply> replies = commitBatch("srg-a", txns);
+        final Timestamp first = committedTimestamp(replies.get(0));
+        for (int i = 1; i < txns.length; i++) {
+            assertEquals(first.getCounter() + i, committedTimestamp(replies.get(i)).getCounter());
+        }
+
+        // resent batch
+        for (final CommitUpdatesReply reply : commitBatch("srg-a", txns)) {
+            assertEquals(CommitStatus.COMMITTED_WITH_KNOWN_CLOCK_RANGE, reply.getStatus());
+        }
+    }
+
+    @Test
+    public void testSurrogateCommitsABatchSplitByABlockedTransaction() throws Exception {
+        final LatestKnownClockReply clock = request(sequencer, new LatestKnownClockRequest("srg-b", false));
+        // the second transaction depends on the timestamp of the first one,
+        // which is not committed when the batch is generated
+        final CausalityClock firstTs = ClockFactory.newClock();
+        firstTs.record(new Timestamp(SITE, clock.getClock().getLatestCounter(SITE) + 1));
+        final List<CommitUpdatesReply> replies = commitBatch("srg-b",
+                txn("srg-b", 1, ClockFactory.newClock(), "b"), txn("srg-b", 2, firstTs, "b"),
+                txn("srg-b", 3, firstTs, "b"));
+        final Timestamp first = committedTimestamp(replies.get(0));
+        assertTrue(firstTs.includes(first));
+        assertTrue(committedTimestamp(replies.get(1)).getCounter() > first.getCounter());
+        assertTrue(committedTimestamp(replies.get(2)).getCounter() > committedTimestamp(replies.get(1))
+                .getCounter());
+    }
+
+    @Test
+    public void testSurrogateSkipsTransactionsCommittedAtTheSequencer() throws Exception {
+        // committed through another surrogate, unknown to this one
+        final GenerateDCTimestampRequest req = tsRequest("srg-c", 1, ClockFactory.newClock());
+        commit(generate(req).get(0).getTimestamp(), req, null);
+
+        final List<CommitUpdatesReply> replies = commitBatch("srg-c", txn("srg-c", 1, ClockFactory.newClock(), "c"),
+                txn("srg-c", 2, ClockFactory.newClock(), "c"));
+        assertEquals(CommitStatus.COMMITTED_WITH_KNOWN_CLOCK_RANGE, replies.get(0).getStatus());
+        committedTimestamp(replies.get(1));
+    }
+
+    static CausalityClock clockUntil(Timestamp ts) {
+        final CausalityClock clock = ClockFactory.newClock();
+        if (ts != null) {
+            clock.recordAllUntil(ts);
+        }
+        return clock;
+    }
+
+    @Test
+    public void testBatchFetchReturnsDeltasSinceTheKnownVersionOfEachObject() throws Exception {
+        final List<CommitUpdatesReply> replies = commitBatch("fch-a",
+                txn("fch-a", 1, ClockFactory.newClock(), "d-since-1", "d-full", "d-known"),
+                txn("fch-a", 2, ClockFactory.newClock(), "d-since-1", "d-full", "d-known"));
+        final Timestamp first = committedTimestamp(replies.get(0));
+        final Timestamp second = committedTimestamp(replies.get(1));
+
+        final List<CRDTIdentifier> uids = Arrays.asList(new CRDTIdentifier("batch", "d-since-1"),
+                new CRDTIdentifier("batch", "d-full"), new CRDTIdentifier("batch", "d-known"));
+        final List<CausalityClock> knownVersions = Arrays.asList(clockUntil(first), null, clockUntil(second));
+        final BatchFetchObjectVersionReply reply = request(surrogate, new BatchFetchObjectVersionRequest("fch-a",
+                false, uids, knownVersions, clockUntil(second), false, false, false));
+
+        // only the update after its known version
+        assertEquals(FetchStatus.OK, reply.getStatus(0));
+        final ManagedCRDT<?> sinceFirst = reply.getCrdt(0);
+        assertTrue(sinceFirst.isDelta());
+        assertEquals(1, sinceFirst.getLogOperations());
+        assertTrue(sinceFirst.getClock().includes(second));
+
+        // no known version: the whole object
+        assertEquals(FetchStatus.OK, reply.getStatus(1));
+        final ManagedCRDT<?> full = reply.getCrdt(1);
+        assertTrue(!full.isDelta());
+        assertEquals(2, ((IntegerCRDT) full.getLatestVersion(null)).getValue().intValue());
+
+        // nothing new since its known version
+        assertEquals(FetchStatus.UP_TO_DATE, reply.getStatus(2));
+        assertNull(reply.getCrdt(2));
+    }
+}
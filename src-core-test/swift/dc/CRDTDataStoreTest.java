@@ -0,0 +1,73 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package swift.dc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import swift.crdt.core.CRDTIdentifier;
+
+public class CRDTDataStoreTest {
+
+    private Set<CRDTData<?>> drain(CRDTDataStore store) {
+        Set<CRDTData<?>> res = new HashSet<CRDTData<?>>();
+        for (int i = 0; i < store.shards(); i++) {
+            CRDTData<?> d;
+            while ((d = store.pollDirty(i)) != null) {
+                store.clearDirty(d);
+                res.add(d);
+            }
+        }
+        return res;
+    }
+
+    @Test
+    public void testPutIfAbsent() {
+        CRDTDataStore store = new CRDTDataStore(4);
+        CRDTIdentifier id = new CRDTIdentifier("t", "a");
+        assertNull(store.get(id));
+        CRDTData<?> first = new CRDTData(id);
+        assertSame(first, store.putIfAbsent(first));
+        assertSame(first, store.putIfAbsent(new CRDTData(id)));
+        assertSame(first, store.get(id));
+        assertNull(store.get(new CRDTIdentifier("u", "a")));
+    }
+
+    @Test
+    public void testDirtyEntriesQueuedOnce() {
+        CRDTDataStore store = new CRDTDataStore(4);
+        CRDTData<?> a = store.putIfAbsent(new CRDTData(new CRDTIdentifier("t", "a")));
+        CRDTData<?> b = store.putIfAbsent(new CRDTData(new CRDTIdentifier("t", "b")));
+        store.putIfAbsent(new CRDTData(new CRDTIdentifier("t", "c")));
+        for (int i = 0; i < 10; i++) {
+            store.markDirty(a);
+            store.markDirty(b);
+        }
+        Set<CRDTData<?>> flushed = drain(store);
+        assertEquals(2, flushed.size());
+        assertEquals(0, drain(store).size());
+
+        store.markDirty(a);
+        assertEquals(1, drain(store).size());
+    }
+}
@@ -0,0 +1,113 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package swift.dc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import swift.crdt.IntegerCRDT;
+import swift.crdt.core.CRDTIdentifier;
+import swift.crdt.core.ManagedCRDT;
+import sys.stats.DummyStats;
+
+public class CRDTPrunerTest {
+
+    private CRDTData<?> entry(String key, final int operations) {
+        CRDTIdentifier id = new CRDTIdentifier("t", key);
+        CRDTData<IntegerCRDT> data = new CRDTData<IntegerCRDT>(id);
+        data.empty = false;
+        data.crdt = new ManagedCRDT<IntegerCRDT>() {
+            @Override
+            public int getLogOperations() {
+                return operations;
+            }
+        };
+        return data;
+    }
+
+    @Test
+    public void testLargestLogsFirst() throws Exception {
+        final List<String> pruned = Collections.synchronizedList(new ArrayList<String>());
+        final CountDownLatch done = new CountDownLatch(3);
+        CRDTPruner pruner = new CRDTPruner(10, 1 << 20, 1000, new CRDTPruner.Pruning() {
+            public boolean prune(CRDTData<?> data) {
+                pruned.add(data.id.getKey());
+                data.pruneQueued = false;
+                done.countDown();
+                return true;
+            }
+        }, new DummyStats());
+
+        CRDTData<?> small = entry("small", 5);
+        CRDTData<?> a = entry("a", 20);
+        CRDTData<?> b = entry("b", 100);
+        CRDTData<?> c = entry("c", 50);
+        for (CRDTData<?> d : Arrays.asList(small, a, b, c, b)) {
+            pruner.updated(d, d.crdt.getLogOperations() * 10);
+        }
+        assertFalse(small.pruneQueued);
+        assertTrue(b.pruneQueued);
+
+        pruner.start();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("b", "c", "a"), pruned);
+    }
+
+    @Test
+    public void testDeferredUntilNextRound() throws Exception {
+        final List<Long> attempts = Collections.synchronizedList(new ArrayList<Long>());
+        final CountDownLatch done = new CountDownLatch(2);
+        CRDTPruner pruner = new CRDTPruner(1, 1 << 20, 100, new CRDTPruner.Pruning() {
+            public boolean prune(CRDTData<?> data) {
+                attempts.add(System.currentTimeMillis());
+                done.countDown();
+                return attempts.size() > 1;
+            }
+        }, new DummyStats());
+        pruner.updated(entry("a", 1), 10);
+        pruner.start();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(attempts.get(1) - attempts.get(0) >= 50);
+    }
+
+    @Test
+    public void testBytesThreshold() throws Exception {
+        CRDTPruner pruner = new CRDTPruner(10, 1000, 1000, new CRDTPruner.Pruning() {
+            public boolean prune(CRDTData<?> data) {
+                return true;
+            }
+        }, new DummyStats());
+        CRDTData<?> few = entry("few", 2);
+        pruner.updated(few, 600);
+        assertFalse(few.pruneQueued);
+        pruner.updated(few, 600);
+        assertTrue(few.pruneQueued);
+        assertEquals(1200, few.logBytes);
+
+        assertTrue(CRDTPruner.serializedSize("abcdefghij") >= 10);
+    }
+}
@@ -0,0 +1,94 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package swift.dc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import swift.clocks.ClockFactory;
+import swift.clocks.Timestamp;
+import swift.crdt.core.CRDTObjectUpdatesGroup;
+import swift.proto.CommitTSReply;
+import swift.proto.CommitTSRequest;
+import swift.proto.GenerateDCTimestampReply;
+import swift.proto.GenerateDCTimestampRequest;
+import swift.utils.FutureResultHandler;
+import sys.net.api.rpc.RpcEndpoint;
+
+public class SequencerBatcherTest {
+
+    /**
+     * An endpoint that never gets a reply, either failing to send by throwing
+     * or timing out waiting for the reply.
+     */
+    static RpcEndpoint failingEndpoint(final AtomicInteger sends) {
+        return (RpcEndpoint) Proxy.newProxyInstance(RpcEndpoint.class.getClassLoader(),
+                new Class<?>[] { RpcEndpoint.class }, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method m, Object[] args) {
+                        if (m.getName().equals("requestAsync")) {
+                            if (sends.incrementAndGet() % 2 == 0)
+                                throw new RuntimeException("unreachable");
+                            final CompletableFuture<Object> lost = new CompletableFuture<Object>();
+                            lost.completeExceptionally(new TimeoutException("reply lost"));
+                            return lost;
+                        }
+                        return null;
+                    }
+                });
+    }
+
+    @Test
+    public void testFailedBatchesReleaseWaitersAndPipeline() {
+        final AtomicInteger sends = new AtomicInteger();
+        final SequencerBatcher batcher = new SequencerBatcher(failingEndpoint(sends), null, 10, 2);
+
+        // more lost replies than batches allowed in flight
+        for (int i = 1; i <= 5; i++) {
+            final List<GenerateDCTimestampReply> replies = batcher.tryGenerateTimestamps(Collections
+                    .singletonList(new GenerateDCTimestampRequest("c", false, new Timestamp("c", i), ClockFactory
+                            .newClock())));
+            assertNull(replies.get(0));
+        }
+        assertEquals(5, sends.get());
+
+        final List<CommitTSReply> replies = new ArrayList<CommitTSReply>();
+        for (int i = 1; i <= 5; i++) {
+            batcher.commit(new CommitTSRequest(new Timestamp("dc", i), new Timestamp("c", i), null,
+                    ClockFactory.newClock(), true, new ArrayList<CRDTObjectUpdatesGroup<?>>()),
+                    new FutureResultHandler<CommitTSReply>() {
+                        public void onResult(CommitTSReply reply) {
+                            replies.add(reply);
+                        }
+                    });
+        }
+        assertEquals(5, replies.size());
+        for (CommitTSReply reply : replies)
+            assertNull(reply);
+    }
+}
@@ -0,0 +1,135 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package swift.dc.db;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Properties;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import swift.crdt.core.CRDTIdentifier;
+
+public class DCLogStructuredDatabaseTest {
+    File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("logdb", "");
+        dir.delete();
+    }
+
+    @After
+    public void tearDown() {
+        delete(dir);
+    }
+
+    private void delete(File f) {
+        File[] children = f.listFiles();
+        if (children != null)
+            for (File c : children)
+                delete(c);
+        f.delete();
+    }
+
+    // Values must not be default-registered Kryo types, see KryoLib
+    private CRDTIdentifier v(Object value) {
+        return new CRDTIdentifier("v", "" + value);
+    }
+
+    private DCLogStructuredDatabase open(int segmentSize) {
+        Properties props = new Properties();
+        props.setProperty(DCLogStructuredDatabase.DIR_PROPERTY, dir.getAbsolutePath());
+        props.setProperty(DCLogStructuredDatabase.SEGMENT_SIZE_PROPERTY, "" + segmentSize);
+        props.setProperty(DCLogStructuredDatabase.COMPACTION_PERIOD_PROPERTY, "0");
+        DCLogStructuredDatabase db = new DCLogStructuredDatabase();
+        db.init(props);
+        return db;
+    }
+
+    @Test
+    public void testReadWrite() {
+        DCLogStructuredDatabase db = open(1 << 16);
+        assertNull(db.readSysData("t", "a"));
+        db.writeSysData("t", "a", v("x"));
+        db.writeSysData("t", "b", v("y"));
+        db.writeSysData("t", "a", v("z"));
+        db.writeSysData("u", "a", v(1));
+        assertEquals(v("z"), db.readSysData("t", "a"));
+        assertEquals(v("y"), db.readSysData("t", "b"));
+        assertEquals(v(1), db.readSysData("u", "a"));
+    }
+
+    @Test
+    public void testRecovery() {
+        DCLogStructuredDatabase db = open(256);
+        for (int i = 0; i < 100; i++)
+            db.writeSysData("t/1", "k" + (i % 10), v("v" + i));
+        db.sync(false);
+
+        db = open(256);
+        for (int i = 0; i < 10; i++)
+            assertEquals(v("v" + (90 + i)), db.readSysData("t/1", "k" + i));
+        db.writeSysData("t/1", "k0", v("w"));
+        assertEquals(v("w"), db.readSysData("t/1", "k0"));
+    }
+
+    @Test
+    public void testTornRecordIsDiscarded() throws Exception {
+        DCLogStructuredDatabase db = open(1 << 16);
+        db.writeSysData("t", "a", v("x"));
+        db.writeSysData("t", "b", v("y"));
+        db.sync(false);
+
+        // corrupt the payload of the last record
+        File segment = new File(new File(dir, "t"), "00000000" + DCLogStructuredDatabase.SEGMENT_SUFFIX);
+        DCLogStructuredDatabase.Segment s = db.tables.get("t").active;
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        raf.seek(s.writePos - 1);
+        raf.write(0xFF);
+        raf.close();
+
+        db = open(1 << 16);
+        assertEquals(v("x"), db.readSysData("t", "a"));
+        assertNull(db.readSysData("t", "b"));
+        db.writeSysData("t", "b", v("z"));
+        assertEquals(v("z"), db.readSysData("t", "b"));
+    }
+
+    @Test
+    public void testCompaction() {
+        DCLogStructuredDatabase db = open(256);
+        for (int i = 0; i < 200; i++)
+            db.writeSysData("t", "k" + (i % 3), v("v" + i));
+        int before = db.tables.get("t").segments.size();
+        db.compact();
+        int after = db.tables.get("t").segments.size();
+        assertTrue(after < before);
+        for (int i = 0; i < 3; i++)
+            assertEquals(v("v" + (197 + i)), db.readSysData("t", "k" + ((197 + i) % 3)));
+
+        db = open(256);
+        for (int i = 0; i < 3; i++)
+            assertEquals(v("v" + (197 + i)), db.readSysData("t", "k" + ((197 + i) % 3)));
+    }
+}
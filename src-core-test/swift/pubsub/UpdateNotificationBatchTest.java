@@ -0,0 +1,85 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package swift.pubsub;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+import swift.clocks.CausalityClock;
+import swift.clocks.CausalityClock.CMP_CLOCK;
+import swift.clocks.ClockFactory;
+import swift.clocks.Timestamp;
+import swift.proto.ObjectUpdatesInfo;
+
+public class UpdateNotificationBatchTest {
+
+    private UpdateNotificationBatch batch(long seqN, CausalityClock version, CausalityClock previous) {
+        return new UpdateNotificationBatch("dc", seqN, Collections.<ObjectUpdatesInfo> emptyList(), version,
+                previous);
+    }
+
+    private CausalityClock clock(long a, long b, long c) {
+        CausalityClock res = ClockFactory.newClock();
+        res.recordAllUntil(new Timestamp("A", a));
+        res.recordAllUntil(new Timestamp("B", b));
+        res.recordAllUntil(new Timestamp("C", c));
+        return res;
+    }
+
+    @Test
+    public void testDeltaOnlyCarriesChangedSites() {
+        CausalityClock v1 = clock(5, 5, 5), v2 = clock(6, 5, 5);
+        UpdateNotificationBatch first = batch(1, v1, null), second = batch(2, v2, v1);
+        assertFalse(first.isDelta());
+        assertTrue(second.isDelta());
+        assertEquals(1, second.dcVersion.getSiteIds().size());
+
+        CausalityClock received = first.dcVersion(null);
+        assertEquals(CMP_CLOCK.CMP_EQUALS, received.compareTo(v1));
+        received = second.dcVersion(received);
+        assertEquals(CMP_CLOCK.CMP_EQUALS, received.compareTo(v2));
+    }
+
+    @Test
+    public void testNewSitesAndExceptions() {
+        CausalityClock v1 = clock(5, 5, 5);
+        CausalityClock v2 = clock(5, 5, 5);
+        v2.record(new Timestamp("D", 3));
+        CausalityClock received = batch(2, v2, v1).dcVersion(v1.clone());
+        assertEquals(CMP_CLOCK.CMP_EQUALS, received.compareTo(v2));
+
+        // exceptions may be filled in without changing the latest counter
+        CausalityClock v3 = v2.clone();
+        v3.recordAllUntil(new Timestamp("D", 3));
+        UpdateNotificationBatch third = batch(3, v3, v2);
+        assertFalse(third.isDelta());
+        assertEquals(CMP_CLOCK.CMP_EQUALS, third.dcVersion(received).compareTo(v3));
+    }
+
+    @Test
+    public void testDroppedSiteSendsFullVersion() {
+        CausalityClock v1 = clock(5, 5, 5);
+        CausalityClock v2 = v1.clone();
+        v2.drop("C");
+        assertFalse(batch(2, v2, v1).isDelta());
+    }
+}
@@ -0,0 +1,193 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package swift.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import swift.clocks.Timestamp;
+import swift.crdt.core.TxnStatus;
+
+public class WriteAheadLogTest {
+    File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("wal", "");
+        dir.delete();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null)
+            for (File f : files)
+                f.delete();
+        dir.delete();
+    }
+
+    private List<Object> replay(final List<Long> ids) throws Exception {
+        final List<Object> entries = new ArrayList<Object>();
+        WriteAheadLog log = new WriteAheadLog(dir.getAbsolutePath(), 1 << 10);
+        log.replay(new WriteAheadLog.EntryHandler() {
+            public void onEntry(long transactionId, Object entry) {
+                ids.add(transactionId);
+                entries.add(entry);
+            }
+        });
+        log.close();
+        return entries;
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        WriteAheadLog log = new WriteAheadLog(dir.getAbsolutePath(), 1 << 10);
+        for (int i = 1; i <= 100; i++) {
+            log.writeEntry(i, new Timestamp("c", i));
+            log.writeEntry(i, TxnStatus.COMMITTED_LOCAL);
+            log.flush();
+        }
+        log.close();
+
+        List<Long> ids = new ArrayList<Long>();
+        List<Object> entries = replay(ids);
+        assertEquals(200, entries.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i + 1, (long) ids.get(2 * i));
+            assertEquals(new Timestamp("c", i + 1), entries.get(2 * i));
+            assertEquals(TxnStatus.COMMITTED_LOCAL, entries.get(2 * i + 1));
+        }
+    }
+
+    @Test
+    public void testConcurrentFlushes() throws Exception {
+        final WriteAheadLog log = new WriteAheadLog(dir.getAbsolutePath(), 1 << 12);
+        final int threads = 8, txns = 200;
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final int base = t * txns + 1;
+            workers.add(new Thread() {
+                public void run() {
+                    for (int i = 0; i < txns; i++) {
+                        log.writeEntry(base + i, new Timestamp("c", base + i));
+                        log.flush();
+                    }
+                }
+            });
+        }
+        for (Thread t : workers)
+            t.start();
+        for (Thread t : workers)
+            t.join();
+        log.close();
+
+        List<Long> ids = new ArrayList<Long>();
+        List<Object> entries = replay(ids);
+        assertEquals(threads * txns, entries.size());
+        for (int i = 0; i < ids.size(); i++)
+            assertEquals(new Timestamp("c", ids.get(i)), entries.get(i));
+    }
+
+    @Test
+    public void testCorruptedTail() throws Exception {
+        WriteAheadLog log = new WriteAheadLog(dir.getAbsolutePath(), 1 << 10);
+        log.writeEntry(1, new Timestamp("c", 1));
+        log.writeEntry(2, new Timestamp("c", 2));
+        log.close();
+
+        File segment = dir.listFiles()[0];
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        raf.seek(raf.readInt() + WriteAheadLog.HEADER_SIZE);
+        raf.write(0xFF);
+        raf.close();
+
+        List<Long> ids = new ArrayList<Long>();
+        List<Object> entries = replay(ids);
+        assertEquals(1, entries.size());
+        assertEquals(new Timestamp("c", 1), entries.get(0));
+    }
+
+    @Test
+    public void testRecycleAndDiscard() throws Exception {
+        WriteAheadLog log = new WriteAheadLog(dir.getAbsolutePath(), 1 << 9);
+        for (int i = 1; i <= 100; i++) {
+            log.writeEntry(i, new Timestamp("c", i));
+            log.writeEntry(i, i == 50 ? TxnStatus.COMMITTED_LOCAL : TxnStatus.COMMITTED_GLOBAL);
+            log.flush();
+        }
+        log.close();
+
+        // only the segments with entries of the pending transaction remain,
+        // together with the active one
+        assertTrue(dir.listFiles().length <= 3);
+        List<Long> ids = new ArrayList<Long>();
+        List<Object> entries = replay(ids);
+        Map<Long, Object> last = new HashMap<Long, Object>();
+        for (int i = 0; i < ids.size(); i++)
+            last.put(ids.get(i), entries.get(i));
+        assertEquals(TxnStatus.COMMITTED_LOCAL, last.get(50L));
+
+        log = new WriteAheadLog(dir.getAbsolutePath(), 1 << 9);
+        log.discardRecovered();
+        log.close();
+        assertEquals(0, replay(new ArrayList<Long>()).size());
+    }
+
+    @Test
+    public void testSegmentHeaders() throws Exception {
+        WriteAheadLog log = new WriteAheadLog(dir.getAbsolutePath(), 1 << 9, "a");
+        for (int i = 1; i <= 50; i++) {
+            log.writeEntry(i, new Timestamp("a", i));
+            log.flush();
+        }
+        log.close();
+        // a new writer reusing the same transaction ids
+        log = new WriteAheadLog(dir.getAbsolutePath(), 1 << 9, "b");
+        for (int i = 1; i <= 50; i++) {
+            log.writeEntry(i, new Timestamp("b", i));
+            log.flush();
+        }
+        log.close();
+
+        List<Long> ids = new ArrayList<Long>();
+        List<Object> entries = replay(ids);
+        assertEquals(WriteAheadLog.SEGMENT_HEADER_ID, (long) ids.get(0));
+        int headers = 0;
+        String writer = null;
+        for (int i = 0; i < ids.size(); i++) {
+            if (ids.get(i) == WriteAheadLog.SEGMENT_HEADER_ID) {
+                writer = (String) entries.get(i);
+                headers++;
+            } else {
+                assertEquals(new Timestamp(writer, ids.get(i)), entries.get(i));
+            }
+        }
+        assertEquals(100, ids.size() - headers);
+        assertTrue(headers > 2);
+    }
+}
@@ -0,0 +1,119 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package sys.dht;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import sys.net.api.Networking;
+
+public class HashRingTest {
+
+    static final int KEYS = 100000;
+
+    static Node node(int i) {
+        // avoids the reverse lookup of the host of the DHT endpoint
+        Node res = new Node();
+        res.endpoint = Networking.getInstance().resolve("10.0.0." + i, 29997);
+        res.key = DHT_Node.longHashValue(res.endpoint.locator().toString());
+        return res;
+    }
+
+    static HashRing ring(int nodes, int virtualNodes) {
+        HashRing res = new HashRing(virtualNodes);
+        for (int i = 1; i <= nodes; i++)
+            res = res.with(node(i));
+        return res;
+    }
+
+    @Test
+    public void testEmptyAndSingleNode() {
+        HashRing ring = new HashRing(16);
+        assertNull(ring.owner("x"));
+        ring = ring.with(node(1));
+        assertEquals(node(1), ring.owner("x"));
+        assertEquals(node(1), ring.owner(Long.MAX_VALUE));
+        assertEquals(node(1), ring.owner(0L));
+        assertSame(ring, ring.with(node(1)));
+    }
+
+    @Test
+    public void testIndependentOfJoinOrder() {
+        HashRing a = new HashRing(32).with(node(1)).with(node(2)).with(node(3));
+        HashRing b = new HashRing(32).with(node(3)).with(node(1)).with(node(2));
+        for (int i = 0; i < 1000; i++)
+            assertEquals(a.owner("key" + i), b.owner("key" + i));
+    }
+
+    @Test
+    public void testBalancedWithVirtualNodes() {
+        final int nodes = 8;
+        HashRing ring = ring(nodes, 128);
+        Map<Node, Integer> load = new HashMap<Node, Integer>();
+        for (int i = 0; i < KEYS; i++) {
+            Node n = ring.owner("table:key" + i);
+            Integer c = load.get(n);
+            load.put(n, c == null ? 1 : c + 1);
+        }
+        assertEquals(nodes, load.size());
+        for (int c : load.values())
+            assertTrue("load: " + load, Math.abs(c - KEYS / nodes) < 0.25 * KEYS / nodes);
+    }
+
+    @Test
+    public void testJoinMovesKeysOnlyToNewNode() {
+        HashRing before = ring(4, 128);
+        HashRing after = before.with(node(5));
+
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            String key = "table:key" + i;
+            Node a = before.owner(key), b = after.owner(key);
+            if (!a.equals(b)) {
+                assertEquals(node(5), b);
+                moved++;
+            }
+        }
+        // about 1/5 of the keys
+        assertTrue("moved: " + moved, Math.abs(moved - KEYS / 5) < 0.25 * KEYS / 5);
+
+        // the ring without the new node is the old one
+        HashRing removed = after.without(node(5));
+        for (int i = 0; i < 1000; i++)
+            assertEquals(before.owner("k" + i), removed.owner("k" + i));
+    }
+
+    @Test
+    public void testHashSpread() {
+        // sequential keys should spread over the whole range
+        int[] buckets = new int[16];
+        for (int i = 0; i < KEYS; i++) {
+            long h = DHT_Node.longHashValue("key" + i);
+            assertTrue(h >= 0);
+            buckets[(int) (h >>> 59)]++;
+        }
+        for (int c : buckets)
+            assertTrue(Math.abs(c - KEYS / 16) < 0.1 * KEYS / 16);
+    }
+}
@@ -0,0 +1,86 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package sys.net.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import sys.net.api.MessageHandler;
+import sys.net.api.TransportConnection;
+
+public class CompressionPolicyTest {
+
+    static class Text extends AbstractMessage {
+        public void deliverTo(TransportConnection conn, MessageHandler handler) {
+        }
+    }
+
+    static class Media extends AbstractMessage {
+        public void deliverTo(TransportConnection conn, MessageHandler handler) {
+        }
+    }
+
+    static final int SIZE = 10 * NetworkingConstants.COMPRESSION_MIN_SIZE;
+
+    @Test
+    public void testModes() {
+        assertFalse(new CompressionPolicy(CompressionPolicy.Mode.OFF).shouldCompress(new Text(), SIZE));
+        assertTrue(new CompressionPolicy(CompressionPolicy.Mode.ALWAYS).shouldCompress(new Text(), 1));
+        CompressionPolicy always = new CompressionPolicy(CompressionPolicy.Mode.ALWAYS);
+        assertTrue(always.compressed(new Text(), SIZE, SIZE));
+    }
+
+    @Test
+    public void testSmallMessagesAreNotCompressed() {
+        CompressionPolicy p = new CompressionPolicy(CompressionPolicy.Mode.ADAPTIVE);
+        assertFalse(p.shouldCompress(new Text(), NetworkingConstants.COMPRESSION_MIN_SIZE - 1));
+        assertTrue(p.shouldCompress(new Text(), SIZE));
+    }
+
+    @Test
+    public void testIncompressibleClassesAreProbed() {
+        CompressionPolicy p = new CompressionPolicy(CompressionPolicy.Mode.ADAPTIVE);
+        for (int i = 0; i < 100; i++) {
+            p.compressed(new Text(), SIZE, SIZE / 4);
+            assertFalse(p.compressed(new Media(), SIZE, SIZE));
+        }
+        assertTrue(p.shouldCompress(new Text(), SIZE));
+
+        int probes = 0;
+        for (int i = 0; i < 10 * NetworkingConstants.COMPRESSION_PROBE_INTERVAL; i++)
+            if (p.shouldCompress(new Media(), SIZE))
+                probes++;
+        assertEquals(10, probes);
+
+        // the ratio recovers once the payloads become compressible
+        for (int i = 0; i < 100; i++)
+            p.compressed(new Media(), SIZE, SIZE / 4);
+        assertTrue(p.shouldCompress(new Media(), SIZE));
+    }
+
+    @Test
+    public void testCounters() {
+        CompressionPolicy.Counters c = CompressionPolicy.counters("127.0.0.1:9000/test");
+        c.sent(1000, 300, true);
+        c.sent(100, 100, false);
+        assertTrue(c.rawBytes.get() == 1100 && c.wireBytes.get() == 400 && c.compressedMessages.get() == 1);
+        CompressionPolicy.release(c);
+    }
+}
@@ -0,0 +1,64 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package sys.net.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import sys.Sys;
+import sys.net.impl.providers.InitiatorInfo;
+import sys.net.impl.rpc.RpcPacket;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+public class KryoLibTest {
+
+    @BeforeClass
+    public static void setUp() {
+        // submits the CRDT registry, before the first Kryo instance commits
+        // the registries
+        Sys.getInstance();
+    }
+
+    @Test
+    public void testRegisteredClassesKeepTheirIds() {
+        final Kryo kryo = KryoLib.kryo();
+        // ids are assigned from 1, in registration order, as in stored data
+        assertEquals(1, kryo.getRegistration(1).getId());
+        assertTrue(!kryo.getRegistration(1).getType().isPrimitive());
+        final int first = kryo.getRegistration(LocalEndpoint.class).getId();
+        assertEquals(first + 1, kryo.getRegistration(RemoteEndpoint.class).getId());
+        assertEquals(first + 2, kryo.getRegistration(RpcPacket.class).getId());
+        assertEquals(first + 3, kryo.getRegistration(InitiatorInfo.class).getId());
+    }
+
+    @Test
+    public void testDefaultClassesRoundTrip() {
+        final Object[] values = new Object[] { "text", 1, 2L, true, 3.5, 4.5f, (short) 6, (byte) 7, 'c' };
+        final Output out = new Output(1024);
+        KryoLib.kryo().writeClassAndObject(out, values);
+        final Object[] res = (Object[]) KryoLib.kryo().readClassAndObject(new Input(out.toBytes()));
+        assertTrue(Arrays.equals(values, res));
+    }
+}
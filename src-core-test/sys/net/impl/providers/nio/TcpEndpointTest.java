@@ -0,0 +1,232 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package sys.net.impl.providers.nio;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static sys.net.impl.NetworkingConstants.NIO_READ_BUFFER_SIZE;
+
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import net.jpountz.lz4.LZ4Compressor;
+import sys.net.api.Endpoint;
+import sys.net.api.Message;
+import sys.net.api.MessageHandler;
+import sys.net.api.Networking;
+import sys.net.api.Networking.TransportProvider;
+import sys.net.api.rpc.AbstractRpcHandler;
+import sys.net.api.rpc.RpcEndpoint;
+import sys.net.api.rpc.RpcHandle;
+import sys.net.api.rpc.RpcHandler;
+import sys.net.api.rpc.RpcMessage;
+import sys.net.api.TransportConnection;
+import sys.net.impl.AbstractMessage;
+import sys.net.impl.CompressionPolicy;
+import sys.net.impl.DefaultMessageHandler;
+import sys.net.impl.KryoLib;
+import sys.net.impl.Lz4Lib;
+
+import com.esotericsoftware.kryo.io.Output;
+
+public class TcpEndpointTest {
+
+    public static class Payload implements RpcMessage {
+        int seqN;
+        byte[] data;
+
+        Payload() {
+        }
+
+        Payload(int seqN, byte[] data) {
+            this.seqN = seqN;
+            this.data = data;
+        }
+
+        @Override
+        public void deliverTo(RpcHandle handle, RpcHandler handler) {
+            handler.onReceive(handle, this);
+        }
+    }
+
+    public static class Blob extends AbstractMessage {
+        int seqN;
+        byte[] data;
+
+        Blob() {
+        }
+
+        Blob(int seqN, byte[] data) {
+            this.seqN = seqN;
+            this.data = data;
+        }
+
+        @Override
+        public void deliverTo(TransportConnection conn, MessageHandler handler) {
+            handler.onReceive(conn, this);
+        }
+    }
+
+    static byte[] data(int seqN, int size) {
+        byte[] res = new byte[size];
+        new Random(seqN).nextBytes(res);
+        return res;
+    }
+
+    @Test
+    public void testFramingAndOrder() throws Exception {
+        final int port = 31000 + new Random().nextInt(1000), n = 300;
+        final List<Payload> received = Collections.synchronizedList(new ArrayList<Payload>());
+
+        Networking.getInstance().rpcBind(port, TransportProvider.NIO_TCP).toService(0, new AbstractRpcHandler() {
+            public void onReceive(RpcHandle handle, RpcMessage m) {
+                received.add((Payload) m);
+                if (((Payload) m).seqN == n - 1)
+                    handle.reply(new Payload(n, new byte[0]));
+            }
+        });
+
+        RpcEndpoint client = Networking.getInstance().rpcConnect(TransportProvider.NIO_TCP).toDefaultService();
+        Endpoint server = Networking.getInstance().resolve("localhost", port);
+
+        // sizes from a few bytes to several times the read buffer, so frames
+        // are coalesced in and split across reads
+        Random rg = new Random(1);
+        for (int i = 0; i < n - 1; i++) {
+            int size = i % 10 == 0 ? rg.nextInt(300000) : rg.nextInt(200);
+            assertTrue(!client.send(server, new Payload(i, data(i, size))).failed());
+        }
+        Payload reply = client.request(server, new Payload(n - 1, new byte[0]));
+        assertEquals(n, reply.seqN);
+
+        assertEquals(n, received.size());
+        rg = new Random(1);
+        for (int i = 0; i < n - 1; i++) {
+            int size = i % 10 == 0 ? rg.nextInt(300000) : rg.nextInt(200);
+            Payload p = received.get(i);
+            assertEquals(i, p.seqN);
+            assertTrue(Arrays.equals(data(i, size), p.data));
+        }
+    }
+
+    @Test
+    public void testCompressedFrames() throws Exception {
+        final int port = 32000 + new Random().nextInt(1000), n = 100;
+        final List<Payload> received = Collections.synchronizedList(new ArrayList<Payload>());
+
+        // the policy is read when endpoints are created
+        System.setProperty(CompressionPolicy.MODE_PROPERTY, "adaptive");
+        try {
+            Networking.getInstance().rpcBind(port, TransportProvider.NIO_TCP).toService(0, new AbstractRpcHandler() {
+                public void onReceive(RpcHandle handle, RpcMessage m) {
+                    received.add((Payload) m);
+                    if (((Payload) m).seqN == n - 1)
+                        handle.reply(new Payload(n, compressible(n, 100000)));
+                }
+            });
+            RpcEndpoint client = Networking.getInstance().rpcConnect(TransportProvider.NIO_TCP).toDefaultService();
+            Endpoint server = Networking.getInstance().resolve("localhost", port);
+
+            // compressible and random payloads, so some frames are sent raw
+            for (int i = 0; i < n - 1; i++)
+                assertTrue(!client.send(server, new Payload(i, payload(i))).failed());
+            Payload reply = client.request(server, new Payload(n - 1, payload(n - 1)));
+            assertEquals(n, reply.seqN);
+            assertTrue(Arrays.equals(compressible(n, 100000), reply.data));
+
+            assertEquals(n, received.size());
+            for (int i = 0; i < n; i++) {
+                assertEquals(i, received.get(i).seqN);
+                assertTrue(Arrays.equals(payload(i), received.get(i).data));
+            }
+        } finally {
+            System.clearProperty(CompressionPolicy.MODE_PROPERTY);
+        }
+    }
+
+    @Test
+    public void testCompressedFrameSplitAcrossReads() throws Exception {
+        final int port = 33000 + new Random().nextInt(1000);
+        final List<Message> received = Collections.synchronizedList(new ArrayList<Message>());
+        Networking.getInstance().bind(port, TransportProvider.NIO_TCP, new DefaultMessageHandler(true) {
+            public void onReceive(TransportConnection conn, Message m) {
+                received.add(m);
+            }
+        });
+
+        // half random, so it compresses to several times the read buffer
+        final byte[] data = new byte[600000];
+        System.arraycopy(data(7, data.length / 2), 0, data, 0, data.length / 2);
+        final byte[] frame = compressedFrame(new Blob(1, data));
+        assertTrue(frame.length > 4 * NIO_READ_BUFFER_SIZE);
+
+        try (Socket socket = new Socket("localhost", port)) {
+            OutputStream out = socket.getOutputStream();
+            for (int off = 0; off < frame.length; off += 10000) {
+                out.write(frame, off, Math.min(10000, frame.length - off));
+                out.flush();
+                Thread.sleep(2);
+            }
+            out.write(compressedFrame(new Blob(2, compressible(2, 1000))));
+            out.flush();
+
+            for (int i = 0; i < 500 && received.size() < 2; i++)
+                Thread.sleep(10);
+        }
+        assertEquals(2, received.size());
+        assertEquals(1, ((Blob) received.get(0)).seqN);
+        assertTrue(Arrays.equals(data, ((Blob) received.get(0)).data));
+        assertEquals(2, ((Blob) received.get(1)).seqN);
+    }
+
+    /**
+     * Frames a message as a compressed frame, the way the endpoint does.
+     */
+    static byte[] compressedFrame(Message msg) {
+        final Output out = new Output(8192, -1);
+        KryoLib.kryo().writeClassAndObject(out, msg);
+        final int length = out.position();
+
+        final LZ4Compressor lz4 = Lz4Lib.lz4FastCompressor();
+        final byte[] tmp = new byte[lz4.maxCompressedLength(length)];
+        final int compressedLength = lz4.compress(out.getBuffer(), 0, length, tmp, 0, tmp.length);
+
+        final byte[] res = new byte[compressedLength + 8];
+        ByteBuffer.wrap(res).putInt((compressedLength + 4) | (1 << 31)).putInt(length)
+                .put(tmp, 0, compressedLength);
+        return res;
+    }
+
+    static byte[] payload(int seqN) {
+        return seqN % 3 == 0 ? data(seqN, 5000) : compressible(seqN, 1000 * seqN);
+    }
+
+    static byte[] compressible(int seqN, int size) {
+        byte[] res = new byte[size];
+        for (int i = 0; i < size; i++)
+            res[i] = (byte) ((i / 16 + seqN) % 8);
+        return res;
+    }
+}
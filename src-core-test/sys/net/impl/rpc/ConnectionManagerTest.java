@@ -0,0 +1,221 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package sys.net.impl.rpc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+import sys.net.api.Endpoint;
+import sys.net.api.Message;
+import sys.net.api.MessageHandler;
+import sys.net.api.Networking;
+import sys.net.api.TransportConnection;
+import sys.net.impl.AbstractMessage;
+import sys.net.impl.providers.AbstractTransport;
+import sys.stats.DummyStats;
+import sys.stats.sources.PollingBasedValueProvider;
+
+public class ConnectionManagerTest {
+
+    static class Ping extends AbstractMessage {
+        public void deliverTo(TransportConnection conn, MessageHandler handler) {
+        }
+    }
+
+    static class FakeConnection extends AbstractTransport {
+        int sent;
+        long queued;
+        boolean fails;
+
+        FakeConnection(Endpoint local, Endpoint remote) {
+            super(local, remote);
+        }
+
+        public boolean send(Message m) {
+            if (fails)
+                return false;
+            m.setSize(100);
+            sent++;
+            return true;
+        }
+
+        public long queuedBytes() {
+            return queued;
+        }
+
+        public Throwable causeOfFailure() {
+            return null;
+        }
+    }
+
+    /**
+     * Local endpoint that opens fake connections, registered as they would be
+     * by the factory.
+     */
+    static class FakeEndpoint implements Endpoint {
+        ConnectionManager mgr;
+        int connects;
+
+        public TransportConnection connect(Endpoint dst) {
+            connects++;
+            FakeConnection res = new FakeConnection(this, dst);
+            mgr.add(res);
+            return res;
+        }
+
+        public TransportConnection send(Endpoint dst, Message m) {
+            return null;
+        }
+
+        public <T extends Endpoint> T setHandler(MessageHandler handler) {
+            return null;
+        }
+
+        public MessageHandler getHandler() {
+            return null;
+        }
+
+        public <T> T gid() {
+            return null;
+        }
+
+        public <T> T locator() {
+            return null;
+        }
+
+        public String getHost() {
+            return "localhost";
+        }
+
+        public int getPort() {
+            return 0;
+        }
+
+        public AtomicLong getIncomingBytesCounter() {
+            return null;
+        }
+
+        public AtomicLong getOutgoingBytesCounter() {
+            return null;
+        }
+    }
+
+    final Endpoint remote = Networking.getInstance().resolve("localhost", 9999);
+
+    ConnectionManager manager(int connections, ConnectionManager.Selection selection) {
+        FakeEndpoint local = new FakeEndpoint();
+        return local.mgr = new ConnectionManager(local, connections, selection);
+    }
+
+    FakeConnection channel(ConnectionManager mgr, int i) {
+        return (FakeConnection) mgr.pool(remote).channels[i].conn;
+    }
+
+    @Test
+    public void testSingleConnectionByDefault() {
+        ConnectionManager mgr = manager(1, ConnectionManager.Selection.ROUND_ROBIN);
+        for (int i = 0; i < 10; i++)
+            assertTrue(mgr.send(remote, new Ping()));
+        assertEquals(1, ((FakeEndpoint) mgr.localEndpoint).connects);
+        assertEquals(10, channel(mgr, 0).sent);
+    }
+
+    @Test
+    public void testRoundRobin() {
+        ConnectionManager mgr = manager(4, ConnectionManager.Selection.ROUND_ROBIN);
+        for (int i = 0; i < 100; i++)
+            assertTrue(mgr.send(remote, new Ping()));
+        assertEquals(4, mgr.pool(remote).channels.length);
+
+        // once the pool is complete, messages are spread evenly
+        int sent = 0;
+        for (int i = 0; i < 4; i++)
+            sent += channel(mgr, i).sent;
+        assertEquals(100, sent);
+        for (int i = 0; i < 4; i++)
+            channel(mgr, i).sent = 0;
+        for (int i = 0; i < 100; i++)
+            mgr.send(remote, new Ping());
+        for (int i = 0; i < 4; i++)
+            assertEquals(25, channel(mgr, i).sent);
+    }
+
+    @Test
+    public void testLeastLoaded() {
+        ConnectionManager mgr = manager(3, ConnectionManager.Selection.LEAST_LOADED);
+        for (int i = 0; i < 3; i++)
+            mgr.send(remote, new Ping());
+        assertEquals(3, mgr.pool(remote).channels.length);
+
+        channel(mgr, 0).queued = 1000;
+        channel(mgr, 1).queued = 10;
+        channel(mgr, 2).queued = 500;
+        int before = channel(mgr, 1).sent;
+        for (int i = 0; i < 20; i++)
+            mgr.send(remote, new Ping());
+        assertEquals(before + 20, channel(mgr, 1).sent);
+    }
+
+    @Test
+    public void testFailover() {
+        ConnectionManager mgr = manager(2, ConnectionManager.Selection.ROUND_ROBIN);
+        mgr.send(remote, new Ping());
+        mgr.send(remote, new Ping());
+        FakeConnection failed = channel(mgr, 0), other = channel(mgr, 1);
+        failed.fails = true;
+        int before = other.sent;
+        for (int i = 0; i < 10; i++)
+            assertTrue(mgr.send(remote, new Ping()));
+        assertEquals(before + 10, other.sent);
+
+        mgr.remove(failed);
+        assertEquals(1, mgr.pool(remote).channels.length);
+        assertTrue(mgr.pool(remote).channels[0].conn == other);
+    }
+
+    @Test
+    public void testRemovedChannelStopsExportingStats() {
+        final Set<String> exported = new HashSet<String>();
+        DummyStats stats = new DummyStats() {
+            public void registerPollingBasedValueProvider(String statName, PollingBasedValueProvider provider,
+                    int frequency) {
+                exported.add(statName);
+            }
+
+            public void unregisterPollingBasedValueProvider(String statName) {
+                exported.remove(statName);
+            }
+        };
+        ConnectionManager mgr = manager(1, ConnectionManager.Selection.ROUND_ROBIN);
+        assertTrue(mgr.send(remote, new Ping()));
+        ConnectionManager.Channel c = mgr.pool(remote).channels[0];
+        c.register(stats, "test-");
+        assertEquals(2, exported.size());
+
+        mgr.remove(c.conn);
+        assertTrue(exported.isEmpty());
+        // e.g. exporting the stats of all the channels concurrently
+        c.register(stats, "test-");
+        assertTrue(exported.isEmpty());
+    }
+}
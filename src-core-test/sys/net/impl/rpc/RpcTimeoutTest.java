@@ -0,0 +1,130 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package sys.net.impl.rpc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import sys.net.api.Endpoint;
+import sys.net.api.Networking;
+import sys.net.api.rpc.AbstractRpcHandler;
+import sys.net.api.rpc.RpcEndpoint;
+import sys.net.api.rpc.RpcHandle;
+import sys.net.api.rpc.RpcHandler;
+import sys.net.api.rpc.RpcMessage;
+
+public class RpcTimeoutTest {
+
+    public static class Echo implements RpcMessage {
+        int value;
+
+        Echo() {
+        }
+
+        Echo(int value) {
+            this.value = value;
+        }
+
+        @Override
+        public void deliverTo(RpcHandle handle, RpcHandler handler) {
+            handler.onReceive(handle, this);
+        }
+    }
+
+    static RpcEndpoint client;
+    static Endpoint server;
+
+    @BeforeClass
+    public static void setup() {
+        int port = 33000 + new Random().nextInt(1000);
+        // replies to even values only
+        Networking.getInstance().rpcBind(port).toService(0, new AbstractRpcHandler() {
+            public void onReceive(RpcHandle handle, RpcMessage m) {
+                if (((Echo) m).value % 2 == 0)
+                    handle.reply(m);
+            }
+        });
+        client = Networking.getInstance().rpcConnect().toDefaultService();
+        server = Networking.getInstance().resolve("localhost", port);
+    }
+
+    @Test
+    public void testRequestAsync() throws Exception {
+        CompletableFuture<Echo> reply = client.requestAsync(server, new Echo(2));
+        assertEquals(2, reply.get(10, TimeUnit.SECONDS).value);
+    }
+
+    @Test
+    public void testTimeoutRemovesHandler() throws Exception {
+        RpcFactoryImpl fac = (RpcFactoryImpl) client.getFactory();
+        long timedOut = RpcFactoryImpl.timedOut.get();
+        int handlers = fac.handlers.size();
+
+        CompletableFuture<Echo> reply = client.requestAsync(server, new Echo(1), 100);
+        try {
+            reply.get(10, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException x) {
+            assertTrue(x.getCause() instanceof TimeoutException);
+        }
+        assertEquals(handlers, fac.handlers.size());
+        assertTrue(RpcFactoryImpl.timedOut.get() > timedOut);
+    }
+
+    @Test
+    public void testBlockingTimeoutRemovesHandler() throws Exception {
+        RpcFactoryImpl fac = (RpcFactoryImpl) client.getFactory();
+        int handlers = fac.handlers.size();
+
+        RpcHandle handle = client.send(server, new Echo(3), RpcHandler.NONE, 100);
+        assertFalse(handle.failed());
+        assertNull(handle.getReply());
+        assertEquals(handlers, fac.handlers.size());
+
+        handle = client.send(server, new Echo(4), RpcHandler.NONE, 10000);
+        assertEquals(4, ((Echo) handle.getReply().getPayload()).value);
+        assertEquals(handlers, fac.handlers.size());
+    }
+
+    @Test
+    public void testNoDeadline() throws Exception {
+        RpcFactoryImpl fac = (RpcFactoryImpl) client.getFactory();
+        int handlers = fac.handlers.size();
+
+        assertEquals(6, client.<Echo> requestAsync(server, new Echo(6), 0).get(10, TimeUnit.SECONDS).value);
+
+        // kept until it becomes stale, or the caller gives up
+        CompletableFuture<Echo> reply = client.requestAsync(server, new Echo(7), 0);
+        Thread.sleep(500);
+        assertFalse(reply.isDone());
+        assertEquals(handlers + 1, fac.handlers.size());
+        reply.cancel(false);
+        assertEquals(handlers, fac.handlers.size());
+    }
+}
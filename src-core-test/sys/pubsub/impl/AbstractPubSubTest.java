@@ -0,0 +1,171 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package sys.pubsub.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import sys.pubsub.PubSub.Notifyable;
+import sys.pubsub.PubSub.Subscriber;
+
+public class AbstractPubSubTest {
+
+    static class Event implements Notifyable<String> {
+        final String key;
+        final long seqN;
+
+        Event(String key, long seqN) {
+            this.key = key;
+            this.seqN = seqN;
+        }
+
+        public long seqN() {
+            return seqN;
+        }
+
+        public Object src() {
+            return null;
+        }
+
+        public String key() {
+            return key;
+        }
+
+        public Set<String> keys() {
+            return Collections.singleton(key);
+        }
+
+        public Notifyable<String> clone(long seqN) {
+            return new Event(key, seqN);
+        }
+
+        public void notifyTo(Subscriber<String> subscriber) {
+            subscriber.onNotification(this);
+        }
+    }
+
+    static class Recorder extends AbstractSubscriber<String> {
+        final List<Long> received = Collections.synchronizedList(new ArrayList<Long>());
+        final CountDownLatch gate;
+        volatile int resyncs;
+
+        Recorder(String id, CountDownLatch gate) {
+            super(id);
+            this.gate = gate;
+        }
+
+        public void onNotification(Notifyable<String> info) {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+            }
+            received.add(info.seqN());
+        }
+
+        public void onResync() {
+            resyncs++;
+        }
+    }
+
+    static class PubSub extends AbstractPubSub<String> {
+        PubSub(int workers, int capacity, OverflowPolicy policy) {
+            super("test", workers, capacity, policy);
+        }
+    }
+
+    private void awaitSize(List<?> list, int size) throws InterruptedException {
+        for (int i = 0; i < 500 && list.size() < size; i++)
+            Thread.sleep(10);
+        assertEquals(size, list.size());
+    }
+
+    @Test
+    public void testSlowSubscriberDoesNotBlockOthers() throws Exception {
+        PubSub pubsub = new PubSub(2, 16, AbstractPubSub.OverflowPolicy.RESYNC);
+        CountDownLatch slowGate = new CountDownLatch(1);
+        Recorder slow = new Recorder("slow", slowGate);
+        Recorder fast = new Recorder("fast", new CountDownLatch(0));
+        pubsub.subscribe("k", slow);
+        pubsub.subscribe("k", fast);
+
+        for (int i = 0; i < 10; i++)
+            pubsub.publish(new Event("k", -1));
+        awaitSize(fast.received, 10);
+        for (int i = 0; i < 10; i++)
+            assertEquals(i + 1, (long) fast.received.get(i));
+        assertTrue(slow.received.isEmpty());
+
+        slowGate.countDown();
+        awaitSize(slow.received, 10);
+        assertEquals(0, slow.resyncs);
+        assertEquals(0, (int) pubsub.queueDepths().get("slow"));
+    }
+
+    @Test
+    public void testOverflowResyncs() throws Exception {
+        PubSub pubsub = new PubSub(1, 4, AbstractPubSub.OverflowPolicy.RESYNC);
+        CountDownLatch gate = new CountDownLatch(1);
+        Recorder slow = new Recorder("slow", gate);
+        pubsub.subscribe("k", slow);
+
+        // the first one blocks the worker, the queue takes 4 more
+        for (int i = 0; i < 20; i++)
+            pubsub.publish(new Event("k", -1));
+        gate.countDown();
+        for (int i = 0; i < 500 && slow.resyncs == 0; i++)
+            Thread.sleep(10);
+        assertEquals(1, slow.resyncs);
+
+        int delivered = slow.received.size();
+        pubsub.publish(new Event("k", -1));
+        awaitSize(slow.received, delivered + 1);
+        // sequence numbers stay contiguous across discarded notifications
+        for (int i = 0; i <= delivered; i++)
+            assertEquals(i + 1, (long) slow.received.get(i));
+    }
+
+    @Test
+    public void testBackpressure() throws Exception {
+        final PubSub pubsub = new PubSub(1, 2, AbstractPubSub.OverflowPolicy.BLOCK);
+        final CountDownLatch gate = new CountDownLatch(1);
+        Recorder slow = new Recorder("slow", gate);
+        pubsub.subscribe("k", slow);
+
+        final CountDownLatch published = new CountDownLatch(1);
+        new Thread() {
+            public void run() {
+                for (int i = 0; i < 10; i++)
+                    pubsub.publish(new Event("k", -1));
+                published.countDown();
+            }
+        }.start();
+        assertTrue(!published.await(200, TimeUnit.MILLISECONDS));
+        gate.countDown();
+        assertTrue(published.await(5, TimeUnit.SECONDS));
+        awaitSize(slow.received, 10);
+        assertEquals(0, slow.resyncs);
+    }
+}
@@ -0,0 +1,85 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package sys.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class HashedWheelTimerTest {
+
+    @Test
+    public void testExpiresInDeadlineOrder() throws Exception {
+        // small wheel, so most timeouts wait for several rotations
+        HashedWheelTimer timer = new HashedWheelTimer("test", 1, 8);
+        final int n = 50;
+        final CountDownLatch done = new CountDownLatch(n);
+        final long[] expired = new long[n];
+        final long t0 = System.nanoTime();
+        for (int i = n; --i >= 0;) {
+            final int j = i;
+            timer.schedule(new Runnable() {
+                public void run() {
+                    expired[j] = System.nanoTime();
+                    done.countDown();
+                }
+            }, 5 * i);
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < n; i++) {
+            assertTrue(expired[i] - t0 >= TimeUnit.MILLISECONDS.toNanos(5 * i));
+            if (i > 0)
+                assertTrue(expired[i] >= expired[i - 1]);
+        }
+        assertEquals(0, timer.pending());
+    }
+
+    @Test
+    public void testCancel() throws Exception {
+        HashedWheelTimer timer = new HashedWheelTimer("test", 1, 16);
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(1);
+        Runnable task = new Runnable() {
+            public void run() {
+                runs.incrementAndGet();
+            }
+        };
+        HashedWheelTimer.Timeout cancelled = timer.schedule(task, 20);
+        HashedWheelTimer.Timeout expired = timer.schedule(new Runnable() {
+            public void run() {
+                done.countDown();
+            }
+        }, 40);
+        assertEquals(2, timer.pending());
+        assertTrue(cancelled.cancel());
+        assertFalse(cancelled.cancel());
+        assertEquals(1, timer.pending());
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(expired.isExpired());
+        assertFalse(expired.cancel());
+        assertTrue(cancelled.isCancelled());
+        assertEquals(0, runs.get());
+        assertEquals(0, timer.pending());
+    }
+}
@@ -0,0 +1,112 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package sys.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class FifoQueueTest {
+
+    static class Recorder extends FifoQueue<Long> {
+        final List<Long> processed = Collections.synchronizedList(new ArrayList<Long>());
+        long gap = -1;
+
+        Recorder(int capacity) {
+            super("test", capacity);
+        }
+
+        public void process(Long val) {
+            processed.add(val);
+        }
+
+        protected void onGap(long seqN, long pending, long waitingMs) {
+            gap = seqN;
+        }
+    }
+
+    @Test
+    public void testReorder() {
+        Recorder q = new Recorder(4);
+        q.offer(3, 3L);
+        q.offer(2, 2L);
+        assertEquals(0, q.processed.size());
+        q.offer(1, 1L);
+        assertEquals(3, q.processed.size());
+        // duplicates and stale values are discarded
+        q.offer(2, 2L);
+        q.offer(5, 5L);
+        q.offer(4, 4L);
+        assertEquals(5, q.processed.size());
+        for (int i = 0; i < 5; i++)
+            assertEquals(i + 1L, (long) q.processed.get(i));
+        assertEquals(0, q.pending());
+    }
+
+    @Test
+    public void testSpill() {
+        Recorder q = new Recorder(4);
+        for (long i = 100; i > 1; i--)
+            q.offer(i, i);
+        assertEquals(99, q.pending());
+        q.offer(1, 1L);
+        assertEquals(0, q.pending());
+        assertEquals(100, q.processed.size());
+        for (int i = 0; i < 100; i++)
+            assertEquals(i + 1L, (long) q.processed.get(i));
+    }
+
+    @Test
+    public void testGap() throws Exception {
+        Recorder q = new Recorder(4);
+        q.setGapTimeout(10);
+        q.offer(2, 2L);
+        q.checkGaps();
+        Thread.sleep(20);
+        q.checkGaps();
+        assertEquals(1L, q.gap);
+        q.offer(1, 1L);
+        assertEquals(2, q.processed.size());
+    }
+
+    @Test
+    public void testConcurrentOffers() throws Exception {
+        final Recorder q = new Recorder(8);
+        final int threads = 4, n = 10000;
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final int first = t + 1;
+            Thread w = new Thread() {
+                public void run() {
+                    for (long i = first; i <= n; i += threads)
+                        q.offer(i, i);
+                }
+            };
+            workers.add(w);
+            w.start();
+        }
+        for (Thread w : workers)
+            w.join();
+        assertEquals(n, q.processed.size());
+        for (int i = 0; i < n; i++)
+            assertEquals(i + 1L, (long) q.processed.get(i));
+    }
+}
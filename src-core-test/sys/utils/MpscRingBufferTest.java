@@ -0,0 +1,81 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package sys.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class MpscRingBufferTest {
+
+    @Test
+    public void testBounded() {
+        MpscRingBuffer<Integer> queue = new MpscRingBuffer<Integer>(3);
+        assertEquals(4, queue.capacity());
+        assertNull(queue.poll());
+        for (int lap = 0; lap < 3; lap++) {
+            for (int i = 0; i < 4; i++)
+                assertTrue(queue.offer(i));
+            assertFalse(queue.offer(4));
+            assertEquals(4, queue.size());
+            for (int i = 0; i < 4; i++)
+                assertEquals(i, (int) queue.poll());
+            assertNull(queue.poll());
+            assertTrue(queue.isEmpty());
+        }
+    }
+
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        final MpscRingBuffer<long[]> queue = new MpscRingBuffer<long[]>(64);
+        final int producers = 4, items = 20000;
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int p = 0; p < producers; p++) {
+            final int producer = p;
+            threads.add(new Thread() {
+                public void run() {
+                    for (int i = 0; i < items; i++)
+                        while (!queue.offer(new long[] { producer, i }))
+                            Thread.yield();
+                }
+            });
+        }
+        for (Thread t : threads)
+            t.start();
+
+        // each producer's items come out in order
+        long[] next = new long[producers];
+        for (int received = 0; received < producers * items;) {
+            long[] e = queue.poll();
+            if (e == null) {
+                Thread.yield();
+                continue;
+            }
+            assertEquals(next[(int) e[0]]++, e[1]);
+            received++;
+        }
+        for (Thread t : threads)
+            t.join();
+        assertNull(queue.poll());
+    }
+}
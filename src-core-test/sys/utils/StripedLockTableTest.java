@@ -0,0 +1,85 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package sys.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class StripedLockTableTest {
+
+    @Test
+    public void testSizeIsPowerOfTwo() {
+        assertEquals(1, new StripedLockTable(1).size());
+        assertEquals(8, new StripedLockTable(5).size());
+        assertEquals(16, new StripedLockTable(16).size());
+    }
+
+    @Test
+    public void testReentrantAndDowngrade() {
+        StripedLockTable table = new StripedLockTable(4);
+        table.lock("a");
+        table.lock("a");
+        table.readLock("a");
+        table.readUnlock("a");
+        table.unlock("a");
+        table.unlock("a");
+        table.readLock("a");
+        table.readLock("a");
+        table.readUnlock("a");
+        table.readUnlock("a");
+    }
+
+    @Test(expected = IllegalMonitorStateException.class)
+    public void testUnbalancedUnlock() {
+        new StripedLockTable(4).unlock("a");
+    }
+
+    @Test
+    public void testReadersShareWritersExclude() throws Exception {
+        final StripedLockTable table = new StripedLockTable(1);
+        final CountDownLatch read = new CountDownLatch(1);
+        final CountDownLatch write = new CountDownLatch(1);
+        table.readLock("a");
+        Thread reader = new Thread() {
+            public void run() {
+                // any object maps to the single stripe
+                table.readLock("b");
+                read.countDown();
+                table.readUnlock("b");
+            }
+        };
+        Thread writer = new Thread() {
+            public void run() {
+                table.lock("c");
+                write.countDown();
+                table.unlock("c");
+            }
+        };
+        reader.start();
+        assertTrue(read.await(5, TimeUnit.SECONDS));
+        writer.start();
+        assertFalse(write.await(100, TimeUnit.MILLISECONDS));
+        table.readUnlock("a");
+        assertTrue(write.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -16,6 +16,7 @@
  *****************************************************************************/
 package swift.client;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -23,6 +24,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -37,6 +39,7 @@ import swift.crdt.core.BulkGetProgressListener;
 import swift.crdt.core.CRDT;
 import swift.crdt.core.CRDTIdentifier;
 import swift.crdt.core.CRDTObjectUpdatesGroup;
+import swift.crdt.core.CRDTQuery;
 import swift.crdt.core.CRDTUpdate;
 import swift.crdt.core.CachePolicy;
 import swift.crdt.core.IsolationLevel;
@@ -54,7 +57,6 @@ import sys.stats.StatsConstants;
 import sys.stats.sources.CounterSignalSource;
 import sys.stats.sources.ValueSignalSource;
 import sys.stats.sources.ValueSignalSource.Stopper;
-import sys.utils.Threading;
 
 /**
  * Implementation of abstract SwiftCloud transaction with unspecified isolation
@@ -192,6 +194,17 @@ abstract class AbstractTxnHandle implements TxnHandle, Comparable<AbstractTxnHan
         }
     }
 
+    @Override
+    public synchronized <V extends CRDT<V>> Object query(CRDTIdentifier id, Class<V> classOfV, CRDTQuery<V> query)
+            throws WrongTypeException, NoSuchObjectException, VersionNotFoundException, NetworkException {
+        assertStatus(TxnStatus.PENDING);
+        try {
+            return queryImpl(id, classOfV, query);
+        } catch (ClassCastException x) {
+            throw new WrongTypeException(x.getMessage());
+        }
+    }
+
     @Override
     public void commit() {
         final Semaphore commitSem = new Semaphore(0);
@@ -282,6 +295,10 @@ abstract class AbstractTxnHandle implements TxnHandle, Comparable<AbstractTxnHan
     synchronized void markLocallyCommitted() {
         assertStatus(TxnStatus.PENDING);
         status = TxnStatus.COMMITTED_LOCAL;
+        if (!localObjectOperations.isEmpty()) {
+            // Self-contained copy of the updates, to resubmit them on recovery.
+            durableLog.writeEntry(getId(), new ArrayList<CRDTObjectUpdatesGroup<?>>(localObjectOperations.values()));
+        }
         logStatusChange();
         // Flush the log before returning to the client call.
         durableLog.flush();
@@ -372,6 +389,17 @@ abstract class AbstractTxnHandle implements TxnHandle, Comparable<AbstractTxnHan
             ObjectUpdatesListener updatesListener) throws WrongTypeException, NoSuchObjectException,
             VersionNotFoundException, NetworkException;
 
+    /**
+     * Implementation of query request. By default, the query is evaluated on
+     * the object read with {@link #getImpl}; implementations reading from a
+     * fixed snapshot can ship it to the store with
+     * {@link TxnManager#queryObjectVersion}.
+     */
+    protected <V extends CRDT<V>> Object queryImpl(CRDTIdentifier id, Class<V> classOfV, CRDTQuery<V> query)
+            throws WrongTypeException, NoSuchObjectException, VersionNotFoundException, NetworkException {
+        return query.executeAt(getImpl(id, false, classOfV, null));
+    }
+
     /**
      * Updates dependency clock of the transaction.
      * 
@@ -439,8 +467,11 @@ abstract class AbstractTxnHandle implements TxnHandle, Comparable<AbstractTxnHan
         if (ids.isEmpty())
             return res;
 
+        // Gets run concurrently, so that cache misses are coalesced into
+        // batched fetch requests, and count down as they complete.
+        final CountDownLatch done = new CountDownLatch(ids.size());
         for (final CRDTIdentifier i : ids)
-            execute(new Runnable() {
+            executeBulkGet(new Runnable() {
                 @Override
                 public void run() {
                     CRDT<?> val;
@@ -452,14 +483,23 @@ abstract class AbstractTxnHandle implements TxnHandle, Comparable<AbstractTxnHan
                     } catch (Exception e) {
                         e.printStackTrace();
                         res.put(i, null);
+                    } finally {
+                        done.countDown();
                     }
-                    Threading.synchronizedNotifyAllOn(res);
                 }
             });
 
-        while (res.size() != ids.size()) {
-            Threading.synchronizedWaitOn(res, 100);
+        boolean interrupted = false;
+        for (;;) {
+            try {
+                done.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
         }
+        if (interrupted)
+            Thread.currentThread().interrupt();
         return res;
     }
 
@@ -472,8 +512,8 @@ abstract class AbstractTxnHandle implements TxnHandle, Comparable<AbstractTxnHan
         return isolationLevel;
     }
 
-    private void execute(Runnable r) {
-        ((SwiftImpl) manager).execute(r);
+    private void executeBulkGet(Runnable r) {
+        ((SwiftImpl) manager).executeBulkGet(r);
     }
 
     private void initStats(Stats stats) {
@@ -0,0 +1,118 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package swift.client;
+
+import java.util.ArrayList;
+
+import swift.clocks.CausalityClock;
+import swift.clocks.Timestamp;
+import swift.crdt.core.ManagedCRDT;
+
+/**
+ * Clock augmentations that apply to all the objects of a cache, applied to
+ * each object lazily, when it is next read from the cache.
+ * <p>
+ * Every augmentation advances the cache-wide clock epoch. A cache entry
+ * remembers the epoch its object was brought up to date with, and
+ * {@link #catchUp(ManagedCRDT, long)} applies only the augmentations recorded
+ * since. The log is bounded: once it holds {@link #MAX_PENDING}
+ * augmentations, {@link #record(CausalityClock)} asks the cache to catch up
+ * all its objects, after which the log is {@link #truncate(long) truncated}.
+ * <p>
+ * Thread-safe. Callers must serialize catching up a given object.
+ */
+final class CacheClockLog {
+    static final int MAX_PENDING = 256;
+
+    // DC clocks and scout timestamps, guarded by this
+    private final ArrayList<Object> pending = new ArrayList<Object>();
+    private long firstEpoch;
+    private volatile long epoch;
+
+    /**
+     * @return current epoch; objects added to the cache now are up to date
+     *         with it
+     */
+    long epoch() {
+        return epoch;
+    }
+
+    /**
+     * Records augmentation of all objects with a DC clock.
+     * 
+     * @return true if all objects should be caught up and the log truncated
+     */
+    synchronized boolean record(final CausalityClock dcClock) {
+        return append(dcClock.clone());
+    }
+
+    /**
+     * Records augmentation of all objects with a scout timestamp.
+     * 
+     * @return true if all objects should be caught up and the log truncated
+     */
+    synchronized boolean record(final Timestamp clientTimestamp) {
+        return append(clientTimestamp);
+    }
+
+    private boolean append(final Object augmentation) {
+        pending.add(augmentation);
+        epoch++;
+        return pending.size() >= MAX_PENDING;
+    }
+
+    /**
+     * Applies to an object all augmentations recorded after a given epoch.
+     * 
+     * @param object
+     *            cached object
+     * @param objectEpoch
+     *            epoch the object is up to date with
+     * @return epoch the object is now up to date with
+     */
+    long catchUp(final ManagedCRDT<?> object, final long objectEpoch) {
+        if (objectEpoch == epoch) {
+            return objectEpoch;
+        }
+        synchronized (this) {
+            for (long e = Math.max(objectEpoch, firstEpoch); e < epoch; e++) {
+                final Object augmentation = pending.get((int) (e - firstEpoch));
+                if (augmentation instanceof Timestamp) {
+                    object.augmentWithScoutTimestamp((Timestamp) augmentation);
+                } else {
+                    object.augmentWithDCClockWithoutMappings((CausalityClock) augmentation);
+                }
+            }
+            return epoch;
+        }
+    }
+
+    /**
+     * Discards the augmentations recorded before a given epoch; all cached
+     * objects must be caught up to it first. Augmentations recorded
+     * concurrently with catching up are kept.
+     * 
+     * @param upToEpoch
+     *            epoch read before catching up the objects
+     */
+    synchronized void truncate(final long upToEpoch) {
+        if (upToEpoch > firstEpoch) {
+            pending.subList(0, (int) (upToEpoch - firstEpoch)).clear();
+            firstEpoch = upToEpoch;
+        }
+    }
+}
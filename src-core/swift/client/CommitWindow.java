@@ -0,0 +1,109 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package swift.client;
+
+/**
+ * Flow control of the asynchronous commits of a scout: bounds the number of
+ * commit batches in flight to the store and sizes the batches to the observed
+ * round-trip time.
+ * <p>
+ * With W batches in flight, a scout commits at most W batches per round trip;
+ * to keep up with transactions committing locally every I on average, a batch
+ * should carry RTT / (W * I) of them. While some batch is in flight, a new one
+ * is sent only once that many transactions are queued, so a high-latency link
+ * is filled with few large batches rather than many small ones; with nothing
+ * in flight, whatever is queued is sent right away. Round-trip and
+ * inter-arrival times are exponentially weighted moving averages.
+ * <p>
+ * Not thread-safe, it is guarded by the scout lock.
+ */
+final class CommitWindow {
+    // weight of a new sample in the moving averages, as in TCP RTT estimation
+    static final double ALPHA = 0.125;
+
+    private final int maxInFlight;
+    private final int maxBatchSize;
+
+    private double rttNanos;
+    private double interArrivalNanos;
+    private long lastArrivalNanos = -1;
+
+    /**
+     * @param maxInFlight
+     *            maximum number of commit batches in flight
+     * @param maxBatchSize
+     *            maximum number of transactions in a commit batch
+     */
+    CommitWindow(int maxInFlight, int maxBatchSize) {
+        if (maxInFlight < 1 || maxBatchSize < 1) {
+            throw new IllegalArgumentException("Invalid commit window: " + maxInFlight + " batches of "
+                    + maxBatchSize);
+        }
+        this.maxInFlight = maxInFlight;
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * Records a transaction queued for global commit.
+     */
+    void onQueued(long nowNanos) {
+        if (lastArrivalNanos >= 0) {
+            interArrivalNanos = average(interArrivalNanos, nowNanos - lastArrivalNanos);
+        }
+        lastArrivalNanos = nowNanos;
+    }
+
+    /**
+     * Records the round-trip time of a commit batch.
+     */
+    void onReply(long rttNanos) {
+        this.rttNanos = average(this.rttNanos, rttNanos);
+    }
+
+    /**
+     * @return number of transactions a batch should carry, between 1 and the
+     *         maximum batch size
+     */
+    int targetBatchSize() {
+        if (rttNanos <= 0 || interArrivalNanos <= 0) {
+            return 1;
+        }
+        final double target = Math.ceil(rttNanos / (interArrivalNanos * maxInFlight));
+        return (int) Math.max(1, Math.min(maxBatchSize, target));
+    }
+
+    /**
+     * @param queued
+     *            number of transactions queued and not in flight
+     * @param inFlight
+     *            number of batches in flight
+     * @param flush
+     *            if true, sends whatever is queued as long as the window
+     *            allows
+     * @return true if a new batch should be sent now
+     */
+    boolean shouldSend(int queued, int inFlight, boolean flush) {
+        if (queued <= 0 || inFlight >= maxInFlight) {
+            return false;
+        }
+        return flush || inFlight == 0 || queued >= targetBatchSize();
+    }
+
+    private static double average(double average, long sample) {
+        return average <= 0 ? sample : (1 - ALPHA) * average + ALPHA * sample;
+    }
+}
@@ -0,0 +1,248 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package swift.client;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import swift.clocks.CausalityClock;
+import swift.clocks.CausalityClock.CMP_CLOCK;
+import swift.crdt.core.CRDTIdentifier;
+import swift.proto.BatchFetchObjectVersionReply;
+import swift.proto.BatchFetchObjectVersionRequest;
+
+/**
+ * Coalesces concurrent object fetches of a scout into batched
+ * {@link BatchFetchObjectVersionRequest}s.
+ * <p>
+ * Fetches with the same parameters (requested version and flags) join an open
+ * batch; every object keeps its own known version. The thread that opened the
+ * batch sends it right away if no other batch is in progress, otherwise it
+ * waits up to the linger time, or until the batch is full, then sends it on
+ * behalf of all the others; every fetching thread is released as soon as the
+ * reply arrives and gets the position of its object in the reply. Fetches of
+ * an object already in the batch share its position, and fetch it in full if
+ * their known versions differ.
+ */
+final class FetchBatcher {
+
+    /**
+     * Sends fetch requests to the store.
+     */
+    interface Transport {
+        /**
+         * @return the reply, or null if none arrived within the timeout
+         */
+        BatchFetchObjectVersionReply fetch(BatchFetchObjectVersionRequest request, int timeoutMillis);
+    }
+
+    /**
+     * Outcome of a fetch: the batch request and reply, with the position of
+     * the object in both.
+     */
+    static final class Result {
+        final BatchFetchObjectVersionRequest request;
+        final BatchFetchObjectVersionReply reply;
+        final int index;
+
+        Result(BatchFetchObjectVersionRequest request, BatchFetchObjectVersionReply reply, int index) {
+            this.request = request;
+            this.reply = reply;
+            this.index = index;
+        }
+    }
+
+    private final String scoutId;
+    private final boolean disasterSafe;
+    private final int maxBatchSize;
+    private final long lingerMillis;
+    private final Transport transport;
+
+    // guarded by this
+    private final List<Batch> open = new ArrayList<Batch>();
+    // batches open or waiting for their reply, guarded by this
+    private int inProgress;
+
+    /**
+     * @param maxBatchSize
+     *            maximum number of objects in one request
+     * @param lingerMillis
+     *            how long a batch stays open for other fetches while another
+     *            batch is in progress; 0 sends every batch immediately, with
+     *            the fetches that joined meanwhile
+     */
+    FetchBatcher(String scoutId, boolean disasterSafe, int maxBatchSize, long lingerMillis, Transport transport) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Invalid maximum fetch batch size: " + maxBatchSize);
+        }
+        this.scoutId = scoutId;
+        this.disasterSafe = disasterSafe;
+        this.maxBatchSize = maxBatchSize;
+        this.lingerMillis = Math.max(0, lingerMillis);
+        this.transport = transport;
+    }
+
+    /**
+     * Fetches an object, in a batch with the concurrent fetches that use the
+     * same parameters. Parameters are those of
+     * {@link BatchFetchObjectVersionRequest}; the clocks must not be modified
+     * afterwards. The result may fetch the object in full, without the known
+     * version.
+     * 
+     * @param timeoutMillis
+     *            timeout of the request, if this thread ends up sending it
+     * @return the result, or null if no reply arrived within the timeout
+     * @throws InterruptedException
+     */
+    Result fetch(CRDTIdentifier id, CausalityClock knownVersion, CausalityClock version,
+            boolean sendMoreRecentUpdates, boolean subscribe, boolean sendDCVector, int timeoutMillis)
+            throws InterruptedException {
+        Batch batch = null;
+        final int index;
+        boolean leader = false;
+        synchronized (this) {
+            for (final Batch b : open) {
+                if (b.matches(version, sendMoreRecentUpdates, subscribe, sendDCVector)) {
+                    batch = b;
+                    break;
+                }
+            }
+            if (batch == null) {
+                batch = new Batch(version, sendMoreRecentUpdates, subscribe, sendDCVector);
+                // alone, no other fetch would join it
+                batch.linger = inProgress > 0;
+                inProgress++;
+                open.add(batch);
+                leader = true;
+            }
+            index = batch.add(id, knownVersion);
+            if (batch.uids.size() >= maxBatchSize) {
+                close(batch);
+            }
+        }
+        if (leader) {
+            send(batch, timeoutMillis);
+        }
+        batch.done.await();
+        return batch.reply == null ? null : new Result(batch.request, batch.reply, index);
+    }
+
+    private void send(final Batch batch, int timeoutMillis) {
+        try {
+            boolean interrupted = false;
+            synchronized (this) {
+                final long deadline = System.currentTimeMillis() + (batch.linger ? lingerMillis : 0);
+                long remaining;
+                while (!batch.closed && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                    try {
+                        wait(remaining);
+                    } catch (InterruptedException x) {
+                        // send what we have, the other threads wait for it
+                        interrupted = true;
+                        break;
+                    }
+                }
+                close(batch);
+            }
+            batch.request = new BatchFetchObjectVersionRequest(scoutId, disasterSafe, batch.uids,
+                    batch.knownVersions, batch.version, batch.sendMoreRecentUpdates, batch.subscribe,
+                    batch.sendDCVector);
+            batch.reply = transport.fetch(batch.request, timeoutMillis);
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        } finally {
+            synchronized (this) {
+                inProgress--;
+            }
+            batch.done.countDown();
+        }
+    }
+
+    // must hold this
+    private void close(Batch batch) {
+        if (!batch.closed) {
+            batch.closed = true;
+            for (final Iterator<Batch> it = open.iterator(); it.hasNext();) {
+                if (it.next() == batch) {
+                    it.remove();
+                    break;
+                }
+            }
+            notifyAll();
+        }
+    }
+
+    /**
+     * @return number of batches open for new fetches
+     */
+    synchronized int openBatches() {
+        return open.size();
+    }
+
+    static class Batch {
+        final CausalityClock version;
+        final boolean sendMoreRecentUpdates;
+        final boolean subscribe;
+        final boolean sendDCVector;
+        final List<CRDTIdentifier> uids = new ArrayList<CRDTIdentifier>();
+        final List<CausalityClock> knownVersions = new ArrayList<CausalityClock>();
+        final CountDownLatch done = new CountDownLatch(1);
+        // guarded by the batcher
+        boolean closed;
+        boolean linger;
+        // published by done
+        BatchFetchObjectVersionRequest request;
+        BatchFetchObjectVersionReply reply;
+
+        Batch(CausalityClock version, boolean sendMoreRecentUpdates, boolean subscribe, boolean sendDCVector) {
+            this.version = version;
+            this.sendMoreRecentUpdates = sendMoreRecentUpdates;
+            this.subscribe = subscribe;
+            this.sendDCVector = sendDCVector;
+        }
+
+        boolean matches(CausalityClock version, boolean sendMoreRecentUpdates, boolean subscribe,
+                boolean sendDCVector) {
+            return this.sendMoreRecentUpdates == sendMoreRecentUpdates && this.subscribe == subscribe
+                    && this.sendDCVector == sendDCVector && sameClock(this.version, version);
+        }
+
+        int add(CRDTIdentifier id, CausalityClock knownVersion) {
+            final int index = uids.indexOf(id);
+            if (index >= 0) {
+                if (!sameClock(knownVersions.get(index), knownVersion)) {
+                    // a delta would not apply to both
+                    knownVersions.set(index, null);
+                }
+                return index;
+            }
+            uids.add(id);
+            knownVersions.add(knownVersion);
+            return uids.size() - 1;
+        }
+
+        private static boolean sameClock(CausalityClock a, CausalityClock b) {
+            if (a == null || b == null) {
+                return a == b;
+            }
+            return a == b || a.compareTo(b) == CMP_CLOCK.CMP_EQUALS;
+        }
+    }
+}
@@ -16,6 +16,7 @@
  *****************************************************************************/
 package swift.client;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -39,15 +40,14 @@ import swift.utils.DatabaseSizeStats;
  * Local cache of CRDT objects with LRU eviction policy. Elements get evicted
  * when not used for a defined period of time or size of the cache is exceeded.
  * <p>
+ * Clock augmentations of all objects are recorded in a {@link CacheClockLog}
+ * and applied to each object when it is read.
+ * <p>
  * Thread unsafe (requires external synchronization).
  * 
  * @author smduarte, mzawirski
  */
-class LRUObjectsCache {
-
-    public static interface EvictionListener {
-        void onEviction(CRDTIdentifier id);
-    }
+class LRUObjectsCache implements ObjectsCache {
 
     private static Logger logger = Logger.getLogger(LRUObjectsCache.class.getName());
 
@@ -58,6 +58,7 @@ class LRUObjectsCache {
     private Map<CRDTIdentifier, Entry> shadowEntries;
     private Set<Long> evictionProtections;
     private DatabaseSizeStats stats;
+    private final CacheClockLog clockLog = new CacheClockLog();
 
     private EvictionListener evictionListener = new EvictionListener() {
         @Override
@@ -104,7 +105,7 @@ class LRUObjectsCache {
         evictionProtections = new HashSet<Long>();
     }
 
-    void setEvictionListener(EvictionListener evictionListener) {
+    public void setEvictionListener(EvictionListener evictionListener) {
         this.evictionListener = evictionListener;
     }
 
@@ -121,9 +122,14 @@ class LRUObjectsCache {
      *            object to add
      */
     synchronized public void add(final ManagedCRDT<?> object, long txnSerial) {
+        assert !Thread.holdsLock(object) : "cache called under an object monitor";
         if (txnSerial >= 0)
             evictionProtections.add(txnSerial);
 
+        final Entry old = shadowEntries.get(object.getUID());
+        if (old != null) {
+            catchUp(old);
+        }
         Entry e = new Entry(object, txnSerial);
         entries.put(object.getUID(), e);
         shadowEntries.put(object.getUID(), e);
@@ -143,7 +149,7 @@ class LRUObjectsCache {
             return null;
         }
         entry.touch();
-        return entry.getObject();
+        return catchUp(entry);
     }
 
     /**
@@ -156,13 +162,13 @@ class LRUObjectsCache {
      */
     synchronized public ManagedCRDT<?> getWithoutTouch(final CRDTIdentifier id) {
         final Entry entry = shadowEntries.get(id);
-        return entry == null ? null : entry.getObject();
+        return entry == null ? null : catchUp(entry);
     }
 
-    public synchronized List<ManagedCRDT> getAllWithoutTouch() {
-        final List<ManagedCRDT> result = new LinkedList<>();
+    public synchronized List<ManagedCRDT<?>> getAllWithoutTouch() {
+        final List<ManagedCRDT<?>> result = new LinkedList<>();
         for (final Entry entry : shadowEntries.values()) {
-            result.add(entry.getObject());
+            result.add(catchUp(entry));
         }
         return result;
     }
@@ -174,6 +180,25 @@ class LRUObjectsCache {
         }
     }
 
+    private ManagedCRDT<?> catchUp(final Entry entry) {
+        assert !Thread.holdsLock(entry.object) : "cache called under an object monitor";
+        if (entry.clockEpoch != clockLog.epoch()) {
+            // objects are read and modified under their own lock
+            synchronized (entry.object) {
+                entry.clockEpoch = clockLog.catchUp(entry.object, entry.clockEpoch);
+            }
+        }
+        return entry.object;
+    }
+
+    private void catchUpAll() {
+        final long epoch = clockLog.epoch();
+        for (final Entry entry : shadowEntries.values()) {
+            catchUp(entry);
+        }
+        clockLog.truncate(epoch);
+    }
+
     private void updateStats(final CRDTIdentifier id, final ManagedCRDT<?> crdt, boolean clocksOnly) {
         if (clocksOnly) {
             // TODO: record it depending on a configuration flag?
@@ -241,11 +266,20 @@ class LRUObjectsCache {
         logger.info(evictedObjects + " objects evicted from the cache due to timeout");
     }
 
+    public synchronized void evictAll() {
+        final List<CRDTIdentifier> evicted = new ArrayList<CRDTIdentifier>(shadowEntries.keySet());
+        entries.clear();
+        shadowEntries.clear();
+        for (final CRDTIdentifier id : evicted) {
+            handleEvicted(id);
+        }
+        logger.info(evicted.size() + " objects evicted from the cache");
+    }
+
     // TODO: update stats in this case or not?
-    synchronized void augmentAllWithDCCausalClockWithoutMappings(final CausalityClock causalClock) {
-        for (final Entry entry : entries.values()) {
-            entry.object.augmentWithDCClockWithoutMappings(causalClock);
-            updateStats(entry.object.getUID(), entry.object, true);
+    public synchronized void augmentAllWithDCCausalClockWithoutMappings(final CausalityClock causalClock) {
+        if (clockLog.record(causalClock)) {
+            catchUpAll();
         }
     }
 
@@ -255,14 +289,13 @@ class LRUObjectsCache {
     // }
     // }
 
-    synchronized void augmentAllWithScoutTimestampWithoutMappings(Timestamp clientTimestamp) {
-        for (final Entry entry : entries.values()) {
-            entry.object.augmentWithScoutTimestamp(clientTimestamp);
-            updateStats(entry.object.getUID(), entry.object, true);
+    public synchronized void augmentAllWithScoutTimestampWithoutMappings(Timestamp clientTimestamp) {
+        if (clockLog.record(clientTimestamp)) {
+            catchUpAll();
         }
     }
 
-    synchronized void printStats() {
+    public synchronized void printStats() {
         SortedSet<Entry> se = new TreeSet<Entry>(entries.values());
         for (Entry i : se)
             System.err.println(i.object.getUID() + "/" + i.accesses);
@@ -276,10 +309,12 @@ class LRUObjectsCache {
         private long accesses;
         private long txnId;
         private long serial = g_serial.incrementAndGet();
+        private long clockEpoch;
 
         public Entry(final ManagedCRDT<?> object, long txnId) {
             this.object = object;
             this.txnId = txnId;
+            this.clockEpoch = clockLog.epoch();
             touch();
         }
 
@@ -0,0 +1,101 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package swift.client;
+
+import java.util.List;
+
+import swift.clocks.CausalityClock;
+import swift.clocks.Timestamp;
+import swift.crdt.core.CRDTIdentifier;
+import swift.crdt.core.ManagedCRDT;
+
+/**
+ * Local cache of CRDT objects of a scout. Objects cached on behalf of a
+ * transaction are protected from eviction until the protection of that
+ * transaction is removed.
+ * <p>
+ * Cached objects are read and modified under their own monitor. Lock order:
+ * the scout monitor, then the internal locks of the cache, then the monitor of
+ * an object. Implementations take object monitors under their own locks (e.g.,
+ * to catch an object up with the cache clocks), so cache methods must not be
+ * called while holding an object monitor; implementations assert it.
+ */
+interface ObjectsCache {
+
+    public static interface EvictionListener {
+        void onEviction(CRDTIdentifier id);
+    }
+
+    void setEvictionListener(EvictionListener evictionListener);
+
+    /**
+     * Adds object to the cache, possibly overwriting old entry. May cause
+     * eviction due to size limit in the cache.
+     * 
+     * @param object
+     *            object to add
+     * @param txnSerial
+     *            serial of the transaction protecting the object from
+     *            eviction, or -1
+     */
+    void add(ManagedCRDT<?> object, long txnSerial);
+
+    /**
+     * Removes the eviction protection of a transaction; may cause evictions.
+     */
+    void removeProtection(long txnSerial);
+
+    /**
+     * Returns object for given id and records access to the cache.
+     * 
+     * @param id
+     *            object id
+     * @return object or null if object is absent in the cache
+     */
+    ManagedCRDT<?> getAndTouch(CRDTIdentifier id);
+
+    /**
+     * Returns object for given id without recording access to the cache (in
+     * terms of eviction policy).
+     * 
+     * @param id
+     *            object id
+     * @return object or null if object is absent in the cache
+     */
+    ManagedCRDT<?> getWithoutTouch(CRDTIdentifier id);
+
+    List<ManagedCRDT<?>> getAllWithoutTouch();
+
+    /**
+     * Informs that a cached object was modified in place.
+     * 
+     * @param clocksOnly
+     *            true if only the clocks of the object were modified
+     */
+    void markUpdatedWithoutTouch(CRDTIdentifier id, boolean clocksOnly);
+
+    /**
+     * Evicts all objects, including the ones protected by a transaction.
+     */
+    void evictAll();
+
+    void augmentAllWithDCCausalClockWithoutMappings(CausalityClock causalClock);
+
+    void augmentAllWithScoutTimestampWithoutMappings(Timestamp clientTimestamp);
+
+    void printStats();
+}
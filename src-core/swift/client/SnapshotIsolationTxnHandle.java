@@ -23,6 +23,7 @@ import swift.clocks.CausalityClock;
 import swift.clocks.TimestampMapping;
 import swift.crdt.core.CRDT;
 import swift.crdt.core.CRDTIdentifier;
+import swift.crdt.core.CRDTQuery;
 import swift.crdt.core.CachePolicy;
 import swift.crdt.core.IsolationLevel;
 import swift.crdt.core.ObjectUpdatesListener;
@@ -106,4 +107,15 @@ class SnapshotIsolationTxnHandle extends AbstractTxnHandle implements TxnHandle
         }
         return (V) localView;
     }
+
+    @Override
+    protected <V extends CRDT<V>> Object queryImpl(CRDTIdentifier id, Class<V> classOfV, CRDTQuery<V> query)
+            throws WrongTypeException, NoSuchObjectException, VersionNotFoundException, NetworkException {
+        @SuppressWarnings("unchecked")
+        final V localView = (V) objectViewsCache.get(id);
+        if (localView != null) {
+            return query.executeAt(localView);
+        }
+        return manager.queryObjectVersion(this, id, getUpdatesDependencyClock().clone(), classOfV, query);
+    }
 }
@@ -23,9 +23,11 @@ import java.net.InetAddress;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -37,6 +39,7 @@ import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.UUID;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
@@ -44,7 +47,7 @@ import java.util.logging.Logger;
 
 import javax.xml.bind.DatatypeConverter;
 
-import swift.client.LRUObjectsCache.EvictionListener;
+import swift.client.ObjectsCache.EvictionListener;
 import swift.clocks.CausalityClock;
 import swift.clocks.CausalityClock.CMP_CLOCK;
 import swift.clocks.ClockFactory;
@@ -56,6 +59,7 @@ import swift.crdt.core.CRDT;
 import swift.crdt.core.CRDTIdentifier;
 import swift.crdt.core.CRDTObjectUpdatesGroup;
 import swift.crdt.core.CRDTOperationDependencyPolicy;
+import swift.crdt.core.CRDTQuery;
 import swift.crdt.core.CachePolicy;
 import swift.crdt.core.IsolationLevel;
 import swift.crdt.core.ManagedCRDT;
@@ -82,6 +86,8 @@ import swift.proto.LatestKnownClockRequest;
 import swift.proto.MetadataStatsCollector;
 import swift.proto.PingReply;
 import swift.proto.PingRequest;
+import swift.proto.QueryObjectVersionReply;
+import swift.proto.QueryObjectVersionRequest;
 import swift.proto.SwiftProtocolHandler;
 import swift.pubsub.BatchUpdatesNotification;
 import swift.pubsub.ScoutPubSubService;
@@ -92,12 +98,14 @@ import swift.utils.NoFlushLogDecorator;
 import swift.utils.SafeLog;
 import swift.utils.SafeLog.ReportType;
 import swift.utils.TransactionsLog;
+import swift.utils.WriteAheadLog;
 import sys.Sys;
 import sys.net.api.Endpoint;
 import sys.net.api.Networking;
 import sys.net.api.rpc.RpcEndpoint;
 import sys.net.api.rpc.RpcHandle;
 import sys.net.api.rpc.RpcHandler;
+import sys.net.impl.rpc.RpcFactoryImpl;
 import sys.scheduler.PeriodicTask;
 import sys.stats.DummyStats;
 import sys.stats.Stats;
@@ -111,6 +119,12 @@ import sys.utils.Threading;
 /**
  * Implementation of Swift scout and transactions manager. Scout can either
  * support one or multiple client sessions.
+ * <p>
+ * Shared scout state is guarded by the scout monitor, while each cached object
+ * is read and modified under its own monitor, always acquired after the scout
+ * one. Snapshot clocks are copy-on-write, and the set of pending transactions
+ * is concurrent, so cache hits of a given version and commits of read-only
+ * transactions do not take the scout monitor.
  * 
  * @see Swift, TxnManager
  * @author mzawirski,smd
@@ -122,6 +136,23 @@ import sys.utils.Threading;
 // transaction mode, although an unrelated legacy code may coexist.
 // TODO: drop legacy functionality, divide into smaller components.
 public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
+    /**
+     * Policy of eviction of objects from the cache.
+     */
+    public enum CacheEvictionPolicy {
+        /**
+         * Least recently used objects are evicted first.
+         */
+        LRU,
+        /**
+         * Objects leaving a small LRU window are only admitted to the main
+         * cache if they are accessed more often than the object they would
+         * replace; resistant to scans. Selected with
+         * swift.cacheEvictionPolicy=TINYLFU.
+         */
+        TINYLFU
+    }
+
     /**
      * A mode of cache protocol. This serves as a quick hack to try different
      * versions of the protocols within the same codebase. In practice, these
@@ -156,6 +187,8 @@ public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
     // Experimental feature: share dependency clock in a commit batch to reduce
     // metadata size.
     public static final boolean USE_SHARED_DEPENDENCIES_IN_COMMIT_BATCH = true;
+    // Delay before sending again a commit request that could not be sent.
+    private static final int COMMIT_RETRY_DELAY_MILLIS = 100;
     private final double cacheRefreshPeriodSec;
 
     // TODO: complete server failover
@@ -232,7 +265,7 @@ public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
     // and globally committed locally-originating transactions.
     // private final TimeSizeBoundedObjectsCache objectsCache;
 
-    private final LRUObjectsCache objectsCache;
+    private final ObjectsCache objectsCache;
 
     // CLOCKS: all clocks grow over time. Careful with references, use copies.
 
@@ -245,7 +278,9 @@ public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
     // Attenzione attenzione! Can be slightly overestimated when
     // concurrentOpenTransactions = true, but it shouldn't hurt since cache will
     // not contain local transactions before they are committed.
-    private CausalityClock lastLocallyCommittedTxnClock;
+    // Copy-on-write, never modified in place, so it can be read without the
+    // scout lock.
+    private volatile CausalityClock lastLocallyCommittedTxnClock;
     // Last globally committed txn clock + dependencies.
     // Commented-out to avoid holes on the wire.
     // private CausalityClock lastGloballyCommittedTxnClock;
@@ -255,15 +290,21 @@ public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
     // Set of versions for fetch requests in progress.
     private final Set<CausalityClock> fetchVersionsInProgress;
 
+    // Concurrent, so that read-only transactions can leave it without the
+    // scout lock.
     private Set<AbstractTxnHandle> pendingTxns;
-    // Locally committed transactions (in begin-txn order), the first one is
-    // possibly committing to the store.
+    // Locally committed transactions (in begin-txn order), the first
+    // txnsInFlight ones are committing to the store.
     private final SortedSet<AbstractTxnHandle> locallyCommittedTxnsOrderedQueue;
+    // Commit requests sent to the store, in the order of their transactions.
+    private final LinkedList<CommitBatch> commitBatchesInFlight;
+    private int txnsInFlight;
+    private final CommitWindow commitWindow;
     // Globally committed local transactions (in commit order), but possibly not
     // stable, i.e. not distaster-safe in the store.
     private final LinkedList<AbstractTxnHandle> globallyCommittedUnstableTxns;
 
-    // Thread sequentially committing transactions from the queue.
+    // Thread sending the transactions from the queue to the store.
     private final CommitterThread committerThread;
 
     // Update subscriptions stuff.
@@ -277,6 +318,9 @@ public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
     private final Map<TimestampMapping, Set<CRDTIdentifier>> uncommittedUpdatesObjectsToNotify;
 
     private final ExecutorService executorService;
+    // runs the gets of bulkGet(), so they can all join the same fetch batch
+    private final ExecutorService bulkGetExecutorService;
+    private final FetchBatcher fetchBatcher;
 
     private final TransactionsLog durableLog;
 
@@ -308,15 +352,17 @@ public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
 
     private CounterSignalSource ongoingObjectFetchesStats;
     private ValueSignalSource batchSizeOnCommitStats;
+    private ValueSignalSource batchSizeOnFetchStats;
     // A vector that represents a locally available snapshot
     // TODO: unify with globalCommitted vectors;
-    private CausalityClock nextAvailableSnapshot;
+    // Copy-on-write, like lastLocallyCommittedTxnClock.
+    private volatile CausalityClock nextAvailableSnapshot;
 
     SortedSet<CRDTIdentifier> notified = new TreeSet<CRDTIdentifier>();
     private final CacheUpdateProtocol cacheUpdateProtocol;
     private PeriodicTask cacheUpdateTask;
     private PeriodicTask stalenessCalibrationTask;
-    private boolean cacheRefreshReady;
+    private volatile boolean cacheRefreshReady;
 
     SwiftImpl(final RpcEndpoint localEndpoint, final Endpoint[] serverEndpoints, final SwiftOptions options,
             String sessionId) {
@@ -334,8 +380,13 @@ public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
         final DatabaseSizeStats databaseStats = new DatabaseSizeStats(metadataStatsCollector);
         // FIXME: fix flags passing!!
         databaseStats.init(new Properties());
-        this.objectsCache = new LRUObjectsCache(options.getCacheEvictionTimeMillis(), options.getCacheSize(),
-                databaseStats);
+        if (options.getCacheEvictionPolicy() == CacheEvictionPolicy.LRU) {
+            this.objectsCache = new LRUObjectsCache(options.getCacheEvictionTimeMillis(), options.getCacheSize(),
+                    databaseStats);
+        } else {
+            this.objectsCache = new TinyLFUObjectsCache(options.getCacheEvictionTimeMillis(), options.getCacheSize(),
+                    options.getCacheMaxBytes(), databaseStats);
+        }
 
         if (options.isEnableStatistics()) {
             this.stats = StatsImpl.getInstance("scout-" + scoutId, StatsImpl.SAMPLING_INTERVAL_MILLIS,
@@ -347,6 +398,8 @@ public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
 
         this.locallyCommittedTxnsOrderedQueue = new TreeSet<AbstractTxnHandle>();
         this.globallyCommittedUnstableTxns = new LinkedList<AbstractTxnHandle>();
+        this.commitBatchesInFlight = new LinkedList<CommitBatch>();
+        this.commitWindow = new CommitWindow(options.getMaxCommitBatchesInFlight(), maxCommitBatchSize);
         this.lastLocallyCommittedTxnClock = ClockFactory.newClock();
         // this.lastGloballyCommittedTxnClock = ClockFactory.newClock();
         this.committedDisasterDurableVersion = ClockFactory.newClock();
@@ -356,7 +409,7 @@ public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
         this.clientTimestampGenerator = new ReturnableTimestampSourceDecorator<Timestamp>(
                 new IncrementalTimestampGenerator(scoutId));
 
-        this.pendingTxns = new HashSet<AbstractTxnHandle>();
+        this.pendingTxns = Collections.newSetFromMap(new ConcurrentHashMap<AbstractTxnHandle, Boolean>());
         this.committerThread = new CommitterThread();
         this.fetchVersionsInProgress = new HashSet<CausalityClock>();
         this.committerThread.start();
@@ -364,12 +417,17 @@ public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
         this.uncommittedUpdatesObjectsToNotify = new HashMap<TimestampMapping, Set<CRDTIdentifier>>();
 
         this.executorService = Executors.newFixedThreadPool(8, Threading.factory("Client"));
+        this.bulkGetExecutorService = Executors.newCachedThreadPool(Threading.factory("BulkGet"));
 
         localEndpoint.setHandler(new SwiftProtocolHandler());
 
         this.scoutPubSub = new ScoutPubSubService(scoutId, disasterSafe, serverEndpoint(), metadataStatsCollector) {
 
             public void onNotification(final BatchUpdatesNotification batch) {
+                if (batch.isResync()) {
+                    resyncObjects();
+                    return;
+                }
                 if (logger.isLoggable(Level.INFO)) {
                     logger.info(getScoutId() + ": " + "Received notification with vector " + batch.getNewVersion()
                             + " containing updates to " + batch.getObjectsUpdates().size() + " objects");
@@ -402,6 +460,7 @@ public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
         });
 
         this.ongoingObjectFetchesStats = this.stats.getCountingSourceForStat("ongoing-object-fetches");
+        RpcFactoryImpl.registerStats(this.stats, "rpc-");
 
         this.stats.registerPollingBasedValueProvider("uncommited-updates-objects-to-notify",
                 new PollingBasedValueProvider() {
@@ -422,9 +481,7 @@ public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
 
             @Override
             public double poll() {
-                synchronized (SwiftImpl.this) {
-                    return pendingTxns.size();
-                }
+                return pendingTxns.size();
             }
         }, StatsImpl.SAMPLING_INTERVAL_MILLIS);
 
@@ -451,9 +508,42 @@ public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
 
         batchSizeOnCommitStats = this.stats.getValuesFrequencyOverTime("batch-size-on-commit",
                 StatsConstants.BATCH_SIZE);
+        batchSizeOnFetchStats = this.stats.getValuesFrequencyOverTime("batch-size-on-fetch",
+                StatsConstants.BATCH_SIZE);
+
+        this.fetchBatcher = new FetchBatcher(scoutId, disasterSafe, options.getMaxFetchBatchSize(),
+                options.getFetchBatchLingerMillis(), new FetchBatcher.Transport() {
+                    @Override
+                    public BatchFetchObjectVersionReply fetch(BatchFetchObjectVersionRequest request,
+                            int timeoutMillis) {
+                        final RpcHandle rpcReply = localEndpoint.send(serverEndpoint(), request, RpcHandler.NONE,
+                                timeoutMillis);
+                        if (rpcReply.failed() || rpcReply.getReply() == null) {
+                            return null;
+                        }
+                        final BatchFetchObjectVersionReply reply = (BatchFetchObjectVersionReply) rpcReply
+                                .getReply().getPayload();
+                        // TODO: record request only once in case of retry?
+                        request.recordMetadataSample(metadataStatsCollector);
+                        reply.recordMetadataSample(metadataStatsCollector);
+                        batchSizeOnFetchStats.setValue(request.getBatchSize());
+                        return reply;
+                    }
+                });
 
         TransactionsLog log = new DummyLog();
-        if (options.getLogFilename() != null) {
+        if (options.getLogDir() != null) {
+            try {
+                final WriteAheadLog wal = new WriteAheadLog(options.getLogDir(), WriteAheadLog.DEFAULT_SEGMENT_SIZE,
+                        scoutId);
+                recoverLoggedTransactions(wal);
+                log = wal;
+            } catch (IOException x) {
+                // TODO: Propagate the exception
+                logger.warning(getScoutId() + ": " + "Could not open the log directory " + options.getLogDir()
+                        + " (using no log instead): " + x);
+            }
+        } else if (options.getLogFilename() != null) {
             try {
                 log = new KryoDiskLog(options.getLogFilename());
             } catch (FileNotFoundException x) {
@@ -497,6 +587,69 @@ public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
         }
     }
 
+    /**
+     * Resubmits to the store the transactions of a previous scout incarnation
+     * that committed locally but were not known to commit globally. The store
+     * ignores the ones that did commit. Discards the recovered log once
+     * succeeded.
+     */
+    private void recoverLoggedTransactions(final WriteAheadLog log) throws IOException {
+        // Txn ids restart with every incarnation, so transactions are keyed by
+        // their client timestamp; segment headers carry the incarnation id.
+        final Map<Timestamp, List<CRDTObjectUpdatesGroup<?>>> unstableTxns = new LinkedHashMap<Timestamp, List<CRDTObjectUpdatesGroup<?>>>();
+        log.replay(new WriteAheadLog.EntryHandler() {
+            String incarnationId;
+
+            @SuppressWarnings("unchecked")
+            @Override
+            public void onEntry(long transactionId, Object entry) {
+                if (transactionId == WriteAheadLog.SEGMENT_HEADER_ID) {
+                    incarnationId = (String) entry;
+                } else if (entry instanceof List) {
+                    final List<CRDTObjectUpdatesGroup<?>> groups = (List<CRDTObjectUpdatesGroup<?>>) entry;
+                    final Timestamp clientTimestamp = groups.get(0).getTimestampMapping().getClientTimestamp();
+                    // segments without headers: the writer of the last update
+                    incarnationId = clientTimestamp.getIdentifier();
+                    unstableTxns.put(clientTimestamp, groups);
+                } else if ((entry == TxnStatus.COMMITTED_GLOBAL || entry == TxnStatus.CANCELLED)
+                        && incarnationId != null) {
+                    unstableTxns.remove(new Timestamp(incarnationId, transactionId));
+                }
+            }
+        });
+
+        // Requests are grouped by the client id of the incarnation that logged
+        // them.
+        final Map<String, List<CommitUpdatesRequest>> requests = new LinkedHashMap<String, List<CommitUpdatesRequest>>();
+        for (final List<CRDTObjectUpdatesGroup<?>> groups : unstableTxns.values()) {
+            final Timestamp clientTimestamp = groups.get(0).getTimestampMapping().getClientTimestamp();
+            final CausalityClock deps = ClockFactory.newClock();
+            for (final CRDTObjectUpdatesGroup<?> group : groups) {
+                deps.merge(group.getDependency());
+            }
+            final CommitUpdatesRequest request = new CommitUpdatesRequest(clientTimestamp.getIdentifier(),
+                    disasterSafe, clientTimestamp, deps, groups);
+            request.dropInternalDependency();
+            List<CommitUpdatesRequest> clientRequests = requests.get(clientTimestamp.getIdentifier());
+            if (clientRequests == null) {
+                requests.put(clientTimestamp.getIdentifier(), clientRequests = new ArrayList<CommitUpdatesRequest>());
+            }
+            clientRequests.add(request);
+        }
+
+        for (final Entry<String, List<CommitUpdatesRequest>> entry : requests.entrySet()) {
+            logger.info(getScoutId() + ": " + "Resubmitting " + entry.getValue().size()
+                    + " logged transactions of client " + entry.getKey());
+            final BatchCommitUpdatesReply reply = localEndpoint.request(serverEndpoint(),
+                    new BatchCommitUpdatesRequest(entry.getKey(), disasterSafe, entry.getValue()));
+            if (reply == null) {
+                logger.warning(getScoutId() + ": " + "Could not resubmit logged transactions, keeping the log");
+                return;
+            }
+        }
+        log.discardRecovered();
+    }
+
     public void stop(boolean waitForCommit) {
         logger.info(getScoutId() + ": " + "Stopping scout");
         synchronized (this) {
@@ -622,8 +775,8 @@ public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
             version.drop(this.scoutId);
             fetchVersionsInProgress.add(version);
             ongoingObjectFetchesStats.incCounter();
-            final List<ManagedCRDT> cachedObjects = objectsCache.getAllWithoutTouch();
-            for (final ManagedCRDT crdt : cachedObjects) {
+            final List<ManagedCRDT<?>> cachedObjects = objectsCache.getAllWithoutTouch();
+            for (final ManagedCRDT<?> crdt : cachedObjects) {
                 ids.add(crdt.getUID());
                 if (knownVersionLowerBound == null) {
                     knownVersionLowerBound = crdt.getClock().clone();
@@ -709,8 +862,23 @@ public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
             return null;
     }
 
-    public synchronized AbstractTxnHandle beginTxn(String sessionId, IsolationLevel isolationLevel,
-            CachePolicy cachePolicy, boolean readOnly) throws NetworkException {
+    public AbstractTxnHandle beginTxn(String sessionId, IsolationLevel isolationLevel, CachePolicy cachePolicy,
+            boolean readOnly) throws NetworkException {
+        // Ask the store for its latest clock without holding the scout lock.
+        CausalityClock nextSnapshotClock = null;
+        if (isolationLevel == IsolationLevel.SNAPSHOT_ISOLATION
+                && (cachePolicy == CachePolicy.MOST_RECENT || cachePolicy == CachePolicy.STRICTLY_MOST_RECENT)) {
+            assertRunning();
+            nextSnapshotClock = forceDCClockEstimatesUpdate();
+            if (nextSnapshotClock == null && cachePolicy == CachePolicy.STRICTLY_MOST_RECENT) {
+                throw new NetworkException("timed out to get transaction snapshot point");
+            }
+        }
+        return beginTxn(sessionId, isolationLevel, cachePolicy, readOnly, nextSnapshotClock);
+    }
+
+    private synchronized AbstractTxnHandle beginTxn(String sessionId, IsolationLevel isolationLevel,
+            CachePolicy cachePolicy, boolean readOnly, CausalityClock nextSnapshotClock) {
         if (!concurrentOpenTransactions && !pendingTxns.isEmpty()) {
             throw new IllegalStateException("Only one transaction can be executing at the time");
         }
@@ -728,14 +896,8 @@ public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
         switch (isolationLevel) {
         case SNAPSHOT_ISOLATION:
             final CausalityClock snapshotClock;
-            if (cachePolicy == CachePolicy.MOST_RECENT || cachePolicy == CachePolicy.STRICTLY_MOST_RECENT) {
-                final CausalityClock nextSnapshotClock = forceDCClockEstimatesUpdate();
-                if (nextSnapshotClock == null && cachePolicy == CachePolicy.STRICTLY_MOST_RECENT) {
-                    throw new NetworkException("timed out to get transaction snapshot point");
-                }
-                if (nextSnapshotClock != null) {
-                    updateNextAvailableSnapshot(nextSnapshotClock);
-                }
+            if (nextSnapshotClock != null) {
+                updateNextAvailableSnapshot(nextSnapshotClock);
             }
             // Invariant: for SI snapshotClock of a new transaction
             // dominates
@@ -786,8 +948,8 @@ public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
         }
     }
 
-    void execute(Runnable r) {
-        executorService.execute(r);
+    void executeBulkGet(Runnable r) {
+        bulkGetExecutorService.execute(r);
     }
 
     private TimestampMapping generateNextTimestampMapping() {
@@ -890,7 +1052,7 @@ public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
         return result;
     }
 
-    private synchronized CausalityClock getNextTransactionSnapshot(boolean copy) {
+    private CausalityClock getNextTransactionSnapshot(boolean copy) {
         if (cacheUpdateProtocol == CacheUpdateProtocol.NO_CACHE_OR_UNCOORDINATED) {
             return getGlobalCommittedVersion(copy);
         }
@@ -922,7 +1084,9 @@ public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
         for (final CRDTIdentifier id : ids) {
             final ManagedCRDT<?> crdt = SwiftImpl.this.objectsCache.getWithoutTouch(id);
             if (crdt != null) {
-                crdt.prune(pruneClock, true);
+                synchronized (crdt) {
+                    crdt.prune(pruneClock, true);
+                }
                 objectsCache.markUpdatedWithoutTouch(id, false);
             }
         }
@@ -1017,7 +1181,8 @@ public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
             try {
                 final boolean sendMoreRecentUpdates = updatesListener != null;
                 final boolean subscribeUpdates = updatesListener != null;
-                fetchObjectVersion(txn, id, create, classOfV, null, version.clone(), sendMoreRecentUpdates,
+                final CausalityClock knownVersion = sendMoreRecentUpdates ? null : getCachedObjectClock(id);
+                fetchObjectVersion(txn, id, create, classOfV, knownVersion, version.clone(), sendMoreRecentUpdates,
                         subscribeUpdates);
             } catch (InterruptedException x) {
                 throw new NetworkException("Scout was shut down while  fetching an object: " + x.getMessage());
@@ -1045,6 +1210,80 @@ public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
         }
     }
 
+    @Override
+    public <V extends CRDT<V>> Object queryObjectVersion(AbstractTxnHandle txn, final CRDTIdentifier id,
+            final CausalityClock version, Class<V> classOfV, CRDTQuery<V> query) throws WrongTypeException,
+            NoSuchObjectException, VersionNotFoundException, NetworkException {
+        assertPendingTransaction(txn);
+
+        // The store misses the updates of local transactions not yet stable,
+        // and the cached object may already be in the requested version.
+        if (objectsCache.getWithoutTouch(id) != null || hasLocalObjectUpdates(id)) {
+            return query.executeAt(getObjectVersion(txn, id, version, false, classOfV, null));
+        }
+
+        final CausalityClock requestedVersion = version.clone();
+        requestedVersion.drop(scoutId);
+        final QueryObjectVersionRequest request = new QueryObjectVersionRequest(scoutId, disasterSafe, id,
+                requestedVersion, query, cacheUpdateProtocol == CacheUpdateProtocol.NO_CACHE_OR_UNCOORDINATED);
+        final QueryObjectVersionReply reply = doQueryObjectVersionOrTimeout(request);
+        updateCommittedVersions(reply.getEstimatedCommittedVersion(),
+                reply.getEstimatedDisasterDurableCommittedVersion(), false);
+
+        switch (reply.getStatus()) {
+        case OK:
+            return reply.getResult();
+        case OBJECT_NOT_FOUND:
+            throw new NoSuchObjectException("object " + id + " not found");
+        case VERSION_MISSING:
+        case VERSION_PRUNED:
+            logger.warning(getScoutId() + ": " + "Object " + id + " cannot be queried in the store in version "
+                    + requestedVersion + " (" + reply.getStatus() + "), fetching it");
+            return query.executeAt(getObjectVersion(txn, id, version, false, classOfV, null));
+        default:
+            throw new IllegalStateException("Unexpected status code" + reply.getStatus());
+        }
+    }
+
+    /**
+     * @return true if a local transaction not yet stable in the store updated
+     *         the object
+     */
+    private synchronized boolean hasLocalObjectUpdates(CRDTIdentifier id) {
+        for (final AbstractTxnHandle localTxn : globallyCommittedUnstableTxns) {
+            if (localTxn.getObjectUpdates(id) != null) {
+                return true;
+            }
+        }
+        for (final AbstractTxnHandle localTxn : locallyCommittedTxnsOrderedQueue) {
+            if (localTxn.getObjectUpdates(id) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private QueryObjectVersionReply doQueryObjectVersionOrTimeout(final QueryObjectVersionRequest request)
+            throws NetworkException {
+        final long firstRequestTimestamp = System.currentTimeMillis();
+        for (;;) {
+            final long requestDeadline = deadlineMillis - (System.currentTimeMillis() - firstRequestTimestamp);
+            if (requestDeadline <= 0) {
+                throw new NetworkException("Deadline exceeded to get appropriate answer from the store;"
+                        + "note it may be caused by prior errors");
+            }
+            final RpcHandle rpcReply = localEndpoint.send(serverEndpoint(), request, RpcHandler.NONE,
+                    (int) requestDeadline);
+            if (stopFlag) {
+                throw new NetworkException("Scout was shut down while querying an object");
+            }
+            if (!rpcReply.failed() && rpcReply.getReply() != null) {
+                return (QueryObjectVersionReply) rpcReply.getReply().getPayload();
+            }
+            logger.warning(getScoutId() + ": " + "retrying query");
+        }
+    }
+
     /**
      * Returns a view of an object version from the cache, if the object is
      * available in the appropriate version.
@@ -1060,10 +1299,23 @@ public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
      * @throws NoSuchObjectException
      * @throws VersionNotFoundException
      */
-    @SuppressWarnings("unchecked")
-    private synchronized <V extends CRDT<V>> V getCachedObjectVersion(final AbstractTxnHandle txn, CRDTIdentifier id,
+    private <V extends CRDT<V>> V getCachedObjectVersion(final AbstractTxnHandle txn, CRDTIdentifier id,
             CausalityClock clock, Class<V> classOfV, ObjectUpdatesListener updatesListener, boolean justFetched)
             throws WrongTypeException, NoSuchObjectException, VersionNotFoundException {
+        if (clock == null || updatesListener != null) {
+            return getCachedObjectVersionLocked(txn, id, clock, classOfV, updatesListener, justFetched);
+        }
+        // A given version with no listener needs none of the shared scout
+        // state: concurrent cache hits synchronize on the object only.
+        final ManagedCRDT<V> crdt = getCachedObject(id);
+        synchronized (crdt) {
+            return getCachedObjectView(txn, id, crdt, clock);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <V extends CRDT<V>> ManagedCRDT<V> getCachedObject(CRDTIdentifier id) throws WrongTypeException,
+            NoSuchObjectException {
         ManagedCRDT<V> crdt;
         try {
             crdt = (ManagedCRDT<V>) objectsCache.getAndTouch(id);
@@ -1073,6 +1325,25 @@ public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
         if (crdt == null) {
             throw new NoSuchObjectException("Object not available in the cache");
         }
+        return crdt;
+    }
+
+    private <V extends CRDT<V>> V getCachedObjectView(final AbstractTxnHandle txn, CRDTIdentifier id,
+            ManagedCRDT<V> crdt, CausalityClock clock) throws VersionNotFoundException {
+        try {
+            return crdt.getVersion(clock, txn);
+        } catch (IllegalStateException x) {
+
+            // No appropriate version found in the object from the cache.
+            throw new VersionNotFoundException("Object " + id + " not available in the cache in appropriate version: "
+                    + x.getMessage()); // + "; object state: " + crdt);
+        }
+    }
+
+    private synchronized <V extends CRDT<V>> V getCachedObjectVersionLocked(final AbstractTxnHandle txn,
+            CRDTIdentifier id, CausalityClock clock, Class<V> classOfV, ObjectUpdatesListener updatesListener,
+            boolean justFetched) throws WrongTypeException, NoSuchObjectException, VersionNotFoundException {
+        final ManagedCRDT<V> crdt = getCachedObject(id);
 
         if (clock == null) {
             // Set the requested clock to the latest committed version including
@@ -1093,19 +1364,15 @@ public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
 
             // Check if such a recent version is available in the cache. If not,
             // take the intersection of the clocks.
-
-            clock.intersect(crdt.getClock());
+            synchronized (crdt) {
+                clock.intersect(crdt.getClock());
+            }
             // TODO: Discuss. This is a very aggressive caching mode.
         }
 
         final V crdtView;
-        try {
-            crdtView = crdt.getVersion(clock, txn);
-        } catch (IllegalStateException x) {
-
-            // No appropriate version found in the object from the cache.
-            throw new VersionNotFoundException("Object " + id + " not available in the cache in appropriate version: "
-                    + x.getMessage()); // + "; object state: " + crdt);
+        synchronized (crdt) {
+            crdtView = getCachedObjectView(txn, id, crdt, clock);
         }
 
         if (updatesListener != null) {
@@ -1129,11 +1396,24 @@ public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
         return crdtView;
     }
 
+    /**
+     * @return copy of the clock of a cached object, the version to fetch a
+     *         delta from; null if the object is not cached
+     */
+    private CausalityClock getCachedObjectClock(CRDTIdentifier id) {
+        final ManagedCRDT<?> crdt = objectsCache.getWithoutTouch(id);
+        if (crdt == null) {
+            return null;
+        }
+        synchronized (crdt) {
+            return crdt.getClock().clone();
+        }
+    }
+
     private <V extends CRDT<V>> void fetchObjectVersion(final AbstractTxnHandle txn, CRDTIdentifier id, boolean create,
             Class<V> classOfV, final CausalityClock knownVersion, final CausalityClock requestedVersion,
             final boolean sendMoreRecentUpdates, boolean subscribeUpdates) throws WrongTypeException,
             NoSuchObjectException, VersionNotFoundException, NetworkException, InterruptedException {
-        // TODO: Add a real delta-log shipping support?
 
         if (subscribeUpdates) {
             assertNotificationsCompatibleMode();
@@ -1150,11 +1430,9 @@ public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
         // Currently, DC assumes that knownVersion is used only for precise
         // version requests:
         final CausalityClock knownVersionUsed = sendMoreRecentUpdates ? null : knownVersion;
-        final BatchFetchObjectVersionRequest fetchRequest = new BatchFetchObjectVersionRequest(scoutId, disasterSafe,
-                knownVersionUsed, requestedVersion, sendMoreRecentUpdates, subscribeUpdates,
-                cacheUpdateProtocol == CacheUpdateProtocol.NO_CACHE_OR_UNCOORDINATED, id);
 
-        doFetchObjectVersionOrTimeout(txn, id, fetchRequest, classOfV, create, requestedScoutVersion);
+        doFetchObjectVersionOrTimeout(txn, id, knownVersionUsed, requestedVersion, sendMoreRecentUpdates,
+                subscribeUpdates, classOfV, create, requestedScoutVersion);
     }
 
     private void assertNotificationsCompatibleMode() {
@@ -1165,18 +1443,19 @@ public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
     }
 
     private <V extends CRDT<V>> void doFetchObjectVersionOrTimeout(final AbstractTxnHandle txn,
-            final CRDTIdentifier id, final BatchFetchObjectVersionRequest fetchRequest, Class<V> classOfV,
-            boolean create, Timestamp requestedScoutVersion) throws NetworkException, NoSuchObjectException,
-            WrongTypeException, InterruptedException {
+            final CRDTIdentifier id, final CausalityClock knownVersion, final CausalityClock requestedVersion,
+            final boolean sendMoreRecentUpdates, final boolean subscribeUpdates, Class<V> classOfV, boolean create,
+            Timestamp requestedScoutVersion) throws NetworkException, NoSuchObjectException, WrongTypeException,
+            InterruptedException {
 
         synchronized (this) {
-            fetchVersionsInProgress.add(fetchRequest.getVersion());
+            fetchVersionsInProgress.add(requestedVersion);
             ongoingObjectFetchesStats.incCounter();
         }
 
         try {
             final long firstRequestTimestamp = System.currentTimeMillis();
-            BatchFetchObjectVersionReply reply;
+            FetchBatcher.Result result;
             boolean firstTry = true;
             do {
                 if (!firstTry) {
@@ -1188,25 +1467,26 @@ public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
                     throw new NetworkException("Deadline exceeded to get appropriate answer from the store;"
                             + "note it may be caused by prior errors");
                 }
-                final RpcHandle rpcReply = localEndpoint.send(serverEndpoint(), fetchRequest, RpcHandler.NONE,
+                // Coalesced with concurrent fetches of other objects. A
+                // delta since the known version may no longer apply to the
+                // cached object after a failed try, so retries fetch it all.
+                result = fetchBatcher.fetch(id, firstTry ? knownVersion : null, requestedVersion,
+                        sendMoreRecentUpdates,
+                        subscribeUpdates, cacheUpdateProtocol == CacheUpdateProtocol.NO_CACHE_OR_UNCOORDINATED,
                         (int) requestDeadline);
-                if (rpcReply.failed() || rpcReply.getReply() == null) {
+                if (result == null) {
                     throw new NetworkException("Fetching object version exceeded the deadline");
                 }
-                reply = (BatchFetchObjectVersionReply) rpcReply.getReply().getPayload();
                 if (stopFlag) {
                     throw new InterruptedException("Fetching object version was interrupted by scout shutdown.");
                 }
 
-                // TODO: record request only once in case of retry?
-                fetchRequest.recordMetadataSample(metadataStatsCollector);
-                reply.recordMetadataSample(metadataStatsCollector);
-
                 firstTry = false;
-            } while (!handleFetchObjectReply(txn, fetchRequest, reply, 0, classOfV, create, requestedScoutVersion));
+            } while (!handleFetchObjectReply(txn, result.request, result.reply, result.index, classOfV, create,
+                    requestedScoutVersion));
         } finally {
             synchronized (this) {
-                fetchVersionsInProgress.remove(fetchRequest.getVersion());
+                fetchVersionsInProgress.remove(requestedVersion);
                 ongoingObjectFetchesStats.decCounter();
             }
         }
@@ -1303,12 +1583,26 @@ public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
                 throw new WrongTypeException(e.getMessage());
             }
 
-            if (cacheCRDT == null) {
+            if (crdt != null && crdt.isDelta()) {
+                // Delta since the known version of the cached object.
+                boolean applied = false;
+                if (cacheCRDT != null) {
+                    synchronized (cacheCRDT) {
+                        applied = cacheCRDT.applyDelta(crdt);
+                    }
+                }
+                if (!applied) {
+                    logger.warning(getScoutId() + ": "
+                            + "Cached object evicted or replaced during fetch request, cannot apply delta");
+                    return false;
+                }
+                objectsCache.markUpdatedWithoutTouch(request.getUid(idxInBatch), false);
+            } else if (cacheCRDT == null) {
                 if (crdt != null) {
-                    objectsCache.add(crdt, txn == null ? -1L : txn.serial);
                     cacheCRDT = crdt;
                     // Apply any local updates that may not be present in
-                    // received version.
+                    // received version, before the object becomes visible in
+                    // the cache.
                     boolean touched = false;
                     boolean newUpdates = false;
                     for (final AbstractTxnHandle localTxn : globallyCommittedUnstableTxns) {
@@ -1319,6 +1613,7 @@ public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
                         newUpdates |= applyLocalObjectUpdates(cacheCRDT, localTxn);
                         touched = true;
                     }
+                    objectsCache.add(crdt, txn == null ? -1L : txn.serial);
                     if (touched) {
                         objectsCache.markUpdatedWithoutTouch(request.getUid(idxInBatch), !newUpdates);
                     }
@@ -1332,19 +1627,27 @@ public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
                 }
             } else {
                 if (crdt != null) {
-                    try {
-                        cacheCRDT.merge(crdt);
-                    } catch (IllegalStateException x) {
-                        logger.warning(getScoutId() + ": " + "Merging incoming object version " + crdt.getClock()
-                                + " with the cached version " + cacheCRDT.getClock()
-                                + " has failed with our heuristic - dropping cached version" + x);
+                    boolean merged = true;
+                    synchronized (cacheCRDT) {
+                        try {
+                            cacheCRDT.merge(crdt);
+                        } catch (IllegalStateException x) {
+                            logger.warning(getScoutId() + ": " + "Merging incoming object version " + crdt.getClock()
+                                    + " with the cached version " + cacheCRDT.getClock()
+                                    + " has failed with our heuristic - dropping cached version" + x);
+                            merged = false;
+                        }
+                    }
+                    if (!merged) {
                         cacheCRDT = crdt;
                         objectsCache.add(crdt, txn == null ? -1L : txn.serial);
                     }
                     objectsCache.markUpdatedWithoutTouch(request.getUid(idxInBatch), false);
                 } else {
                     // case: UP_TO_DATE
-                    cacheCRDT.augmentWithDCClockWithoutMappings(request.getVersion());
+                    synchronized (cacheCRDT) {
+                        cacheCRDT.augmentWithDCClockWithoutMappings(request.getVersion());
+                    }
                     objectsCache.markUpdatedWithoutTouch(request.getUid(idxInBatch), true);
                 }
             }
@@ -1400,19 +1703,21 @@ public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
         }
 
         final CRDTObjectUpdatesGroup objectUpdates = localTxn.getObjectUpdates(cachedCRDT.getUID());
-        if (objectUpdates != null) {
-            // IGNORE dependencies checking, for RR transaction
-            // dependencies are overestimated.
-            // TODO: during failover, it may be unsafe to IGNORE.
-            return cachedCRDT.execute(objectUpdates, CRDTOperationDependencyPolicy.IGNORE);
-        } else {
-            cachedCRDT.augmentWithScoutTimestamp(localTxn.getClientTimestamp());
-            CausalityClock dcTimetsamps = ClockFactory.newClock();
-            for (final Timestamp sysTs : localTxn.getTimestampMapping().getSystemTimestamps()) {
-                dcTimetsamps.record(sysTs);
+        synchronized (cachedCRDT) {
+            if (objectUpdates != null) {
+                // IGNORE dependencies checking, for RR transaction
+                // dependencies are overestimated.
+                // TODO: during failover, it may be unsafe to IGNORE.
+                return cachedCRDT.execute(objectUpdates, CRDTOperationDependencyPolicy.IGNORE);
+            } else {
+                cachedCRDT.augmentWithScoutTimestamp(localTxn.getClientTimestamp());
+                CausalityClock dcTimetsamps = ClockFactory.newClock();
+                for (final Timestamp sysTs : localTxn.getTimestampMapping().getSystemTimestamps()) {
+                    dcTimetsamps.record(sysTs);
+                }
+                cachedCRDT.augmentWithDCClockWithoutMappings(dcTimetsamps);
+                return false;
             }
-            cachedCRDT.augmentWithDCClockWithoutMappings(dcTimetsamps);
-            return false;
         }
     }
 
@@ -1463,10 +1768,13 @@ public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
         }
 
         for (final CRDTObjectUpdatesGroup<?> op : ops) {
-            final boolean newUpdate = crdt.execute(op, CRDTOperationDependencyPolicy.IGNORE);
-            final String updatesScoutId = op.getClientTimestamp().getIdentifier();
-            if (!updatesScoutId.equals(scoutId)) {
-                crdt.discardScoutClock(updatesScoutId);
+            final boolean newUpdate;
+            synchronized (crdt) {
+                newUpdate = crdt.execute(op, CRDTOperationDependencyPolicy.IGNORE);
+                final String updatesScoutId = op.getClientTimestamp().getIdentifier();
+                if (!updatesScoutId.equals(scoutId)) {
+                    crdt.discardScoutClock(updatesScoutId);
+                }
             }
             if (!newUpdate) {
                 if (logger.isLoggable(Level.INFO)) {
@@ -1651,6 +1959,24 @@ public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
         });
     }
 
+    /**
+     * The surrogate missed notifications to this scout and dropped its
+     * subscriptions: cached objects cannot be brought to the versions of later
+     * notifications. They are all evicted, and the objects with listeners
+     * waiting are fetched and subscribed again.
+     */
+    private void resyncObjects() {
+        logger.warning(getScoutId() + ": " + "missed update notifications, evicting the cache");
+        objectsCache.evictAll();
+        final List<CRDTIdentifier> ids;
+        synchronized (this) {
+            ids = new ArrayList<CRDTIdentifier>(objectSessionsUpdateSubscriptions.keySet());
+        }
+        for (final CRDTIdentifier id : ids) {
+            asyncFetchAndSubscribeObjectUpdates(id);
+        }
+    }
+
     private synchronized void removeUpdateSubscriptionAsyncUnsubscribe(final CRDTIdentifier id) {
         objectSessionsUpdateSubscriptions.remove(id);
 
@@ -1669,7 +1995,18 @@ public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
     }
 
     @Override
-    public synchronized void discardTxn(AbstractTxnHandle txn) {
+    public void discardTxn(AbstractTxnHandle txn) {
+        if (txn.isReadOnly()) {
+            // Read-only transactions leave no trace in the shared scout state.
+            assertPendingTransaction(txn);
+            removePendingTxn(txn);
+            logger.info(getScoutId() + ": " + "local transaction " + txn.getTimestampMapping() + " rolled back");
+            return;
+        }
+        discardUpdateTxn(txn);
+    }
+
+    private synchronized void discardUpdateTxn(AbstractTxnHandle txn) {
         assertPendingTransaction(txn);
         removePendingTxn(txn);
         logger.info(getScoutId() + ": " + "local transaction " + txn.getTimestampMapping() + " rolled back");
@@ -1700,7 +2037,31 @@ public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
     }
 
     @Override
-    public synchronized void commitTxn(AbstractTxnHandle txn) {
+    public void commitTxn(AbstractTxnHandle txn) {
+        if (txn.isReadOnly()) {
+            commitReadOnlyTxn(txn);
+        } else {
+            commitUpdateTxn(txn);
+        }
+    }
+
+    /**
+     * Commits a read-only transaction without the scout lock.
+     */
+    private void commitReadOnlyTxn(AbstractTxnHandle txn) {
+        assertPendingTransaction(txn);
+        assertRunning();
+        txn.markLocallyCommitted();
+        txn.markGloballyCommitted(null);
+        removeEvictionProtection(txn);
+        if (logger.isLoggable(Level.INFO)) {
+            logger.info(getScoutId() + ": " + "read-only transaction " + txn.getTimestampMapping()
+                    + " will not commit globally");
+        }
+        removePendingTxn(txn);
+    }
+
+    private synchronized void commitUpdateTxn(AbstractTxnHandle txn) {
         assertPendingTransaction(txn);
         assertRunning();
         txn.markLocallyCommitted();
@@ -1710,7 +2071,10 @@ public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
 
         if (requiresGlobalCommit(txn)) {
 
-            lastLocallyCommittedTxnClock.record(txn.getClientTimestamp());
+            final CausalityClock newLastLocallyCommittedTxnClock = lastLocallyCommittedTxnClock.clone();
+            newLastLocallyCommittedTxnClock.record(txn.getClientTimestamp());
+            newLastLocallyCommittedTxnClock.merge(txn.getUpdatesDependencyClock());
+            lastLocallyCommittedTxnClock = newLastLocallyCommittedTxnClock;
             for (final CRDTObjectUpdatesGroup<?> opsGroup : txn.getAllUpdates()) {
                 final CRDTIdentifier id = opsGroup.getTargetUID();
                 applyLocalObjectUpdates(objectsCache.getWithoutTouch(id), txn);
@@ -1732,7 +2096,6 @@ public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
                 }
             }
             objectsCache.augmentAllWithScoutTimestampWithoutMappings(txn.getClientTimestamp());
-            lastLocallyCommittedTxnClock.merge(txn.getUpdatesDependencyClock());
 
             // Transaction is queued up for global commit.
             // THIS MAY BLOCK in wait() if the queue is full!
@@ -1761,12 +2124,10 @@ public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
     }
 
     /**
-     * Stubborn commit procedure. Repeats until it succeeds.
-     * 
-     * @param txn
-     *            locally committed transaction
+     * Prepares the commit request of a batch of locally committed
+     * transactions.
      */
-    private void commitTxnGlobally(final List<AbstractTxnHandle> transactionsToCommit) {
+    private BatchCommitUpdatesRequest prepareCommitRequest(final List<AbstractTxnHandle> transactionsToCommit) {
         final List<CommitUpdatesRequest> requests = new LinkedList<CommitUpdatesRequest>();
 
         // Preprocess transactions before sending them.
@@ -1803,88 +2164,129 @@ public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
             request.dropInternalDependency();
         }
 
-        // Send batched updates and wait for reply of server
-        final BatchCommitUpdatesRequest commitRequest = new BatchCommitUpdatesRequest(scoutId, disasterSafe, requests);
-        BatchCommitUpdatesReply batchReply = localEndpoint.request(serverEndpoint(), commitRequest);
-        commitRequest.recordMetadataSample(metadataStatsCollector);
-
-        // TODO Add here statistics for meta-data overhead?
+        return new BatchCommitUpdatesRequest(scoutId, disasterSafe, requests);
+    }
 
-        if (batchReply == null) {
-            // FIXME with new RPC API null is just a timeout??
-            throw new IllegalStateException("Fatal error: server returned null on commit");
+    /**
+     * Sends a commit batch to the store without waiting for the reply. Stubborn
+     * procedure: a batch that could not be sent, or whose reply never arrived,
+     * is sent again by the committer thread; the store ignores the
+     * transactions it committed already. There is no deadline for the reply,
+     * since a batch resent while the store is still committing it could get
+     * its transactions timestamped twice.
+     */
+    private void sendCommitBatch(final CommitBatch batch) {
+        if (batch.request == null) {
+            batch.request = prepareCommitRequest(batch.txns);
+            batch.request.recordMetadataSample(metadataStatsCollector);
+        } else {
+            Threading.sleep(COMMIT_RETRY_DELAY_MILLIS);
         }
+        batch.sentNanos = System.nanoTime();
+        localEndpoint.<BatchCommitUpdatesReply> requestAsync(serverEndpoint(), batch.request, 0).whenComplete(
+                (reply, failure) -> {
+                    if (failure == null) {
+                        onCommitBatchReply(batch, reply);
+                        return;
+                    }
+                    logger.warning(getScoutId() + ": " + "commit request failed (" + failure + "), retrying");
+                    synchronized (SwiftImpl.this) {
+                        batch.failed = true;
+                        SwiftImpl.this.notifyAll();
+                    }
+                });
+    }
+
+    /**
+     * Handles the reply to a commit batch. The batches are applied in the order
+     * of their transactions, so the reply may have to wait for the replies of
+     * batches sent before.
+     */
+    private void onCommitBatchReply(final CommitBatch batch, final BatchCommitUpdatesReply batchReply) {
+        final long rttNanos = System.nanoTime() - batch.sentNanos;
         batchReply.recordMetadataSample(metadataStatsCollector);
-        if (batchReply != null && batchReply.getReplies().size() != requests.size()) {
+        if (batchReply.getReplies().size() != batch.txns.size()) {
             throw new IllegalStateException("Fatal error: server returned " + batchReply.getReplies().size() + " for "
-                    + requests.size() + " commit requests!");
+                    + batch.txns.size() + " commit requests!");
         }
 
         synchronized (this) {
-            for (int i = 0; i < batchReply.getReplies().size(); i++) {
-                final CommitUpdatesReply reply = batchReply.getReplies().get(i);
-                final AbstractTxnHandle txn = transactionsToCommit.get(i);
-
-                switch (reply.getStatus()) {
-                case COMMITTED_WITH_KNOWN_TIMESTAMPS:
-                    for (final Timestamp ts : reply.getCommitTimestamps()) {
-                        txn.markGloballyCommitted(ts);
-                        // lastGloballyCommittedTxnClock.record(ts);
-                        // Commented out to avoid holes; useful for
-                        // multi-session?
-                        // committedVersion.record(ts);
-                        // TODO: call updateCommittedVersion?
-                    }
-                    CausalityClock systemTxnClock = ClockFactory.newClock();
-                    for (final Timestamp systemTimestamp : txn.getTimestampMapping().getSystemTimestamps()) {
-                        systemTxnClock.record(systemTimestamp);
-                    }
+            commitWindow.onReply(rttNanos);
+            batch.reply = batchReply;
+            while (!commitBatchesInFlight.isEmpty() && commitBatchesInFlight.getFirst().reply != null) {
+                final CommitBatch head = commitBatchesInFlight.removeFirst();
+                txnsInFlight -= head.txns.size();
+                applyGlobalCommit(head);
+            }
+            this.notifyAll();
+        }
+    }
 
-                    final Collection<CRDTObjectUpdatesGroup<?>> allUpdates = txn.getAllUpdates();
-                    CRDTIdentifier[] updatedObjectIds = new CRDTIdentifier[allUpdates.size()];
-                    int idIdx = 0;
-                    // Record new mappings for updated objects.
-                    for (final CRDTObjectUpdatesGroup update : allUpdates) {
-                        final CRDTIdentifier id = update.getTargetUID();
-                        updatedObjectIds[idIdx++] = id;
-                        final ManagedCRDT<?> crdt = objectsCache.getWithoutTouch(id);
-                        final boolean newUpdates = applyLocalObjectUpdates(crdt, txn);
-                        objectsCache.markUpdatedWithoutTouch(id, !newUpdates);
-                    }
-                    // Advance clock of all objects.
-                    objectsCache.augmentAllWithDCCausalClockWithoutMappings(systemTxnClock);
-                    tryPruneObjects(updatedObjectIds);
-                    break;
-                case COMMITTED_WITH_KNOWN_CLOCK_RANGE:
-                    // lastGloballyCommittedTxnClock.merge(reply.getImpreciseCommitClock());
-                    txn.markGloballyCommitted(null);
+    private synchronized void applyGlobalCommit(final CommitBatch batch) {
+        final BatchCommitUpdatesReply batchReply = batch.reply;
+        for (int i = 0; i < batchReply.getReplies().size(); i++) {
+            final CommitUpdatesReply reply = batchReply.getReplies().get(i);
+            final AbstractTxnHandle txn = batch.txns.get(i);
+
+            switch (reply.getStatus()) {
+            case COMMITTED_WITH_KNOWN_TIMESTAMPS:
+                for (final Timestamp ts : reply.getCommitTimestamps()) {
+                    txn.markGloballyCommitted(ts);
+                    // lastGloballyCommittedTxnClock.record(ts);
+                    // Commented out to avoid holes; useful for
+                    // multi-session?
+                    // committedVersion.record(ts);
                     // TODO: call updateCommittedVersion?
-                    break;
-                case INVALID_OPERATION:
-                    throw new IllegalStateException("DC replied to commit request with INVALID_OPERATION");
-                default:
-                    throw new UnsupportedOperationException("unknown commit status: " + reply.getStatus());
                 }
-                // TODO: can it be done earlier, when it commits locally?
-                removeEvictionProtection(txn);
-                // lastGloballyCommittedTxnClock.merge(txn.getUpdatesDependencyClock());
-                // lastLocallyCommittedTxnClock.merge(txn.getUpdatesDependencyClock());
-                removeLocallyNowGloballyCommitedTxn(txn);
-                globallyCommittedUnstableTxns.addLast(txn);
+                CausalityClock systemTxnClock = ClockFactory.newClock();
+                for (final Timestamp systemTimestamp : txn.getTimestampMapping().getSystemTimestamps()) {
+                    systemTxnClock.record(systemTimestamp);
+                }
 
-                if (logger.isLoggable(Level.INFO)) {
-                    logger.info(getScoutId() + ": " + "transaction " + txn.getTimestampMapping() + " commited globally");
+                final Collection<CRDTObjectUpdatesGroup<?>> allUpdates = txn.getAllUpdates();
+                CRDTIdentifier[] updatedObjectIds = new CRDTIdentifier[allUpdates.size()];
+                int idIdx = 0;
+                // Record new mappings for updated objects.
+                for (final CRDTObjectUpdatesGroup update : allUpdates) {
+                    final CRDTIdentifier id = update.getTargetUID();
+                    updatedObjectIds[idIdx++] = id;
+                    final ManagedCRDT<?> crdt = objectsCache.getWithoutTouch(id);
+                    final boolean newUpdates = applyLocalObjectUpdates(crdt, txn);
+                    objectsCache.markUpdatedWithoutTouch(id, !newUpdates);
                 }
+                // Advance clock of all objects.
+                objectsCache.augmentAllWithDCCausalClockWithoutMappings(systemTxnClock);
+                tryPruneObjects(updatedObjectIds);
+                break;
+            case COMMITTED_WITH_KNOWN_CLOCK_RANGE:
+                // lastGloballyCommittedTxnClock.merge(reply.getImpreciseCommitClock());
+                txn.markGloballyCommitted(null);
+                // TODO: call updateCommittedVersion?
+                break;
+            case INVALID_OPERATION:
+                throw new IllegalStateException("DC replied to commit request with INVALID_OPERATION");
+            default:
+                throw new UnsupportedOperationException("unknown commit status: " + reply.getStatus());
+            }
+            // TODO: can it be done earlier, when it commits locally?
+            removeEvictionProtection(txn);
+            // lastGloballyCommittedTxnClock.merge(txn.getUpdatesDependencyClock());
+            // lastLocallyCommittedTxnClock.merge(txn.getUpdatesDependencyClock());
+            removeLocallyNowGloballyCommitedTxn(txn);
+            globallyCommittedUnstableTxns.addLast(txn);
 
-                // Subscribe updates for newly created objects if they were
-                // requested. It can be done only at this stage once the objects
-                // are in the store.
-                for (final CRDTObjectUpdatesGroup<?> opsGroup : txn.getAllUpdates()) {
-                    final boolean subscriptionsExist = objectSessionsUpdateSubscriptions.containsKey(opsGroup
-                            .getTargetUID());
-                    if (subscriptionsExist && opsGroup.hasCreationState()) {
-                        asyncFetchAndSubscribeObjectUpdates(opsGroup.getTargetUID());
-                    }
+            if (logger.isLoggable(Level.INFO)) {
+                logger.info(getScoutId() + ": " + "transaction " + txn.getTimestampMapping() + " commited globally");
+            }
+
+            // Subscribe updates for newly created objects if they were
+            // requested. It can be done only at this stage once the objects
+            // are in the store.
+            for (final CRDTObjectUpdatesGroup<?> opsGroup : txn.getAllUpdates()) {
+                final boolean subscriptionsExist = objectSessionsUpdateSubscriptions.containsKey(opsGroup
+                        .getTargetUID());
+                if (subscriptionsExist && opsGroup.hasCreationState()) {
+                    asyncFetchAndSubscribeObjectUpdates(opsGroup.getTargetUID());
                 }
             }
         }
@@ -1905,6 +2307,7 @@ public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
             }
         }
         locallyCommittedTxnsOrderedQueue.add(txn);
+        commitWindow.onQueued(System.nanoTime());
         // Notify committer thread.
         this.notifyAll();
     }
@@ -1916,43 +2319,75 @@ public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
 
     /**
      * @return a batch of transactions ready to commit (within
-     *         maxCommitBatchSize limit)
+     *         maxCommitBatchSize limit), empty if the commit window does not
+     *         allow sending one now
      */
     private synchronized List<AbstractTxnHandle> consumeLocallyCommitedTxnsQueue() {
-        List<AbstractTxnHandle> result = new LinkedList<AbstractTxnHandle>();
-        do {
-            final Iterator<AbstractTxnHandle> queueIter = locallyCommittedTxnsOrderedQueue.iterator();
-            for (int i = 0; i < maxCommitBatchSize && queueIter.hasNext(); i++) {
-                final AbstractTxnHandle candidateTxn = queueIter.next();
-                boolean validCandidate = true;
-                if (concurrentOpenTransactions) {
-                    // Check whether transactions with lower timestamps already
-                    // committed. TODO: this is a quick HACK, do it better.
-                    final long candidateCounter = locallyCommittedTxnsOrderedQueue.first().getTimestampMapping()
-                            .getClientTimestamp().getCounter();
-                    for (final AbstractTxnHandle txn : pendingTxns) {
-                        if (!txn.isReadOnly() && txn.getClientTimestamp().getCounter() < candidateCounter) {
-                            validCandidate = false;
-                            break;
-                        }
+        final List<AbstractTxnHandle> result = new ArrayList<AbstractTxnHandle>();
+        final int queued = locallyCommittedTxnsOrderedQueue.size() - txnsInFlight;
+        if (!commitWindow.shouldSend(queued, commitBatchesInFlight.size(), stopFlag)) {
+            return result;
+        }
+        final Iterator<AbstractTxnHandle> queueIter = locallyCommittedTxnsOrderedQueue.iterator();
+        for (int i = 0; i < txnsInFlight; i++) {
+            queueIter.next();
+        }
+        for (int i = 0; i < maxCommitBatchSize && queueIter.hasNext(); i++) {
+            final AbstractTxnHandle candidateTxn = queueIter.next();
+            boolean validCandidate = true;
+            if (concurrentOpenTransactions) {
+                // Check whether transactions with lower timestamps already
+                // committed. TODO: this is a quick HACK, do it better.
+                final long candidateCounter = candidateTxn.getTimestampMapping().getClientTimestamp().getCounter();
+                for (final AbstractTxnHandle txn : pendingTxns) {
+                    if (!txn.isReadOnly() && txn.getClientTimestamp().getCounter() < candidateCounter) {
+                        validCandidate = false;
+                        break;
                     }
                 }
+            }
 
-                if (validCandidate) {
-                    result.add(candidateTxn);
-                } else {
-                    break;
-                }
+            if (validCandidate) {
+                result.add(candidateTxn);
+            } else {
+                break;
             }
+        }
+
+        if (result.size() > maxCommitBatchSize) {
+            throw new IllegalStateException("Internal error, transaction batch size computed wrongly");
+        }
+        return result;
+    }
 
-            if (result.size() > maxCommitBatchSize) {
-                throw new IllegalStateException("Internal error, transaction batch size computed wrongly");
+    /**
+     * @return the next commit batch to send to the store, possibly one that
+     *         failed to be sent before, waiting for the commit window; null if
+     *         the scout is stopped
+     */
+    private synchronized CommitBatch nextCommitBatch() {
+        do {
+            for (final CommitBatch batch : commitBatchesInFlight) {
+                if (batch.failed) {
+                    batch.failed = false;
+                    return batch;
+                }
+            }
+            final List<AbstractTxnHandle> transactionsToCommit = consumeLocallyCommitedTxnsQueue();
+            if (stopFlag && (!stopGracefully || transactionsToCommit.isEmpty() && commitBatchesInFlight.isEmpty())) {
+                if (!locallyCommittedTxnsOrderedQueue.isEmpty()) {
+                    logger.warning(getScoutId() + ": "
+                            + "Scout ungraceful stop, some transactions may not have globally committed");
+                }
+                return null;
             }
-            if (result.isEmpty() && !stopFlag)
-                Threading.waitOn(this);
-            else {
-                return result;
+            if (!transactionsToCommit.isEmpty()) {
+                final CommitBatch batch = new CommitBatch(transactionsToCommit);
+                commitBatchesInFlight.addLast(batch);
+                txnsInFlight += transactionsToCommit.size();
+                return batch;
             }
+            Threading.waitOn(this);
         } while (true);
     }
 
@@ -1960,13 +2395,18 @@ public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
         pendingTxns.add(txn);
     }
 
-    private synchronized void removePendingTxn(final AbstractTxnHandle txn) {
+    private void removePendingTxn(final AbstractTxnHandle txn) {
         pendingTxns.remove(txn);
-        // Notify periodic refresh thread.
-        this.notifyAll();
+        // Notify periodic refresh thread, and the committer thread waiting for
+        // update transactions with lower timestamps.
+        if (!txn.isReadOnly() || cacheRefreshReady) {
+            synchronized (this) {
+                this.notifyAll();
+            }
+        }
     }
 
-    private synchronized void assertPendingTransaction(final AbstractTxnHandle expectedTxn) {
+    private void assertPendingTransaction(final AbstractTxnHandle expectedTxn) {
         if (!pendingTxns.contains(expectedTxn)) {
             throw new IllegalStateException(
                     "Corrupted state: unexpected transaction is bothering me, not the pending one");
@@ -1987,8 +2427,9 @@ public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
 
     /**
      * Thread continuously committing locally committed transactions. The thread
-     * takes the oldest locally committed transaction one by one, tries to
-     * commit it to the store and update relevant clock information.
+     * takes the oldest locally committed transactions in batches and sends them
+     * to the store, keeping up to a window of batches in flight; the replies
+     * update relevant clock information as they arrive.
      */
     private class CommitterThread extends Thread {
 
@@ -1999,20 +2440,35 @@ public class SwiftImpl implements SwiftScout, TxnManager, FailOverHandler {
         @Override
         public void run() {
             while (true) {
-                List<AbstractTxnHandle> transactionsToCommit = consumeLocallyCommitedTxnsQueue();
-                batchSizeOnCommitStats.setValue(transactionsToCommit.size());
-                if (stopFlag && (transactionsToCommit.isEmpty() || !stopGracefully)) {
-                    if (!transactionsToCommit.isEmpty()) {
-                        logger.warning(getScoutId() + ": "
-                                + "Scout ungraceful stop, some transactions may not have globally committed");
-                    }
+                final CommitBatch batch = nextCommitBatch();
+                if (batch == null) {
                     return;
                 }
-                commitTxnGlobally(transactionsToCommit);
+                if (batch.request == null) {
+                    batchSizeOnCommitStats.setValue(batch.txns.size());
+                }
+                sendCommitBatch(batch);
             }
         }
     }
 
+    /**
+     * Batch of locally committed transactions committing to the store.
+     */
+    private static class CommitBatch {
+        private final List<AbstractTxnHandle> txns;
+        // guarded by the scout lock, except for request and sentNanos, only
+        // accessed by the committer thread before the reply
+        private BatchCommitUpdatesRequest request;
+        private long sentNanos;
+        private BatchCommitUpdatesReply reply;
+        private boolean failed;
+
+        CommitBatch(final List<AbstractTxnHandle> txns) {
+            this.txns = txns;
+        }
+    }
+
     /**
      * Scout representation of updates subscription with listener for a session.
      * The listener is awaiting for notification on update that occurred after
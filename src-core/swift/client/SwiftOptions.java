@@ -18,6 +18,7 @@ package swift.client;
 
 import java.util.Properties;
 
+import swift.client.SwiftImpl.CacheEvictionPolicy;
 import swift.client.SwiftImpl.CacheUpdateProtocol;
 
 /**
@@ -35,8 +36,14 @@ final public class SwiftOptions {
 
     public static final long DEFAULT_CACHE_EVICTION_MILLIS = 60 * 1000;
     public static final int DEFAULT_CACHE_SIZE = 512;
+    public static final long DEFAULT_CACHE_MAX_BYTES = 0;
+    public static final CacheEvictionPolicy DEFAULT_CACHE_EVICTION_POLICY = CacheEvictionPolicy.LRU;
     public static final int DEFAULT_MAX_COMMIT_BATCH_SIZE = 1;
+    public static final int DEFAULT_MAX_COMMIT_BATCHES_IN_FLIGHT = 4;
+    public static final int DEFAULT_MAX_FETCH_BATCH_SIZE = 64;
+    public static final int DEFAULT_FETCH_BATCH_LINGER_MILLIS = 1;
     public static final String DEFAULT_LOG_FILENAME = null;
+    public static final String DEFAULT_LOG_DIR = null;
     public static final boolean DEFAULT_LOG_FLUSH_ON_COMMIT = false;
 
     public static final String DEFAULT_STATISTICS_DIR = "statistics";
@@ -58,9 +65,15 @@ final public class SwiftOptions {
     private int deadlineMillis = DEFAULT_DEADLINE_MILLIS;
     private long cacheEvictionTimeMillis = DEFAULT_CACHE_EVICTION_MILLIS;
     private int cacheSize = DEFAULT_CACHE_SIZE;
+    private long cacheMaxBytes = DEFAULT_CACHE_MAX_BYTES;
+    private CacheEvictionPolicy cacheEvictionPolicy = DEFAULT_CACHE_EVICTION_POLICY;
     private int notificationTimeoutMillis = DEFAULT_NOTIFICATION_TIMEOUT_MILLIS;
     private int maxCommitBatchSize = DEFAULT_MAX_COMMIT_BATCH_SIZE;
+    private int maxCommitBatchesInFlight = DEFAULT_MAX_COMMIT_BATCHES_IN_FLIGHT;
+    private int maxFetchBatchSize = DEFAULT_MAX_FETCH_BATCH_SIZE;
+    private int fetchBatchLingerMillis = DEFAULT_FETCH_BATCH_LINGER_MILLIS;
     private String logFilename = DEFAULT_LOG_FILENAME;
+    private String logDir = DEFAULT_LOG_DIR;
     private boolean logFlushOnCommit = DEFAULT_LOG_FLUSH_ON_COMMIT;
     private CacheUpdateProtocol cacheUpdateProtocol = DEFAULT_CACHE_PROTOCOL;
     private int cacheRefreshPeriodMillis = DEFAULT_CACHE_REFRESH_PERIOD_MILLIS;
@@ -134,6 +147,15 @@ final public class SwiftOptions {
         } catch (NumberFormatException x) {
             // ignore
         }
+        try {
+            this.cacheMaxBytes = Long.parseLong(defaultValues.getProperty("swift.cacheMaxBytes"));
+        } catch (NumberFormatException x) {
+            // ignore
+        }
+        final String cacheEvictionPolicyString = defaultValues.getProperty("swift.cacheEvictionPolicy");
+        if (cacheEvictionPolicyString != null) {
+            this.cacheEvictionPolicy = CacheEvictionPolicy.valueOf(cacheEvictionPolicyString);
+        }
         try {
             this.notificationTimeoutMillis = Integer.parseInt(defaultValues
                     .getProperty("swift.notificationTimeoutMillis"));
@@ -145,10 +167,29 @@ final public class SwiftOptions {
         } catch (NumberFormatException x) {
             // ignore
         }
+        try {
+            this.maxCommitBatchesInFlight = Integer.parseInt(defaultValues
+                    .getProperty("swift.maxCommitBatchesInFlight"));
+        } catch (NumberFormatException x) {
+            // ignore
+        }
+        try {
+            this.maxFetchBatchSize = Integer.parseInt(defaultValues.getProperty("swift.maxFetchBatchSize"));
+        } catch (NumberFormatException x) {
+            // ignore
+        }
+        try {
+            this.fetchBatchLingerMillis = Integer.parseInt(defaultValues.getProperty("swift.fetchBatchLingerMillis"));
+        } catch (NumberFormatException x) {
+            // ignore
+        }
 
         if (defaultValues.getProperty("swift.logFilename") != null) {
             this.logFilename = defaultValues.getProperty("swift.logFilename");
         }
+        if (defaultValues.getProperty("swift.logDir") != null) {
+            this.logDir = defaultValues.getProperty("swift.logDir");
+        }
         final String logFlushOnCommitString = defaultValues.getProperty("swift.logFlushOnCommit");
         if (logFlushOnCommitString != null) {
             this.logFlushOnCommit = Boolean.parseBoolean(logFlushOnCommitString);
@@ -315,6 +356,38 @@ final public class SwiftOptions {
         this.cacheSize = cacheSize;
     }
 
+    /**
+     * @return maximum total serialized size of the objects in the cache, in
+     *         bytes, or 0 if the cache is bounded by number of objects only
+     */
+    public long getCacheMaxBytes() {
+        return cacheMaxBytes;
+    }
+
+    /**
+     * @param cacheMaxBytes
+     *            maximum total serialized size of the objects in the cache, in
+     *            bytes, or 0 for no limit; only honored by the TINYLFU policy
+     */
+    public void setCacheMaxBytes(long cacheMaxBytes) {
+        this.cacheMaxBytes = cacheMaxBytes;
+    }
+
+    /**
+     * @return policy used to evict objects from the cache
+     */
+    public CacheEvictionPolicy getCacheEvictionPolicy() {
+        return cacheEvictionPolicy;
+    }
+
+    /**
+     * @param cacheEvictionPolicy
+     *            policy used to evict objects from the cache
+     */
+    public void setCacheEvictionPolicy(CacheEvictionPolicy cacheEvictionPolicy) {
+        this.cacheEvictionPolicy = cacheEvictionPolicy;
+    }
+
     /**
      * @return timeout for notification requests if there are no changes to
      *         subscribed objects (in milliseconds)
@@ -348,6 +421,58 @@ final public class SwiftOptions {
         this.maxCommitBatchSize = maxCommitBatchSize;
     }
 
+    /**
+     * @return maximum number of commit requests sent to the store and not yet
+     *         replied
+     */
+    public int getMaxCommitBatchesInFlight() {
+        return maxCommitBatchesInFlight;
+    }
+
+    /**
+     * @param maxCommitBatchesInFlight
+     *            maximum number of commit requests sent to the store and not
+     *            yet replied; 1 waits for the reply to each request before
+     *            sending the next
+     */
+    public void setMaxCommitBatchesInFlight(int maxCommitBatchesInFlight) {
+        this.maxCommitBatchesInFlight = maxCommitBatchesInFlight;
+    }
+
+    /**
+     * @return maximum number of objects in one fetch request to the store
+     */
+    public int getMaxFetchBatchSize() {
+        return maxFetchBatchSize;
+    }
+
+    /**
+     * @param maxFetchBatchSize
+     *            maximum number of objects in one fetch request to the store
+     */
+    public void setMaxFetchBatchSize(int maxFetchBatchSize) {
+        this.maxFetchBatchSize = maxFetchBatchSize;
+    }
+
+    /**
+     * @return how long a fetch request waits for concurrent fetches to join
+     *         it before it is sent, if another fetch is in progress (in
+     *         milliseconds)
+     */
+    public int getFetchBatchLingerMillis() {
+        return fetchBatchLingerMillis;
+    }
+
+    /**
+     * @param fetchBatchLingerMillis
+     *            how long a fetch request waits for concurrent fetches to join
+     *            it before it is sent, if another fetch is in progress (in
+     *            milliseconds); 0 sends fetches immediately
+     */
+    public void setFetchBatchLingerMillis(int fetchBatchLingerMillis) {
+        this.fetchBatchLingerMillis = fetchBatchLingerMillis;
+    }
+
     /**
      * @return filename used for durable log; null if log is not stored
      */
@@ -363,6 +488,24 @@ final public class SwiftOptions {
         this.logFilename = logFilename;
     }
 
+    /**
+     * @return directory of the write-ahead log, recovered on start; null if
+     *         write-ahead log is not used
+     */
+    public String getLogDir() {
+        return logDir;
+    }
+
+    /**
+     * @param logDir
+     *            directory of the write-ahead log, recovered on start; null if
+     *            write-ahead log is not used; takes precedence over
+     *            {@link #setLogFilename(String)}
+     */
+    public void setLogDir(String logDir) {
+        this.logDir = logDir;
+    }
+
     /**
      * @return true if log should be flushed on each local commit
      */
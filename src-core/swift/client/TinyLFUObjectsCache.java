@@ -0,0 +1,595 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package swift.client;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+import swift.clocks.CausalityClock;
+import swift.clocks.Timestamp;
+import swift.crdt.core.CRDTIdentifier;
+import swift.crdt.core.ManagedCRDT;
+import swift.utils.DatabaseSizeStats;
+
+/**
+ * Local cache of CRDT objects with a W-TinyLFU eviction policy.
+ * <p>
+ * New objects enter a small LRU admission window; objects leaving the window
+ * compete for a place in the main segmented LRU (probation and protected
+ * segments) with its least recently used object, and the one accessed less
+ * often according to a frequency sketch is evicted. One-off accesses, like
+ * scans, thus cannot flush frequently used objects out of the cache.
+ * <p>
+ * Objects are held in a concurrent map and read hits do not lock: accesses
+ * are recorded in a lossy buffer, replayed into the policy by whichever thread
+ * next gets the policy lock. The cache is bounded by number of objects and,
+ * optionally, by their total serialized size. Objects not accessed for longer
+ * than the eviction time are evicted when a transaction protection is removed.
+ * Clock augmentations of all objects are recorded in a {@link CacheClockLog}
+ * and applied to each object when it is read.
+ */
+class TinyLFUObjectsCache implements ObjectsCache {
+    private static Logger logger = Logger.getLogger(TinyLFUObjectsCache.class.getName());
+
+    static final int WINDOW = 0;
+    static final int PROBATION = 1;
+    static final int PROTECTED = 2;
+
+    // power of two
+    private static final int READ_BUFFER_SIZE = 128;
+    private static final int READ_BUFFER_DRAIN_THRESHOLD = 32;
+
+    private final int maxElements;
+    private final long maxBytes;
+    private final long evictionTimeMillis;
+    private final DatabaseSizeStats stats;
+    private final ConcurrentHashMap<CRDTIdentifier, Node> entries = new ConcurrentHashMap<CRDTIdentifier, Node>();
+    private final CacheClockLog clockLog = new CacheClockLog();
+    private final Set<Long> evictionProtections = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+    private volatile EvictionListener evictionListener = new EvictionListener() {
+        @Override
+        public void onEviction(CRDTIdentifier id) {
+        }
+    };
+
+    private final AtomicReferenceArray<Node> readBuffer = new AtomicReferenceArray<Node>(READ_BUFFER_SIZE);
+    private final AtomicLong readBufferWrites = new AtomicLong();
+
+    // guarded by policyLock
+    private final ReentrantLock policyLock = new ReentrantLock();
+    private final AccessOrderDeque[] segments = { new AccessOrderDeque(), new AccessOrderDeque(),
+            new AccessOrderDeque() };
+    private final int[] segmentMaxSizes = new int[3];
+    private final FrequencySketch sketch;
+    private long readBufferReads;
+    private long weightedSize;
+
+    /**
+     * @param evictionTimeMillis
+     *            maximum life-time for object entries (exclusive) in
+     *            milliseconds
+     * @param maxElements
+     *            maximum number of objects
+     * @param maxBytes
+     *            maximum total serialized size of the objects, or 0 for no
+     *            limit
+     */
+    public TinyLFUObjectsCache(final long evictionTimeMillis, final int maxElements, final long maxBytes,
+            final DatabaseSizeStats sizeStats) {
+        this.evictionTimeMillis = evictionTimeMillis;
+        this.maxElements = Math.max(1, maxElements);
+        this.maxBytes = maxBytes;
+        this.stats = sizeStats;
+        segmentMaxSizes[WINDOW] = Math.max(1, this.maxElements / 100);
+        segmentMaxSizes[PROTECTED] = (this.maxElements - segmentMaxSizes[WINDOW]) * 4 / 5;
+        segmentMaxSizes[PROBATION] = this.maxElements;
+        this.sketch = new FrequencySketch(this.maxElements);
+    }
+
+    @Override
+    public void setEvictionListener(EvictionListener evictionListener) {
+        this.evictionListener = evictionListener;
+    }
+
+    @Override
+    public void add(final ManagedCRDT<?> object, long txnSerial) {
+        assert !Thread.holdsLock(object) : "cache called under an object monitor";
+        if (txnSerial >= 0) {
+            evictionProtections.add(txnSerial);
+        }
+        final int weight = weigh(object);
+        policyLock.lock();
+        try {
+            drainReadBuffer();
+            Node node = entries.get(object.getUID());
+            if (node == null) {
+                node = new Node(object.getUID());
+                node.object = object;
+                node.txnSerial = txnSerial;
+                node.weight = weight;
+                node.clockEpoch = clockLog.epoch();
+                node.touch();
+                entries.put(node.id, node);
+                segments[WINDOW].addLast(node);
+                weightedSize += weight;
+                sketch.increment(node.id);
+            } else {
+                synchronized (node) {
+                    catchUp(node);
+                    node.object = object;
+                    node.clockEpoch = clockLog.epoch();
+                }
+                node.txnSerial = txnSerial;
+                weightedSize += weight - node.weight;
+                node.weight = weight;
+                node.touch();
+                onAccess(node);
+            }
+            stats.updateObject(object.getUID(), object);
+            evict();
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    @Override
+    public void removeProtection(long serial) {
+        evictionProtections.remove(serial);
+        policyLock.lock();
+        try {
+            drainReadBuffer();
+            evict();
+            evictOutdated();
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    @Override
+    public ManagedCRDT<?> getAndTouch(final CRDTIdentifier id) {
+        final Node node = entries.get(id);
+        if (node == null) {
+            return null;
+        }
+        node.touch();
+        recordRead(node);
+        return catchUp(node);
+    }
+
+    @Override
+    public ManagedCRDT<?> getWithoutTouch(final CRDTIdentifier id) {
+        final Node node = entries.get(id);
+        return node == null ? null : catchUp(node);
+    }
+
+    @Override
+    public List<ManagedCRDT<?>> getAllWithoutTouch() {
+        final List<ManagedCRDT<?>> result = new ArrayList<ManagedCRDT<?>>(entries.size());
+        for (final Node node : entries.values()) {
+            result.add(catchUp(node));
+        }
+        return result;
+    }
+
+    @Override
+    public void markUpdatedWithoutTouch(final CRDTIdentifier id, boolean clocksOnly) {
+        final Node node = entries.get(id);
+        assert node == null || !Thread.holdsLock(node.object) : "cache called under an object monitor";
+        if (node == null || clocksOnly) {
+            // TODO: record it depending on a configuration flag?
+            return;
+        }
+        stats.updateObject(id, node.object);
+        if (maxBytes > 0) {
+            final int weight = weigh(node.object);
+            policyLock.lock();
+            try {
+                if (!node.removed) {
+                    weightedSize += weight - node.weight;
+                    node.weight = weight;
+                    evict();
+                }
+            } finally {
+                policyLock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public void evictAll() {
+        policyLock.lock();
+        try {
+            drainReadBuffer();
+            final List<Node> evicted = new ArrayList<Node>(entries.values());
+            for (final Node node : evicted) {
+                evictNode(node);
+            }
+            logger.info(evicted.size() + " objects evicted from the cache");
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    // TODO: update stats in this case or not?
+    @Override
+    public void augmentAllWithDCCausalClockWithoutMappings(final CausalityClock causalClock) {
+        if (clockLog.record(causalClock)) {
+            catchUpAll();
+        }
+    }
+
+    @Override
+    public void augmentAllWithScoutTimestampWithoutMappings(Timestamp clientTimestamp) {
+        if (clockLog.record(clientTimestamp)) {
+            catchUpAll();
+        }
+    }
+
+    private ManagedCRDT<?> catchUp(final Node node) {
+        assert !Thread.holdsLock(node.object) : "cache called under an object monitor";
+        if (node.clockEpoch != clockLog.epoch()) {
+            synchronized (node) {
+                // objects are read and modified under their own lock
+                final ManagedCRDT<?> object = node.object;
+                synchronized (object) {
+                    node.clockEpoch = clockLog.catchUp(object, node.clockEpoch);
+                }
+            }
+        }
+        return node.object;
+    }
+
+    private void catchUpAll() {
+        final long epoch = clockLog.epoch();
+        policyLock.lock();
+        try {
+            for (final Node node : entries.values()) {
+                catchUp(node);
+            }
+            clockLog.truncate(epoch);
+        } finally {
+            policyLock.unlock();
+        }
+    }
+
+    @Override
+    public void printStats() {
+        final SortedSet<Node> sorted = new TreeSet<Node>(entries.values());
+        for (final Node node : sorted) {
+            System.err.println(node.id + "/" + node.accesses);
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    private int weigh(final ManagedCRDT<?> object) {
+        return maxBytes > 0 ? stats.sizeOf(object) : 1;
+    }
+
+    /**
+     * Records a read hit in the buffer, draining it if it is getting full and
+     * nobody else is; reads overwritten before being drained are lost.
+     */
+    private void recordRead(final Node node) {
+        final long index = readBufferWrites.getAndIncrement();
+        readBuffer.lazySet((int) (index & (READ_BUFFER_SIZE - 1)), node);
+        if ((index & (READ_BUFFER_DRAIN_THRESHOLD - 1)) == READ_BUFFER_DRAIN_THRESHOLD - 1 && policyLock.tryLock()) {
+            try {
+                drainReadBuffer();
+            } finally {
+                policyLock.unlock();
+            }
+        }
+    }
+
+    private void drainReadBuffer() {
+        final long writes = readBufferWrites.get();
+        final long from = Math.max(readBufferReads, writes - READ_BUFFER_SIZE);
+        for (long i = from; i < writes; i++) {
+            final Node node = readBuffer.getAndSet((int) (i & (READ_BUFFER_SIZE - 1)), null);
+            if (node != null && !node.removed) {
+                onAccess(node);
+            }
+        }
+        readBufferReads = writes;
+    }
+
+    private void onAccess(final Node node) {
+        sketch.increment(node.id);
+        switch (node.segment) {
+        case WINDOW:
+        case PROTECTED:
+            segments[node.segment].moveToLast(node);
+            break;
+        case PROBATION:
+            segments[PROBATION].remove(node);
+            segments[PROTECTED].addLast(node);
+            if (segments[PROTECTED].size > segmentMaxSizes[PROTECTED]) {
+                final Node demoted = segments[PROTECTED].first();
+                segments[PROTECTED].remove(demoted);
+                segments[PROBATION].addLast(demoted);
+            }
+            break;
+        }
+    }
+
+    private boolean overCapacity() {
+        return entries.size() > maxElements || (maxBytes > 0 && weightedSize > maxBytes);
+    }
+
+    private boolean isProtected(final Node node) {
+        return node.txnSerial >= 0 && evictionProtections.contains(node.txnSerial);
+    }
+
+    private Node firstEvictable(final AccessOrderDeque deque, final Node excluded) {
+        for (Node node = deque.first(); node != null; node = deque.next(node)) {
+            if (node != excluded && !isProtected(node)) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Moves the overflow of the window to probation and evicts, of each of
+     * these candidates and the least recently used probation object, the one
+     * less frequently used, until the cache is within its bounds.
+     */
+    private void evict() {
+        final ArrayDeque<Node> candidates = new ArrayDeque<Node>();
+        while (segments[WINDOW].size > segmentMaxSizes[WINDOW]) {
+            final Node node = segments[WINDOW].first();
+            segments[WINDOW].remove(node);
+            segments[PROBATION].addLast(node);
+            candidates.add(node);
+        }
+        int evicted = 0;
+        while (overCapacity()) {
+            Node candidate = candidates.peekFirst();
+            while (candidate != null && (candidate.removed || isProtected(candidate))) {
+                candidates.pollFirst();
+                candidate = candidates.peekFirst();
+            }
+            Node victim = firstEvictable(segments[PROBATION], candidate);
+            if (victim == null) {
+                victim = firstEvictable(segments[PROTECTED], null);
+            }
+            if (victim == null) {
+                victim = firstEvictable(segments[WINDOW], null);
+            }
+            if (victim == null) {
+                victim = candidate;
+            }
+            if (victim == null) {
+                // everything is protected
+                break;
+            }
+            if (candidate != null && victim != candidate
+                    && sketch.frequency(candidate.id) <= sketch.frequency(victim.id)) {
+                victim = candidate;
+                candidates.pollFirst();
+            }
+            evictNode(victim);
+            evicted++;
+        }
+        if (evicted > 0) {
+            logger.info(evicted + " objects evicted from the cache due to size limit");
+        }
+    }
+
+    /**
+     * Evicts all objects that have not been accessed for over
+     * evictionTimeMillis specified for this cache.
+     */
+    private void evictOutdated() {
+        final long evictionThreshold = System.currentTimeMillis() - evictionTimeMillis;
+        int evicted = 0;
+        for (final AccessOrderDeque deque : segments) {
+            Node node = deque.first();
+            while (node != null && node.lastAccessTimeMillis <= evictionThreshold) {
+                final Node next = deque.next(node);
+                if (!isProtected(node)) {
+                    evictNode(node);
+                    evicted++;
+                }
+                node = next;
+            }
+        }
+        if (evicted > 0) {
+            logger.info(evicted + " objects evicted from the cache due to timeout");
+        }
+    }
+
+    private void evictNode(final Node node) {
+        segments[node.segment].remove(node);
+        entries.remove(node.id, node);
+        weightedSize -= node.weight;
+        node.removed = true;
+        evictionListener.onEviction(node.id);
+        stats.removeObject(node.id);
+    }
+
+    static AtomicLong g_serial = new AtomicLong();
+
+    static final class Node implements Comparable<Node> {
+        final CRDTIdentifier id;
+        final long serial = g_serial.incrementAndGet();
+        volatile ManagedCRDT<?> object;
+        volatile long lastAccessTimeMillis;
+        volatile long accesses;
+        volatile long clockEpoch;
+        // guarded by the policy lock
+        long txnSerial;
+        int weight;
+        int segment;
+        boolean removed;
+        Node prev;
+        Node next;
+
+        Node(final CRDTIdentifier id) {
+            this.id = id;
+        }
+
+        void touch() {
+            accesses++;
+            lastAccessTimeMillis = System.currentTimeMillis();
+        }
+
+        @Override
+        public int compareTo(Node other) {
+            if (accesses == other.accesses)
+                return serial < other.serial ? -1 : 1;
+            else
+                return accesses < other.accesses ? -1 : 1;
+        }
+    }
+
+    /**
+     * Doubly-linked list of nodes, least recently accessed first.
+     */
+    final class AccessOrderDeque {
+        private final Node head = new Node(null);
+        int size;
+
+        AccessOrderDeque() {
+            head.prev = head;
+            head.next = head;
+        }
+
+        Node first() {
+            return head.next == head ? null : head.next;
+        }
+
+        Node next(final Node node) {
+            return node.next == head ? null : node.next;
+        }
+
+        void addLast(final Node node) {
+            node.segment = indexOf(this);
+            node.prev = head.prev;
+            node.next = head;
+            head.prev.next = node;
+            head.prev = node;
+            size++;
+        }
+
+        void remove(final Node node) {
+            node.prev.next = node.next;
+            node.next.prev = node.prev;
+            node.prev = null;
+            node.next = null;
+            size--;
+        }
+
+        void moveToLast(final Node node) {
+            remove(node);
+            addLast(node);
+        }
+    }
+
+    private int indexOf(final AccessOrderDeque deque) {
+        for (int i = 0; i < segments.length; i++) {
+            if (segments[i] == deque) {
+                return i;
+            }
+        }
+        throw new IllegalStateException("Unknown cache segment");
+    }
+
+    /**
+     * Count-min sketch of access frequencies, with four 4-bit counters per key
+     * and periodic halving of all counters, so that old popularity fades.
+     */
+    static final class FrequencySketch {
+        private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL,
+                0xcbf29ce484222325L };
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int tableMask;
+        private final int sampleSize;
+        private int samples;
+
+        FrequencySketch(final int maxElements) {
+            int n = Integer.highestOneBit(Math.max(16, maxElements));
+            if (n < maxElements) {
+                n <<= 1;
+            }
+            this.table = new long[n];
+            this.tableMask = n - 1;
+            this.sampleSize = 10 * n;
+        }
+
+        int frequency(final Object key) {
+            final int h = spread(key.hashCode());
+            final int start = (h & 3) << 2;
+            int frequency = 15;
+            for (int i = 0; i < 4; i++) {
+                final int offset = (start + i) << 2;
+                frequency = Math.min(frequency, (int) ((table[indexOf(h, i)] >>> offset) & 0xfL));
+            }
+            return frequency;
+        }
+
+        void increment(final Object key) {
+            final int h = spread(key.hashCode());
+            final int start = (h & 3) << 2;
+            boolean added = false;
+            for (int i = 0; i < 4; i++) {
+                final int index = indexOf(h, i);
+                final int offset = (start + i) << 2;
+                if (((table[index] >>> offset) & 0xfL) != 0xfL) {
+                    table[index] += 1L << offset;
+                    added = true;
+                }
+            }
+            if (added && ++samples >= sampleSize) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = (table[i] >>> 1) & RESET_MASK;
+                }
+                samples /= 2;
+            }
+        }
+
+        private int indexOf(final int h, final int i) {
+            long hash = (h + SEEDS[i]) * SEEDS[i];
+            hash += hash >>> 32;
+            return ((int) hash) & tableMask;
+        }
+
+        private static int spread(int h) {
+            h ^= (h >>> 17);
+            h *= 0xed5ad4bb;
+            h ^= (h >>> 11);
+            h *= 0xac4c1d5b;
+            h ^= (h >>> 15);
+            return h;
+        }
+    }
+}
@@ -18,6 +18,7 @@ package swift.client;
 
 import swift.clocks.CausalityClock;
 import swift.crdt.core.CRDTIdentifier;
+import swift.crdt.core.CRDTQuery;
 import swift.crdt.core.CachePolicy;
 import swift.crdt.core.ObjectUpdatesListener;
 import swift.crdt.core.CRDT;
@@ -41,6 +42,10 @@ public interface TxnManager {
             CausalityClock version, boolean create, Class<V> classOfV, ObjectUpdatesListener updatesListener)
             throws WrongTypeException, NoSuchObjectException, VersionNotFoundException, NetworkException;
 
+    <V extends CRDT<V>> Object queryObjectVersion(AbstractTxnHandle txn, CRDTIdentifier id, CausalityClock version,
+            Class<V> classOfV, CRDTQuery<V> query) throws WrongTypeException, NoSuchObjectException,
+            VersionNotFoundException, NetworkException;
+
     void discardTxn(AbstractTxnHandle txn);
 
     void commitTxn(AbstractTxnHandle txn);
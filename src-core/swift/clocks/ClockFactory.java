@@ -21,22 +21,37 @@ package swift.clocks;
  * different causality clocks, we enforce that there is only one kind of version
  * vector used.
  * 
- * For now, we only use VersionVectorWithExceptions!
- * 
- * TODO Make the choice for the kind of version vector part of the configuration
- * file.
+ * The kind of version vector is chosen with the system property
+ * {@value #IMPL_PROPERTY}: "vvwe" (default) for
+ * {@link VersionVectorWithExceptions}, or "packed" for
+ * {@link PackedVersionVectorWithExceptions}. Both have the same wire format.
  * 
  * @author annettebieniusa
  * 
  */
 public class ClockFactory {
+    public static final String IMPL_PROPERTY = "swift.clocks.impl";
+
+    private static final boolean packed = "packed".equalsIgnoreCase(System.getProperty(IMPL_PROPERTY, "vvwe"));
+
     public static CausalityClock newClock() {
+        if (packed) {
+            return new PackedVersionVectorWithExceptions();
+        }
         return new VersionVectorWithExceptions();
     }
 
     public static CausalityClock newClock(CausalityClock c) {
+        if (packed) {
+            if (c instanceof PackedVersionVectorWithExceptions) {
+                return ((PackedVersionVectorWithExceptions) c).clone();
+            }
+            return new PackedVersionVectorWithExceptions((VersionVectorWithExceptions) c);
+        }
         if (c instanceof VersionVectorWithExceptions) {
             return new VersionVectorWithExceptions((VersionVectorWithExceptions) c);
+        } else if (c instanceof PackedVersionVectorWithExceptions) {
+            return ((PackedVersionVectorWithExceptions) c).toLinked();
         } else {
             throw new RuntimeException(
                     "This should not have happened! The system only uses VersionVectorWithExceptions!");
@@ -44,4 +59,11 @@ public class ClockFactory {
 
     }
 
-}
\ No newline at end of file
+    /**
+     * @return the class of the clocks created by this factory, for
+     *         serialization
+     */
+    public static Class<? extends CausalityClock> clockClass() {
+        return packed ? PackedVersionVectorWithExceptions.class : VersionVectorWithExceptions.class;
+    }
+}
@@ -0,0 +1,780 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package swift.clocks;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.Serializable;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.LinkedList;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import swift.clocks.VersionVectorWithExceptions.Interval;
+
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.KryoCopyable;
+import com.esotericsoftware.kryo.KryoSerializable;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Version vector with exceptions, with the same semantics and wire format as
+ * {@link VersionVectorWithExceptions}, but a primitive representation: site
+ * identifiers are interned into sites with dense integer indices, and the
+ * intervals of each site are packed in a <code>long[]</code> as
+ * <code>from0, to0, from1, to1...</code> (inclusive, sorted, never adjacent).
+ * Sites no clock refers to are reclaimed, so the interned indices stay bounded
+ * by the number of sites in use.
+ * <p>
+ * Clones share the arrays of the original until either one is modified
+ * (copy-on-write), so clone() allocates two small objects. Queries, comparisons
+ * and the common updates (extending the last interval of a site) do not
+ * allocate.
+ */
+public class PackedVersionVectorWithExceptions implements CausalityClock, KryoSerializable,
+        KryoCopyable<PackedVersionVectorWithExceptions> {
+    private static final long serialVersionUID = 1L;
+
+    private static final long[][] NO_INTERVALS = new long[0][];
+    private static final Site[] NO_SITES = new Site[0];
+
+    /**
+     * Interned site identifier; there is at most one instance per identifier
+     * and index at a time.
+     */
+    static final class Site implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        final String name;
+        final int index;
+
+        Site(String name, int index) {
+            this.name = name;
+            this.index = index;
+        }
+
+        private Object readResolve() {
+            return internSite(name);
+        }
+    }
+
+    private static final class SiteRef extends WeakReference<Site> {
+        final String name;
+        final int index;
+
+        SiteRef(Site site) {
+            super(site, reclaimedSites);
+            this.name = site.name;
+            this.index = site.index;
+        }
+    }
+
+    // interned site identifiers; an index is reused once no clock refers to
+    // its site any more
+    private static final ConcurrentHashMap<String, SiteRef> siteRefs = new ConcurrentHashMap<String, SiteRef>();
+    private static final ReferenceQueue<Site> reclaimedSites = new ReferenceQueue<Site>();
+    // guarded by siteRefs
+    private static final BitSet siteIndices = new BitSet();
+
+    static Site internSite(String siteId) {
+        Site site = lookupSite(siteId);
+        if (site != null) {
+            return site;
+        }
+        synchronized (siteRefs) {
+            for (SiteRef ref; (ref = (SiteRef) reclaimedSites.poll()) != null;) {
+                siteRefs.remove(ref.name, ref);
+                siteIndices.clear(ref.index);
+            }
+            site = lookupSite(siteId);
+            if (site == null) {
+                final int index = siteIndices.nextClearBit(0);
+                siteIndices.set(index);
+                site = new Site(Timestamp.createSiteIdRef(siteId), index);
+                siteRefs.put(siteId, new SiteRef(site));
+            }
+            return site;
+        }
+    }
+
+    static Site lookupSite(String siteId) {
+        final SiteRef ref = siteRefs.get(siteId);
+        return ref == null ? null : ref.get();
+    }
+
+    /**
+     * Arrays of a clock and of its clones; a clock copies the arrays before
+     * modifying them once they are shared.
+     */
+    private static final class Share {
+        volatile boolean cloned;
+    }
+
+    // sites sorted by index, first n used
+    private Site[] sites;
+    // intervals of each site
+    private long[][] intervals;
+    private int n;
+    // the arrays above, with the clones sharing them
+    private transient Share share;
+    // intervals of each site that are not shared with a clone
+    private transient boolean[] owned;
+
+    public PackedVersionVectorWithExceptions() {
+        sites = NO_SITES;
+        intervals = NO_INTERVALS;
+        share = new Share();
+        owned = new boolean[0];
+    }
+
+    /**
+     * Conversion from the linked representation.
+     */
+    PackedVersionVectorWithExceptions(VersionVectorWithExceptions v) {
+        this();
+        for (final Entry<String, LinkedList<Interval>> e : v.vv.entrySet()) {
+            final long[] a = new long[2 * e.getValue().size()];
+            int i = 0;
+            for (final Interval p : e.getValue()) {
+                a[i++] = p.from;
+                a[i++] = p.to;
+            }
+            insertSite(internSite(e.getKey()), normalize(a));
+        }
+    }
+
+    static PackedVersionVectorWithExceptions asPacked(CausalityClock c) {
+        if (c instanceof PackedVersionVectorWithExceptions) {
+            return (PackedVersionVectorWithExceptions) c;
+        }
+        return new PackedVersionVectorWithExceptions((VersionVectorWithExceptions) c);
+    }
+
+    /**
+     * Conversion to the linked representation.
+     */
+    VersionVectorWithExceptions toLinked() {
+        final VersionVectorWithExceptions res = new VersionVectorWithExceptions();
+        for (int i = 0; i < n; i++) {
+            final LinkedList<Interval> l = new LinkedList<Interval>();
+            final long[] a = intervals[i];
+            for (int j = 0; j < a.length; j += 2) {
+                l.add(new Interval(a[j], a[j + 1]));
+            }
+            res.vv.put(sites[i].name, l);
+        }
+        return res;
+    }
+
+    /*
+     * Array management
+     */
+
+    /**
+     * Binary search of the site index among the first n sites.
+     */
+    private int search(int index) {
+        int low = 0;
+        int high = n - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int midIndex = sites[mid].index;
+            if (midIndex < index) {
+                low = mid + 1;
+            } else if (midIndex > index) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private int find(Site site) {
+        final int pos = search(site.index);
+        return pos < 0 ? -1 : pos;
+    }
+
+    private int find(String siteId) {
+        final Site site = lookupSite(siteId);
+        return site == null ? -1 : find(site);
+    }
+
+    private void unshare() {
+        if (share.cloned) {
+            sites = sites.clone();
+            intervals = intervals.clone();
+            owned = new boolean[sites.length];
+            share = new Share();
+        }
+    }
+
+    private long[] writable(int pos) {
+        unshare();
+        if (!owned[pos]) {
+            intervals[pos] = intervals[pos].clone();
+            owned[pos] = true;
+        }
+        return intervals[pos];
+    }
+
+    private void set(int pos, long[] a) {
+        unshare();
+        intervals[pos] = a;
+        owned[pos] = true;
+    }
+
+    private void insertSite(Site site, long[] a) {
+        unshare();
+        int pos = -search(site.index) - 1;
+        if (n == sites.length) {
+            final int capacity = Math.max(4, n * 2);
+            sites = Arrays.copyOf(sites, capacity);
+            intervals = Arrays.copyOf(intervals, capacity);
+            owned = Arrays.copyOf(owned, capacity);
+        }
+        System.arraycopy(sites, pos, sites, pos + 1, n - pos);
+        System.arraycopy(intervals, pos, intervals, pos + 1, n - pos);
+        System.arraycopy(owned, pos, owned, pos + 1, n - pos);
+        sites[pos] = site;
+        intervals[pos] = a;
+        owned[pos] = true;
+        n++;
+    }
+
+    private void removeSite(int pos) {
+        unshare();
+        n--;
+        System.arraycopy(sites, pos + 1, sites, pos, n - pos);
+        System.arraycopy(intervals, pos + 1, intervals, pos, n - pos);
+        System.arraycopy(owned, pos + 1, owned, pos, n - pos);
+        sites[n] = null;
+        intervals[n] = null;
+    }
+
+    private static long[] insertInterval(long[] a, int at, long from, long to) {
+        final long[] b = new long[a.length + 2];
+        System.arraycopy(a, 0, b, 0, at);
+        b[at] = from;
+        b[at + 1] = to;
+        System.arraycopy(a, at, b, at + 2, a.length - at);
+        return b;
+    }
+
+    private static long[] removeInterval(long[] a, int at) {
+        final long[] b = new long[a.length - 2];
+        System.arraycopy(a, 0, b, 0, at);
+        System.arraycopy(a, at + 2, b, at, a.length - at - 2);
+        return b;
+    }
+
+    /**
+     * Sorts and coalesces overlapping or adjacent intervals.
+     */
+    private static long[] normalize(long[] a) {
+        boolean sorted = true;
+        for (int i = 2; i < a.length; i += 2) {
+            if (a[i] <= a[i - 1] + 1) {
+                sorted = false;
+                break;
+            }
+        }
+        if (sorted) {
+            return a;
+        }
+        final long[][] pairs = new long[a.length / 2][];
+        for (int i = 0; i < pairs.length; i++) {
+            pairs[i] = new long[] { a[2 * i], a[2 * i + 1] };
+        }
+        Arrays.sort(pairs, new java.util.Comparator<long[]>() {
+            public int compare(long[] x, long[] y) {
+                return x[0] < y[0] ? -1 : (x[0] == y[0] ? 0 : 1);
+            }
+        });
+        final long[] b = new long[a.length];
+        int k = 0;
+        for (final long[] p : pairs) {
+            if (k > 0 && p[0] <= b[k - 1] + 1) {
+                b[k - 1] = Math.max(b[k - 1], p[1]);
+            } else {
+                b[k++] = p[0];
+                b[k++] = p[1];
+            }
+        }
+        return Arrays.copyOf(b, k);
+    }
+
+    /*
+     * Interval set operations
+     */
+
+    /**
+     * @return true if every interval of a is included in an interval of b
+     */
+    private static boolean subset(long[] a, long[] b) {
+        int j = 0;
+        for (int i = 0; i < a.length; i += 2) {
+            while (j < b.length && b[j + 1] < a[i]) {
+                j += 2;
+            }
+            if (j >= b.length || b[j] > a[i] || b[j + 1] < a[i + 1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static CMP_CLOCK compareIntervals(long[] a, long[] b) {
+        if (a == b) {
+            return CMP_CLOCK.CMP_EQUALS;
+        }
+        final boolean aInB = subset(a, b);
+        final boolean bInA = subset(b, a);
+        if (aInB) {
+            return bInA ? CMP_CLOCK.CMP_EQUALS : CMP_CLOCK.CMP_ISDOMINATED;
+        }
+        return bInA ? CMP_CLOCK.CMP_DOMINATES : CMP_CLOCK.CMP_CONCURRENT;
+    }
+
+    private static long[] union(long[] a, long[] b) {
+        final long[] res = new long[a.length + b.length];
+        int i = 0, j = 0, k = 0;
+        while (i < a.length || j < b.length) {
+            long from, to;
+            if (j >= b.length || (i < a.length && a[i] <= b[j])) {
+                from = a[i];
+                to = a[i + 1];
+                i += 2;
+            } else {
+                from = b[j];
+                to = b[j + 1];
+                j += 2;
+            }
+            if (k > 0 && from <= res[k - 1] + 1) {
+                res[k - 1] = Math.max(res[k - 1], to);
+            } else {
+                res[k++] = from;
+                res[k++] = to;
+            }
+        }
+        return k == res.length ? res : Arrays.copyOf(res, k);
+    }
+
+    private static long[] intersection(long[] a, long[] b) {
+        final long[] res = new long[a.length + b.length];
+        int i = 0, j = 0, k = 0;
+        while (i < a.length && j < b.length) {
+            final long from = Math.max(a[i], b[j]);
+            final long to = Math.min(a[i + 1], b[j + 1]);
+            if (from <= to) {
+                res[k++] = from;
+                res[k++] = to;
+            }
+            if (a[i + 1] < b[j + 1]) {
+                i += 2;
+            } else if (a[i + 1] > b[j + 1]) {
+                j += 2;
+            } else {
+                i += 2;
+                j += 2;
+            }
+        }
+        return Arrays.copyOf(res, k);
+    }
+
+    /*
+     * CausalityClock
+     */
+
+    @Override
+    public boolean includes(Timestamp t) {
+        final int pos = find(t.getIdentifier());
+        if (pos < 0) {
+            return false;
+        }
+        final long v = t.getCounter();
+        final long[] a = intervals[pos];
+        for (int i = a.length - 2; i >= 0; i -= 2) {
+            if (v > a[i + 1]) {
+                return false;
+            }
+            if (v >= a[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public boolean record(Timestamp t) {
+        final long v = t.getCounter();
+        final Site site = internSite(t.getIdentifier());
+        final int pos = find(site);
+        if (pos < 0) {
+            insertSite(site, new long[] { v, v });
+            return true;
+        }
+        long[] a = intervals[pos];
+        for (int i = a.length - 2; i >= 0; i -= 2) {
+            if (v >= a[i] && v <= a[i + 1]) {
+                return false;
+            }
+            if (v == a[i] - 1) {
+                if (i >= 2 && a[i - 1] == v - 1) {
+                    // fills the gap with the previous interval
+                    final long[] b = removeInterval(a, i);
+                    b[i - 1] = a[i + 1];
+                    set(pos, b);
+                } else {
+                    writable(pos)[i] = v;
+                }
+                return true;
+            } else if (v == a[i + 1] + 1) {
+                writable(pos)[i + 1] = v;
+                return true;
+            } else if (v > a[i + 1] + 1) {
+                set(pos, insertInterval(a, i + 2, v, v));
+                return true;
+            }
+        }
+        set(pos, insertInterval(a, 0, v, v));
+        return true;
+    }
+
+    @Override
+    public void recordAllUntil(Timestamp timestamp) {
+        final long t = timestamp.getCounter();
+        final long min = Timestamp.MIN_VALUE + 1;
+        final Site site = internSite(timestamp.getIdentifier());
+        final int pos = find(site);
+        if (pos < 0) {
+            insertSite(site, new long[] { min, t });
+            return;
+        }
+        final long[] a = intervals[pos];
+        int j = 0;
+        while (j < a.length && a[j + 1] <= t) {
+            j += 2;
+        }
+        if (j < a.length && a[j] <= t + 1) {
+            if (j == 0) {
+                writable(pos)[0] = min;
+            } else {
+                final long[] b = Arrays.copyOfRange(a, j - 2, a.length);
+                b[0] = min;
+                b[1] = a[j + 1];
+                set(pos, removeInterval(b, 2));
+            }
+        } else {
+            final long[] b = new long[a.length - j + 2];
+            b[0] = min;
+            b[1] = t;
+            System.arraycopy(a, j, b, 2, a.length - j);
+            set(pos, b);
+        }
+    }
+
+    @Override
+    public Timestamp getLatest(String siteid) {
+        final long value = getLatestCounter(siteid);
+        if (value <= Timestamp.MIN_VALUE) {
+            return null;
+        }
+        return new Timestamp(siteid, value);
+    }
+
+    @Override
+    public long getLatestCounter(String siteid) {
+        final int pos = find(siteid);
+        if (pos < 0) {
+            return Timestamp.MIN_VALUE;
+        }
+        final long[] a = intervals[pos];
+        return a[a.length - 1];
+    }
+
+    @Override
+    public boolean hasEventFrom(String siteid) {
+        return getLatestCounter(siteid) != Timestamp.MIN_VALUE;
+    }
+
+    @Override
+    public void drop(String siteId) {
+        final int pos = find(siteId);
+        if (pos >= 0) {
+            removeSite(pos);
+        }
+    }
+
+    @Override
+    public void drop(Timestamp t) {
+        final int pos = find(t.getIdentifier());
+        if (pos < 0) {
+            return;
+        }
+        final long v = t.getCounter();
+        final long[] a = intervals[pos];
+        for (int i = a.length - 2; i >= 0; i -= 2) {
+            if (v > a[i + 1]) {
+                return;
+            }
+            if (v < a[i]) {
+                continue;
+            }
+            if (a[i] == a[i + 1]) {
+                if (a.length == 2) {
+                    removeSite(pos);
+                } else {
+                    set(pos, removeInterval(a, i));
+                }
+            } else if (v == a[i + 1]) {
+                writable(pos)[i + 1] = v - 1;
+            } else if (v == a[i]) {
+                writable(pos)[i] = v + 1;
+            } else {
+                final long[] b = insertInterval(a, i, a[i], v - 1);
+                b[i + 2] = v + 1;
+                set(pos, b);
+            }
+            return;
+        }
+    }
+
+    @Override
+    public CMP_CLOCK compareTo(CausalityClock c) {
+        if (this == c) {
+            return CMP_CLOCK.CMP_EQUALS;
+        }
+        final PackedVersionVectorWithExceptions o = asPacked(c);
+        CMP_CLOCK result = CMP_CLOCK.CMP_EQUALS;
+        int i = 0, j = 0;
+        while ((i < n || j < o.n) && result != CMP_CLOCK.CMP_CONCURRENT) {
+            if (j >= o.n || (i < n && sites[i].index < o.sites[j].index)) {
+                result = ClockUtils.combineCmpClock(result, CMP_CLOCK.CMP_DOMINATES);
+                i++;
+            } else if (i >= n || sites[i].index > o.sites[j].index) {
+                result = ClockUtils.combineCmpClock(result, CMP_CLOCK.CMP_ISDOMINATED);
+                j++;
+            } else {
+                result = ClockUtils.combineCmpClock(result, compareIntervals(intervals[i], o.intervals[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public CMP_CLOCK merge(CausalityClock c) {
+        final PackedVersionVectorWithExceptions o = asPacked(c);
+        final CMP_CLOCK result = compareTo(o);
+        if (result.is(CMP_CLOCK.CMP_EQUALS, CMP_CLOCK.CMP_DOMINATES)) {
+            return result;
+        }
+        for (int j = 0; j < o.n; j++) {
+            final int pos = find(o.sites[j]);
+            if (pos < 0) {
+                insertSite(o.sites[j], o.intervals[j].clone());
+            } else {
+                final long[] a = intervals[pos], b = o.intervals[j];
+                if (!subset(b, a)) {
+                    set(pos, subset(a, b) ? b.clone() : union(a, b));
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public CMP_CLOCK intersect(CausalityClock c) {
+        final PackedVersionVectorWithExceptions o = asPacked(c);
+        final CMP_CLOCK result = compareTo(o);
+        if (result.is(CMP_CLOCK.CMP_EQUALS, CMP_CLOCK.CMP_ISDOMINATED)) {
+            return result;
+        }
+        for (int i = n - 1; i >= 0; i--) {
+            final int j = o.find(sites[i]);
+            if (j < 0) {
+                removeSite(i);
+                continue;
+            }
+            final long[] a = intervals[i], b = o.intervals[j];
+            if (!subset(a, b)) {
+                final long[] r = intersection(a, b);
+                if (r.length == 0) {
+                    removeSite(i);
+                } else {
+                    set(i, r);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void trim() {
+        for (int i = 0; i < n; i++) {
+            final long[] a = intervals[i];
+            if (a.length > 2) {
+                set(i, new long[] { a[0], a[1] });
+            }
+        }
+    }
+
+    @Override
+    public Set<String> getSiteIds() {
+        final Set<String> res = new TreeSet<String>();
+        for (int i = 0; i < n; i++) {
+            res.add(sites[i].name);
+        }
+        return res;
+    }
+
+    @Override
+    public int getSize() {
+        int res = 0;
+        for (int i = 0; i < n; i++) {
+            res += intervals[i].length / 2;
+        }
+        return res;
+    }
+
+    @Override
+    public int getExceptionsNumber() {
+        return getSize() - n;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        share = new Share();
+        owned = new boolean[sites.length];
+    }
+
+    @Override
+    public PackedVersionVectorWithExceptions clone() {
+        final PackedVersionVectorWithExceptions res = new PackedVersionVectorWithExceptions();
+        res.sites = sites;
+        res.intervals = intervals;
+        res.owned = owned;
+        res.n = n;
+        res.share = share;
+        share.cloned = true;
+        return res;
+    }
+
+    @Override
+    public Object copy() {
+        return clone();
+    }
+
+    @Override
+    public PackedVersionVectorWithExceptions copy(Kryo kryo) {
+        return clone();
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof PackedVersionVectorWithExceptions)) {
+            return false;
+        }
+        return compareTo((PackedVersionVectorWithExceptions) other) == CMP_CLOCK.CMP_EQUALS;
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = 7;
+        for (int i = 0; i < n; i++) {
+            hash += sites[i].name.hashCode() ^ Arrays.hashCode(intervals[i]);
+        }
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        final TreeMap<String, long[]> sorted = new TreeMap<String, long[]>();
+        for (int i = 0; i < n; i++) {
+            sorted.put(sites[i].name, intervals[i]);
+        }
+        final StringBuilder buf = new StringBuilder();
+        buf.append("[");
+        for (final Entry<String, long[]> e : sorted.entrySet()) {
+            if (buf.length() > 1) {
+                buf.append(",");
+            }
+            buf.append(e.getKey()).append(":");
+            final long[] a = e.getValue();
+            for (int i = 0; i < a.length; i += 2) {
+                buf.append("[").append(a[i]).append("-").append(a[i + 1]).append(']');
+            }
+        }
+        buf.append("]");
+        return buf.toString();
+    }
+
+    /**
+     * Same encoding as {@link VersionVectorWithExceptions#write(Kryo, Output)}.
+     */
+    @Override
+    public void write(Kryo kryo, Output out) {
+        out.writeVarInt(n, true);
+        for (int i = 0; i < n; i++) {
+            out.writeAscii(sites[i].name);
+            final long[] a = intervals[i];
+            if (a.length == 2 && a[0] == 1) {
+                out.writeVarLong(a[1], true);
+            } else {
+                out.writeVarLong(0, true);
+                out.writeVarInt(a.length / 2, true);
+                for (int j = 0; j < a.length; j++) {
+                    out.writeVarLong(a[j], true);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void read(Kryo kryo, Input in) {
+        final int size = in.readVarInt(true);
+        sites = new Site[size];
+        intervals = new long[size][];
+        owned = new boolean[size];
+        share = new Share();
+        n = 0;
+        for (int i = 0; i < size; i++) {
+            final Site site = internSite(in.readString());
+            long[] a;
+            final long optimizedInterval = in.readVarLong(true);
+            if (optimizedInterval > 0) {
+                a = new long[] { 1, optimizedInterval };
+            } else {
+                a = new long[2 * in.readVarInt(true)];
+                for (int j = 0; j < a.length; j++) {
+                    a[j] = in.readVarLong(true);
+                }
+                a = normalize(a);
+            }
+            insertSite(site, a);
+        }
+    }
+}
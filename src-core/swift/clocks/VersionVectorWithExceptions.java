@@ -433,7 +433,7 @@ public class VersionVectorWithExceptions implements CausalityClock, KryoSerializ
         // if ( ! VersionVectorWithExceptions.class.equals(cc.getClass())) {
         // throw new IncompatibleTypeException();
         // }
-        return mergeVV((VersionVectorWithExceptions) cc);
+        return mergeVV(asLinked(cc));
     }
 
     protected CMP_CLOCK intersectOneEntryVV(String siteid, LinkedList<Interval> l0) {
@@ -538,7 +538,7 @@ public class VersionVectorWithExceptions implements CausalityClock, KryoSerializ
         // if ( ! VersionVectorWithExceptions.class.equals(cc.getClass())) {
         // throw new IncompatibleTypeException();
         // }
-        return intersectVV((VersionVectorWithExceptions) cc);
+        return intersectVV(asLinked(cc));
     }
 
     /**
@@ -732,7 +732,7 @@ public class VersionVectorWithExceptions implements CausalityClock, KryoSerializ
         // if ( ! VersionVectorWithExceptions.class.equals(cc.getClass())) {
         // throw new IncompatibleTypeException();
         // }
-        return compareVV((VersionVectorWithExceptions) cc);
+        return compareVV(asLinked(cc));
     }
 
     /**
@@ -902,6 +902,13 @@ public class VersionVectorWithExceptions implements CausalityClock, KryoSerializ
         }
     }
 
+    private static VersionVectorWithExceptions asLinked(CausalityClock cc) {
+        if (cc instanceof PackedVersionVectorWithExceptions) {
+            return ((PackedVersionVectorWithExceptions) cc).toLinked();
+        }
+        return (VersionVectorWithExceptions) cc;
+    }
+
     @Override
     public boolean equals(Object other) {
         if (!(other instanceof VersionVectorWithExceptions)) {
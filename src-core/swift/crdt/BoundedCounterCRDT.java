@@ -61,7 +61,10 @@ public abstract class BoundedCounterCRDT<T extends BoundedCounterCRDT<T>> extend
     protected int totalAvailable() {
         int totalAvailable = 0;
         for (Entry<String, Map<String, Integer>> sitePermissions : permissions.entrySet()) {
-            totalAvailable += sitePermissions.getValue().get(sitePermissions.getValue());
+            final Integer selfPermissions = sitePermissions.getValue().get(sitePermissions.getKey());
+            if (selfPermissions != null) {
+                totalAvailable += selfPermissions;
+            }
         }
         return totalAvailable;
     }
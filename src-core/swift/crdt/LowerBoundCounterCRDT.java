@@ -49,7 +49,10 @@ public class LowerBoundCounterCRDT extends BoundedCounterCRDT<LowerBoundCounterC
         for (Entry<String, Map<String, Integer>> entry : permissions.entrySet()) {
             permCopy.put(entry.getKey(), new HashMap<String, Integer>(entry.getValue()));
         }
-        return new LowerBoundCounterCRDT(id, txn, clock, initVal, permCopy, new HashMap<String, Integer>(delta));
+        final LowerBoundCounterCRDT copy = new LowerBoundCounterCRDT(id, txn, clock, initVal, permCopy, new HashMap<String, Integer>(
+                delta));
+        copy.val = val;
+        return copy;
     }
 
     public boolean increment(int amount, String siteId) {
@@ -85,7 +85,13 @@ public class MapCRDT<K, V> extends BaseCRDT<MapCRDT<K, V>> {
 
     @Override
     public MapCRDT<K, V> copy() {
-        return new MapCRDT<K, V>(id, txn, clock, keysToElementsInstances);
+        final Map<K, Map<V, Set<TripleTimestamp>>> newInstances = new HashMap<K, Map<V, Set<TripleTimestamp>>>();
+        for (final Map.Entry<K, Map<V, Set<TripleTimestamp>>> entry : keysToElementsInstances.entrySet()) {
+            final Map<V, Set<TripleTimestamp>> value = new HashMap<V, Set<TripleTimestamp>>();
+            AddWinsUtils.deepCopy(entry.getValue(), value);
+            newInstances.put(entry.getKey(), value);
+        }
+        return new MapCRDT<K, V>(id, txn, clock, newInstances);
     }
 
 }
\ No newline at end of file
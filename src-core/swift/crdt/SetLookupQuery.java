@@ -21,6 +21,12 @@ import swift.crdt.core.CRDTQuery;
 public class SetLookupQuery<V, T extends AbstractAddWinsSetCRDT<V, T>> implements CRDTQuery<T> {
     protected V element;
 
+    /**
+     * Fake constructor for Kryo serialization. Do NOT use.
+     */
+    SetLookupQuery() {
+    }
+
     public SetLookupQuery(V element) {
         this.element = element;
     }
@@ -16,11 +16,14 @@
  *****************************************************************************/
 package swift.crdt;
 
+import java.util.HashSet;
+
 import swift.crdt.core.CRDTQuery;
 
 public class SetValueQuery<V, T extends AbstractAddWinsSetCRDT<V, T>> implements CRDTQuery<T> {
     @Override
     public Object executeAt(T crdtVersion) {
-        return crdtVersion.getValue();
+        // a copy, the result may be shipped after the object changes
+        return new HashSet<V>(crdtVersion.getValue());
     }
 }
@@ -49,7 +49,10 @@ public class UpperBoundCounterCRDT extends BoundedCounterCRDT<UpperBoundCounterC
         for (Entry<String, Map<String, Integer>> entry : permissions.entrySet()) {
             permCopy.put(entry.getKey(), new HashMap<String, Integer>(entry.getValue()));
         }
-        return new UpperBoundCounterCRDT(id, txn, clock, initVal, permCopy, new HashMap<String, Integer>(delta));
+        final UpperBoundCounterCRDT copy = new UpperBoundCounterCRDT(id, txn, clock, initVal, permCopy, new HashMap<String, Integer>(
+                delta));
+        copy.val = val;
+        return copy;
     }
 
     public boolean increment(int amount, String siteId) {
@@ -27,9 +27,9 @@ import com.esotericsoftware.kryo.io.Output;
 
 import swift.clocks.CausalityClock;
 import swift.clocks.CausalityClock.CMP_CLOCK;
+import swift.clocks.ClockFactory;
 import swift.clocks.Timestamp;
 import swift.clocks.TimestampMapping;
-import swift.clocks.VersionVectorWithExceptions;
 
 /**
  * Representation of an atomic sequence of update operations on an object.
@@ -253,7 +253,7 @@ public class CRDTObjectUpdatesGroup<V extends CRDT<V>> implements KryoSerializab
         if (id != null) {
             id.write(kryo, output);
         }
-        kryo.writeObjectOrNull(output, dependencyClock, VersionVectorWithExceptions.class);
+        kryo.writeObjectOrNull(output, dependencyClock, ClockFactory.clockClass());
         timestampMapping.write(kryo, output);
         output.writeVarInt(operations.size(), true);
         for (final CRDTUpdate<V> update : operations) {
@@ -268,7 +268,7 @@ public class CRDTObjectUpdatesGroup<V extends CRDT<V>> implements KryoSerializab
             id = new CRDTIdentifier();
             id.read(kryo, input);
         }
-        dependencyClock = kryo.readObjectOrNull(input, VersionVectorWithExceptions.class);
+        dependencyClock = kryo.readObjectOrNull(input, ClockFactory.clockClass());
         timestampMapping = new TimestampMapping();
         timestampMapping.read(kryo, input);
         final int operationsNumber = input.readVarInt(true);
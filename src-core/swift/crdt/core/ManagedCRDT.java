@@ -18,6 +18,7 @@ package swift.crdt.core;
 
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -32,7 +33,6 @@ import swift.clocks.CausalityClock.CMP_CLOCK;
 import swift.clocks.ClockFactory;
 import swift.clocks.Timestamp;
 import swift.clocks.TimestampMapping;
-import swift.clocks.VersionVectorWithExceptions;
 
 /**
  * Generic manager of an operation-based CRDT implementation V that provides
@@ -46,6 +46,12 @@ import swift.clocks.VersionVectorWithExceptions;
  * (type {@link CRDTUpdate} for CRDT type V)</li>
  * <li><b>metadata</b>: clocks and other information summarizing both parts</li>
  * </ol>
+ * <p>
+ * The state at {@link #getClock()}, i.e., the checkpoint with all logged
+ * updates applied, is materialized on first use and kept up to date as new
+ * updates are executed and pruned, so that reading the latest version does not
+ * replay the log. Optionally, a few recently requested older versions are
+ * cached too (see {@link #VERSIONS_CACHE_SIZE_PROPERTY}).
  * 
  * @author mzawirsk,annettebieniusa
  * 
@@ -56,6 +62,13 @@ public class ManagedCRDT<V extends CRDT<V>> implements KryoSerializable {
     // TODO: make costly assertion checks optional.
     private static final long serialVersionUID = 1L;
 
+    /**
+     * Number of materialized versions other than the latest one kept per
+     * object; 0 (default) disables the cache.
+     */
+    public static final String VERSIONS_CACHE_SIZE_PROPERTY = "swift.crdt.versionsCacheSize";
+    private static final int versionsCacheSize = Integer.getInteger(VERSIONS_CACHE_SIZE_PROPERTY, 0);
+
     private static <V extends CRDT<V>> Map<Timestamp, CRDTObjectUpdatesGroup<V>> getTimestampToUpdatesMap(
             List<CRDTObjectUpdatesGroup<V>> log) {
         final Map<Timestamp, CRDTObjectUpdatesGroup<V>> result = new HashMap<Timestamp, CRDTObjectUpdatesGroup<V>>();
@@ -84,6 +97,19 @@ public class ManagedCRDT<V extends CRDT<V>> implements KryoSerializable {
     // log of updates, in some linear extension of causality, stripped of
     // unnecessary information (dependency clocks and ids)
     protected List<CRDTObjectUpdatesGroup<V>> strippedLog;
+    // checkpoint with all of strippedLog applied, valid only as long as all the
+    // log is included in clock; null if not materialized
+    // (guarded by this: concurrent readers may materialize it)
+    protected transient V latestState;
+    // recently requested versions, indexed by a copy of their clock; null if
+    // empty (guarded by this: lookups reorder it)
+    protected transient LinkedHashMap<CausalityClock, V> versionsCache;
+    // one timestamp of every update group in strippedLog, so that any clock
+    // including it includes the whole log; null if it has to be recomputed
+    // (guarded by this)
+    protected transient CausalityClock logClock;
+    // number of operations in strippedLog; -1 if it has to be recounted
+    protected transient int logOperations = -1;
 
     public ManagedCRDT() {
     }
@@ -188,6 +214,8 @@ public class ManagedCRDT<V extends CRDT<V>> implements KryoSerializable {
      */
     public void discardScoutClock(final String scoutId) {
         clock.drop(scoutId);
+        // logged updates of that scout may no longer be included in the clock
+        invalidateVersions();
     }
 
     /**
@@ -217,26 +245,35 @@ public class ManagedCRDT<V extends CRDT<V>> implements KryoSerializable {
      *            when true, pruningPoint is checked against {@link #getClock()}
      *            and the pruning takes place only when it is safe; otherwise,
      *            clock is merged with purningPoint
+     * @return number of operations moved from the log to the checkpoint
      */
-    public void prune(CausalityClock pruningPoint, boolean checkVersionClock) {
+    public int prune(CausalityClock pruningPoint, boolean checkVersionClock) {
         if (checkVersionClock) {
             final CMP_CLOCK cmp = clock.compareTo(pruningPoint);
             if (cmp == CMP_CLOCK.CMP_CONCURRENT) {
                 // TODO: try to do something smarter?
-                return;
+                return 0;
             } else if (cmp == CMP_CLOCK.CMP_ISDOMINATED) {
                 pruningPoint = clock.clone();
             }
         }
 
         clock.merge(pruningPoint);
+        int prunedOperations = 0;
         final CMP_CLOCK cmpPrune = pruneClock.compareTo(pruningPoint);
         if (cmpPrune.is(CMP_CLOCK.CMP_CONCURRENT, CMP_CLOCK.CMP_ISDOMINATED)) {
+            // moving updates from the log to the checkpoint does not change
+            // the latest state, but older versions become undefined (logClock
+            // remains valid, just stricter than needed)
+            synchronized (this) {
+                versionsCache = null;
+            }
             for (final Iterator<CRDTObjectUpdatesGroup<V>> updatesIter = strippedLog.iterator(); updatesIter.hasNext();) {
                 final CRDTObjectUpdatesGroup<V> updates = updatesIter.next();
                 if (updates.anyTimestampIncluded(pruningPoint)) {
                     updates.applyTo(checkpoint);
                     updatesIter.remove();
+                    prunedOperations += updates.getOperations().size();
                     for (final Timestamp ts : updates.getTimestamps()) {
                         if (!ts.equals(updates.getClientTimestamp())) {
                             pruneClock.recordAllUntil(ts);
@@ -245,6 +282,32 @@ public class ManagedCRDT<V extends CRDT<V>> implements KryoSerializable {
                 }
             }
         }
+        if (logOperations >= 0) {
+            logOperations -= prunedOperations;
+        }
+        return prunedOperations;
+    }
+
+    /**
+     * Returns the number of update groups in the log, i.e., not yet pruned.
+     */
+    public int getLogLength() {
+        return strippedLog.size();
+    }
+
+    /**
+     * Returns the number of operations in the log, i.e., not yet pruned; a
+     * measure of the memory used by versioning this object.
+     */
+    public int getLogOperations() {
+        if (logOperations < 0) {
+            int count = 0;
+            for (final CRDTObjectUpdatesGroup<V> updates : strippedLog) {
+                count += updates.getOperations().size();
+            }
+            logOperations = count;
+        }
+        return logOperations;
     }
 
     /**
@@ -272,6 +335,8 @@ public class ManagedCRDT<V extends CRDT<V>> implements KryoSerializable {
 
         // This is a somewhat messy best-effort logic, since merge is not
         // exactly symmetric for op-based.
+        invalidateVersions();
+        logOperations = -1;
 
         final Map<Timestamp, CRDTObjectUpdatesGroup<V>> thisTimestampToUpdatesMap = getTimestampToUpdatesMap(strippedLog);
         switch (getClock().compareTo(other.getClock())) {
@@ -399,7 +464,19 @@ public class ManagedCRDT<V extends CRDT<V>> implements KryoSerializable {
             newOperation &= clock.record(timestamp);
         }
         if (newOperation) {
-            strippedLog.add(ops.strippedWithCopiedTimestampMappings());
+            final CRDTObjectUpdatesGroup<V> strippedOps = ops.strippedWithCopiedTimestampMappings();
+            strippedLog.add(strippedOps);
+            if (logOperations >= 0) {
+                logOperations += strippedOps.getOperations().size();
+            }
+            synchronized (this) {
+                if (latestState != null) {
+                    strippedOps.applyTo(latestState);
+                }
+                if (logClock != null) {
+                    logClock.record(representativeTimestamp(strippedOps));
+                }
+            }
         } else if (!ops.anyTimestampIncluded(pruneClock)) {
             for (final CRDTObjectUpdatesGroup<V> existingOps : strippedLog) {
                 if (existingOps.getClientTimestamp().equals(ops.getClientTimestamp())) {
@@ -440,6 +517,15 @@ public class ManagedCRDT<V extends CRDT<V>> implements KryoSerializable {
             // calls getVersion exactly once.
             txn.registerObjectCreation(id, (V) checkpoint.copy());
         }
+        if (versionClock == clock || includesLog(versionClock)) {
+            final V latest = getLatestState();
+            if (latest != null) {
+                return latest.copyWith(txn, versionClock.clone());
+            }
+        }
+        if (versionsCacheSize > 0) {
+            return getCachedState(versionClock).copyWith(txn, versionClock.clone());
+        }
         final V version = (V) checkpoint.copyWith(txn, versionClock.clone());
         for (final CRDTObjectUpdatesGroup<V> updates : strippedLog) {
             if (updates.anyTimestampIncluded(versionClock)) {
@@ -456,10 +542,121 @@ public class ManagedCRDT<V extends CRDT<V>> implements KryoSerializable {
     }
 
     public V getLatestVersion(TxnHandle txn) {
-        // WISHME: cache the most recent version? it should be easy.
         return getVersion(getClock(), txn);
     }
 
+    /**
+     * Evaluates a query on the version of the object for the provided clock.
+     * Unlike {@link #getVersion(CausalityClock, TxnHandle)}, the materialized
+     * latest state is queried in place rather than copied, and no state is
+     * cached, so concurrent queries only need to exclude updates.
+     *
+     * @param versionClock
+     *            the query is evaluated on the updates included in the clock
+     * @param query
+     *            query to evaluate; it must not modify the object
+     * @return result of the query
+     * @throws IllegalStateException
+     *             if it is not the case that {@link #getPruneClock()} <=
+     *             versionClock
+     */
+    public Object executeQuery(CausalityClock versionClock, CRDTQuery<V> query) {
+        assertGreaterEqualsPruneClock(versionClock);
+
+        final V latest;
+        synchronized (this) {
+            latest = latestState != null && includesLog(versionClock) ? latestState : null;
+        }
+        if (latest != null) {
+            return query.executeAt(latest);
+        }
+        final V version = checkpoint.copy();
+        for (final CRDTObjectUpdatesGroup<V> updates : strippedLog) {
+            if (updates.anyTimestampIncluded(versionClock)) {
+                updates.applyTo(version);
+            }
+        }
+        return query.executeAt(version);
+    }
+
+    /**
+     * Checks whether the clock includes every update in the log, comparing it
+     * against {@link #logClock} rather than scanning the log. It may report
+     * false for a clock that includes another timestamp of some update (e.g. a
+     * system timestamp assigned after it was logged), in which case callers
+     * just take the slower path.
+     */
+    private synchronized boolean includesLog(CausalityClock versionClock) {
+        if (logClock == null) {
+            logClock = ClockFactory.newClock();
+            for (final CRDTObjectUpdatesGroup<V> updates : strippedLog) {
+                logClock.record(representativeTimestamp(updates));
+            }
+        }
+        return versionClock.compareTo(logClock).is(CMP_CLOCK.CMP_EQUALS, CMP_CLOCK.CMP_DOMINATES);
+    }
+
+    /**
+     * Returns the timestamp of an update group most likely to be included in
+     * the versions read: its first system timestamp, if any.
+     */
+    private static Timestamp representativeTimestamp(CRDTObjectUpdatesGroup<?> updates) {
+        final List<Timestamp> timestamps = updates.getTimestamps();
+        return timestamps.get(timestamps.size() > 1 ? 1 : 0);
+    }
+
+    /**
+     * Returns the materialized checkpoint with all the log applied, computing
+     * it if needed; null if some logged update is not included in the clock,
+     * in which case it is not the latest version.
+     */
+    private synchronized V getLatestState() {
+        if (latestState == null) {
+            final V state = checkpoint.copy();
+            for (final CRDTObjectUpdatesGroup<V> updates : strippedLog) {
+                if (!updates.anyTimestampIncluded(clock)) {
+                    return null;
+                }
+                updates.applyTo(state);
+            }
+            latestState = state;
+        }
+        return latestState;
+    }
+
+    private synchronized V getCachedState(CausalityClock versionClock) {
+        if (versionsCache == null) {
+            versionsCache = new LinkedHashMap<CausalityClock, V>(4, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<CausalityClock, V> eldest) {
+                    return size() > versionsCacheSize;
+                }
+            };
+        }
+        V state = versionsCache.get(versionClock);
+        if (state == null) {
+            state = checkpoint.copy();
+            for (final CRDTObjectUpdatesGroup<V> updates : strippedLog) {
+                if (updates.anyTimestampIncluded(versionClock)) {
+                    updates.applyTo(state);
+                }
+            }
+            versionsCache.put(versionClock.clone(), state);
+        }
+        return state;
+    }
+
+    /**
+     * Discards all materialized versions, to be recomputed on demand.
+     */
+    protected synchronized void invalidateVersions() {
+        latestState = null;
+        versionsCache = null;
+        logClock = null;
+    }
+
     protected void assertLessEqualsClock(CausalityClock clock) {
         if (getClock() == null) {
             return;
@@ -551,12 +748,77 @@ public class ManagedCRDT<V extends CRDT<V>> implements KryoSerializable {
         return result;
     }
 
+    /**
+     * Creates a delta of the object for a replica that already knows the
+     * provided version: a copy without checkpoint, whose log contains only the
+     * updates not included in that version. The prune clock of the delta is
+     * the known version, so it can be applied with
+     * {@link #applyDelta(ManagedCRDT)} to any replica including it.
+     * 
+     * @param knownVersion
+     *            version of the object known by the receiver
+     * @return a delta of the object, or null if updates not included in
+     *         knownVersion were pruned into the checkpoint
+     */
+    public ManagedCRDT<V> copyDeltaSince(final CausalityClock knownVersion) {
+        if (pruneClock.compareTo(knownVersion).is(CMP_CLOCK.CMP_DOMINATES, CMP_CLOCK.CMP_CONCURRENT)) {
+            return null;
+        }
+        final ManagedCRDT<V> result = new ManagedCRDT<V>();
+        result.id = id;
+        result.clock = clock.clone();
+        result.pruneClock = knownVersion.clone();
+        result.registeredInStore = registeredInStore;
+        result.strippedLog = new LinkedList<CRDTObjectUpdatesGroup<V>>();
+        for (final CRDTObjectUpdatesGroup<V> updates : strippedLog) {
+            if (!updates.anyTimestampIncluded(knownVersion)) {
+                result.strippedLog.add(updates.strippedWithCopiedTimestampMappings());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return true if this is a delta created by
+     *         {@link #copyDeltaSince(CausalityClock)}, i.e. it has no state of
+     *         its own
+     */
+    public boolean isDelta() {
+        return checkpoint == null;
+    }
+
+    /**
+     * Applies a delta created by {@link #copyDeltaSince(CausalityClock)} to
+     * this object: executes its updates and merges its clock.
+     * 
+     * @param delta
+     *            delta of this object; unmodified
+     * @return false if this object does not include the version the delta was
+     *         computed for; the object is left unmodified then
+     */
+    public boolean applyDelta(final ManagedCRDT<V> delta) {
+        if (!id.equals(delta.id) || !delta.isDelta()) {
+            throw new IllegalArgumentException("Not a delta of object " + id);
+        }
+        if (clock.compareTo(delta.pruneClock).is(CMP_CLOCK.CMP_ISDOMINATED, CMP_CLOCK.CMP_CONCURRENT)) {
+            return false;
+        }
+        for (final CRDTObjectUpdatesGroup<V> updates : delta.strippedLog) {
+            execute(updates, CRDTOperationDependencyPolicy.IGNORE);
+        }
+        clock.merge(delta.clock);
+        registeredInStore |= delta.registeredInStore;
+        return true;
+    }
+
     /**
      * Discard all updates more recent than the provided version (exclusive).
      * 
      * @param version
      */
     public void discardRecentUpdates(CausalityClock version) {
+        invalidateVersions();
+        logOperations = -1;
         version.clone();
         version.merge(pruneClock);
         for (final Iterator<CRDTObjectUpdatesGroup<V>> updatesIter = strippedLog.iterator(); updatesIter.hasNext();) {
@@ -578,8 +840,8 @@ public class ManagedCRDT<V extends CRDT<V>> implements KryoSerializable {
     public void read(Kryo kryo, Input in) {
         id = new CRDTIdentifier();
         id.read(kryo, in);
-        clock = kryo.readObjectOrNull(in, VersionVectorWithExceptions.class);
-        pruneClock = kryo.readObjectOrNull(in, VersionVectorWithExceptions.class);
+        clock = kryo.readObjectOrNull(in, ClockFactory.clockClass());
+        pruneClock = kryo.readObjectOrNull(in, ClockFactory.clockClass());
         registeredInStore = in.readBoolean();
         checkpoint = (V) kryo.readClassAndObject(in);
         strippedLog = kryo.readObjectOrNull(in, LinkedList.class);
@@ -591,8 +853,8 @@ public class ManagedCRDT<V extends CRDT<V>> implements KryoSerializable {
     @Override
     public void write(Kryo kryo, Output out) {
         id.write(kryo, out);
-        kryo.writeObjectOrNull(out, clock, VersionVectorWithExceptions.class);
-        kryo.writeObjectOrNull(out, pruneClock, VersionVectorWithExceptions.class);
+        kryo.writeObjectOrNull(out, clock, ClockFactory.clockClass());
+        kryo.writeObjectOrNull(out, pruneClock, ClockFactory.clockClass());
         out.writeBoolean(registeredInStore);
         kryo.writeClassAndObject(out, checkpoint);
         kryo.writeObjectOrNull(out, strippedLog.isEmpty() ? null : strippedLog, LinkedList.class);
@@ -602,6 +864,7 @@ public class ManagedCRDT<V extends CRDT<V>> implements KryoSerializable {
      * INTERNAL hack for serialization optimization
      */
     public void forceSetClocks(CausalityClock pruneClock, CausalityClock clock) {
+        invalidateVersions();
         this.pruneClock = pruneClock;
         this.clock = clock;
     }
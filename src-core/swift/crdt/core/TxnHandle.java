@@ -122,6 +122,34 @@ public interface TxnHandle {
             final ObjectUpdatesListener updatesListener) throws WrongTypeException, NoSuchObjectException,
             VersionNotFoundException, NetworkException;
 
+    /**
+     * Evaluates a query on an existing object, at the version that
+     * {@link #get(CRDTIdentifier, boolean, Class)} would return. Unless the
+     * transaction already read the object, or the client has updates on it
+     * not yet stable in the store, the query may be evaluated by the store,
+     * so only its result is shipped to the client instead of the object.
+     *
+     * @param id
+     *            identifier of an object
+     * @param classOfV
+     *            class of an object stored under this identifier
+     * @param query
+     *            query to evaluate; it must not modify the object, and its
+     *            result must be serializable
+     * @return result of the query
+     * @throws WrongTypeException
+     *             when classOfT does not match the type of object stored under
+     *             identifier id
+     * @throws NoSuchObjectException
+     *             when the object does not exist in the store
+     * @throws IllegalStateException
+     *             when transaction is already committed or rolled back
+     * @throws NetworkException
+     *             when the communication with the store fails
+     */
+    <V extends CRDT<V>> Object query(CRDTIdentifier id, Class<V> classOfV, CRDTQuery<V> query)
+            throws WrongTypeException, NoSuchObjectException, VersionNotFoundException, NetworkException;
+
     /**
      * Commits the transaction and blocks until the transaction is committed to
      * the store.
@@ -62,6 +62,19 @@ public class CRDTData<V extends CRDT<V>> {
     transient long lastPrunedTime;
     transient CausalityClock lastPrunedClock;
     transient Object dbInfo;
+    /**
+     * 1 if modified since last flushed to the database, see CRDTDataStore
+     */
+    transient volatile int dirty;
+    /**
+     * true if queued for pruning, see CRDTPruner; guarded by the entry's lock
+     */
+    transient boolean pruneQueued;
+    /**
+     * estimated serialized size of the log of crdt, see CRDTPruner; guarded by
+     * the entry's lock
+     */
+    transient long logBytes;
 
     CRDTData() {
         lastPrunedTime = -1;
@@ -81,7 +94,11 @@ public class CRDTData<V extends CRDT<V>> {
             lastPrunedClock.trim();
         }
         if (lastPrunedTime + pruningInterval < curTime) {
-            crdt.prune(lastPrunedClock, false);
+            final int logOperations = crdt.getLogOperations();
+            final int prunedOperations = crdt.prune(lastPrunedClock, false);
+            if (prunedOperations > 0) {
+                logBytes -= logBytes * prunedOperations / logOperations;
+            }
             pruneClock = lastPrunedClock;
             lastPrunedTime = curTime;
             lastPrunedClock = (CausalityClock) clock.copy();
@@ -0,0 +1,145 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package swift.dc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import swift.crdt.core.CRDTIdentifier;
+
+/**
+ * In-memory object store of a data server: one concurrent map per table, plus
+ * dirty tracking for the background flusher.
+ * <p>
+ * An entry is queued in its shard's dirty queue the first time it is marked
+ * dirty after being flushed, so the flusher only visits what changed and
+ * writers never block on it. The dirty flag of an entry must be cleared (with
+ * {@link #clearDirty(CRDTData)}) under the entry's lock, before its contents
+ * are written out.
+ */
+final class CRDTDataStore {
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<CRDTData> DIRTY = AtomicIntegerFieldUpdater.newUpdater(
+            CRDTData.class, "dirty");
+
+    private final ConcurrentMap<String, ConcurrentMap<String, CRDTData<?>>> tables;
+    private final ConcurrentLinkedQueue<CRDTData<?>>[] dirtyQueues;
+
+    /**
+     * @param shards
+     *            number of dirty queues, to spread contention among writers
+     */
+    @SuppressWarnings("unchecked")
+    CRDTDataStore(int shards) {
+        this.tables = new ConcurrentHashMap<String, ConcurrentMap<String, CRDTData<?>>>();
+        this.dirtyQueues = (ConcurrentLinkedQueue<CRDTData<?>>[]) new ConcurrentLinkedQueue<?>[shards];
+        for (int i = 0; i < shards; i++)
+            dirtyQueues[i] = new ConcurrentLinkedQueue<CRDTData<?>>();
+    }
+
+    CRDTDataStore() {
+        this(Math.max(1, Runtime.getRuntime().availableProcessors()));
+    }
+
+    private ConcurrentMap<String, CRDTData<?>> table(String name) {
+        ConcurrentMap<String, CRDTData<?>> m = tables.get(name);
+        if (m == null) {
+            final ConcurrentMap<String, CRDTData<?>> newTable = new ConcurrentHashMap<String, CRDTData<?>>();
+            m = tables.putIfAbsent(name, newTable);
+            if (m == null)
+                m = newTable;
+        }
+        return m;
+    }
+
+    /**
+     * Returns the in-memory entry of an object, or null if it is not loaded.
+     */
+    CRDTData<?> get(CRDTIdentifier id) {
+        final ConcurrentMap<String, CRDTData<?>> m = tables.get(id.getTable());
+        return m == null ? null : m.get(id.getKey());
+    }
+
+    /**
+     * Installs an entry, unless one was installed concurrently.
+     *
+     * @return the entry in the store
+     */
+    CRDTData<?> putIfAbsent(CRDTData<?> data) {
+        final CRDTData<?> current = table(data.id.getTable()).putIfAbsent(data.id.getKey(), data);
+        return current == null ? data : current;
+    }
+
+    /**
+     * Removes an entry from memory, once it has moved to another data server.
+     */
+    void remove(CRDTData<?> data) {
+        final ConcurrentMap<String, CRDTData<?>> m = tables.get(data.id.getTable());
+        if (m != null)
+            m.remove(data.id.getKey(), data);
+    }
+
+    /**
+     * Returns the entries in memory. The iteration is weakly consistent, it may
+     * or may not reflect concurrent changes to the store.
+     */
+    Iterable<CRDTData<?>> entries() {
+        final List<CRDTData<?>> res = new ArrayList<CRDTData<?>>();
+        for (ConcurrentMap<String, CRDTData<?>> m : tables.values())
+            res.addAll(m.values());
+        return res;
+    }
+
+    /**
+     * Marks an entry as modified since it was last flushed.
+     */
+    void markDirty(CRDTData<?> data) {
+        if (DIRTY.compareAndSet(data, 0, 1)) {
+            dirtyQueues[shard(data.id)].add(data);
+        }
+    }
+
+    /**
+     * Clears the dirty flag of an entry about to be flushed; later updates mark
+     * it dirty again.
+     */
+    void clearDirty(CRDTData<?> data) {
+        data.dirty = 0;
+    }
+
+    /**
+     * Removes the next entry queued for flushing from a shard.
+     *
+     * @return null if the shard has no dirty entries
+     */
+    CRDTData<?> pollDirty(int shard) {
+        return dirtyQueues[shard].poll();
+    }
+
+    int shards() {
+        return dirtyQueues.length;
+    }
+
+    private int shard(CRDTIdentifier id) {
+        return (id.hashCode() & 0x7fffffff) % dirtyQueues.length;
+    }
+}
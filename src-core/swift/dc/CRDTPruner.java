@@ -0,0 +1,197 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package swift.dc;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import swift.crdt.core.CRDTObjectUpdatesGroup;
+import sys.net.impl.KryoLib;
+import sys.stats.Stats;
+import sys.stats.StatsImpl;
+import sys.stats.sources.CounterSignalSource;
+import sys.stats.sources.PollingBasedValueProvider;
+import sys.stats.sources.ValueSignalSource;
+
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Background pruning of the objects of a data server, driven by the size of
+ * their logs rather than by time.
+ * <p>
+ * Updated objects whose log holds at least a threshold of operations, or of
+ * bytes, are queued, largest first, and pruned by a single thread; objects
+ * below both thresholds are never visited. The size of a log is estimated from
+ * the serialized size of the updates applied since the object was loaded, and
+ * scaled down by the fraction of operations each pruning removes. As before, an object is pruned to the clock it
+ * had at the previous pruning attempt, once that clock is older than the
+ * pruning interval, so objects that are not yet eligible wait for the next
+ * round.
+ */
+final class CRDTPruner {
+    private static Logger logger = Logger.getLogger(CRDTPruner.class.getName());
+
+    static final double[] OPERATIONS_BINS = new double[] { 16, 32, 64, 128, 256, 512, 1024, 4096 };
+
+    /**
+     * Prunes an entry under its lock.
+     */
+    interface Pruning {
+        /**
+         * @return false if the entry is not eligible for pruning yet
+         */
+        boolean prune(CRDTData<?> data);
+    }
+
+    private final int threshold;
+    private final long bytesThreshold;
+    private final int intervalMillis;
+    private final Pruning pruning;
+    private final PriorityBlockingQueue<Candidate> queue = new PriorityBlockingQueue<Candidate>();
+    // guarded by the pruner thread
+    private final List<Candidate> deferred = new ArrayList<Candidate>();
+
+    private final CounterSignalSource runsStats;
+    private final ValueSignalSource logStats;
+
+    /**
+     * @param threshold
+     *            minimum number of logged operations for an object to be
+     *            pruned
+     * @param bytesThreshold
+     *            minimum estimated size of the log for an object to be pruned,
+     *            regardless of its number of operations
+     * @param intervalMillis
+     *            minimum age of the pruning point
+     */
+    CRDTPruner(int threshold, long bytesThreshold, int intervalMillis, Pruning pruning, Stats stats) {
+        this.threshold = threshold;
+        this.bytesThreshold = bytesThreshold;
+        this.intervalMillis = Math.max(1, intervalMillis);
+        this.pruning = pruning;
+        this.runsStats = stats.getCountingSourceForStat("dataserver-pruning-runs");
+        this.logStats = stats.getValuesFrequencyOverTime("dataserver-pruned-log-operations", OPERATIONS_BINS);
+        stats.registerPollingBasedValueProvider("dataserver-pruning-queue", new PollingBasedValueProvider() {
+            @Override
+            public double poll() {
+                return queue.size();
+            }
+        }, StatsImpl.SAMPLING_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Starts the pruning thread.
+     */
+    void start() {
+        final Thread t = new Thread() {
+            public void run() {
+                long nextRound = System.currentTimeMillis() + intervalMillis;
+                for (;;) {
+                    try {
+                        final Candidate c = queue.poll(Math.max(1, nextRound - System.currentTimeMillis()),
+                                TimeUnit.MILLISECONDS);
+                        if (c != null) {
+                            prune(c);
+                        }
+                        if (System.currentTimeMillis() >= nextRound) {
+                            queue.addAll(deferred);
+                            deferred.clear();
+                            nextRound = System.currentTimeMillis() + intervalMillis;
+                        }
+                    } catch (Exception e) {
+                        logger.log(Level.WARNING, "Pruning failed", e);
+                    }
+                }
+            }
+        };
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Notifies that an update was applied to an object; must be called under
+     * its lock.
+     */
+    void updated(CRDTData<?> data, CRDTObjectUpdatesGroup<?> update) {
+        updated(data, serializedSize(update));
+    }
+
+    void updated(CRDTData<?> data, int updateBytes) {
+        data.logBytes += updateBytes;
+        if (!data.pruneQueued && !data.empty && exceedsThreshold(data)) {
+            data.pruneQueued = true;
+            queue.add(new Candidate(data, data.crdt.getLogOperations(), data.logBytes));
+        }
+    }
+
+    /**
+     * @return true if the log of the object is large enough to be pruned; must
+     *         be called under its lock
+     */
+    boolean exceedsThreshold(CRDTData<?> data) {
+        return data.crdt.getLogOperations() >= threshold || data.logBytes >= bytesThreshold;
+    }
+
+    private void prune(Candidate c) {
+        if (pruning.prune(c.data)) {
+            runsStats.incCounter();
+            logStats.setValue(c.logOperations);
+        } else {
+            deferred.add(c);
+        }
+    }
+
+    static int serializedSize(Object update) {
+        final Output out = sizer.get();
+        out.clear();
+        KryoLib.kryo().writeClassAndObject(out, update);
+        return (int) out.total();
+    }
+
+    // counts serialized bytes without keeping them
+    private static final ThreadLocal<Output> sizer = ThreadLocal.withInitial(() -> new Output(new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }, 1 << 10));
+
+    static class Candidate implements Comparable<Candidate> {
+        final CRDTData<?> data;
+        final int logOperations;
+        final long logBytes;
+
+        Candidate(CRDTData<?> data, int logOperations, long logBytes) {
+            this.data = data;
+            this.logOperations = logOperations;
+            this.logBytes = logBytes;
+        }
+
+        @Override
+        public int compareTo(Candidate other) {
+            return other.logBytes < logBytes ? -1 : (other.logBytes == logBytes ? 0 : 1);
+        }
+    }
+}
@@ -40,6 +40,13 @@ public class DCConstants {
                                                     // sequencers
     public static final long SYNC_PERIOD = 10000; // period for dumping objects
                                                   // to storage
+    public static final int DHT_HANDOFF_BATCH_SIZE = 64; // objects per batch
+                                                         // moved to a new node
+    public static final int DHT_HANDOFF_TIMEOUT = 5000; // wait for the ack of
+                                                        // a handoff batch
+    public static final int PARALLEL_EXEC_MIN_OBJECTS = 3; // objects updated by
+                                                           // a commit executed
+                                                           // in parallel
 
     public static final String DATABASE_CLASS = "DB"; // property for storing
                                                       // the type of database
@@ -65,12 +72,24 @@ public class DCConstants {
 
     public static final int DEFAULT_PRUNING_INTERVAL_MS = 3000;
 
+    public static final String PRUNING_THRESHOLD_PROPERTY = "swift.pruningThreshold";
+
+    public static final int DEFAULT_PRUNING_THRESHOLD = 32;
+
+    public static final String PRUNING_THRESHOLD_BYTES_PROPERTY = "swift.pruningThresholdBytes";
+
+    public static final long DEFAULT_PRUNING_THRESHOLD_BYTES = 64 << 10;
+
     public static final boolean DEFAULT_DB_NULL = true;
 
     public static final String NOTIFICATION_PERIOD_PROPERTY = "swift.notificationPeriodMillis";
 
     public static final int DEFAULT_NOTIFICATION_PERIOD_MS = 1000;
 
+    public static final String NOTIFICATION_BATCH_PERIOD_PROPERTY = "swift.notificationBatchMillis";
+
+    public static final int DEFAULT_NOTIFICATION_BATCH_PERIOD_MS = 5;
+
     public static final String NOTIFICATIONS_SEND_FAKE_PRACTI_DEPOT_VECTORS_PROPERTY = "swift.notificationsFakePracti";
 
     public static final String DEFAULT_NOTIFICATIONS_SEND_FAKE_PRACTI_DEPOT_VECTORS = "false";
@@ -78,4 +97,30 @@ public class DCConstants {
     public static final String NOTIFICATIONS_SEND_DELTA_VECTORS_PROPERTY = "swift.notificationsDeltaVectors";
 
     public static final String DEFAULT_NOTIFICATIONS_SEND_DELTA_VECTORS = "false";
+
+    public static final String LOCK_STRIPES_PROPERTY = "swift.lockStripes";
+
+    public static final int DEFAULT_LOCK_STRIPES = 1024;
+
+    public static final String STATS_DIR_PROPERTY = "swift.dcStatsDir";
+
+    public static final String SEQUENCER_BATCH_SIZE_PROPERTY = "swift.sequencerBatchSize";
+
+    public static final int DEFAULT_SEQUENCER_BATCH_SIZE = 64;
+
+    public static final String SEQUENCER_MAX_IN_FLIGHT_PROPERTY = "swift.sequencerMaxInFlight";
+
+    public static final int DEFAULT_SEQUENCER_MAX_IN_FLIGHT = 4;
+
+    public static final String PUBSUB_WORKERS_PROPERTY = "swift.pubsubWorkers";
+
+    public static final int DEFAULT_PUBSUB_WORKERS = 4;
+
+    public static final String PUBSUB_QUEUE_CAPACITY_PROPERTY = "swift.pubsubQueueCapacity";
+
+    public static final int DEFAULT_PUBSUB_QUEUE_CAPACITY = 1024;
+
+    public static final String DHT_VIRTUAL_NODES_PROPERTY = "swift.dhtVirtualNodes";
+
+    public static final int DEFAULT_DHT_VIRTUAL_NODES = 128;
 }
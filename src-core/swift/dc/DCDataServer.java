@@ -16,18 +16,14 @@
  *****************************************************************************/
 package swift.dc;
 
-import static sys.utils.Threading.lock;
-import static sys.utils.Threading.unlock;
-
 import java.lang.management.LockInfo;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicReference;
@@ -35,6 +31,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import swift.clocks.CausalityClock;
+import swift.clocks.CausalityClock.CMP_CLOCK;
 import swift.clocks.ClockFactory;
 import swift.clocks.Timestamp;
 import swift.crdt.IntegerCRDT;
@@ -42,13 +39,23 @@ import swift.crdt.core.CRDT;
 import swift.crdt.core.CRDTIdentifier;
 import swift.crdt.core.CRDTObjectUpdatesGroup;
 import swift.crdt.core.CRDTOperationDependencyPolicy;
+import swift.crdt.core.CRDTQuery;
 import swift.crdt.core.ManagedCRDT;
 import swift.dc.db.DCNodeDatabase;
 import swift.dc.db.StatsNodeDatabaseWrapper;
+import swift.proto.BatchFetchObjectVersionReply.FetchStatus;
 import swift.proto.DHTExecCRDT;
 import swift.proto.DHTExecCRDTReply;
 import swift.proto.DHTGetCRDT;
 import swift.proto.DHTGetCRDTReply;
+import swift.proto.DHTHandoff;
+import swift.proto.DHTHandoffReply;
+import swift.proto.DHTHandoffRequest;
+import swift.proto.DHTJoinReply;
+import swift.proto.DHTJoinRequest;
+import swift.proto.DHTQueryCRDT;
+import swift.proto.DHTQueryCRDTReply;
+import swift.proto.DHTRedirect;
 import swift.proto.ObjectUpdatesInfo;
 import swift.proto.SwiftProtocolHandler;
 import swift.pubsub.DataServerPubSubService;
@@ -56,12 +63,20 @@ import swift.pubsub.SurrogatePubSubService;
 import swift.pubsub.UpdateNotification;
 import swift.utils.FutureResultHandler;
 import sys.dht.DHT_Node;
+import sys.dht.Node;
 import sys.net.api.Endpoint;
 import sys.net.api.Networking;
 import sys.net.api.rpc.RpcEndpoint;
 import sys.net.api.rpc.RpcHandle;
 import sys.net.api.rpc.RpcMessage;
+import sys.net.impl.CompressionPolicy;
+import sys.net.impl.rpc.RpcFactoryImpl;
 import sys.scheduler.PeriodicTask;
+import sys.stats.DummyStats;
+import sys.stats.Stats;
+import sys.stats.StatsImpl;
+import sys.utils.ConcurrentHashSet;
+import sys.utils.StripedLockTable;
 import sys.utils.Threading;
 
 /**
@@ -73,7 +88,9 @@ final class DCDataServer {
     private static Logger logger = Logger.getLogger(DCDataServer.class.getName());
 
     Map<CRDTIdentifier, LockInfo> locks;
-    Map<String, Map<String, CRDTData<?>>> db;
+    StripedLockTable lockTable;
+    Stats stats;
+    final CRDTDataStore db = new CRDTDataStore();
 
     CausalityClock version;
     CausalityClock cltClock;
@@ -81,8 +98,8 @@ final class DCDataServer {
 
     DCNodeDatabase dbServer;
     final int pruningInterval;
-
-    Set<CRDTData<?>> modified;
+    final int pruningThreshold;
+    final CRDTPruner pruner;
 
     SurrogatePubSubService suPubSub;
     DataServerPubSubService dsPubSub;
@@ -94,19 +111,68 @@ final class DCDataServer {
 
     CRDTIdentifier heartBeat = new CRDTIdentifier("heart", "beat");
 
+    // members handing off objects to this node, which may be fetched from
+    // them meanwhile
+    final Set<Node> handoffSources = new ConcurrentHashSet<Node>();
+
+    // joined nodes this node is handing off objects to
+    final Set<Endpoint> handoffTargets = new ConcurrentHashSet<Endpoint>();
+
     DCDataServer(final DCSurrogate surrogate, Properties props, SurrogatePubSubService suPubSub, int dhtPort) {
         sys.dht.DHT_Node.DHT_PORT = dhtPort;
         this.surrogate = surrogate;
         this.localSurrogateId = surrogate.getId();
-        this.dsPubSub = new DataServerPubSubService(localSurrogateId, executor, surrogate);
+        this.dsPubSub = new DataServerPubSubService(localSurrogateId, executor, surrogate, Integer.valueOf(props
+                .getProperty(DCConstants.PUBSUB_WORKERS_PROPERTY, "" + DCConstants.DEFAULT_PUBSUB_WORKERS)),
+                Integer.valueOf(props.getProperty(DCConstants.PUBSUB_QUEUE_CAPACITY_PROPERTY, ""
+                        + DCConstants.DEFAULT_PUBSUB_QUEUE_CAPACITY)), Integer.valueOf(props.getProperty(
+                        DCConstants.NOTIFICATION_BATCH_PERIOD_PROPERTY, ""
+                                + DCConstants.DEFAULT_NOTIFICATION_BATCH_PERIOD_MS)));
         this.suPubSub = suPubSub;
 
+        final String lockStripesString = props.getProperty(DCConstants.LOCK_STRIPES_PROPERTY);
+        if (lockStripesString != null) {
+            lockTable = new StripedLockTable(Integer.valueOf(lockStripesString));
+        } else {
+            lockTable = new StripedLockTable(DCConstants.DEFAULT_LOCK_STRIPES);
+        }
+        final String statsDir = props.getProperty(DCConstants.STATS_DIR_PROPERTY);
+        if (statsDir != null) {
+            stats = StatsImpl.getInstance("dc-" + localSurrogateId, StatsImpl.SAMPLING_INTERVAL_MILLIS, statsDir,
+                    true);
+        } else {
+            stats = new DummyStats();
+        }
+        lockTable.registerStats(stats, "dataserver-");
+        dsPubSub.registerStats(stats, "dataserver-pubsub-");
+        suPubSub.registerStats(stats, "surrogate-pubsub-");
+        CompressionPolicy.export(stats, "transport-");
+        RpcFactoryImpl.registerStats(stats, "rpc-");
+
         final String pruningIntervalString = props.getProperty(DCConstants.PRUNING_INTERVAL_PROPERTY);
         if (pruningIntervalString != null) {
             pruningInterval = Integer.valueOf(pruningIntervalString);
         } else {
             pruningInterval = DCConstants.DEFAULT_PRUNING_INTERVAL_MS;
         }
+        final String pruningThresholdString = props.getProperty(DCConstants.PRUNING_THRESHOLD_PROPERTY);
+        if (pruningThresholdString != null) {
+            pruningThreshold = Integer.valueOf(pruningThresholdString);
+        } else {
+            pruningThreshold = DCConstants.DEFAULT_PRUNING_THRESHOLD;
+        }
+        final String pruningThresholdBytesString = props.getProperty(DCConstants.PRUNING_THRESHOLD_BYTES_PROPERTY);
+        final long pruningThresholdBytes;
+        if (pruningThresholdBytesString != null) {
+            pruningThresholdBytes = Long.valueOf(pruningThresholdBytesString);
+        } else {
+            pruningThresholdBytes = DCConstants.DEFAULT_PRUNING_THRESHOLD_BYTES;
+        }
+        pruner = new CRDTPruner(pruningThreshold, pruningThresholdBytes, pruningInterval, new CRDTPruner.Pruning() {
+            public boolean prune(CRDTData<?> data) {
+                return pruneEntry(data);
+            }
+        }, stats);
         final String notificationPeriodString = props.getProperty(DCConstants.NOTIFICATION_PERIOD_PROPERTY);
         final int notificationPeriodMillis;
         if (notificationPeriodString != null) {
@@ -118,6 +184,7 @@ final class DCDataServer {
         initStore();
         initData(props);
         initDHT();
+        pruner.start();
 
         if (logger.isLoggable(Level.INFO)) {
             logger.info("Data server ready...");
@@ -133,6 +200,29 @@ final class DCDataServer {
         };
     }
 
+    /**
+     * Exclusive lock of an object, for updates.
+     */
+    private void lock(CRDTIdentifier id) {
+        lockTable.lock(id);
+    }
+
+    private void unlock(CRDTIdentifier id) {
+        lockTable.unlock(id);
+    }
+
+    /**
+     * Shared lock of an object, for reads; concurrent reads of the same object
+     * do not block each other.
+     */
+    private void readLock(CRDTIdentifier id) {
+        lockTable.readLock(id);
+    }
+
+    private void readUnlock(CRDTIdentifier id) {
+        lockTable.readUnlock(id);
+    }
+
     /**
      * Start background thread that dumps to disk
      */
@@ -141,22 +231,17 @@ final class DCDataServer {
             public void run() {
                 for (;;) {
                     try {
-                        List<CRDTData<?>> list = null;
-                        synchronized (modified) {
-                            list = new ArrayList<CRDTData<?>>(modified);
-                        }
-                        Iterator<CRDTData<?>> it = list.iterator();
-                        while (it.hasNext()) {
-                            CRDTData<?> obj = it.next();
-                            lock(obj.id);
-                            try {
-                                synchronized (modified) {
-                                    modified.remove(obj);
+                        for (int i = 0; i < db.shards(); i++) {
+                            CRDTData<?> obj;
+                            while ((obj = db.pollDirty(i)) != null) {
+                                lock(obj.id);
+                                try {
+                                    db.clearDirty(obj);
+                                } finally {
+                                    unlock(obj.id);
                                 }
-                            } finally {
-                                unlock(obj.id);
+                                writeCRDTintoDB(obj);
                             }
-                            writeCRDTintoDB(obj);
                         }
                         logger.info("Flushed store to disk...");
                         Thread.sleep(DCConstants.SYNC_PERIOD);
@@ -176,8 +261,12 @@ final class DCDataServer {
      * Start DHT subsystem...
      */
 
+    /**
+     * Sends a request to the node owning an object. If the object moved, the
+     * new owner joins the ring and the request is retried.
+     */
     @SuppressWarnings({ "unchecked", "rawtypes" })
-    void dhtRequest(Endpoint dst, final RpcMessage req, final FutureResultHandler rh) {
+    void dhtRequest(Endpoint dst, final RpcMessage req, final FutureResultHandler rh, final Runnable retry) {
         dhtEndpoint.send(dst, req, new SwiftProtocolHandler() {
             public void onReceive(DHTExecCRDTReply reply) {
                 rh.onResult(reply.getResult());
@@ -186,9 +275,24 @@ final class DCDataServer {
             public void onReceive(DHTGetCRDTReply reply) {
                 rh.onResult(reply.getObject());
             }
+
+            public void onReceive(DHTQueryCRDTReply reply) {
+                rh.onResult(reply);
+            }
+
+            public void onReceive(DHTRedirect reply) {
+                nodeJoined(reply.getOwner());
+                retry.run();
+            }
         }, 0);
     }
 
+    /**
+     * Sends a request to the node owning an object, blocking until it replies.
+     * 
+     * @throws ObjectMovedException
+     *             if the object moved to a node added meanwhile to the ring
+     */
     @SuppressWarnings("unchecked")
     <V> V dhtRequest(Endpoint dst, final RpcMessage req) {
         final AtomicReference<Object> result = new AtomicReference<Object>(req);
@@ -204,10 +308,19 @@ final class DCDataServer {
                         result.set(reply.getObject());
                         Threading.synchronizedNotifyAllOn(result);
                     }
+
+                    public void onReceive(DHTRedirect reply) {
+                        nodeJoined(reply.getOwner());
+                        result.set(reply);
+                        Threading.synchronizedNotifyAllOn(result);
+                    }
                 }, 0);
                 Threading.waitOn(result, 100);
             }
         }
+        if (result.get() instanceof DHTRedirect)
+            throw MOVED;
+
         return (V) result.get();
     }
 
@@ -220,25 +333,289 @@ final class DCDataServer {
                 if (logger.isLoggable(Level.INFO)) {
                     logger.info("DHT data server: get CRDT : " + request.getId());
                 }
-                con.reply(new DHTGetCRDTReply(localGetCRDTObject(con.remoteEndpoint(), request)));
+                try {
+                    con.reply(new DHTGetCRDTReply(localGetCRDTObject(con.remoteEndpoint(), request)));
+                } catch (ObjectMovedException x) {
+                    con.reply(new DHTRedirect(DHT_Node.resolveNode(request.getId().toString()).endpoint));
+                }
+            }
+
+            public void onReceive(RpcHandle con, DHTQueryCRDT request) {
+                if (logger.isLoggable(Level.INFO)) {
+                    logger.info("DHT data server: query CRDT : " + request.getId());
+                }
+                try {
+                    con.reply(localQueryCRDT(request.getId(), request.getVersion(), request.getQuery()));
+                } catch (ObjectMovedException x) {
+                    con.reply(new DHTRedirect(DHT_Node.resolveNode(request.getId().toString()).endpoint));
+                }
             }
 
             public void onReceive(RpcHandle con, DHTExecCRDT request) {
                 if (logger.isLoggable(Level.INFO)) {
                     logger.info("DHT data server: exec CRDT : " + request.getGrp().getTargetUID());
                 }
-                con.reply(new DHTExecCRDTReply(localExecCRDT(request.getGrp(), request.getSnapshotVersion(),
-                        request.getTrxVersion(), request.getTxTs(), request.getCltTs(), request.getPrvCltTs(),
-                        request.getCurDCVersion())));
+                try {
+                    con.reply(new DHTExecCRDTReply(localExecCRDT(request.getGrp(), request.getSnapshotVersion(),
+                            request.getTrxVersion(), request.getTxTs(), request.getCltTs(), request.getPrvCltTs(),
+                            request.getCurDCVersion())));
+                } catch (ObjectMovedException x) {
+                    CRDTIdentifier id = request.getGrp().getTargetUID();
+                    con.reply(new DHTRedirect(DHT_Node.resolveNode(id.toString()).endpoint));
+                }
+            }
+
+            public void onReceive(RpcHandle con, DHTJoinRequest request) {
+                logger.info("DHT data server: node joined : " + request.getNode());
+                con.reply(new DHTJoinReply(nodeJoined(request.getNode())));
+            }
+
+            public void onReceive(RpcHandle con, DHTHandoffRequest request) {
+                nodeJoined(request.getNode());
+                con.reply(handoffCRDT(request.getId()));
+            }
+
+            public void onReceive(RpcHandle con, DHTHandoff request) {
+                installHandoff(con.remoteEndpoint(), request);
+                if (request.isComplete()) {
+                    handoffSources.remove(new Node(request.getNode()));
+                    logger.info("DHT data server: handoff complete from : " + request.getNode());
+                }
+                con.reply(new DHTHandoffReply());
             }
         });
     }
 
+    /**********************************************************************************************
+     * DHT MEMBERSHIP
+     *********************************************************************************************/
+
+    /**
+     * Announces this data server to the other members of the DHT, which then
+     * hand off the objects it now owns. Until a member completes its handoff,
+     * missing objects it used to own are fetched from it.
+     */
+    void joinDHT() {
+        final Node self = DHT_Node.self();
+        final Map<Node, CompletableFuture<DHTJoinReply>> replies = new HashMap<Node, CompletableFuture<DHTJoinReply>>();
+        for (Node i : DHT_Node.nodes())
+            if (!i.equals(self)) {
+                handoffSources.add(i);
+                replies.put(i, dhtEndpoint.<DHTJoinReply> requestAsync(i.dhtEndpoint, new DHTJoinRequest(
+                        self.endpoint), DCConstants.DHT_HANDOFF_TIMEOUT));
+            }
+
+        for (Map.Entry<Node, CompletableFuture<DHTJoinReply>> i : replies.entrySet()) {
+            try {
+                if (!i.getValue().get().isHandingOff())
+                    handoffSources.remove(i.getKey());
+            } catch (Exception x) {
+                logger.warning("DHT data server: no reply to join from : " + i.getKey());
+                handoffSources.remove(i.getKey());
+            }
+        }
+        logger.info("DHT data server: joined, receiving handoff from : " + handoffSources);
+    }
+
+    /**
+     * Adds a node to the ring, and starts handing off to it the objects it
+     * now owns.
+     * 
+     * @return true if objects are being handed off to the node
+     */
+    synchronized boolean nodeJoined(final Endpoint node) {
+        if (DHT_Node.addNode(node)) {
+            handoffTargets.add(node);
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        handoff(new Node(node));
+                    } finally {
+                        handoffTargets.remove(node);
+                    }
+                }
+            });
+            return true;
+        }
+        return handoffTargets.contains(node);
+    }
+
+    /**
+     * Streams the objects in memory owned by a new node, in batches. Each
+     * batch is copied under the locks of its objects, after the ring changed,
+     * so later updates are routed to the new node; the objects are dropped
+     * from memory once the new node installs them.
+     */
+    private void handoff(Node target) {
+        int total = 0;
+        DHTHandoff batch = new DHTHandoff(DHT_Node.self().endpoint, false);
+        List<CRDTData<?>> sent = new ArrayList<CRDTData<?>>();
+        for (CRDTData<?> data : db.entries()) {
+            if (!target.equals(DHT_Node.resolveNode(data.id.toString())))
+                continue;
+
+            if (copyInto(batch, data, true))
+                sent.add(data);
+
+            if (batch.size() >= DCConstants.DHT_HANDOFF_BATCH_SIZE) {
+                total += sendHandoff(target, batch, sent);
+                batch = new DHTHandoff(DHT_Node.self().endpoint, false);
+                sent = new ArrayList<CRDTData<?>>();
+            }
+        }
+        // objects not in memory may still be in the database
+        batch.setComplete(dbServer.ramOnly());
+        total += sendHandoff(target, batch, sent);
+        logger.info("DHT data server: handed off " + total + " object(s) to : " + target);
+    }
+
+    /**
+     * @return the number of objects handed off, 0 if the batch failed and the
+     *         objects stay in memory, available to be fetched
+     */
+    private int sendHandoff(Node target, DHTHandoff batch, List<CRDTData<?>> sent) {
+        try {
+            dhtEndpoint.requestAsync(target.dhtEndpoint, batch, DCConstants.DHT_HANDOFF_TIMEOUT).get();
+        } catch (Exception x) {
+            logger.warning("DHT data server: failed handoff to : " + target + " : " + x);
+            return 0;
+        }
+        for (CRDTData<?> data : sent) {
+            lock(data.id);
+            try {
+                db.remove(data);
+            } finally {
+                unlock(data.id);
+            }
+        }
+        return sent.size();
+    }
+
+    /**
+     * Adds a copy of an object to a handoff batch, with its subscriptions.
+     * 
+     * @return false if the object is empty
+     */
+    private boolean copyInto(DHTHandoff batch, CRDTData<?> data, boolean withLocalSubscription) {
+        readLock(data.id);
+        try {
+            if (data.empty)
+                return false;
+
+            batch.add(data.crdt.copyWithRestrictedVersioning(data.crdt.getPruneClock(), null),
+                    dsPubSub.remoteSubscribers(data.id), withLocalSubscription
+                            && dsPubSub.isSubscribed(data.id, suPubSub));
+            return true;
+        } finally {
+            readUnlock(data.id);
+        }
+    }
+
+    /**
+     * Replies to a new owner fetching an object not handed off yet.
+     */
+    private DHTHandoff handoffCRDT(CRDTIdentifier id) {
+        DHTHandoff res = new DHTHandoff(DHT_Node.self().endpoint, false);
+        readLock(id);
+        try {
+            CRDTData<?> data = db.get(id);
+            if (data == null)
+                data = readCRDTFromDB(id);
+            if (data != null)
+                // its own subscription moves with the streamed batch
+                copyInto(res, data, false);
+        } finally {
+            readUnlock(id);
+        }
+        return res;
+    }
+
+    /**
+     * Installs the objects handed off by their previous owner, merging them
+     * with any state already here, and their subscriptions.
+     * 
+     * @param sender
+     *            the endpoint the sender's surrogate subscribes from
+     */
+    private void installHandoff(Endpoint sender, DHTHandoff handoff) {
+        for (int i = 0; i < handoff.size(); i++) {
+            installCRDT(handoff.getObject(i));
+            installSubscriptions(sender, handoff, i);
+        }
+    }
+
+    private void installSubscriptions(Endpoint sender, DHTHandoff handoff, int i) {
+        CRDTIdentifier id = handoff.getObject(i).getUID();
+        for (Endpoint j : handoff.getSubscribers(i))
+            if (j.equals(dhtEndpoint.localEndpoint()))
+                dsPubSub.subscribe(id, suPubSub);
+            else
+                dsPubSub.subscribe(id, j);
+        if (handoff.isSubscribedBySender(i))
+            dsPubSub.subscribe(id, sender);
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private void installCRDT(ManagedCRDT crdt) {
+        lock(crdt.getUID());
+        try {
+            CRDTData data = db.get(crdt.getUID());
+            if (data == null) {
+                data = readCRDTFromDB(crdt.getUID());
+                if (data == null)
+                    data = new CRDTData(crdt.getUID());
+                data = db.putIfAbsent(data);
+            }
+            if (data.empty) {
+                data.initValue(crdt, crdt.getClock(), crdt.getPruneClock(), ClockFactory.newClock());
+            } else {
+                data.crdt.merge(crdt);
+                data.clock.merge(crdt.getClock());
+                data.pruneClock.merge(crdt.getPruneClock());
+            }
+            setModifiedDatabaseEntry(data);
+        } finally {
+            unlock(crdt.getUID());
+        }
+    }
+
+    /**
+     * Fetches an object owned by this node from its previous owner, if that
+     * one is still handing off objects. Like loading it from the database, it
+     * assumes the object is locked, possibly in shared mode.
+     * 
+     * @return null if the previous owner does not have the object
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private CRDTData<?> pullCRDT(CRDTIdentifier id) {
+        final Node src = DHT_Node.previousOwner(id.toString());
+        if (src == null || !handoffSources.contains(src) || !DHT_Node.isHandledLocally(id.toString()))
+            return null;
+
+        for (int i = 0; i < 3; i++) {
+            try {
+                DHTHandoff reply = dhtEndpoint.<DHTHandoff> requestAsync(src.dhtEndpoint,
+                        new DHTHandoffRequest(DHT_Node.self().endpoint, id), DCConstants.DHT_HANDOFF_TIMEOUT).get();
+                if (reply.size() == 0)
+                    return null;
+
+                ManagedCRDT crdt = reply.getObject(0);
+                CRDTData data = new CRDTData(id);
+                data.initValue(crdt, crdt.getClock(), crdt.getPruneClock(), ClockFactory.newClock());
+                data = db.putIfAbsent(data);
+                setModifiedDatabaseEntry(data);
+                installSubscriptions(null, reply, 0);
+                return data;
+            } catch (Exception x) {
+                logger.warning("DHT data server: cannot fetch : " + id + " from : " + src + " : " + x);
+            }
+        }
+        return null;
+    }
+
     private void initData(Properties props) {
-        this.db = new HashMap<String, Map<String, CRDTData<?>>>();
         this.locks = new HashMap<CRDTIdentifier, LockInfo>();
         // this.notifications = new LinkedList<NotificationRecord>();
-        this.modified = new HashSet<CRDTData<?>>();
 
         this.version = ClockFactory.newClock();
         this.cltClock = ClockFactory.newClock();
@@ -288,7 +665,7 @@ final class DCDataServer {
 
     /**
      * Returns database entry. If create, creates a new empty database entry. It
-     * assumes that the given entry has been locked.
+     * assumes that the given entry has been locked, possibly in shared mode.
      * 
      * @param table
      * @param key
@@ -296,34 +673,45 @@ final class DCDataServer {
      * @return
      */
     CRDTData<?> getDatabaseEntry(CRDTIdentifier id) {
-        // TODO: this synchronization could be replaced with an optimistic
-        // multiton pattern + ConcurrentHashMap.putIfAbsent
-        Map<String, CRDTData<?>> m;
-        synchronized (db) {
-            m = db.get(id.getTable());
-            if (m == null) {
-                m = new HashMap<String, CRDTData<?>>();
-                db.put(id.getTable(), m);
-            }
-        }
-        CRDTData<?> data = null;
-        synchronized (m) {
-            data = (CRDTData<?>) m.get(id.getKey());
+        CRDTData<?> data = db.get(id);
+        if (data != null)
+            return data;
+
+        if (!handoffSources.isEmpty()) {
+            data = pullCRDT(id);
             if (data != null)
                 return data;
         }
+
+        // readers only hold a shared lock, another one may load it too
         data = readCRDTFromDB(id);
-        synchronized (m) {
-            if (data == null)
-                data = new CRDTData(id);
-            m.put(id.getKey(), data);
-            return data;
-        }
+        if (data == null)
+            data = new CRDTData(id);
+        return db.putIfAbsent(data);
     }
 
     private void setModifiedDatabaseEntry(CRDTData<?> crdt) {
-        synchronized (modified) {
-            modified.add(crdt);
+        db.markDirty(crdt);
+    }
+
+    /**
+     * Prunes an entry queued by the pruner, if its pruning point is old enough.
+     * 
+     * @return false if the entry has to wait for the next pruning round
+     */
+    private boolean pruneEntry(CRDTData<?> data) {
+        lock(data.id);
+        try {
+            if (pruner.exceedsThreshold(data)
+                    && !data.pruneIfPossible(pruningInterval
+                            + surrogate.timeSmootherRandom.get().nextInt(pruningInterval))) {
+                return false;
+            }
+            data.pruneQueued = false;
+            setModifiedDatabaseEntry(data);
+            return true;
+        } finally {
+            unlock(data.id);
         }
     }
 
@@ -331,6 +719,18 @@ final class DCDataServer {
         return DHT_Node.resolveKey(id.toString());
     }
 
+    /**
+     * Checks that an object was not moved to another node. The check holds
+     * while the object is locked, since it cannot move until unlocked.
+     * 
+     * @throws ObjectMovedException
+     *             if the object is owned by another node
+     */
+    private void checkOwnership(CRDTIdentifier id) {
+        if (!DHT_Node.isHandledLocally(id.toString()))
+            throw MOVED;
+    }
+
     /**
      * Executes operations in the given CRDT
      * 
@@ -339,12 +739,18 @@ final class DCDataServer {
     <V extends CRDT<V>> ExecCRDTResult execCRDT(CRDTObjectUpdatesGroup<V> grp, CausalityClock snapshotVersion,
             CausalityClock trxVersion, Timestamp txTs, Timestamp cltTs, Timestamp prvCltTs, CausalityClock curDCVersion) {
 
-        Endpoint dst = DHT_Node.resolveKey(grp.getTargetUID().toString());
-        if (dst == null)
-            return localExecCRDT(grp, snapshotVersion, trxVersion, txTs, cltTs, prvCltTs, curDCVersion);
-        else {
-            return dhtRequest(dst, new DHTExecCRDT(grp, snapshotVersion, trxVersion, txTs, cltTs, prvCltTs,
-                    curDCVersion));
+        for (;;) {
+            Endpoint dst = resolve(grp.getTargetUID());
+            try {
+                if (dst == null)
+                    return localExecCRDT(grp, snapshotVersion, trxVersion, txTs, cltTs, prvCltTs, curDCVersion);
+                else {
+                    return dhtRequest(dst, new DHTExecCRDT(grp, snapshotVersion, trxVersion, txTs, cltTs, prvCltTs,
+                            curDCVersion));
+                }
+            } catch (ObjectMovedException x) {
+                // route again, to the new owner
+            }
         }
     }
 
@@ -357,13 +763,27 @@ final class DCDataServer {
      *            Subscription type
      * @return null if cannot fulfill request
      */
-    void getCRDT(final CRDTIdentifier id, CausalityClock knownClk, CausalityClock clk, String clientId,
-            boolean sendMoreRecentUpdates, boolean isSubscribed, FutureResultHandler<ManagedCRDT> rh) {
-        Endpoint dst = DHT_Node.resolveKey(id.toString());
+    void getCRDT(final CRDTIdentifier id, final CausalityClock knownClk, final CausalityClock clk,
+            final String clientId, final boolean sendMoreRecentUpdates, final boolean isSubscribed,
+            final FutureResultHandler<ManagedCRDT> rh) {
+        final Runnable retry = new Runnable() {
+            public void run() {
+                getCRDT(id, knownClk, clk, clientId, sendMoreRecentUpdates, isSubscribed, rh);
+            }
+        };
+        Endpoint dst = resolve(id);
         if (dst == null) {
-            rh.onResult(localGetCRDTObject(id, knownClk, clk, clientId, sendMoreRecentUpdates, isSubscribed));
+            final ManagedCRDT res;
+            try {
+                res = localGetCRDTObject(id, knownClk, clk, clientId, sendMoreRecentUpdates, isSubscribed);
+            } catch (ObjectMovedException x) {
+                retry.run();
+                return;
+            }
+            rh.onResult(res);
         } else {
-            dhtRequest(dst, new DHTGetCRDT(id, knownClk, clk, clientId, sendMoreRecentUpdates, isSubscribed), rh);
+            dhtRequest(dst, new DHTGetCRDT(id, knownClk, clk, clientId, sendMoreRecentUpdates, isSubscribed), rh,
+                    retry);
         }
     }
 
@@ -378,11 +798,45 @@ final class DCDataServer {
      */
     ManagedCRDT getCRDT(final CRDTIdentifier id, CausalityClock knownClk, CausalityClock clk, String clientId,
             boolean sendMoreRecentUpdates, boolean isSubscribed) {
-        Endpoint dst = DHT_Node.resolveKey(id.toString());
+        for (;;) {
+            Endpoint dst = resolve(id);
+            try {
+                if (dst == null) {
+                    return localGetCRDTObject(id, knownClk, clk, clientId, sendMoreRecentUpdates, isSubscribed);
+                } else {
+                    return dhtRequest(dst, new DHTGetCRDT(id, knownClk, clk, clientId, sendMoreRecentUpdates,
+                            isSubscribed));
+                }
+            } catch (ObjectMovedException x) {
+                // route again, to the new owner
+            }
+        }
+    }
+
+    /**
+     * Evaluates a query on a version of an object, at the data server owning
+     * it; the handler receives the result, or the reason why the query could
+     * not be evaluated.
+     */
+    void queryCRDT(final CRDTIdentifier id, final CausalityClock version, final CRDTQuery<?> query,
+            final FutureResultHandler<DHTQueryCRDTReply> rh) {
+        final Runnable retry = new Runnable() {
+            public void run() {
+                queryCRDT(id, version, query, rh);
+            }
+        };
+        Endpoint dst = resolve(id);
         if (dst == null) {
-            return localGetCRDTObject(id, knownClk, clk, clientId, sendMoreRecentUpdates, isSubscribed);
+            final DHTQueryCRDTReply res;
+            try {
+                res = localQueryCRDT(id, version, query);
+            } catch (ObjectMovedException x) {
+                retry.run();
+                return;
+            }
+            rh.onResult(res);
         } else {
-            return dhtRequest(dst, new DHTGetCRDT(id, knownClk, clk, clientId, sendMoreRecentUpdates, isSubscribed));
+            dhtRequest(dst, new DHTQueryCRDT(id, version, query), rh, retry);
         }
     }
 
@@ -426,8 +880,10 @@ final class DCDataServer {
             CausalityClock _trxVersion, Timestamp _txTs, Timestamp cltTs, Timestamp prvCltTs,
             CausalityClock curDCVersion) {
         CRDTIdentifier id = grp.getTargetUID();
+        final ObjectUpdatesInfo info;
         lock(id);
         try {
+            checkOwnership(id);
             CRDTData<?> data = localGetCRDT(id);
             if (data == null) {
                 if (!grp.hasCreationState()) {
@@ -448,7 +904,6 @@ final class DCDataServer {
                 // sure after the switch to op-based.
                 data = (CRDTData<?>) localPutCRDT(crdt);
             }
-            data.pruneIfPossible(pruningInterval + surrogate.timeSmootherRandom.get().nextInt(pruningInterval));
 
             // crdt.augumentWithScoutClock(new Timestamp(clientId, clientTxs))
             // //
@@ -482,6 +937,7 @@ final class DCDataServer {
             data.clock = data.crdt.getClock();
 
             setModifiedDatabaseEntry(data);
+            pruner.updated(data, grp);
 
             synchronized (this.cltClock) {
                 this.cltClock.recordAllUntil(cltTs);
@@ -491,18 +947,19 @@ final class DCDataServer {
                 }
             }
 
-            ObjectUpdatesInfo info = new ObjectUpdatesInfo(id, data.pruneClock.clone(), grp);
-
-            dsPubSub.publish(new UpdateNotification(surrogate.surrogateId, info, surrogate.getEstimatedDCVersionCopy()));
-
-            return new ExecCRDTResult(true, id, info);
+            info = new ObjectUpdatesInfo(id, data.pruneClock.clone(), grp);
         } finally {
             unlock(id);
         }
 
+        // publishing may block on full queues, so not holding the object lock
+        dsPubSub.publish(new UpdateNotification(surrogate.surrogateId, info, surrogate.getEstimatedDCVersionCopy()));
+
+        return new ExecCRDTResult(true, id, info);
     }
 
     private ManagedCRDT localGetCRDTObject(Endpoint remote, DHTGetCRDT req) {
+        checkOwnership(req.getId());
         if (req.subscribesUpdates())
             dsPubSub.subscribe(req.getId(), remote);
         // else
@@ -526,13 +983,15 @@ final class DCDataServer {
     ManagedCRDT localGetCRDTObject(CRDTIdentifier id, CausalityClock knownVersion, CausalityClock version,
             String clientId, boolean sendMoreRecentUpdates, boolean subscribeUpdates) {
 
+        checkOwnership(id);
         if (subscribeUpdates)
             dsPubSub.subscribe(id, surrogate.suPubSub);
 
         // else
         // dsPubSub.unsubscribe(localSurrogateId, id, suPubSub);
-        lock(id);
+        readLock(id);
         try {
+            checkOwnership(id);
             CRDTData<?> data = localGetCRDT(id);
             if (data == null)
                 return null;
@@ -565,7 +1024,14 @@ final class DCDataServer {
             synchronized (cltClock) {
                 ts = cltClock.getLatest(clientId);
             }
-            final ManagedCRDT crdt = data.crdt.copyWithRestrictedVersioning(version, ts);
+            ManagedCRDT<?> crdt = null;
+            if (!sendMoreRecentUpdates && knownVersion != null) {
+                // Ship only what the client misses, unless it was pruned.
+                crdt = data.crdt.copyDeltaSince(knownVersion);
+            }
+            if (crdt == null) {
+                crdt = data.crdt.copyWithRestrictedVersioning(version, ts);
+            }
             // FIXME: when failing over between DCs, notifications for the
             // same update may reach the client with two different DC
             // timestamps.
@@ -578,7 +1044,30 @@ final class DCDataServer {
 
             return crdt;
         } finally {
-            unlock(id);
+            readUnlock(id);
+        }
+    }
+
+    /**
+     * Evaluates a query on a version of an object in place, under its shared
+     * lock, so that only the result is copied out.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    DHTQueryCRDTReply localQueryCRDT(CRDTIdentifier id, CausalityClock version, CRDTQuery query) {
+        checkOwnership(id);
+        readLock(id);
+        try {
+            checkOwnership(id);
+            CRDTData<?> data = localGetCRDT(id);
+            if (data == null)
+                return new DHTQueryCRDTReply(FetchStatus.OBJECT_NOT_FOUND, null);
+
+            if (data.crdt.getPruneClock().compareTo(version).is(CMP_CLOCK.CMP_DOMINATES, CMP_CLOCK.CMP_CONCURRENT))
+                return new DHTQueryCRDTReply(FetchStatus.VERSION_PRUNED, null);
+
+            return new DHTQueryCRDTReply(FetchStatus.OK, data.crdt.executeQuery(version, query));
+        } finally {
+            readUnlock(id);
         }
     }
 
@@ -592,7 +1081,7 @@ final class DCDataServer {
      * @return null if cannot fulfill request
      */
     CRDTData<?> localGetCRDT(CRDTIdentifier id) {
-        lock(id);
+        readLock(id);
         try {
             CRDTData<?> data = this.getDatabaseEntry(id);
             if (data.empty)
@@ -600,8 +1089,22 @@ final class DCDataServer {
 
             return data;
         } finally {
-            unlock(id);
+            readUnlock(id);
         }
     }
 
+    private static final ObjectMovedException MOVED = new ObjectMovedException();
+
+    /**
+     * Thrown when an object is owned by another data server; the request has
+     * to be routed again.
+     */
+    static final class ObjectMovedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public synchronized Throwable fillInStackTrace() {
+            return this;
+        }
+    }
 }
@@ -47,7 +47,11 @@ import swift.clocks.Timestamp;
 import swift.crdt.core.CRDTObjectUpdatesGroup;
 import swift.dc.db.DCNodeDatabase;
 import swift.proto.CommitTSReply;
+import swift.proto.CommitTSBatchReply;
+import swift.proto.CommitTSBatchRequest;
 import swift.proto.CommitTSRequest;
+import swift.proto.GenerateDCTimestampBatchReply;
+import swift.proto.GenerateDCTimestampBatchRequest;
 import swift.proto.GenerateDCTimestampReply;
 import swift.proto.GenerateDCTimestampRequest;
 import swift.proto.LatestKnownClockReply;
@@ -530,6 +534,52 @@ public class DCSequencerServer extends SwiftProtocolHandler {
         cleanPendingTS();
     }
 
+    /**
+     * Generates the timestamps of a batch of requests in a single critical
+     * section, so they are consecutive. Requests that would have to wait for
+     * their dependencies are not queued, but reported as blocked. Consecutive
+     * transactions of a client in the batch are generated together, i.e. a
+     * request does not wait for the commit of the previous transaction of its
+     * client if that one was generated earlier in the batch.
+     */
+    @Override
+    public void onReceive(RpcHandle conn, GenerateDCTimestampBatchRequest request) {
+        final List<GenerateDCTimestampRequest> reqs = request.getRequests();
+        if (logger.isLoggable(Level.INFO)) {
+            logger.info("sequencer: generateDCtimestampbatchrequest: size=" + reqs.size());
+        }
+        if (isBackup && !upgradeToPrimary())
+            return;
+        final GenerateDCTimestampBatchReply reply = new GenerateDCTimestampBatchReply(reqs.size());
+        // client -> counter of its last transaction generated in this batch
+        final Map<String, Long> generatedInBatch = new HashMap<String, Long>();
+        synchronized (this) {
+            for (int i = 0; i < reqs.size(); i++) {
+                final GenerateDCTimestampRequest r = reqs.get(i);
+                final Timestamp cltTs = r.getCltTimestamp();
+                long last;
+                synchronized (clientClock) {
+                    last = clientClock.getLatestCounter(r.getClientId());
+                    if (clientClock.includes(cltTs)) {
+                        reply.setAlreadyCommitted(i, last);
+                        continue;
+                    }
+                }
+                final Long previous = generatedInBatch.get(r.getClientId());
+                final long expected = (previous != null ? previous : last) + 1L;
+                if (cltTs.getCounter() == expected
+                        && currentState.compareTo(r.getDependencyClk()).is(CMP_EQUALS, CMP_DOMINATES)) {
+                    reply.setGenerated(i, generateNewId(), last);
+                    generatedInBatch.put(r.getClientId(), cltTs.getCounter());
+                } else {
+                    reply.setBlocked(i);
+                }
+            }
+        }
+        conn.reply(reply);
+        cleanPendingTS();
+    }
+
     /**
      * @param conn
      *            connection such that the remote end implements
@@ -548,15 +598,19 @@ public class DCSequencerServer extends SwiftProtocolHandler {
         conn.reply(new LatestKnownClockReply(currentClockCopy(), stableClockCopy()));
     }
 
-    final ConcurrentHashMap<String, FifoQueue<CommitTSRequest>> fifoQueues = new ConcurrentHashMap<String, FifoQueue<CommitTSRequest>>();
+    final ConcurrentHashMap<String, FifoQueue<PendingCommit>> fifoQueues = new ConcurrentHashMap<String, FifoQueue<PendingCommit>>();
 
-    public FifoQueue<CommitTSRequest> queueFor(final Timestamp ts) {
+    public FifoQueue<PendingCommit> queueFor(final Timestamp ts) {
         String id = ts.getIdentifier();
-        FifoQueue<CommitTSRequest> res = fifoQueues.get(id), nq;
+        FifoQueue<PendingCommit> res = fifoQueues.get(id), nq;
         if (res == null) {
-            res = fifoQueues.putIfAbsent(id, nq = new FifoQueue<CommitTSRequest>(id) {
-                public void process(CommitTSRequest request) {
-                    doCommit(request.getReplyHandle(), request);
+            res = fifoQueues.putIfAbsent(id, nq = new FifoQueue<PendingCommit>(id) {
+                public void process(PendingCommit pc) {
+                    final CommitTSReply reply = doCommit(pc.request, pc.batch == null);
+                    if (pc.batch != null)
+                        pc.batch.done(pc.index, reply);
+                    else if (reply != null)
+                        pc.conn.reply(reply);
                 }
             });
             if (res == null)
@@ -570,23 +624,41 @@ public class DCSequencerServer extends SwiftProtocolHandler {
         request.setReplyHandle(conn);
 
         Timestamp ts = request.getTimestamp();
-        queueFor(ts).offer(ts.getCounter(), request);
+        queueFor(ts).offer(ts.getCounter(), new PendingCommit(conn, request, null, 0));
+    }
+
+    /**
+     * Commits a batch of timestamps, replying once all of them are processed.
+     * The clock is persisted once per batch.
+     */
+    @Override
+    public void onReceive(final RpcHandle conn, final CommitTSBatchRequest request) {
+        final List<CommitTSRequest> reqs = request.getRequests();
+        if (logger.isLoggable(Level.INFO)) {
+            logger.info("sequencer: commitTSBatchRequest: size=" + reqs.size());
+        }
+        final CommitBatch batch = new CommitBatch(conn, reqs.size());
+        for (int i = 0; i < reqs.size(); i++) {
+            final CommitTSRequest r = reqs.get(i);
+            queueFor(r.getTimestamp()).offer(r.getTimestamp().getCounter(), new PendingCommit(conn, r, batch, i));
+        }
     }
 
     /**
-     * @param conn
-     *            connection such that the remote end implements
-     *            {@link CommitTSReplyHandler} and expects {@link CommitTSReply}
      * @param request
      *            request to serve
+     * @param single
+     *            true if not part of a batch, to persist the clock and retry
+     *            blocked timestamp requests right away
+     * @return the reply to the commit, null if the request was ignored
      */
-    void doCommit(final RpcHandle conn, final CommitTSRequest request) {
+    CommitTSReply doCommit(final CommitTSRequest request, final boolean single) {
         if (logger.isLoggable(Level.INFO)) {
             logger.info("sequencer: commitTSRequest:" + request.getTimestamp() + ":nops="
                     + request.getObjectUpdateGroups().size());
         }
         if (isBackup && !upgradeToPrimary())
-            return;
+            return null;
 
         boolean ok = false;
         final CausalityClock clk;
@@ -601,8 +673,7 @@ public class DCSequencerServer extends SwiftProtocolHandler {
         }
 
         if (!ok) {
-            conn.reply(new CommitTSReply(CommitTSReply.CommitTSStatus.FAILED, clk, stableClk));
-            return;
+            return new CommitTSReply(CommitTSReply.CommitTSStatus.FAILED, clk, stableClk);
         }
         if (!isBackup && sequencerShadowEP != null) {
             final SeqCommitUpdatesRequest msg = new SeqCommitUpdatesRequest(siteId, request.getTimestamp(),
@@ -617,10 +688,60 @@ public class DCSequencerServer extends SwiftProtocolHandler {
 
         Threading.synchronizedNotifyAllOn(pendingOps);
 
-        dbServer.writeSysData("SYS_TABLE", "CLK", currentState);
+        if (single) {
+            dbServer.writeSysData("SYS_TABLE", "CLK", currentState);
+            cleanPendingTSReq();
+        }
+        return new CommitTSReply(CommitTSReply.CommitTSStatus.OK, clk, stableClk);
+    }
 
-        conn.reply(new CommitTSReply(CommitTSReply.CommitTSStatus.OK, clk, stableClk));
-        cleanPendingTSReq();
+    /**
+     * Commit requests waiting in the FIFO queue of their site.
+     */
+    static class PendingCommit {
+        final RpcHandle conn;
+        final CommitTSRequest request;
+        final CommitBatch batch;
+        final int index;
+
+        PendingCommit(RpcHandle conn, CommitTSRequest request, CommitBatch batch, int index) {
+            this.conn = conn;
+            this.request = request;
+            this.batch = batch;
+            this.index = index;
+        }
+    }
+
+    /**
+     * Collects the outcome of the commits of a batch.
+     */
+    class CommitBatch {
+        final RpcHandle conn;
+        final BitSet failed = new BitSet();
+        final int size;
+        int remaining;
+
+        CommitBatch(RpcHandle conn, int size) {
+            this.conn = conn;
+            this.size = size;
+            this.remaining = size;
+        }
+
+        /**
+         * @param reply
+         *            reply to the i-th commit, null if it was ignored
+         */
+        void done(int i, CommitTSReply reply) {
+            synchronized (this) {
+                if (reply == null || reply.getStatus() != CommitTSReply.CommitTSStatus.OK)
+                    failed.set(i);
+                if (--remaining > 0)
+                    return;
+            }
+            dbServer.writeSysData("SYS_TABLE", "CLK", currentState);
+            conn.reply(new CommitTSBatchReply(failed, size, currentClockCopy(), stableClockCopy()));
+            cleanPendingTSReq();
+        }
     }
 
     @Override
@@ -25,6 +25,7 @@ import static swift.dc.DCConstants.SURROGATE_PORT_FOR_SEQUENCERS;
 import java.util.List;
 import java.util.Properties;
 
+import swift.dc.db.DCLogStructuredDatabase;
 import swift.utils.SafeLog;
 import sys.Sys;
 import sys.herd.Herd;
@@ -90,6 +91,12 @@ public class DCServer {
                 props.setProperty(DCConstants.BERKELEYDB_DIR, "db/default");
             }
         }
+
+        String logDBdir = Args.valueOf(args, "-logdb", null);
+        if (logDBdir != null) {
+            props.setProperty(DCConstants.DATABASE_CLASS, "swift.dc.db.DCLogStructuredDatabase");
+            props.setProperty(DCLogStructuredDatabase.DIR_PROPERTY, logDBdir);
+        }
         // TODO: What is that if statement for???
         // if (!props.containsKey(DCConstants.DATABASE_CLASS)) {
         // // TODO: why should we disable it?
@@ -99,6 +106,9 @@ public class DCServer {
         props.setProperty(DCConstants.PRUNING_INTERVAL_PROPERTY,
                 Args.valueOf(args, "-pruningMs", DCConstants.DEFAULT_PRUNING_INTERVAL_MS) + "");
 
+        props.setProperty(DCConstants.PRUNING_THRESHOLD_PROPERTY,
+                Args.valueOf(args, "-pruningThreshold", DCConstants.DEFAULT_PRUNING_THRESHOLD) + "");
+
         props.setProperty(DCConstants.NOTIFICATION_PERIOD_PROPERTY,
                 Args.valueOf(args, "-notificationsMs", DCConstants.DEFAULT_NOTIFICATION_PERIOD_MS) + "");
 
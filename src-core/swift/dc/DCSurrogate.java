@@ -20,10 +20,13 @@ import static sys.net.api.Networking.TransportProvider.DEFAULT;
 import static sys.net.api.Networking.TransportProvider.INPROC;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Random;
 import java.util.Set;
@@ -34,6 +37,7 @@ import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.logging.Level;
@@ -56,20 +60,23 @@ import swift.proto.ClientRequest;
 import swift.proto.CommitTSReply;
 import swift.proto.CommitTSRequest;
 import swift.proto.CommitUpdatesReply;
-import swift.proto.CommitUpdatesReply.CommitStatus;
 import swift.proto.CommitUpdatesRequest;
+import swift.proto.DHTQueryCRDTReply;
 import swift.proto.GenerateDCTimestampReply;
 import swift.proto.GenerateDCTimestampRequest;
 import swift.proto.LatestKnownClockReply;
 import swift.proto.LatestKnownClockRequest;
 import swift.proto.PingReply;
 import swift.proto.PingRequest;
+import swift.proto.QueryObjectVersionReply;
+import swift.proto.QueryObjectVersionRequest;
 import swift.proto.SeqCommitUpdatesRequest;
 import swift.proto.SwiftProtocolHandler;
 import swift.pubsub.BatchUpdatesNotification;
 import swift.pubsub.SurrogatePubSubService;
 import swift.pubsub.SwiftSubscriber;
 import swift.pubsub.UpdateNotification;
+import swift.pubsub.UpdateNotificationBatch;
 import swift.utils.FutureResultHandler;
 import swift.utils.SafeLog;
 import swift.utils.SafeLog.ReportType;
@@ -103,6 +110,7 @@ final public class DCSurrogate extends SwiftProtocolHandler {
 
     Endpoint sequencerServerEndpoint;
     RpcEndpoint cltEndpoint4Sequencer;
+    SequencerBatcher sequencerBatcher;
 
     DCDataServer dataServer;
     CausalityClock estimatedDCVersion; // estimate of current DC state
@@ -150,6 +158,11 @@ final public class DCSurrogate extends SwiftProtocolHandler {
         srvEndpoint4Clients.setHandler(this);
         srvEndpoint4Sequencer.setHandler(this);
 
+        this.sequencerBatcher = new SequencerBatcher(cltEndpoint4Sequencer, sequencerServerEndpoint,
+                Integer.valueOf(props.getProperty(DCConstants.SEQUENCER_BATCH_SIZE_PROPERTY, ""
+                        + DCConstants.DEFAULT_SEQUENCER_BATCH_SIZE)), Integer.valueOf(props.getProperty(
+                        DCConstants.SEQUENCER_MAX_IN_FLIGHT_PROPERTY, "" + DCConstants.DEFAULT_SEQUENCER_MAX_IN_FLIGHT)));
+
         srvEndpoint4Clients.getFactory().setExecutor(Executors.newCachedThreadPool());
         srvEndpoint4Sequencer.getFactory().setExecutor(Executors.newFixedThreadPool(2));
 
@@ -161,7 +174,10 @@ final public class DCSurrogate extends SwiftProtocolHandler {
         generalExecutor = new ThreadPoolExecutor(4, 8, 3, TimeUnit.SECONDS, generalWorkQueue);
         generalExecutor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
 
-        suPubSub = new SurrogatePubSubService(generalExecutor, this);
+        suPubSub = new SurrogatePubSubService(generalExecutor, this, Integer.valueOf(props.getProperty(
+                DCConstants.PUBSUB_WORKERS_PROPERTY, "" + DCConstants.DEFAULT_PUBSUB_WORKERS)), Integer.valueOf(props
+                .getProperty(DCConstants.PUBSUB_QUEUE_CAPACITY_PROPERTY, ""
+                        + DCConstants.DEFAULT_PUBSUB_QUEUE_CAPACITY)));
         dataServer = new DCDataServer(this, props, suPubSub, port4Clients + 2);
 
         final String notificationPeriodString = props.getProperty(DCConstants.NOTIFICATION_PERIOD_PROPERTY);
@@ -183,7 +199,9 @@ final public class DCSurrogate extends SwiftProtocolHandler {
             logger.info("Server ready...");
         }
 
-        DHT_Node.init(siteId, "surrogates", srvEndpoint4Clients.localEndpoint());
+        DHT_Node.init(siteId, "surrogates", srvEndpoint4Clients.localEndpoint(), Integer.valueOf(props.getProperty(
+                DCConstants.DHT_VIRTUAL_NODES_PROPERTY, "" + DCConstants.DEFAULT_DHT_VIRTUAL_NODES)));
+        dataServer.joinDHT();
         new PeriodicTask(0.0, 0.9) {
             public void run() {
                 updateEstimatedDCVersion();
@@ -326,7 +344,7 @@ final public class DCSurrogate extends SwiftProtocolHandler {
         final Semaphore sem = new Semaphore(0);
         for (int i = 0; i < request.getBatchSize(); i++) {
             final int finalIdx = i;
-            dataServer.getCRDT(request.getUid(i), request.getKnownVersion(), request.getVersion(),
+            dataServer.getCRDT(request.getUid(i), request.getKnownVersion(i), request.getVersion(),
                     request.getClientId(), request.isSendMoreRecentUpdates(), request.hasSubscription(),
                     new FutureResultHandler<ManagedCRDT>() {
                         @Override
@@ -358,7 +376,7 @@ final public class DCSurrogate extends SwiftProtocolHandler {
             final Timestamp cltLastSeqNo, final CMP_CLOCK versionToDcCmpClock,
             final CausalityClock estimatedDCVersionClock, final BatchFetchObjectVersionReply reply, ManagedCRDT crdt) {
         if (crdt == null) {
-            if (request.getKnownVersion() == null) {
+            if (request.getKnownVersion(idxInBatch) == null) {
                 if (logger.isLoggable(Level.INFO)) {
                     logger.info("BatchFetchObjectVersionRequest not found:" + request.getUid(idxInBatch));
                 }
@@ -387,7 +405,8 @@ final public class DCSurrogate extends SwiftProtocolHandler {
                             + request.getUid(idxInBatch) + " missing; local version: " + estimatedDCVersionClock
                             + " pruned as of " + crdt.getPruneClock());
                     status = FetchStatus.VERSION_MISSING;
-                } else if (crdt.getPruneClock().compareTo(request.getVersion())
+                } else if (!crdt.isDelta()
+                        && crdt.getPruneClock().compareTo(request.getVersion())
                         .is(CMP_CLOCK.CMP_DOMINATES, CMP_CLOCK.CMP_CONCURRENT)) {
                     logger.warning("Requested version " + request.getVersion() + " of object "
                             + request.getUid(idxInBatch) + " is pruned; local version: " + estimatedDCVersionClock
@@ -406,6 +425,45 @@ final public class DCSurrogate extends SwiftProtocolHandler {
         }
     }
 
+    public void onReceive(final RpcHandle conn, final QueryObjectVersionRequest request) {
+        if (logger.isLoggable(Level.INFO)) {
+            logger.info("QueryObjectVersionRequest client = " + request.getClientId() + "; crdt id = "
+                    + request.getUid());
+        }
+
+        CausalityClock estimatedDCVersionCopy = getEstimatedDCVersionCopy();
+        CMP_CLOCK cmp = estimatedDCVersionCopy.compareTo(request.getVersion());
+        if (cmp.is(CMP_CLOCK.CMP_ISDOMINATED, CMP_CLOCK.CMP_CONCURRENT)) {
+            updateEstimatedDCVersion();
+            estimatedDCVersionCopy = getEstimatedDCVersionCopy();
+            cmp = estimatedDCVersionCopy.compareTo(request.getVersion());
+        }
+
+        final CausalityClock disasterSafeVVReply = request.isSendDCVector() ? getEstimatedDCStableVersionCopy()
+                : null;
+        if (disasterSafeVVReply != null) {
+            disasterSafeVVReply.intersect(estimatedDCVersionCopy);
+        }
+        final CausalityClock vvReply = !request.isDisasterSafeSession() && request.isSendDCVector() ? estimatedDCVersionCopy
+                .clone() : null;
+
+        if (cmp.is(CMP_CLOCK.CMP_ISDOMINATED, CMP_CLOCK.CMP_CONCURRENT)) {
+            logger.warning("Requested version " + request.getVersion() + " of object " + request.getUid()
+                    + " missing; local version: " + estimatedDCVersionCopy);
+            conn.reply(new QueryObjectVersionReply(FetchStatus.VERSION_MISSING, null, vvReply, disasterSafeVVReply));
+            return;
+        }
+
+        dataServer.queryCRDT(request.getUid(), request.getVersion(), request.getQuery(),
+                new FutureResultHandler<DHTQueryCRDTReply>() {
+                    @Override
+                    public void onResult(DHTQueryCRDTReply result) {
+                        conn.reply(new QueryObjectVersionReply(result.getStatus(), result.getResult(), vvReply,
+                                disasterSafeVVReply));
+                    }
+                });
+    }
+
     @Override
     public void onReceive(final RpcHandle conn, final CommitUpdatesRequest request) {
         if (logger.isLoggable(Level.INFO)) {
@@ -434,9 +492,8 @@ final public class DCSurrogate extends SwiftProtocolHandler {
         final List<CRDTObjectUpdatesGroup<?>> ops = req.getObjectUpdateGroups();
         final CausalityClock dependenciesClock = ops.size() > 0 ? req.getDependencyClock() : ClockFactory.newClock();
 
-        GenerateDCTimestampReply tsReply = cltEndpoint4Sequencer.request(sequencerServerEndpoint,
-                new GenerateDCTimestampRequest(req.getClientId(), req.isDisasterSafeSession(), req.getCltTimestamp(),
-                        dependenciesClock));
+        GenerateDCTimestampReply tsReply = sequencerBatcher.generateTimestamp(new GenerateDCTimestampRequest(req
+                .getClientId(), req.isDisasterSafeSession(), req.getCltTimestamp(), dependenciesClock));
 
         req.setTimestamp(tsReply.getTimestamp());
 
@@ -483,7 +540,7 @@ final public class DCSurrogate extends SwiftProtocolHandler {
         final AtomicBoolean txnOK = new AtomicBoolean(true);
         final AtomicReferenceArray<ExecCRDTResult> results = new AtomicReferenceArray<ExecCRDTResult>(ops.size());
 
-        if (ops.size() > 2) { // do multiple execCRDTs in parallel
+        if (ops.size() >= DCConstants.PARALLEL_EXEC_MIN_OBJECTS) { // do multiple execCRDTs in parallel
             final Semaphore s = new Semaphore(0);
             for (final CRDTObjectUpdatesGroup<?> i : ops) {
                 final int j = pos++;
@@ -512,35 +569,12 @@ final public class DCSurrogate extends SwiftProtocolHandler {
 
         // TODO: handle failure
         session.setLastSeqNo(cltTs);
-        cltEndpoint4Sequencer.send(sequencerServerEndpoint, new CommitTSRequest(txTs, cltTs, prvCltTs,
-                estimatedDCVersionCopy, txnOK.get(), ops, req.disasterSafe(), session.clientId),
-                new SwiftProtocolHandler() {
-                    public void onReceive(CommitTSReply reply) {
-                        if (logger.isLoggable(Level.INFO)) {
-                            logger.info("Commit: received CommitTSRequest:old vrs:" + estimatedDCVersionCopy
-                                    + "; new vrs=" + reply.getCurrVersion() + ";ts = " + txTs + ";cltts = " + cltTs);
-                        }
-                        estimatedDCVersionCopy.record(txTs);
-                        updateEstimatedDCVersion(reply.getCurrVersion());
-                        dataServer.dbServer.writeSysData("SYS_TABLE", "CURRENT_CLK", getEstimatedDCVersionCopy());
-
-                        updateEstimatedDCStableVersion(reply.getStableVersion());
-                        dataServer.dbServer.writeSysData("SYS_TABLE", "STABLE_CLK", getEstimatedDCStableVersionCopy());
-
-                        if (txnOK.get() && reply.getStatus() == CommitTSReply.CommitTSStatus.OK) {
-                            if (logger.isLoggable(Level.INFO)) {
-                                logger.info("Commit: for publish DC version: SENDING ; on tx:" + txTs);
-                            }
-                            resHandler.onResult(new CommitUpdatesReply(txTs));
-                            // return new CommitUpdatesReply(txTs);
-                        } else {
-                            // FIXME: CommitTSStatus.FAILED if not well
-                            // documented. How comes it can fail?
-                            logger.warning("Commit: failed for request " + req);
-                            resHandler.onResult(new CommitUpdatesReply());
-                        }
+        sequencerBatcher.commit(new CommitTSRequest(txTs, cltTs, prvCltTs, estimatedDCVersionCopy, txnOK.get(), ops,
+                req.disasterSafe(), session.clientId), new FutureResultHandler<CommitTSReply>() {
+                    public void onResult(CommitTSReply reply) {
+                        resHandler.onResult(onCommitTSReply(req, estimatedDCVersionCopy, txnOK.get(), reply));
                     }
-                }, 0);
+                });
 
         // if (reply == null)
         // logger.severe(String.format("------------>REPLY FROM SEQUENCER NULL for: %s, who:%s\n",
@@ -555,6 +589,45 @@ final public class DCSurrogate extends SwiftProtocolHandler {
         // return new CommitUpdatesReply();
     }
 
+    /**
+     * Handles the reply of the sequencer to the commit of a transaction, null
+     * if the commit could not be sent.
+     * 
+     * @param estimatedDCVersionCopy
+     *            DC version the updates of the transaction were executed with
+     * @return the reply to the client
+     */
+    private CommitUpdatesReply onCommitTSReply(final CommitUpdatesRequest req,
+            final CausalityClock estimatedDCVersionCopy, final boolean txnOK, final CommitTSReply reply) {
+        final Timestamp txTs = req.getTimestamp();
+        if (reply == null) {
+            logger.warning("Commit: could not reach the sequencer for request " + req);
+            return new CommitUpdatesReply();
+        }
+        if (logger.isLoggable(Level.INFO)) {
+            logger.info("Commit: received CommitTSRequest:old vrs:" + estimatedDCVersionCopy + "; new vrs="
+                    + reply.getCurrVersion() + ";ts = " + txTs + ";cltts = " + req.getCltTimestamp());
+        }
+        estimatedDCVersionCopy.record(txTs);
+        updateEstimatedDCVersion(reply.getCurrVersion());
+        dataServer.dbServer.writeSysData("SYS_TABLE", "CURRENT_CLK", getEstimatedDCVersionCopy());
+
+        updateEstimatedDCStableVersion(reply.getStableVersion());
+        dataServer.dbServer.writeSysData("SYS_TABLE", "STABLE_CLK", getEstimatedDCStableVersionCopy());
+
+        if (txnOK && reply.getStatus() == CommitTSReply.CommitTSStatus.OK) {
+            if (logger.isLoggable(Level.INFO)) {
+                logger.info("Commit: for publish DC version: SENDING ; on tx:" + txTs);
+            }
+            return new CommitUpdatesReply(txTs);
+        } else {
+            // FIXME: CommitTSStatus.FAILED if not well
+            // documented. How comes it can fail?
+            logger.warning("Commit: failed for request " + req);
+            return new CommitUpdatesReply();
+        }
+    }
+
     @Override
     public void onReceive(final RpcHandle conn, final BatchCommitUpdatesRequest request) {
         if (logger.isLoggable(Level.INFO)) {
@@ -566,13 +639,15 @@ final public class DCSurrogate extends SwiftProtocolHandler {
             logger.info("BatchCommitUpdatesRequest ... lastSeqNo=" + session.getLastSeqNo());
         }
 
-        final List<Timestamp> tsLst = new LinkedList<Timestamp>();
-        final List<CommitUpdatesReply> reply = new LinkedList<CommitUpdatesReply>();
-
-        for (CommitUpdatesRequest r : request.getCommitRequests()) {
+        final List<CommitUpdatesRequest> reqs = request.getCommitRequests();
+        final CommitUpdatesReply[] replies = new CommitUpdatesReply[reqs.size()];
+        final List<CommitUpdatesRequest> newReqs = new ArrayList<CommitUpdatesRequest>();
+        final List<Integer> newReqsIdx = new ArrayList<Integer>();
+        for (int i = 0; i < reqs.size(); i++) {
+            final CommitUpdatesRequest r = reqs.get(i);
             if (session.getLastSeqNo() != null
                     && session.getLastSeqNo().getCounter() >= r.getCltTimestamp().getCounter()) {
-                reply.add(new CommitUpdatesReply(getEstimatedDCVersionCopy()));
+                replies[i] = new CommitUpdatesReply(getEstimatedDCVersionCopy());
                 // FIXME: unless the timestamp is stable andpruned, we need to
                 // send a precise mapping to the client!
                 // Also, non-stable clock should appear in internal dependencies
@@ -580,24 +655,170 @@ final public class DCSurrogate extends SwiftProtocolHandler {
             } else {
                 // FIXME: is it required to respect internal dependencies in the
                 // batch? Order in the local DC is respected already.
-                // r.addTimestampsToDeps(tsLst);
-                final Semaphore sem = new Semaphore(0);
-                prepareAndDoCommit(session, r, new FutureResultHandler<CommitUpdatesReply>() {
-                    @Override
-                    public void onResult(CommitUpdatesReply repOne) {
-                        if (repOne.getStatus() == CommitStatus.COMMITTED_WITH_KNOWN_TIMESTAMPS) {
-                            List<Timestamp> tsLstOne = repOne.getCommitTimestamps();
-                            if (tsLstOne != null)
-                                tsLst.addAll(tsLstOne);
+                newReqs.add(r);
+                newReqsIdx.add(i);
+            }
+        }
+        if (newReqs.isEmpty()) {
+            conn.reply(new BatchCommitUpdatesReply(Arrays.asList(replies)));
+            return;
+        }
+        prepareAndDoBatchCommit(session, newReqs, new FutureResultHandler<List<CommitUpdatesReply>>() {
+            @Override
+            public void onResult(List<CommitUpdatesReply> result) {
+                for (int i = 0; i < result.size(); i++) {
+                    replies[newReqsIdx.get(i)] = result.get(i);
+                }
+                conn.reply(new BatchCommitUpdatesReply(Arrays.asList(replies)));
+            }
+        });
+    }
+
+    /**
+     * Commits a sequence of transactions of a client as a pipeline: the
+     * timestamps of all of them are requested together, the updates of
+     * different objects are executed in parallel (those of each object in the
+     * order of the transactions, which execution relies on), and all the
+     * timestamps are committed to the sequencer together. The handler is
+     * called once every transaction has been committed.
+     * <p>
+     * If the sequencer blocks a transaction on its dependencies, the
+     * transactions before it are committed first and the rest of the sequence
+     * is processed again, starting with a blocking request for its timestamp.
+     * Transactions the sequencer reports as committed already are not executed
+     * again.
+     */
+    private void prepareAndDoBatchCommit(final ClientSession session, final List<CommitUpdatesRequest> reqs,
+            final FutureResultHandler<List<CommitUpdatesReply>> resHandler) {
+        final int n = reqs.size();
+        final CausalityClock[] snapshotClocks = new CausalityClock[n];
+        final List<GenerateDCTimestampRequest> tsReqs = new ArrayList<GenerateDCTimestampRequest>(n);
+        for (int i = 0; i < n; i++) {
+            final CommitUpdatesRequest req = reqs.get(i);
+            snapshotClocks[i] = req.getObjectUpdateGroups().size() > 0 ? req.getDependencyClock() : ClockFactory
+                    .newClock();
+            tsReqs.add(new GenerateDCTimestampRequest(req.getClientId(), req.isDisasterSafeSession(), req
+                    .getCltTimestamp(), snapshotClocks[i]));
+        }
+
+        final CommitUpdatesReply[] replies = new CommitUpdatesReply[n];
+        final AtomicInteger pending = new AtomicInteger(n);
+        for (int from = 0; from < n;) {
+            final int base = from;
+            final List<GenerateDCTimestampReply> tsReplies = sequencerBatcher.tryGenerateTimestamps(tsReqs.subList(
+                    base, n));
+            if (tsReplies.get(0) == null) {
+                tsReplies.set(0, sequencerBatcher.generateTimestamp(tsReqs.get(base)));
+            }
+            // transactions the sequencer committed already (no timestamp) can
+            // only precede those generated
+            for (; from < n && tsReplies.get(from - base) != null
+                    && tsReplies.get(from - base).getTimestamp() == null; from++) {
+                replies[from] = new CommitUpdatesReply(getEstimatedDCVersionCopy());
+                session.setLastSeqNo(reqs.get(from).getCltTimestamp());
+            }
+            if (from > base && pending.addAndGet(base - from) == 0) {
+                resHandler.onResult(Arrays.asList(replies));
+            }
+            int to = from;
+            for (; to < n && tsReplies.get(to - base) != null; to++) {
+                reqs.get(to).setTimestamp(tsReplies.get(to - base).getTimestamp());
+            }
+            if (to > from) {
+                doBatchCommit(session, reqs, snapshotClocks, from, to, replies, pending, resHandler);
+            }
+            from = to;
+        }
+    }
+
+    /**
+     * Executes and commits the transactions in [from, to) of a sequence, whose
+     * timestamps are already set.
+     */
+    private void doBatchCommit(final ClientSession session, final List<CommitUpdatesRequest> reqs,
+            final CausalityClock[] snapshotClocks, final int from, final int to, final CommitUpdatesReply[] replies,
+            final AtomicInteger pending, final FutureResultHandler<List<CommitUpdatesReply>> resHandler) {
+        final CausalityClock estimatedDCVersion = getEstimatedDCVersionCopy();
+        final Timestamp[] prvCltTs = new Timestamp[reqs.size()];
+        final AtomicBoolean[] txnOK = new AtomicBoolean[reqs.size()];
+        final Map<CRDTIdentifier, List<Runnable>> objectUpdates = new LinkedHashMap<CRDTIdentifier, List<Runnable>>();
+        for (int i = from; i < to; i++) {
+            final CommitUpdatesRequest req = reqs.get(i);
+            final Timestamp txTs = req.getTimestamp();
+            final Timestamp cltTs = req.getCltTimestamp();
+            final Timestamp prvTs = prvCltTs[i] = i == from ? session.getLastSeqNo() : reqs.get(i - 1)
+                    .getCltTimestamp();
+            final CausalityClock snapshotClock = snapshotClocks[i];
+            final CausalityClock trxClock = snapshotClock.clone();
+            trxClock.record(txTs);
+            final AtomicBoolean ok = txnOK[i] = new AtomicBoolean(true);
+            if (logger.isLoggable(Level.INFO)) {
+                logger.info("BatchCommitUpdatesRequest: doProcessOneCommit: client = " + req.getClientId() + ":ts="
+                        + cltTs + ":nops=" + req.getObjectUpdateGroups().size());
+            }
+
+            for (final CRDTObjectUpdatesGroup<?> grp : req.getObjectUpdateGroups()) {
+                grp.addSystemTimestamp(txTs);
+                List<Runnable> updates = objectUpdates.get(grp.getTargetUID());
+                if (updates == null) {
+                    updates = new ArrayList<Runnable>();
+                    objectUpdates.put(grp.getTargetUID(), updates);
+                }
+                updates.add(new Runnable() {
+                    public void run() {
+                        final ExecCRDTResult result = execCRDT(grp, snapshotClock, trxClock, txTs, cltTs, prvTs,
+                                estimatedDCVersion);
+                        ok.compareAndSet(true, result.isResult());
+                        updateEstimatedDCVersion(grp.getDependency());
+                    }
+                });
+            }
+        }
+
+        if (objectUpdates.size() >= DCConstants.PARALLEL_EXEC_MIN_OBJECTS) { // objects in parallel
+            final Semaphore s = new Semaphore(0);
+            for (final List<Runnable> updates : objectUpdates.values()) {
+                crdtExecutor.execute(new Runnable() {
+                    public void run() {
+                        try {
+                            for (final Runnable update : updates)
+                                update.run();
+                        } finally {
+                            s.release();
                         }
-                        reply.add(repOne);
-                        sem.release();
                     }
                 });
-                sem.acquireUninterruptibly();
             }
+            s.acquireUninterruptibly(objectUpdates.size());
+        } else {
+            for (final List<Runnable> updates : objectUpdates.values())
+                for (final Runnable update : updates)
+                    update.run();
+        }
+
+        // TODO: handle failure
+        session.setLastSeqNo(reqs.get(to - 1).getCltTimestamp());
+
+        final List<CommitTSRequest> commits = new ArrayList<CommitTSRequest>(to - from);
+        final List<FutureResultHandler<CommitTSReply>> handlers = new ArrayList<FutureResultHandler<CommitTSReply>>(
+                to - from);
+        for (int i = from; i < to; i++) {
+            final int j = i;
+            final CommitUpdatesRequest req = reqs.get(i);
+            final CausalityClock estimatedDCVersionCopy = estimatedDCVersion.clone();
+            commits.add(new CommitTSRequest(req.getTimestamp(), req.getCltTimestamp(), prvCltTs[i],
+                    estimatedDCVersionCopy, txnOK[i].get(), req.getObjectUpdateGroups(), req.disasterSafe(),
+                    session.clientId));
+            handlers.add(new FutureResultHandler<CommitTSReply>() {
+                public void onResult(CommitTSReply reply) {
+                    replies[j] = onCommitTSReply(req, estimatedDCVersionCopy, txnOK[j].get(), reply);
+                    if (pending.decrementAndGet() == 0) {
+                        resHandler.onResult(Arrays.asList(replies));
+                    }
+                }
+            });
         }
-        conn.reply(new BatchCommitUpdatesReply(reply));
+        sequencerBatcher.commit(commits, handlers);
     }
 
     @Override
@@ -623,17 +844,16 @@ final public class DCSurrogate extends SwiftProtocolHandler {
             logger.info("LatestKnownClockRequest client = " + request.getClientId());
         }
 
-        cltEndpoint4Sequencer.send(sequencerServerEndpoint, request, new SwiftProtocolHandler() {
-            public void onReceive(RpcHandle conn2, LatestKnownClockReply reply) {
-                if (logger.isLoggable(Level.INFO)) {
-                    logger.info("LatestKnownClockRequest: forwarding reply:" + reply.getClock());
-                }
-                updateEstimatedDCVersion(reply.getClock());
-                updateEstimatedDCStableVersion(reply.getDistasterDurableClock());
+        cltEndpoint4Sequencer.<LatestKnownClockReply> requestAsync(sequencerServerEndpoint, request).thenAccept(
+                reply -> {
+                    if (logger.isLoggable(Level.INFO)) {
+                        logger.info("LatestKnownClockRequest: forwarding reply:" + reply.getClock());
+                    }
+                    updateEstimatedDCVersion(reply.getClock());
+                    updateEstimatedDCStableVersion(reply.getDistasterDurableClock());
 
-                conn.reply(reply);
-            }
-        }, 0);
+                    conn.reply(reply);
+                });
     }
 
     @Override
@@ -652,6 +872,9 @@ final public class DCSurrogate extends SwiftProtocolHandler {
 
         private volatile RemoteSubscriber<CRDTIdentifier> remoteClient;
         private PeriodicTask notificationsTask;
+        // set when notifications to the client were discarded, until it
+        // subscribes again
+        private volatile boolean suppressed;
 
         ClientSession(String clientId, boolean disasterSafe) {
             super(clientId);
@@ -697,7 +920,9 @@ final public class DCSurrogate extends SwiftProtocolHandler {
             this.lastSeqNo = cltTs;
         }
 
-        public void subscribe(CRDTIdentifier key) {
+        public synchronized void subscribe(CRDTIdentifier key) {
+            // a client told to resync subscribes again as it fetches objects
+            suppressed = false;
             suPubSub.subscribe(key, this);
         }
 
@@ -710,6 +935,9 @@ final public class DCSurrogate extends SwiftProtocolHandler {
         List<CRDTObjectUpdatesGroup<?>> pending = new ArrayList<CRDTObjectUpdatesGroup<?>>();
 
         synchronized public void onNotification(final UpdateNotification update) {
+            if (suppressed) {
+                return;
+            }
 
             List<CRDTObjectUpdatesGroup<?>> updates = update.info.getUpdates();
             if (updates.isEmpty() || clientId.equals(updates.get(0).getClientTimestamp().getIdentifier())) {
@@ -724,7 +952,7 @@ final public class DCSurrogate extends SwiftProtocolHandler {
 
         protected synchronized CausalityClock tryFireClientNotification() {
             long now = Sys.getInstance().timeMillis();
-            if (now <= (lastNotification + notificationPeriodMillis)) {
+            if (suppressed || now <= (lastNotification + notificationPeriodMillis)) {
                 return null;
             }
 
@@ -795,11 +1023,35 @@ final public class DCSurrogate extends SwiftProtocolHandler {
             return snapshot;
         }
 
+        /**
+         * The client missed updates of its subscribed objects, so later
+         * notifications would advance its cache past the missing updates. Its
+         * subscriptions are dropped and the client is told to resync; it is
+         * notified again once it subscribes again.
+         */
+        @Override
+        public synchronized void onResync() {
+            logger.warning("Notifications to client " + clientId + " fell behind, asking it to resync");
+            suppressed = true;
+            suPubSub.unsubscribeAll(this);
+            pending.clear();
+            if (remoteClient != null) {
+                final BatchUpdatesNotification resync = BatchUpdatesNotification.resync(suPubSub.minDcVersion(),
+                        disasterSafe);
+                remoteClient.onNotification(resync.clone(remoteClient.nextSeqN()));
+            }
+        }
+
         @Override
         public void onNotification(BatchUpdatesNotification evt) {
             Thread.dumpStack();
         }
 
+        @Override
+        public void onNotification(UpdateNotificationBatch evt) {
+            Thread.dumpStack();
+        }
+
         @Override
         public void onNotification(PubSubNotification<CRDTIdentifier> evt) {
             Thread.dumpStack();
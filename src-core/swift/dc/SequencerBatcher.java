@@ -0,0 +1,261 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package swift.dc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import swift.proto.CommitTSBatchReply;
+import swift.proto.CommitTSBatchRequest;
+import swift.proto.CommitTSReply;
+import swift.proto.CommitTSRequest;
+import swift.proto.GenerateDCTimestampBatchReply;
+import swift.proto.GenerateDCTimestampBatchRequest;
+import swift.proto.GenerateDCTimestampReply;
+import swift.proto.GenerateDCTimestampRequest;
+import swift.utils.FutureResultHandler;
+import sys.net.api.Endpoint;
+import sys.net.api.rpc.RpcEndpoint;
+
+/**
+ * Surrogate side of the sequencer protocol, coalescing the timestamp requests
+ * and commits of concurrent transactions into batches.
+ * <p>
+ * A single thread at a time sends batches, taking everything queued while the
+ * previous batch was being sent; hence, batches only form under load and do
+ * not add latency otherwise. Timestamp requests are additionally limited to a
+ * maximum number of batches in flight. Commits are not, since the sequencer
+ * processes them in timestamp order and a batch may wait for a commit queued
+ * behind it.
+ */
+final class SequencerBatcher {
+    private static Logger logger = Logger.getLogger(SequencerBatcher.class.getName());
+
+    private final RpcEndpoint endpoint;
+    private final Endpoint sequencer;
+    private final int maxBatchSize;
+
+    private final Pipeline<GenerateDCTimestampRequest, GenerateDCTimestampReply> timestamps;
+    private final Pipeline<CommitTSRequest, CommitTSReply> commits;
+
+    SequencerBatcher(RpcEndpoint endpoint, Endpoint sequencer, int maxBatchSize, int maxInFlight) {
+        this.endpoint = endpoint;
+        this.sequencer = sequencer;
+        this.maxBatchSize = maxBatchSize;
+
+        this.timestamps = new Pipeline<GenerateDCTimestampRequest, GenerateDCTimestampReply>(maxInFlight) {
+            void send(final List<GenerateDCTimestampRequest> reqs,
+                    final List<FutureResultHandler<GenerateDCTimestampReply>> handlers) {
+                endpoint.<GenerateDCTimestampBatchReply> requestAsync(sequencer,
+                        new GenerateDCTimestampBatchRequest(reqs)).whenComplete((reply, failure) -> {
+                    if (failure != null) {
+                        failed(handlers, failure);
+                        return;
+                    }
+                    done();
+                    final List<GenerateDCTimestampReply> replies = reply.getReplies();
+                    for (int i = 0; i < replies.size(); i++)
+                        handlers.get(i).onResult(replies.get(i));
+                });
+            }
+        };
+
+        this.commits = new Pipeline<CommitTSRequest, CommitTSReply>(Integer.MAX_VALUE) {
+            void send(final List<CommitTSRequest> reqs, final List<FutureResultHandler<CommitTSReply>> handlers) {
+                endpoint.<CommitTSBatchReply> requestAsync(sequencer, new CommitTSBatchRequest(reqs)).whenComplete(
+                        (reply, failure) -> {
+                            if (failure != null) {
+                                failed(handlers, failure);
+                                return;
+                            }
+                            done();
+                            for (int i = 0; i < reply.size(); i++)
+                                handlers.get(i).onResult(reply.getReply(i));
+                        });
+            }
+        };
+    }
+
+    /**
+     * Requests a timestamp for a transaction, blocking until it is generated.
+     * Requests that the sequencer reports as blocked, or whose batch failed,
+     * are resubmitted alone.
+     */
+    GenerateDCTimestampReply generateTimestamp(GenerateDCTimestampRequest request) {
+        final GenerateDCTimestampReply reply = tryGenerateTimestamps(Collections.singletonList(request)).get(0);
+        if (reply == null) {
+            // blocked on its dependencies, let the sequencer queue it; or
+            // the batch failed
+            return endpoint.request(sequencer, request);
+        }
+        return reply;
+    }
+
+    /**
+     * Requests timestamps for a number of transactions, sent together in the
+     * same batch, blocking until the sequencer replies or the request times
+     * out. Consecutive transactions of a client are generated together;
+     * requests blocked on their dependencies are not queued at the sequencer.
+     * 
+     * @return the replies, in the order of the requests, with null for the
+     *         blocked requests and those of a failed batch
+     */
+    List<GenerateDCTimestampReply> tryGenerateTimestamps(final List<GenerateDCTimestampRequest> requests) {
+        final GenerateDCTimestampReply[] result = new GenerateDCTimestampReply[requests.size()];
+        final int[] pending = new int[] { requests.size() };
+        final List<FutureResultHandler<GenerateDCTimestampReply>> handlers = new ArrayList<FutureResultHandler<GenerateDCTimestampReply>>(
+                requests.size());
+        for (int i = 0; i < requests.size(); i++) {
+            final int j = i;
+            handlers.add(new FutureResultHandler<GenerateDCTimestampReply>() {
+                public void onResult(GenerateDCTimestampReply reply) {
+                    synchronized (result) {
+                        result[j] = reply;
+                        if (--pending[0] == 0)
+                            result.notifyAll();
+                    }
+                }
+            });
+        }
+        boolean interrupted = false;
+        synchronized (result) {
+            timestamps.submit(requests, handlers);
+            // bounded by the timeout of the request
+            while (pending[0] > 0) {
+                try {
+                    result.wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return Arrays.asList(result);
+    }
+
+    /**
+     * Commits the timestamp of a transaction; the handler is called with the
+     * reply of the sequencer, or with null if the request failed or timed out.
+     */
+    void commit(CommitTSRequest request, FutureResultHandler<CommitTSReply> handler) {
+        commits.submit(Collections.singletonList(request), Collections.singletonList(handler));
+    }
+
+    /**
+     * Commits the timestamps of a number of transactions, queued together so
+     * they share batches; each handler is called with the reply to its request,
+     * or with null if the request failed or timed out.
+     */
+    void commit(List<CommitTSRequest> requests, List<FutureResultHandler<CommitTSReply>> handlers) {
+        commits.submit(requests, handlers);
+    }
+
+    /**
+     * Queue of requests, sent in batches with a bounded number in flight.
+     * Requests submitted together are never split among batches, so a batch
+     * exceeds the maximum size when a single submission does.
+     */
+    abstract class Pipeline<Q, R> {
+        private final LinkedList<List<Q>> queued = new LinkedList<List<Q>>();
+        private final LinkedList<List<FutureResultHandler<R>>> handlers = new LinkedList<List<FutureResultHandler<R>>>();
+        private final int maxInFlight;
+        private int inFlight;
+        private boolean sending;
+
+        Pipeline(int maxInFlight) {
+            this.maxInFlight = maxInFlight;
+        }
+
+        void submit(List<Q> requests, List<FutureResultHandler<R>> requestHandlers) {
+            synchronized (this) {
+                queued.add(requests);
+                handlers.add(requestHandlers);
+            }
+            pump();
+        }
+
+        /**
+         * Must be called once the reply of each batch sent arrives.
+         */
+        void done() {
+            synchronized (this) {
+                inFlight--;
+            }
+            pump();
+        }
+
+        /**
+         * Must be called instead of {@link #done()} when a batch sent fails or
+         * times out; its handlers are called with null.
+         */
+        void failed(List<FutureResultHandler<R>> batchHandlers, Throwable failure) {
+            logger.warning("Batch of " + batchHandlers.size() + " requests to the sequencer failed: " + failure);
+            done();
+            for (FutureResultHandler<R> h : batchHandlers)
+                h.onResult(null);
+        }
+
+        private void pump() {
+            synchronized (this) {
+                if (sending)
+                    return;
+                sending = true;
+            }
+            for (;;) {
+                final List<Q> batch;
+                final List<FutureResultHandler<R>> batchHandlers;
+                synchronized (this) {
+                    if (inFlight >= maxInFlight || queued.isEmpty()) {
+                        sending = false;
+                        return;
+                    }
+                    batch = new ArrayList<Q>();
+                    batchHandlers = new ArrayList<FutureResultHandler<R>>();
+                    do {
+                        batch.addAll(queued.removeFirst());
+                        batchHandlers.addAll(handlers.removeFirst());
+                    } while (!queued.isEmpty() && batch.size() + queued.getFirst().size() <= maxBatchSize);
+                    inFlight++;
+                }
+                try {
+                    send(batch, batchHandlers);
+                } catch (RuntimeException e) {
+                    logger.log(Level.WARNING, "Failed to send batch to the sequencer", e);
+                    synchronized (this) {
+                        inFlight--;
+                    }
+                    for (FutureResultHandler<R> h : batchHandlers)
+                        h.onResult(null);
+                }
+            }
+        }
+
+        /**
+         * Sends a batch with the default timeout; once it completes, calls
+         * {@link #done()} and the handlers with the replies, or
+         * {@link #failed(List, Throwable)}.
+         */
+        abstract void send(List<Q> batch, List<FutureResultHandler<R>> handlers);
+    }
+}
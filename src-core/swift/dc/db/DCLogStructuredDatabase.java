@@ -0,0 +1,424 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package swift.dc.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import swift.crdt.core.CRDTIdentifier;
+import swift.dc.CRDTData;
+import sys.net.impl.KryoLib;
+import sys.scheduler.PeriodicTask;
+
+import com.esotericsoftware.kryo.io.ByteBufferInputStream;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Log-structured database, backed by append-only memory-mapped segment files.
+ * <p>
+ * Each table is kept in its own directory as a sequence of fixed-size
+ * segments. Every write appends a checksummed record (key + Kryo serialized
+ * value) to the active segment of the table and updates an in-memory index
+ * from keys to record locations; reads deserialize the value by streaming it
+ * straight from the mapped region, without copying the record to the heap. On {@link #init(Properties)} the segments are scanned to
+ * rebuild the index, stopping at the first torn or corrupted record of a
+ * segment. A background task compacts sealed segments whose fraction of live
+ * records drops below a threshold, by re-appending the live records and
+ * deleting the segment.
+ * <p>
+ * Record layout: <code>[int length][int crc32][int keyLength][key][value]</code>
+ * , where length covers key and value. A zero length marks the end of a
+ * segment's data.
+ */
+public class DCLogStructuredDatabase implements DCNodeDatabase {
+    private static Logger logger = Logger.getLogger(DCLogStructuredDatabase.class.getName());
+
+    public static final String DIR_PROPERTY = "logdb.dir";
+    public static final String SEGMENT_SIZE_PROPERTY = "logdb.segmentBytes";
+    public static final String COMPACTION_RATIO_PROPERTY = "logdb.compactionRatio";
+    public static final String COMPACTION_PERIOD_PROPERTY = "logdb.compactionPeriodSecs";
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+    public static final double DEFAULT_COMPACTION_RATIO = 0.5;
+    public static final double DEFAULT_COMPACTION_PERIOD = 30.0;
+
+    static final String SEGMENT_SUFFIX = ".seg";
+    static final int HEADER_SIZE = 12;
+    static final int READ_BUFFER_SIZE = 1 << 12;
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    File baseDir;
+    int segmentSize;
+    double compactionRatio;
+    volatile boolean syncWrites;
+    PeriodicTask compactor;
+
+    final Map<String, Table> tables = new ConcurrentHashMap<String, Table>();
+
+    public DCLogStructuredDatabase() {
+    }
+
+    @Override
+    public boolean ramOnly() {
+        return false;
+    }
+
+    @Override
+    synchronized public void init(Properties props) {
+        String dirName = props.getProperty(DIR_PROPERTY);
+        if (dirName == null) {
+            throw new RuntimeException("LogDB: need to set " + DIR_PROPERTY + " property");
+        }
+        segmentSize = Integer.parseInt(props.getProperty(SEGMENT_SIZE_PROPERTY, "" + DEFAULT_SEGMENT_SIZE));
+        compactionRatio = Double.parseDouble(props.getProperty(COMPACTION_RATIO_PROPERTY, ""
+                + DEFAULT_COMPACTION_RATIO));
+        double compactionPeriod = Double.parseDouble(props.getProperty(COMPACTION_PERIOD_PROPERTY, ""
+                + DEFAULT_COMPACTION_PERIOD));
+
+        baseDir = new File(dirName);
+        if (!baseDir.exists() && !baseDir.mkdirs()) {
+            throw new RuntimeException("LogDB: cannot create directory " + baseDir.getAbsolutePath());
+        }
+        try {
+            File[] dirs = baseDir.listFiles();
+            if (dirs != null)
+                for (File dir : dirs)
+                    if (dir.isDirectory()) {
+                        Table t = new Table(URLDecoder.decode(dir.getName(), "UTF-8"), dir);
+                        t.recover();
+                        tables.put(t.name, t);
+                    }
+        } catch (IOException x) {
+            throw new RuntimeException("LogDB: recovery failed", x);
+        }
+        logger.info(String.format("LogDB: <%s> recovered tables: %s", baseDir.getAbsolutePath(), tables.keySet()));
+
+        if (compactionPeriod > 0)
+            compactor = new PeriodicTask(compactionPeriod, compactionPeriod) {
+                public void run() {
+                    compact();
+                }
+            };
+    }
+
+    @Override
+    public CRDTData<?> read(CRDTIdentifier id) {
+        return (CRDTData<?>) readSysData(id.getTable(), id.getKey());
+    }
+
+    @Override
+    public boolean write(CRDTIdentifier id, CRDTData<?> data) {
+        return writeSysData(id.getTable(), id.getKey(), data);
+    }
+
+    @Override
+    public Object readSysData(String table, String key) {
+        Table t = tables.get(table);
+        return t == null ? null : t.read(key);
+    }
+
+    @Override
+    public boolean writeSysData(String table, String key, Object data) {
+        Output out = new Output(1 << 10, -1);
+        KryoLib.kryo().writeClassAndObject(out, data);
+        try {
+            getTable(table).append(key.getBytes(UTF8), out.getBuffer(), 0, out.position());
+            return true;
+        } catch (IOException x) {
+            logger.log(Level.WARNING, "LogDB: write failed for " + table + "/" + key, x);
+            return false;
+        }
+    }
+
+    /**
+     * Forces the dirty pages of all active segments to disk. If flag is true,
+     * every subsequent write is also forced before returning.
+     */
+    @Override
+    public void sync(boolean flag) {
+        syncWrites = flag;
+        for (Table t : tables.values())
+            t.force();
+    }
+
+    /**
+     * Rewrites the live records of sealed segments that fell below the
+     * compaction ratio, and deletes them.
+     */
+    void compact() {
+        for (Table t : tables.values())
+            try {
+                t.compact();
+            } catch (Exception x) {
+                logger.log(Level.WARNING, "LogDB: compaction failed for table " + t.name, x);
+            }
+    }
+
+    private Table getTable(String name) {
+        Table t = tables.get(name);
+        if (t == null)
+            synchronized (tables) {
+                t = tables.get(name);
+                if (t == null) {
+                    try {
+                        File dir = new File(baseDir, URLEncoder.encode(name, "UTF-8"));
+                        if (!dir.isDirectory() && !dir.mkdirs()) {
+                            throw new RuntimeException("LogDB: cannot create directory " + dir.getAbsolutePath());
+                        }
+                        tables.put(name, t = new Table(name, dir));
+                    } catch (UnsupportedEncodingException x) {
+                        throw new RuntimeException(x);
+                    }
+                }
+            }
+        return t;
+    }
+
+    static long location(int segment, int offset) {
+        return ((long) segment << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    static int segmentOf(long location) {
+        return (int) (location >>> 32);
+    }
+
+    static int offsetOf(long location) {
+        return (int) location;
+    }
+
+    static int checksum(byte[] key, byte[] value, int off, int len) {
+        CRC32 crc = new CRC32();
+        crc.update(key, 0, key.length);
+        crc.update(value, off, len);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * The segments and key index of a single table. Appends are serialized on
+     * the table monitor; reads are lock-free.
+     */
+    final class Table {
+        final String name;
+        final File dir;
+        final Map<String, Long> index = new ConcurrentHashMap<String, Long>();
+        final Map<Integer, Segment> segments = new ConcurrentHashMap<Integer, Segment>();
+        Segment active;
+
+        Table(String name, File dir) {
+            this.name = name;
+            this.dir = dir;
+        }
+
+        Object read(String key) {
+            Long loc;
+            Segment s;
+            // Retry if the record was moved away by a concurrent compaction.
+            do {
+                loc = index.get(key);
+                if (loc == null)
+                    return null;
+                s = segments.get(segmentOf(loc));
+            } while (s == null);
+            ByteBuffer buf = s.buf.duplicate();
+            int off = offsetOf(loc);
+            int len = buf.getInt(off);
+            int keyLen = buf.getInt(off + 8);
+            buf.limit(off + HEADER_SIZE + len).position(off + HEADER_SIZE + keyLen);
+            return KryoLib.kryo().readClassAndObject(new Input(new ByteBufferInputStream(buf), READ_BUFFER_SIZE));
+        }
+
+        void append(byte[] key, byte[] value, int off, int len) throws IOException {
+            synchronized (this) {
+                doAppend(new String(key, UTF8), key, value, off, len, checksum(key, value, off, len));
+            }
+            if (syncWrites)
+                force();
+        }
+
+        private long doAppend(String key, byte[] keyBytes, byte[] value, int off, int len, int crc)
+                throws IOException {
+            int size = HEADER_SIZE + keyBytes.length + len;
+            if (active == null || active.writePos + size + 4 > active.capacity)
+                roll(size + 4);
+
+            Segment s = active;
+            ByteBuffer buf = s.buf.duplicate();
+            buf.position(s.writePos);
+            buf.putInt(0).putInt(crc).putInt(keyBytes.length).put(keyBytes).put(value, off, len).putInt(0);
+            // Publish the record by writing its length last.
+            buf.putInt(s.writePos, keyBytes.length + len);
+
+            long loc = location(s.id, s.writePos);
+            s.writePos += size;
+            s.liveBytes += size;
+            retire(index.put(key, loc));
+            return loc;
+        }
+
+        private void retire(Long previous) {
+            if (previous != null) {
+                Segment old = segments.get(segmentOf(previous));
+                if (old != null)
+                    old.liveBytes -= HEADER_SIZE + old.buf.getInt(offsetOf(previous));
+            }
+        }
+
+        private void roll(int minCapacity) throws IOException {
+            if (active != null)
+                active.buf.force();
+            int id = active == null ? 0 : active.id + 1;
+            active = new Segment(id, new File(dir, String.format("%08d%s", id, SEGMENT_SUFFIX)), Math.max(
+                    segmentSize, minCapacity));
+            segments.put(id, active);
+        }
+
+        void force() {
+            Segment s = active;
+            if (s != null)
+                s.buf.force();
+        }
+
+        void recover() throws IOException {
+            File[] files = dir.listFiles();
+            if (files == null)
+                return;
+            Arrays.sort(files);
+            for (File f : files) {
+                if (!f.getName().endsWith(SEGMENT_SUFFIX))
+                    continue;
+                int id = Integer.parseInt(f.getName().substring(0, f.getName().length() - SEGMENT_SUFFIX.length()));
+                Segment s = new Segment(id, f, (int) f.length());
+                segments.put(id, s);
+                s.scan(this);
+                active = s;
+            }
+        }
+
+        void compact() throws IOException {
+            List<Segment> candidates = new ArrayList<Segment>();
+            synchronized (this) {
+                for (Segment s : segments.values())
+                    if (s != active && s.liveBytes < compactionRatio * s.writePos)
+                        candidates.add(s);
+            }
+            for (Segment s : candidates) {
+                ByteBuffer buf = s.buf.duplicate();
+                for (int pos = 0; pos < s.writePos;) {
+                    int len = buf.getInt(pos);
+                    int crc = buf.getInt(pos + 4);
+                    int keyLen = buf.getInt(pos + 8);
+                    byte[] key = new byte[keyLen], value = new byte[len - keyLen];
+                    buf.position(pos + HEADER_SIZE);
+                    buf.get(key).get(value);
+                    String k = new String(key, UTF8);
+                    Long loc = location(s.id, pos);
+                    synchronized (this) {
+                        if (loc.equals(index.get(k)))
+                            doAppend(k, key, value, 0, value.length, crc);
+                    }
+                    pos += HEADER_SIZE + len;
+                }
+                synchronized (this) {
+                    active.buf.force();
+                    segments.remove(s.id);
+                }
+                s.close();
+                if (!s.file.delete())
+                    logger.warning("LogDB: could not delete compacted segment " + s.file);
+                logger.info(String.format("LogDB: compacted segment %s of table %s", s.file.getName(), name));
+            }
+        }
+    }
+
+    /**
+     * A memory-mapped segment file. Unwritten space is zero-filled.
+     */
+    static final class Segment {
+        final int id;
+        final File file;
+        final int capacity;
+        final FileChannel channel;
+        final MappedByteBuffer buf;
+        int writePos;
+        long liveBytes;
+
+        Segment(int id, File file, int capacity) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.capacity = capacity;
+            RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            raf.setLength(capacity);
+            this.channel = raf.getChannel();
+            this.buf = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+
+        /**
+         * Indexes all valid records, truncating the segment at the first
+         * incomplete or corrupted one.
+         */
+        void scan(Table t) {
+            ByteBuffer dup = buf.duplicate();
+            int pos = 0;
+            while (pos + HEADER_SIZE <= capacity) {
+                int len = buf.getInt(pos);
+                int keyLen = buf.getInt(pos + 8);
+                if (len <= 0 || keyLen < 0 || keyLen > len || pos + HEADER_SIZE + len > capacity)
+                    break;
+                byte[] key = new byte[keyLen], value = new byte[len - keyLen];
+                dup.position(pos + HEADER_SIZE);
+                dup.get(key).get(value);
+                if (checksum(key, value, 0, value.length) != buf.getInt(pos + 4)) {
+                    logger.warning(String.format("LogDB: corrupted record in %s at offset %d, truncating", file,
+                            pos));
+                    break;
+                }
+                t.retire(t.index.put(new String(key, UTF8), location(id, pos)));
+                liveBytes += HEADER_SIZE + len;
+                pos += HEADER_SIZE + len;
+            }
+            if (pos + 4 <= capacity)
+                buf.putInt(pos, 0);
+            writePos = pos;
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException x) {
+                // do nothing
+            }
+        }
+    }
+}
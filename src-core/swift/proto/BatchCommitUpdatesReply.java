@@ -62,7 +62,8 @@ public class BatchCommitUpdatesReply implements RpcMessage, MetadataSamplable {
 
     @Override
     public void deliverTo(RpcHandle conn, RpcHandler handler) {
-        // ((SwiftProtocolHandler) handler).onReceive(conn, this);
+        if (handler != RpcHandler.NONE)
+            ((SwiftProtocolHandler) handler).onReceive(conn, this);
     }
 
     @Override
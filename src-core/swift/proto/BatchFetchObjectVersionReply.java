@@ -19,7 +19,7 @@ package swift.proto;
 import java.util.List;
 
 import swift.clocks.CausalityClock;
-import swift.clocks.VersionVectorWithExceptions;
+import swift.clocks.ClockFactory;
 import swift.crdt.core.CRDT;
 import swift.crdt.core.ManagedCRDT;
 import sys.net.api.rpc.RpcHandle;
@@ -120,7 +120,9 @@ public class BatchFetchObjectVersionReply implements RpcMessage, MetadataSamplab
     /**
      * @return state of an object requested identified by idx, where 0 <= idx <
      *         getBatchSize(); null if {@link #getStatus()} is
-     *         {@link FetchStatus#OBJECT_NOT_FOUND}.
+     *         {@link FetchStatus#OBJECT_NOT_FOUND}. If the request specified a
+     *         known version, it may be a delta since that version (see
+     *         {@link ManagedCRDT#isDelta()}).
      */
     // Old docs, not true anymore: if {@link #getStatus()} is {@link
     // FetchStatus#OK} then the object is
@@ -153,10 +155,11 @@ public class BatchFetchObjectVersionReply implements RpcMessage, MetadataSamplab
 
     public void compressAllOKReplies(CausalityClock commonPruneClock, CausalityClock commonClock) {
         // clear all but first pair of clocks - that one will act as a
-        // reference clock for all objects in the batch.
+        // reference clock for all objects in the batch. Deltas keep their
+        // own clocks.
         boolean firstOkFound = false;
         for (int i = 0; i < getBatchSize(); i++) {
-            if (statuses[i] == FetchStatus.OK) {
+            if (isCompressible(i)) {
                 if (firstOkFound) {
                     crdts[i].forceSetClocks(null, null);
                 } else {
@@ -167,6 +170,10 @@ public class BatchFetchObjectVersionReply implements RpcMessage, MetadataSamplab
         }
     }
 
+    private boolean isCompressible(int idx) {
+        return statuses[idx] == FetchStatus.OK && !crdts[idx].isDelta();
+    }
+
     @Override
     public void recordMetadataSample(MetadataStatsCollector collector) {
         recordMetadataSample(collector, MetadataStatsCollector.defaultMessageName(this));
@@ -200,7 +207,7 @@ public class BatchFetchObjectVersionReply implements RpcMessage, MetadataSamplab
         int versionSize = 0;
         int valueSize = 0;
         for (final ManagedCRDT crdt : crdts) {
-            if (crdt != null) {
+            if (crdt != null && !crdt.isDelta()) {
                 maxExceptionsNum = Math.max(crdt.getClock().getExceptionsNumber(), maxExceptionsNum);
                 maxExceptionsNum = Math.max(crdt.getPruneClock().getExceptionsNumber(), maxExceptionsNum);
                 maxVectorSize = Math.max(crdt.getClock().getSize(), maxVectorSize);
@@ -277,8 +284,8 @@ public class BatchFetchObjectVersionReply implements RpcMessage, MetadataSamplab
             output.writeVarInt(statuses[i].ordinal(), true);
             kryo.writeClassAndObject(output, crdts[i]);
         }
-        kryo.writeObjectOrNull(output, estimatedLatestKnownClock, VersionVectorWithExceptions.class);
-        kryo.writeObjectOrNull(output, estimatedDisasterDurableLatestKnownClock, VersionVectorWithExceptions.class);
+        kryo.writeObjectOrNull(output, estimatedLatestKnownClock, ClockFactory.clockClass());
+        kryo.writeObjectOrNull(output, estimatedDisasterDurableLatestKnownClock, ClockFactory.clockClass());
     }
 
     @Override
@@ -294,7 +301,7 @@ public class BatchFetchObjectVersionReply implements RpcMessage, MetadataSamplab
             statuses[i] = FetchStatus.values()[ordinal];
             crdts[i] = (ManagedCRDT) kryo.readClassAndObject(input);
             // Condition used by compressAllOKReplies():
-            if (statuses[i] == FetchStatus.OK) {
+            if (isCompressible(i)) {
                 if (compressionReferenceIdx >= 0) {
                     // If clocks are compressed => decompress.
                     if (crdts[i].getClock() == null) {
@@ -306,7 +313,7 @@ public class BatchFetchObjectVersionReply implements RpcMessage, MetadataSamplab
                 }
             }
         }
-        estimatedLatestKnownClock = kryo.readObjectOrNull(input, VersionVectorWithExceptions.class);
-        estimatedDisasterDurableLatestKnownClock = kryo.readObjectOrNull(input, VersionVectorWithExceptions.class);
+        estimatedLatestKnownClock = kryo.readObjectOrNull(input, ClockFactory.clockClass());
+        estimatedDisasterDurableLatestKnownClock = kryo.readObjectOrNull(input, ClockFactory.clockClass());
     }
 }
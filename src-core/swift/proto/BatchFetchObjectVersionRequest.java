@@ -21,7 +21,7 @@ import java.util.Arrays;
 import java.util.List;
 
 import swift.clocks.CausalityClock;
-import swift.clocks.VersionVectorWithExceptions;
+import swift.clocks.ClockFactory;
 import swift.crdt.core.CRDTIdentifier;
 import sys.net.api.rpc.RpcHandle;
 import sys.net.api.rpc.RpcHandler;
@@ -40,6 +40,8 @@ import com.esotericsoftware.kryo.io.Output;
 public class BatchFetchObjectVersionRequest extends ClientRequest implements MetadataSamplable, KryoSerializable {
     protected List<CRDTIdentifier> uids;
     protected CausalityClock knownVersion;
+    // known version of every object, or null if they share knownVersion
+    protected List<CausalityClock> knownVersions;
     protected CausalityClock requestedVersion;
     protected boolean sendMoreRecentUpdates;
     protected boolean subscribe;
@@ -63,6 +65,28 @@ public class BatchFetchObjectVersionRequest extends ClientRequest implements Met
         this.sendDCVector = sendDCVersion;
     }
 
+    /**
+     * Creates a request with a known version of its own for every object.
+     * 
+     * @param knownVersions
+     *            version of each object known to the client, or null for an
+     *            object fetched in full
+     */
+    public BatchFetchObjectVersionRequest(String clientId, boolean disasterSafe, List<CRDTIdentifier> uids,
+            List<CausalityClock> knownVersions, CausalityClock version, final boolean sendMoreRecentUpdates,
+            boolean subscribe, boolean sendDCVersion) {
+        super(clientId, disasterSafe);
+        if (knownVersions.size() != uids.size()) {
+            throw new IllegalArgumentException("Known versions do not match the objects");
+        }
+        this.uids = uids;
+        this.knownVersions = knownVersions;
+        this.requestedVersion = version;
+        this.subscribe = subscribe;
+        this.sendMoreRecentUpdates = sendMoreRecentUpdates;
+        this.sendDCVector = sendDCVersion;
+    }
+
     public boolean isSendDCVector() {
         return sendDCVector;
     }
@@ -89,8 +113,13 @@ public class BatchFetchObjectVersionRequest extends ClientRequest implements Met
         return uids;
     }
 
-    public CausalityClock getKnownVersion() {
-        return knownVersion;
+    /**
+     * @return version of the object number 0 <= idx < getBatchSize() known to
+     *         the client, which is sent the updates since that version only;
+     *         null if the object is fetched in full
+     */
+    public CausalityClock getKnownVersion(final int idx) {
+        return knownVersions == null ? knownVersion : knownVersions.get(idx);
     }
 
     /**
@@ -134,10 +163,12 @@ public class BatchFetchObjectVersionRequest extends ClientRequest implements Met
         kryo.writeObject(buffer, requestedVersion);
         int maxVectorSize = requestedVersion.getSize();
         int maxExceptionsNumber = requestedVersion.getExceptionsNumber();
-        if (knownVersion != null) {
-            kryo.writeObject(buffer, knownVersion);
-            maxVectorSize = Math.max(knownVersion.getSize(), maxVectorSize);
-            maxExceptionsNumber = Math.max(knownVersion.getExceptionsNumber(), maxExceptionsNumber);
+        for (final CausalityClock known : knownVersions == null ? Arrays.asList(knownVersion) : knownVersions) {
+            if (known != null) {
+                kryo.writeObject(buffer, known);
+                maxVectorSize = Math.max(known.getSize(), maxVectorSize);
+                maxExceptionsNumber = Math.max(known.getExceptionsNumber(), maxExceptionsNumber);
+            }
         }
         final int globalMetadata = buffer.position();
 
@@ -152,11 +183,14 @@ public class BatchFetchObjectVersionRequest extends ClientRequest implements Met
         for (final CRDTIdentifier uid : uids) {
             uid.write(kryo, output);
         }
-        output.writeBoolean(knownVersion != null);
-        if (knownVersion != null) {
-            ((VersionVectorWithExceptions) knownVersion).write(kryo, output);
+        writeKnownVersion(kryo, output, knownVersion);
+        output.writeBoolean(knownVersions != null);
+        if (knownVersions != null) {
+            for (final CausalityClock known : knownVersions) {
+                writeKnownVersion(kryo, output, known);
+            }
         }
-        ((VersionVectorWithExceptions) requestedVersion).write(kryo, output);
+        ((KryoSerializable) requestedVersion).write(kryo, output);
         byte options = 0;
         if (sendMoreRecentUpdates) {
             options |= 1;
@@ -180,15 +214,34 @@ public class BatchFetchObjectVersionRequest extends ClientRequest implements Met
             uid.read(kryo, input);
             uids.add(uid);
         }
+        knownVersion = readKnownVersion(kryo, input);
         if (input.readBoolean()) {
-            knownVersion = new VersionVectorWithExceptions();
-            ((VersionVectorWithExceptions) knownVersion).read(kryo, input);
+            knownVersions = new ArrayList<CausalityClock>(batchSize);
+            for (int i = 0; i < batchSize; i++) {
+                knownVersions.add(readKnownVersion(kryo, input));
+            }
         }
-        requestedVersion = new VersionVectorWithExceptions();
-        ((VersionVectorWithExceptions) requestedVersion).read(kryo, input);
+        requestedVersion = ClockFactory.newClock();
+        ((KryoSerializable) requestedVersion).read(kryo, input);
         final byte options = input.readByte();
         sendMoreRecentUpdates = (options & 1) != 0;
         subscribe = (options & (1 << 1)) != 0;
         sendDCVector = (options & (1 << 2)) != 0;
     }
+
+    private static void writeKnownVersion(Kryo kryo, Output output, CausalityClock known) {
+        output.writeBoolean(known != null);
+        if (known != null) {
+            ((KryoSerializable) known).write(kryo, output);
+        }
+    }
+
+    private static CausalityClock readKnownVersion(Kryo kryo, Input input) {
+        if (!input.readBoolean()) {
+            return null;
+        }
+        final CausalityClock known = ClockFactory.newClock();
+        ((KryoSerializable) known).read(kryo, input);
+        return known;
+    }
 }
@@ -0,0 +1,65 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package swift.proto;
+
+import java.util.BitSet;
+
+import swift.clocks.CausalityClock;
+import swift.proto.CommitTSReply.CommitTSStatus;
+import sys.net.api.rpc.RpcHandle;
+import sys.net.api.rpc.RpcHandler;
+import sys.net.api.rpc.RpcMessage;
+
+/**
+ * Server reply to a batch of commits, with the versions of the server after
+ * the last one.
+ * 
+ * @see CommitTSBatchRequest
+ */
+public class CommitTSBatchReply implements RpcMessage {
+    protected BitSet failed;
+    protected int size;
+    protected CausalityClock currVersion;
+    protected CausalityClock stableVersion;
+
+    CommitTSBatchReply() {
+    }
+
+    public CommitTSBatchReply(BitSet failed, int size, CausalityClock currVersion, CausalityClock stableVersion) {
+        this.failed = failed;
+        this.size = size;
+        this.currVersion = currVersion;
+        this.stableVersion = stableVersion;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return reply to the i-th commit of the batch
+     */
+    public CommitTSReply getReply(int i) {
+        return new CommitTSReply(failed.get(i) ? CommitTSStatus.FAILED : CommitTSStatus.OK, currVersion,
+                stableVersion);
+    }
+
+    @Override
+    public void deliverTo(RpcHandle conn, RpcHandler handler) {
+        ((SwiftProtocolHandler) handler).onReceive(this);
+    }
+}
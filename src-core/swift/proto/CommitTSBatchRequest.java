@@ -0,0 +1,52 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package swift.proto;
+
+import java.util.List;
+
+import sys.net.api.rpc.RpcHandle;
+import sys.net.api.rpc.RpcHandler;
+import sys.net.api.rpc.RpcMessage;
+
+/**
+ * Informs the Sequencer Server that the given timestamps should be
+ * committed/rollbacked.
+ * 
+ * @see CommitTSBatchReply
+ */
+public class CommitTSBatchRequest implements RpcMessage {
+    protected List<CommitTSRequest> requests;
+
+    /**
+     * Fake constructor for Kryo serialization. Do NOT use.
+     */
+    CommitTSBatchRequest() {
+    }
+
+    public CommitTSBatchRequest(List<CommitTSRequest> requests) {
+        this.requests = requests;
+    }
+
+    public List<CommitTSRequest> getRequests() {
+        return requests;
+    }
+
+    @Override
+    public void deliverTo(RpcHandle conn, RpcHandler handler) {
+        ((SwiftProtocolHandler) handler).onReceive(conn, this);
+    }
+}
@@ -0,0 +1,111 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package swift.proto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import swift.crdt.core.ManagedCRDT;
+import sys.net.api.Endpoint;
+import sys.net.api.rpc.RpcHandle;
+import sys.net.api.rpc.RpcHandler;
+import sys.net.api.rpc.RpcMessage;
+
+/**
+ * Batch of objects moved from a data server to the new owner, with their
+ * subscriptions. Sent by the previous owner while it streams the objects of a
+ * joining data server, and as the reply to a {@link DHTHandoffRequest}.
+ */
+public class DHTHandoff implements RpcMessage {
+
+    Endpoint node;
+    List<ManagedCRDT<?>> objects;
+    List<List<Endpoint>> subscribers;
+    List<Boolean> subscribedBySender;
+    boolean complete;
+
+    /**
+     * Needed for Kryo serialization
+     */
+    DHTHandoff() {
+    }
+
+    /**
+     * @param node
+     *            the endpoint of the surrogate of the sender
+     */
+    public DHTHandoff(Endpoint node, boolean complete) {
+        this.node = node;
+        this.objects = new ArrayList<ManagedCRDT<?>>();
+        this.subscribers = new ArrayList<List<Endpoint>>();
+        this.subscribedBySender = new ArrayList<Boolean>();
+        this.complete = complete;
+    }
+
+    /**
+     * Adds an object to the batch.
+     * 
+     * @param subscribers
+     *            remote surrogates subscribed to the object
+     * @param subscribedBySender
+     *            true if the surrogate of the sender is subscribed to the
+     *            object
+     */
+    public void add(ManagedCRDT<?> object, List<Endpoint> subscribers, boolean subscribedBySender) {
+        this.objects.add(object);
+        this.subscribers.add(subscribers);
+        this.subscribedBySender.add(subscribedBySender);
+    }
+
+    public Endpoint getNode() {
+        return node;
+    }
+
+    public int size() {
+        return objects.size();
+    }
+
+    public ManagedCRDT<?> getObject(int i) {
+        return objects.get(i);
+    }
+
+    public List<Endpoint> getSubscribers(int i) {
+        return subscribers.get(i);
+    }
+
+    public boolean isSubscribedBySender(int i) {
+        return subscribedBySender.get(i);
+    }
+
+    /**
+     * @return true if this is the last batch and the sender keeps no other
+     *         objects of the receiver, not even in its database
+     */
+    public boolean isComplete() {
+        return complete;
+    }
+
+    public void setComplete(boolean complete) {
+        this.complete = complete;
+    }
+
+    @Override
+    public void deliverTo(RpcHandle conn, RpcHandler handler) {
+        if (handler != RpcHandler.NONE)
+            ((SwiftProtocolHandler) handler).onReceive(conn, this);
+    }
+}
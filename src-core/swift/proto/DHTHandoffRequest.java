@@ -0,0 +1,62 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package swift.proto;
+
+import swift.crdt.core.CRDTIdentifier;
+import sys.net.api.Endpoint;
+import sys.net.api.rpc.RpcHandle;
+import sys.net.api.rpc.RpcHandler;
+import sys.net.api.rpc.RpcMessage;
+
+/**
+ * Request of a joining data server for an object it now owns and has not been
+ * handed off yet. The reply is a {@link DHTHandoff} with the object, if the
+ * previous owner has it.
+ */
+public class DHTHandoffRequest implements RpcMessage {
+
+    Endpoint node;
+    CRDTIdentifier id;
+
+    /**
+     * Needed for Kryo serialization
+     */
+    DHTHandoffRequest() {
+    }
+
+    /**
+     * @param node
+     *            the endpoint of the surrogate of the new owner
+     */
+    public DHTHandoffRequest(Endpoint node, CRDTIdentifier id) {
+        this.node = node;
+        this.id = id;
+    }
+
+    public Endpoint getNode() {
+        return node;
+    }
+
+    public CRDTIdentifier getId() {
+        return id;
+    }
+
+    @Override
+    public void deliverTo(RpcHandle conn, RpcHandler handler) {
+        ((SwiftProtocolHandler) handler).onReceive(conn, this);
+    }
+}
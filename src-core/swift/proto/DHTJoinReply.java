@@ -0,0 +1,53 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package swift.proto;
+
+import sys.net.api.rpc.RpcHandle;
+import sys.net.api.rpc.RpcHandler;
+import sys.net.api.rpc.RpcMessage;
+
+/**
+ * Reply of a member of the DHT to a joining data server.
+ */
+public class DHTJoinReply implements RpcMessage {
+
+    boolean handingOff;
+
+    /**
+     * Needed for Kryo serialization
+     */
+    DHTJoinReply() {
+    }
+
+    public DHTJoinReply(boolean handingOff) {
+        this.handingOff = handingOff;
+    }
+
+    /**
+     * @return true if the member is handing off objects to the joining data
+     *         server, which may fetch from it those it misses meanwhile
+     */
+    public boolean isHandingOff() {
+        return handingOff;
+    }
+
+    @Override
+    public void deliverTo(RpcHandle conn, RpcHandler handler) {
+        if (handler != RpcHandler.NONE)
+            ((SwiftProtocolHandler) handler).onReceive(conn, this);
+    }
+}
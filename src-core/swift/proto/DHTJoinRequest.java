@@ -0,0 +1,54 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package swift.proto;
+
+import sys.net.api.Endpoint;
+import sys.net.api.rpc.RpcHandle;
+import sys.net.api.rpc.RpcHandler;
+import sys.net.api.rpc.RpcMessage;
+
+/**
+ * Announces a data server joining the DHT of a DC to the other members, so
+ * they add it to their rings and hand off the objects it now owns.
+ */
+public class DHTJoinRequest implements RpcMessage {
+
+    Endpoint node;
+
+    /**
+     * Needed for Kryo serialization
+     */
+    DHTJoinRequest() {
+    }
+
+    /**
+     * @param node
+     *            the endpoint of the surrogate of the joining data server
+     */
+    public DHTJoinRequest(Endpoint node) {
+        this.node = node;
+    }
+
+    public Endpoint getNode() {
+        return node;
+    }
+
+    @Override
+    public void deliverTo(RpcHandle conn, RpcHandler handler) {
+        ((SwiftProtocolHandler) handler).onReceive(conn, this);
+    }
+}
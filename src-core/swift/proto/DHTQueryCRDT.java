@@ -0,0 +1,63 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package swift.proto;
+
+import swift.clocks.CausalityClock;
+import swift.crdt.core.CRDTIdentifier;
+import swift.crdt.core.CRDTQuery;
+import sys.net.api.rpc.RpcHandle;
+import sys.net.api.rpc.RpcHandler;
+import sys.net.api.rpc.RpcMessage;
+
+/**
+ * Object for evaluating a query on a version of a crdt
+ */
+public class DHTQueryCRDT implements RpcMessage {
+
+    CRDTIdentifier id;
+    CausalityClock version;
+    CRDTQuery<?> query;
+
+    /**
+     * Needed for Kryo serialization
+     */
+    DHTQueryCRDT() {
+    }
+
+    public DHTQueryCRDT(CRDTIdentifier id, CausalityClock version, CRDTQuery<?> query) {
+        this.id = id;
+        this.version = version;
+        this.query = query;
+    }
+
+    public CRDTIdentifier getId() {
+        return id;
+    }
+
+    public CausalityClock getVersion() {
+        return version;
+    }
+
+    public CRDTQuery<?> getQuery() {
+        return query;
+    }
+
+    @Override
+    public void deliverTo(RpcHandle conn, RpcHandler handler) {
+        ((SwiftProtocolHandler) handler).onReceive(conn, this);
+    }
+}
@@ -0,0 +1,62 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package swift.proto;
+
+import swift.proto.BatchFetchObjectVersionReply.FetchStatus;
+import sys.net.api.rpc.RpcHandle;
+import sys.net.api.rpc.RpcHandler;
+import sys.net.api.rpc.RpcMessage;
+
+/**
+ * Result of a query on a crdt, evaluated by the data server owning it.
+ */
+public class DHTQueryCRDTReply implements RpcMessage {
+
+    FetchStatus status;
+    Object result;
+
+    /**
+     * Needed for Kryo serialization
+     */
+    DHTQueryCRDTReply() {
+    }
+
+    /**
+     * @param status
+     *            {@link FetchStatus#OK}, or why the query could not be
+     *            evaluated
+     * @param result
+     *            result of the query, if evaluated
+     */
+    public DHTQueryCRDTReply(FetchStatus status, Object result) {
+        this.status = status;
+        this.result = result;
+    }
+
+    public FetchStatus getStatus() {
+        return status;
+    }
+
+    public Object getResult() {
+        return result;
+    }
+
+    @Override
+    public void deliverTo(RpcHandle conn, RpcHandler handler) {
+        ((SwiftProtocolHandler) handler).onReceive(this);
+    }
+}
@@ -0,0 +1,108 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package swift.proto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import swift.clocks.Timestamp;
+import sys.net.api.rpc.RpcHandle;
+import sys.net.api.rpc.RpcHandler;
+import sys.net.api.rpc.RpcMessage;
+
+/**
+ * Timestamps given by the sequencer for a batch of requests. The timestamps
+ * generated in a batch are consecutive, so only the first one is sent.
+ * <p>
+ * Requests that cannot be served immediately, because their dependencies are
+ * not yet committed, are reported as blocked and must be resubmitted with a
+ * {@link GenerateDCTimestampRequest}.
+ * 
+ * @see GenerateDCTimestampBatchRequest
+ */
+public class GenerateDCTimestampBatchReply implements RpcMessage {
+    static final byte GENERATED = 0;
+    static final byte ALREADY_COMMITTED = 1;
+    static final byte BLOCKED = 2;
+
+    protected byte[] status;
+    protected long[] cltClocks;
+    protected String siteId;
+    protected long firstCounter;
+    protected int generated;
+
+    // Fake constructor for Kryo serialization. Do NOT use.
+    GenerateDCTimestampBatchReply() {
+    }
+
+    public GenerateDCTimestampBatchReply(int size) {
+        this.status = new byte[size];
+        this.cltClocks = new long[size];
+    }
+
+    /**
+     * Records a generated timestamp, which must follow the previous one
+     * generated in this batch.
+     */
+    public void setGenerated(int i, Timestamp timestamp, long cltClock) {
+        if (generated == 0) {
+            siteId = timestamp.getIdentifier();
+            firstCounter = timestamp.getCounter();
+        } else if (timestamp.getCounter() != firstCounter + generated || !timestamp.getIdentifier().equals(siteId)) {
+            throw new IllegalArgumentException("Non consecutive timestamp in batch: " + timestamp);
+        }
+        generated++;
+        status[i] = GENERATED;
+        cltClocks[i] = cltClock;
+    }
+
+    public void setAlreadyCommitted(int i, long cltClock) {
+        status[i] = ALREADY_COMMITTED;
+        cltClocks[i] = cltClock;
+    }
+
+    public void setBlocked(int i) {
+        status[i] = BLOCKED;
+    }
+
+    /**
+     * @return replies in the order of the original requests, null for the
+     *         blocked ones
+     */
+    public List<GenerateDCTimestampReply> getReplies() {
+        final List<GenerateDCTimestampReply> res = new ArrayList<GenerateDCTimestampReply>(status.length);
+        long counter = firstCounter;
+        for (int i = 0; i < status.length; i++) {
+            switch (status[i]) {
+            case GENERATED:
+                res.add(new GenerateDCTimestampReply(new Timestamp(siteId, counter++), cltClocks[i]));
+                break;
+            case ALREADY_COMMITTED:
+                res.add(new GenerateDCTimestampReply(cltClocks[i]));
+                break;
+            default:
+                res.add(null);
+            }
+        }
+        return res;
+    }
+
+    @Override
+    public void deliverTo(RpcHandle conn, RpcHandler handler) {
+        ((SwiftProtocolHandler) handler).onReceive(this);
+    }
+}
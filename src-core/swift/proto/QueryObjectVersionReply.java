@@ -0,0 +1,82 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package swift.proto;
+
+import swift.clocks.CausalityClock;
+import swift.proto.BatchFetchObjectVersionReply.FetchStatus;
+import sys.net.api.rpc.RpcHandle;
+import sys.net.api.rpc.RpcHandler;
+import sys.net.api.rpc.RpcMessage;
+
+/**
+ * Server reply to an object query request. The result is only meaningful when
+ * the status is {@link FetchStatus#OK}; otherwise, the client has to fetch the
+ * object to evaluate the query.
+ */
+public class QueryObjectVersionReply implements RpcMessage {
+    protected FetchStatus status;
+    protected Object result;
+    protected CausalityClock estimatedLatestKnownClock;
+    protected CausalityClock estimatedDisasterDurableLatestKnownClock;
+
+    /**
+     * Fake constructor for Kryo serialization. Do NOT use.
+     */
+    QueryObjectVersionReply() {
+    }
+
+    public QueryObjectVersionReply(FetchStatus status, Object result, CausalityClock estimatedLatestKnownClock,
+            CausalityClock estimatedDisasterDurableLatestKnownClock) {
+        this.status = status;
+        this.result = result;
+        this.estimatedLatestKnownClock = estimatedLatestKnownClock;
+        this.estimatedDisasterDurableLatestKnownClock = estimatedDisasterDurableLatestKnownClock;
+    }
+
+    public FetchStatus getStatus() {
+        return status;
+    }
+
+    /**
+     * @return result of the query
+     */
+    public Object getResult() {
+        return result;
+    }
+
+    /**
+     * @return estimation of the latest committed clock in the store, or null
+     *         if not requested
+     */
+    public CausalityClock getEstimatedCommittedVersion() {
+        return estimatedLatestKnownClock;
+    }
+
+    /**
+     * @return estimation of the latest disaster-durable committed clock in
+     *         the store, or null if not requested
+     */
+    public CausalityClock getEstimatedDisasterDurableCommittedVersion() {
+        return estimatedDisasterDurableLatestKnownClock;
+    }
+
+    @Override
+    public void deliverTo(RpcHandle conn, RpcHandler handler) {
+        if (handler != RpcHandler.NONE)
+            ((SwiftProtocolHandler) handler).onReceive(conn, this);
+    }
+}
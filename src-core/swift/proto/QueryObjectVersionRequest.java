@@ -0,0 +1,76 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package swift.proto;
+
+import swift.clocks.CausalityClock;
+import swift.crdt.core.CRDTIdentifier;
+import swift.crdt.core.CRDTQuery;
+import sys.net.api.rpc.RpcHandle;
+import sys.net.api.rpc.RpcHandler;
+
+/**
+ * Client request to evaluate a query on a version of an object at the server,
+ * instead of fetching the object.
+ */
+public class QueryObjectVersionRequest extends ClientRequest {
+    protected CRDTIdentifier uid;
+    protected CausalityClock requestedVersion;
+    protected CRDTQuery<?> query;
+    protected boolean sendDCVector;
+
+    /**
+     * Fake constructor for Kryo serialization. Do NOT use.
+     */
+    QueryObjectVersionRequest() {
+    }
+
+    public QueryObjectVersionRequest(String clientId, boolean disasterSafe, CRDTIdentifier uid,
+            CausalityClock version, CRDTQuery<?> query, boolean sendDCVersion) {
+        super(clientId, disasterSafe);
+        this.uid = uid;
+        this.requestedVersion = version;
+        this.query = query;
+        this.sendDCVector = sendDCVersion;
+    }
+
+    /**
+     * @return id of the queried object
+     */
+    public CRDTIdentifier getUid() {
+        return uid;
+    }
+
+    /**
+     * @return version of the object to evaluate the query on
+     */
+    public CausalityClock getVersion() {
+        return requestedVersion;
+    }
+
+    public CRDTQuery<?> getQuery() {
+        return query;
+    }
+
+    public boolean isSendDCVector() {
+        return sendDCVector;
+    }
+
+    @Override
+    public void deliverTo(RpcHandle conn, RpcHandler handler) {
+        ((SwiftProtocolHandler) handler).onReceive(conn, this);
+    }
+}
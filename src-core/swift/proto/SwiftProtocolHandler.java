@@ -20,6 +20,7 @@ import java.util.logging.Logger;
 
 import swift.pubsub.BatchUpdatesNotification;
 import swift.pubsub.UpdateNotification;
+import swift.pubsub.UpdateNotificationBatch;
 import sys.net.api.rpc.AbstractRpcHandler;
 import sys.net.api.rpc.RpcHandle;
 import sys.net.api.rpc.RpcMessage;
@@ -49,6 +50,14 @@ public class SwiftProtocolHandler extends AbstractRpcHandler {
         Thread.dumpStack();
     }
 
+    protected void onReceive(RpcHandle conn, QueryObjectVersionRequest request) {
+        Thread.dumpStack();
+    }
+
+    protected void onReceive(RpcHandle conn, QueryObjectVersionReply reply) {
+        Thread.dumpStack();
+    }
+
     protected void onReceive(RpcHandle conn, LatestKnownClockRequest request) {
         Thread.dumpStack();
     }
@@ -65,6 +74,14 @@ public class SwiftProtocolHandler extends AbstractRpcHandler {
         Thread.dumpStack();
     }
 
+    protected void onReceive(RpcHandle conn, CommitTSBatchRequest request) {
+        Thread.dumpStack();
+    }
+
+    protected void onReceive(CommitTSBatchReply reply) {
+        Thread.dumpStack();
+    }
+
     protected void onReceive(RpcHandle conn, BatchCommitUpdatesRequest request) {
         Thread.dumpStack();
     }
@@ -89,6 +106,14 @@ public class SwiftProtocolHandler extends AbstractRpcHandler {
         Thread.dumpStack();
     }
 
+    protected void onReceive(RpcHandle conn, GenerateDCTimestampBatchRequest request) {
+        Thread.dumpStack();
+    }
+
+    protected void onReceive(GenerateDCTimestampBatchReply reply) {
+        Thread.dumpStack();
+    }
+
     protected void onReceive(RpcHandle conn, final SeqCommitUpdatesRequest request) {
         Thread.dumpStack();
     }
@@ -122,6 +147,38 @@ public class SwiftProtocolHandler extends AbstractRpcHandler {
         Thread.dumpStack();
     }
 
+    protected void onReceive(RpcHandle conn, DHTQueryCRDT request) {
+        Thread.dumpStack();
+    }
+
+    protected void onReceive(DHTQueryCRDTReply reply) {
+        Thread.dumpStack();
+    }
+
+    protected void onReceive(DHTRedirect reply) {
+        Thread.dumpStack();
+    }
+
+    protected void onReceive(RpcHandle conn, DHTJoinRequest request) {
+        Thread.dumpStack();
+    }
+
+    protected void onReceive(RpcHandle conn, DHTJoinReply reply) {
+        Thread.dumpStack();
+    }
+
+    protected void onReceive(RpcHandle conn, DHTHandoff request) {
+        Thread.dumpStack();
+    }
+
+    protected void onReceive(RpcHandle conn, DHTHandoffReply reply) {
+        Thread.dumpStack();
+    }
+
+    protected void onReceive(RpcHandle conn, DHTHandoffRequest request) {
+        Thread.dumpStack();
+    }
+
     // For PubSub --------------------------------------
     public void onReceive(RpcHandle conn, PubSubHandshake request) {
         Thread.dumpStack();
@@ -136,6 +193,10 @@ public class SwiftProtocolHandler extends AbstractRpcHandler {
         Thread.dumpStack();
     }
 
+    public void onReceive(UpdateNotificationBatch evt) {
+        Thread.dumpStack();
+    }
+
     public void onReceive(BatchUpdatesNotification evt) {
         Thread.dumpStack();
     }
@@ -1,6 +1,7 @@
 package swift.pubsub;
 
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -35,6 +36,7 @@ public class BatchUpdatesNotification extends PubSubNotification<CRDTIdentifier>
     // THIS IS USED FOR EXPERIMENT PURPOSES ONLY: to measure the overhead of
     // PRACTI/Depot metadata
     protected CausalityClock fakePractiDepotVector;
+    private boolean resync;
 
     BatchUpdatesNotification() {
     }
@@ -52,6 +54,18 @@ public class BatchUpdatesNotification extends PubSubNotification<CRDTIdentifier>
         this(newVersion, disasterSafe, objectsUpdates, null);
     }
 
+    /**
+     * Creates a notification telling the client that it missed updates of its
+     * subscribed objects, and that it is no longer notified until it
+     * subscribes again.
+     */
+    public static BatchUpdatesNotification resync(CausalityClock version, boolean disasterSafe) {
+        final BatchUpdatesNotification res = new BatchUpdatesNotification(version, disasterSafe,
+                new HashMap<CRDTIdentifier, List<CRDTObjectUpdatesGroup<?>>>());
+        res.resync = true;
+        return res;
+    }
+
     // @Override
     // public void notifyTo(PubSub<CRDTIdentifier> pubsub) {
     // ((SwiftSubscriber) pubsub).onNotification(this);
@@ -75,6 +89,15 @@ public class BatchUpdatesNotification extends PubSubNotification<CRDTIdentifier>
         return objectsUpdates;
     }
 
+    /**
+     * @return true if the client missed updates of its subscribed objects:
+     *         its cached copies cannot be brought to {@link #getNewVersion()}
+     *         and its subscriptions were dropped
+     */
+    public boolean isResync() {
+        return resync;
+    }
+
     /**
      * @return true if the version is disaster safe
      */
@@ -187,7 +210,7 @@ public class BatchUpdatesNotification extends PubSubNotification<CRDTIdentifier>
     @Override
     public String toString() {
         return "BatchUpdatesNotification [newVersion=" + newVersion + ", newVersionDisasterSafe="
-                + newVersionDisasterSafe + ", objectsUpdates=" + objectsUpdates + "]";
+                + newVersionDisasterSafe + ", resync=" + resync + ", objectsUpdates=" + objectsUpdates + "]";
     }
 
     @Override
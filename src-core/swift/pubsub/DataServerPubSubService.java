@@ -1,5 +1,7 @@
 package swift.pubsub;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
@@ -17,23 +19,45 @@ public class DataServerPubSubService extends AbstractPubSub<CRDTIdentifier> {
     final Executor executor;
     final RpcEndpoint endpoint;
     final DCSurrogate surrogate;
+    final int batchPeriodMillis;
 
-    public DataServerPubSubService(String id, Executor executor, DCSurrogate surrogate) {
-        super(id);
+    /**
+     * @param batchPeriodMillis
+     *            time slice during which updates to a remote surrogate are
+     *            coalesced into a single notification
+     */
+    public DataServerPubSubService(String id, Executor executor, DCSurrogate surrogate, int workers,
+            int queueCapacity, int batchPeriodMillis) {
+        super(id, workers, queueCapacity, OverflowPolicy.BLOCK);
         this.executor = executor;
         this.surrogate = surrogate;
+        this.batchPeriodMillis = batchPeriodMillis;
         this.endpoint = Networking.getInstance().rpcConnect().toDefaultService();
     }
 
     public void subscribe(CRDTIdentifier key, Endpoint remote) {
         RemoteSubscriber<CRDTIdentifier> rs = remoteSubscribers.get(remote);
         if (rs == null) {
-            remoteSubscribers.put(remote, rs = new RemoteSubscriber<CRDTIdentifier>("surrogate-" + remote, endpoint,
-                    remote));
+            remoteSubscribers.put(remote, rs = new RemoteSurrogateSubscriber("surrogate-" + remote, surrogate.getId(),
+                    endpoint, remote, batchPeriodMillis));
         }
         super.subscribe(key, rs);
     }
 
+    /**
+     * @return the endpoints of the remote surrogates subscribed to a key
+     */
+    public List<Endpoint> remoteSubscribers(CRDTIdentifier key) {
+        List<Endpoint> res = new ArrayList<Endpoint>();
+        for (Subscriber<CRDTIdentifier> i : subscribers(key, false))
+            if (i instanceof RemoteSubscriber) {
+                Endpoint remote = ((RemoteSubscriber<CRDTIdentifier>) i).remoteEndpoint();
+                if (remote != null)
+                    res.add(remote);
+            }
+        return res;
+    }
+
     synchronized public void unsubscribe(String clientId, CRDTIdentifier key, Subscriber<CRDTIdentifier> subscriber) {
         // not implemented...
     }
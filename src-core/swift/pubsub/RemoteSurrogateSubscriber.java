@@ -0,0 +1,105 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package swift.pubsub;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import swift.clocks.CausalityClock;
+import swift.crdt.core.CRDTIdentifier;
+import swift.proto.ObjectUpdatesInfo;
+import sys.net.api.Endpoint;
+import sys.net.api.rpc.RpcEndpoint;
+import sys.net.api.rpc.RpcHandler;
+import sys.pubsub.PubSub.Notifyable;
+import sys.pubsub.RemoteSubscriber;
+import sys.scheduler.Task;
+
+/**
+ * Link from a data server to a remote surrogate. Update notifications are
+ * coalesced for a time slice and sent as a single
+ * {@link UpdateNotificationBatch}, carrying the latest DC version delta encoded
+ * relative to the one of the previous batch.
+ */
+public class RemoteSurrogateSubscriber extends RemoteSubscriber<CRDTIdentifier> {
+    private static Logger logger = Logger.getLogger(RemoteSurrogateSubscriber.class.getName());
+
+    final RpcEndpoint endpoint;
+    final Object srcId;
+    final int batchPeriodMillis;
+    final Task flusher;
+
+    private List<ObjectUpdatesInfo> pending = new ArrayList<ObjectUpdatesInfo>();
+    private CausalityClock pendingVersion;
+    private CausalityClock lastVersion;
+    private long batchSeqN;
+
+    /**
+     * @param batchPeriodMillis
+     *            duration of the time slice; 0 sends each notification on its
+     *            own
+     */
+    public RemoteSurrogateSubscriber(String id, Object srcId, RpcEndpoint endpoint, Endpoint remote,
+            int batchPeriodMillis) {
+        super(id, endpoint, remote);
+        this.endpoint = endpoint;
+        this.srcId = srcId;
+        this.batchPeriodMillis = batchPeriodMillis;
+        this.flusher = new Task(-1) {
+            public void run() {
+                flush();
+            }
+        };
+    }
+
+    @Override
+    public void onNotification(Notifyable<CRDTIdentifier> info) {
+        final UpdateNotification update = (UpdateNotification) info;
+        final boolean first;
+        synchronized (this) {
+            first = pendingVersion == null;
+            pending.add(update.info);
+            pendingVersion = update.dcVersion();
+        }
+        if (batchPeriodMillis <= 0)
+            flush();
+        else if (first)
+            flusher.reSchedule(batchPeriodMillis * 0.001);
+    }
+
+    void flush() {
+        final UpdateNotificationBatch batch;
+        synchronized (this) {
+            if (pendingVersion == null)
+                return;
+            batch = new UpdateNotificationBatch(srcId, ++batchSeqN, pending, pendingVersion, lastVersion);
+            lastVersion = pendingVersion;
+            pending = new ArrayList<ObjectUpdatesInfo>();
+            pendingVersion = null;
+        }
+        try {
+            final Endpoint dst = remote;
+            if (dst != null && endpoint.send(dst, batch, RpcHandler.NONE, 0).failed()) {
+                logger.info("Supressing remote notifications to: " + dst);
+                remote = null;
+            }
+        } catch (Exception x) {
+            x.printStackTrace();
+        }
+    }
+}
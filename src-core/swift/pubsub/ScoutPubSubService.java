@@ -7,6 +7,7 @@ import java.util.SortedSet;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
 
 import swift.crdt.core.CRDTIdentifier;
 import swift.proto.MetadataStatsCollector;
@@ -26,6 +27,8 @@ import sys.utils.FifoQueue;
 
 abstract public class ScoutPubSubService extends AbstractPubSub<CRDTIdentifier> implements SwiftSubscriber {
     public static final int HANDSHAKE_REPLY_DEADLINE_MS = 10000;
+    public static final int NOTIFICATION_GAP_TIMEOUT_MS = 10000;
+    private static Logger logger = Logger.getLogger(ScoutPubSubService.class.getName());
     private final static Object dummyVal = new Object();
 
     final Endpoint suPubSub;
@@ -50,7 +53,13 @@ abstract public class ScoutPubSubService extends AbstractPubSub<CRDTIdentifier>
             public void process(PubSubNotification<CRDTIdentifier> event) {
                 event.notifyTo(ScoutPubSubService.this);
             }
+
+            protected void onGap(long seqN, long pending, long waitingMs) {
+                logger.warning("Notification " + seqN + " from the surrogate missing for " + waitingMs + "ms, "
+                        + pending + " notifications held back");
+            }
         };
+        this.fifoQueue.setGapTimeout(NOTIFICATION_GAP_TIMEOUT_MS);
 
         this.suPubSub = Networking.getInstance().resolve(surrogate.getHost(), surrogate.getPort() + 1);
         this.endpoint = Networking.getInstance().rpcConnect().toService(0, new SwiftProtocolHandler() {
@@ -123,4 +132,9 @@ abstract public class ScoutPubSubService extends AbstractPubSub<CRDTIdentifier>
     public void onNotification(UpdateNotification evt) {
         Thread.dumpStack();
     }
+
+    @Override
+    public void onNotification(UpdateNotificationBatch evt) {
+        Thread.dumpStack();
+    }
 }
@@ -10,6 +10,7 @@ import swift.clocks.CausalityClock;
 import swift.clocks.ClockFactory;
 import swift.crdt.core.CRDTIdentifier;
 import swift.dc.DCSurrogate;
+import swift.proto.ObjectUpdatesInfo;
 import swift.proto.PubSubHandshake;
 import swift.proto.PubSubHandshakeReply;
 import swift.proto.SwiftProtocolHandler;
@@ -32,11 +33,20 @@ public class SurrogatePubSubService extends AbstractPubSub<CRDTIdentifier> imple
     final FifoQueues fifoQueues = new FifoQueues();
     final CausalityClock minDcVersion = ClockFactory.newClock();
     final Map<Object, CausalityClock> versions = new ConcurrentHashMap<Object, CausalityClock>();
+    // last DC version received on each data server link, base of the deltas
+    final Map<Object, CausalityClock> linkVersions = new ConcurrentHashMap<Object, CausalityClock>();
 
     volatile boolean dirtyMinDC = true;
 
-    public SurrogatePubSubService(Executor executor, final DCSurrogate surrogate) {
-        super(surrogate.getId());
+    /**
+     * @param workers
+     *            number of threads notifying client sessions
+     * @param queueCapacity
+     *            maximum number of notifications queued per client session;
+     *            sessions falling further behind are resynced
+     */
+    public SurrogatePubSubService(Executor executor, final DCSurrogate surrogate, int workers, int queueCapacity) {
+        super(surrogate.getId(), workers, queueCapacity, OverflowPolicy.RESYNC);
 
         this.executor = executor;
         this.surrogate = surrogate;
@@ -51,6 +61,15 @@ public class SurrogatePubSubService extends AbstractPubSub<CRDTIdentifier> imple
                 fifoQueues.queueFor(evt.src(), SurrogatePubSubService.this).offer(evt.seqN(), evt);
             }
 
+            @Override
+            public void onReceive(UpdateNotificationBatch evt) {
+                if (logger.isLoggable(Level.INFO)) {
+                    logger.info("UpdateNotificationBatch size = " + evt.getInfos().size());
+                }
+
+                fifoQueues.queueFor(evt.src(), SurrogatePubSubService.this).offer(evt.seqN(), evt);
+            }
+
             @Override
             public void onReceive(RpcHandle conn, PubSubHandshake request) {
                 if (logger.isLoggable(Level.INFO)) {
@@ -101,6 +120,24 @@ public class SurrogatePubSubService extends AbstractPubSub<CRDTIdentifier> imple
         super.publish(update);
     }
 
+    /**
+     * Updates the DC version of the source data server once for the whole
+     * batch, then publishes its updates. Batches of a link are processed in
+     * order, so delta encoded versions apply to the version of the previous
+     * batch.
+     */
+    public void onNotification(UpdateNotificationBatch batch) {
+        final CausalityClock dcVersion;
+        synchronized (this) {
+            final CausalityClock version = batch.dcVersion(linkVersions.get(batch.src()));
+            linkVersions.put(batch.src(), version);
+            dcVersion = version.clone();
+            updateDcVersions(batch.src(), dcVersion);
+        }
+        for (ObjectUpdatesInfo info : batch.getInfos())
+            super.publish(new UpdateNotification(batch.src(), info, dcVersion));
+    }
+
     @Override
     public void onNotification(BatchUpdatesNotification evt) {
         Thread.dumpStack();
@@ -7,6 +7,8 @@ import sys.pubsub.PubSubNotification;
 public interface SwiftSubscriber extends Subscriber<CRDTIdentifier> {
     void onNotification(UpdateNotification evt);
 
+    void onNotification(UpdateNotificationBatch evt);
+
     void onNotification(BatchUpdatesNotification evt);
 
     void onNotification(PubSubNotification<CRDTIdentifier> evt);
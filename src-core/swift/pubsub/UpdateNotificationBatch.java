@@ -0,0 +1,135 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package swift.pubsub;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import swift.clocks.CausalityClock;
+import swift.clocks.Timestamp;
+import swift.crdt.core.CRDTIdentifier;
+import swift.proto.ObjectUpdatesInfo;
+import swift.proto.SwiftProtocolHandler;
+import sys.net.api.rpc.RpcHandle;
+import sys.net.api.rpc.RpcHandler;
+import sys.pubsub.PubSub.Subscriber;
+import sys.pubsub.PubSubNotification;
+
+/**
+ * Updates executed by a data server during a time slice, sent to a remote
+ * surrogate as a single message along with the DC version known to the data
+ * server.
+ * <p>
+ * The DC version is usually delta encoded relative to the one in the previous
+ * batch sent on the same link: it only carries the entries of the sites whose
+ * latest counter changed, which replace those of the previous version. Batches
+ * are numbered per link, so the receiver can apply them in order.
+ */
+public class UpdateNotificationBatch extends PubSubNotification<CRDTIdentifier> {
+
+    protected List<ObjectUpdatesInfo> infos;
+    protected CausalityClock dcVersion;
+    protected boolean delta;
+
+    UpdateNotificationBatch() {
+    }
+
+    /**
+     * @param previous
+     *            DC version sent in the previous batch on the link, or null
+     *            for the first batch
+     */
+    public UpdateNotificationBatch(Object srcId, long seqN, List<ObjectUpdatesInfo> infos,
+            CausalityClock dcVersion, CausalityClock previous) {
+        super(srcId);
+        this.seqN = seqN;
+        this.infos = infos;
+        this.dcVersion = encode(previous, dcVersion);
+        this.delta = this.dcVersion != dcVersion;
+    }
+
+    /**
+     * Returns the entries of current that changed since previous, or current
+     * itself if it cannot be delta encoded.
+     * <p>
+     * Exceptions filled in without a change of the latest counter cannot be
+     * told apart cheaply, so the full version is sent whenever the previous one
+     * had gaps. Entries with the same latest counter that regressed are
+     * not sent; since the minimum DC version of a surrogate never moves back,
+     * keeping the more recent entry has no effect.
+     */
+    static CausalityClock encode(CausalityClock previous, CausalityClock current) {
+        if (previous == null || previous.getExceptionsNumber() > 0)
+            return current;
+        for (String site : previous.getSiteIds())
+            if (!current.hasEventFrom(site) || !previous.includes(new Timestamp(site, Timestamp.MIN_VALUE + 1)))
+                return current;
+
+        final CausalityClock res = current.clone();
+        for (String site : new ArrayList<String>(current.getSiteIds()))
+            if (previous.hasEventFrom(site) && previous.getLatestCounter(site) == current.getLatestCounter(site))
+                res.drop(site);
+        return res;
+    }
+
+    /**
+     * Reconstructs the DC version of the data server, given the one of the
+     * previous batch on the link.
+     * 
+     * @param previous
+     *            DC version of the previous batch, updated in place and
+     *            returned if this batch carries a delta
+     */
+    public CausalityClock dcVersion(CausalityClock previous) {
+        if (!delta || previous == null)
+            return dcVersion.clone();
+
+        for (String site : dcVersion.getSiteIds())
+            previous.drop(site);
+        previous.merge(dcVersion);
+        return previous;
+    }
+
+    public boolean isDelta() {
+        return delta;
+    }
+
+    public List<ObjectUpdatesInfo> getInfos() {
+        return infos;
+    }
+
+    @Override
+    public CRDTIdentifier key() {
+        return null;
+    }
+
+    @Override
+    public Set<CRDTIdentifier> keys() {
+        return null;
+    }
+
+    @Override
+    public void notifyTo(Subscriber<CRDTIdentifier> subscriber) {
+        ((SwiftSubscriber) subscriber).onNotification(this);
+    }
+
+    @Override
+    public void deliverTo(RpcHandle handle, RpcHandler handler) {
+        ((SwiftProtocolHandler) handler).onReceive(this);
+    }
+}
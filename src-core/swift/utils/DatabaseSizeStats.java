@@ -124,6 +124,13 @@ public class DatabaseSizeStats {
         }
     }
 
+    /**
+     * @return size of the serialized object, in bytes
+     */
+    public int sizeOf(ManagedCRDT<?> crdt) {
+        return computeSize(crdt);
+    }
+
     private int computeSize(ManagedCRDT crdt) {
         final Kryo kryo = statsCollector.getFreshKryo();
         final Output buffer = statsCollector.getFreshKryoBuffer();
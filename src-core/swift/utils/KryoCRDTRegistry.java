@@ -16,6 +16,7 @@
  *****************************************************************************/
 package swift.utils;
 
+import swift.clocks.PackedVersionVectorWithExceptions;
 import swift.clocks.Timestamp;
 import swift.clocks.TimestampMapping;
 import swift.clocks.TripleTimestamp;
@@ -27,6 +28,7 @@ import swift.crdt.core.ManagedCRDT;
 import swift.proto.*;
 import swift.pubsub.BatchUpdatesNotification;
 import swift.pubsub.UpdateNotification;
+import swift.pubsub.UpdateNotificationBatch;
 import sys.net.impl.KryoClassRegistry;
 
 import java.util.*;
@@ -56,6 +58,14 @@ public class KryoCRDTRegistry extends KryoClassRegistry {
         reg.register(DHTExecCRDTReply.class);
         reg.register(DHTGetCRDT.class);
         reg.register(DHTGetCRDTReply.class);
+        reg.register(DHTQueryCRDT.class);
+        reg.register(DHTQueryCRDTReply.class);
+        reg.register(DHTRedirect.class);
+        reg.register(DHTJoinRequest.class);
+        reg.register(DHTJoinReply.class);
+        reg.register(DHTHandoff.class);
+        reg.register(DHTHandoffReply.class);
+        reg.register(DHTHandoffRequest.class);
         reg.register(ClientRequest.class);
         reg.register(CommitUpdatesRequest.class);
         reg.register(CommitUpdatesReply.class);
@@ -64,9 +74,12 @@ public class KryoCRDTRegistry extends KryoClassRegistry {
         reg.register(BatchCommitUpdatesReply.class);
         reg.register(BatchUpdatesNotification.class);
         reg.register(UpdateNotification.class);
+        reg.register(UpdateNotificationBatch.class);
         reg.register(BatchFetchObjectVersionRequest.class);
         reg.register(BatchFetchObjectVersionReply.class);
         reg.register(BatchFetchObjectVersionReply.FetchStatus.class);
+        reg.register(QueryObjectVersionRequest.class);
+        reg.register(QueryObjectVersionReply.class);
         reg.register(LatestKnownClockRequest.class);
         reg.register(LatestKnownClockReply.class);
         reg.register(UnsubscribeUpdatesRequest.class);
@@ -93,7 +106,20 @@ public class KryoCRDTRegistry extends KryoClassRegistry {
         reg.register(AbstractAddWinsSetCRDT.class);
         reg.register(AddWinsSetUpdate.class);
         reg.register(AddWinsSetCRDT.class);
+        reg.register(HashSet.class);
+        reg.register(IntegerValueQuery.class);
+        reg.register(RegisterValueQuery.class);
+        reg.register(SetLookupQuery.class);
+        reg.register(SetValueQuery.class);
         reg.register(PubSubHandshake.class);
         reg.register(PubSubHandshakeReply.class);
+        reg.register(CommitTSBatchRequest.class);
+        reg.register(CommitTSBatchReply.class);
+        reg.register(GenerateDCTimestampRequest.class);
+        reg.register(GenerateDCTimestampReply.class);
+        reg.register(GenerateDCTimestampReply.GenerateStatus.class);
+        reg.register(GenerateDCTimestampBatchRequest.class);
+        reg.register(GenerateDCTimestampBatchReply.class);
+        reg.register(PackedVersionVectorWithExceptions.class);
     }
 }
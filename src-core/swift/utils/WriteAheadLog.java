@@ -0,0 +1,410 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package swift.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import swift.crdt.core.TxnStatus;
+import sys.net.impl.KryoLib;
+
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * Durable write-ahead log with group commit, stored in a directory of
+ * preallocated segment files.
+ * <p>
+ * {@link #writeEntry(long, Object)} serializes the entry in the calling thread
+ * and only queues it in memory. {@link #flush()} writes every queued entry and
+ * forces the active segment to disk; concurrent flushes are batched, i.e., the
+ * thread that gets to write takes the entries of all the waiting threads and
+ * makes them durable with a single {@link FileChannel#force(boolean)}. Since
+ * segments are preallocated, forcing does not update file metadata.
+ * <p>
+ * Each record is checksummed. Segments found in the directory at creation time
+ * can be replayed with {@link #replay(EntryHandler)} and then dropped with
+ * {@link #discardRecovered()}; replay stops at the first torn or corrupted
+ * record of a segment. Segments written by this instance are deleted once all
+ * the transactions with entries in them are globally committed or cancelled.
+ * <p>
+ * An optional segment header is written as the first record of every segment
+ * of this instance, under {@link #SEGMENT_HEADER_ID}. Transaction ids may be
+ * reused by different writers of the same directory (e.g., incarnations of a
+ * scout); the header tells the replayed records of each writer apart.
+ * <p>
+ * All written objects must by Kryolizable.
+ */
+public class WriteAheadLog implements TransactionsLog {
+    private static Logger logger = Logger.getLogger(WriteAheadLog.class.getName());
+
+    public static final int DEFAULT_SEGMENT_SIZE = 16 << 20;
+
+    static final String SEGMENT_SUFFIX = ".wal";
+    // [int length][int crc32][long transactionId][entry]
+    static final int HEADER_SIZE = 16;
+    // queued bytes that trigger a write to the file system (without a force)
+    static final int SPILL_SIZE = 1 << 16;
+
+    /**
+     * Transaction id of segment header records.
+     */
+    public static final long SEGMENT_HEADER_ID = Long.MIN_VALUE;
+
+    /**
+     * Receives entries of the log, in the order they were written.
+     */
+    public interface EntryHandler {
+        void onEntry(long transactionId, Object entry);
+    }
+
+    private final File dir;
+    private final int segmentSize;
+    private final List<File> recovered;
+    private final Record header;
+
+    // guarded by this
+    private List<Record> queued = new ArrayList<Record>();
+    private int queuedBytes;
+    private long queuedSeq;
+    private volatile long durableSeq;
+
+    // guarded by ioLock
+    private final Object ioLock = new Object();
+    private Segment active;
+    private final LinkedList<Segment> sealed = new LinkedList<Segment>();
+    private final Map<Long, List<Segment>> txnSegments = new HashMap<Long, List<Segment>>();
+    private boolean closed;
+
+    /**
+     * @param dirName
+     *            directory with the log segments, created if it does not exist
+     * @param segmentSize
+     *            size of the preallocated segment files
+     * @param segmentHeader
+     *            entry written at the start of every segment, or null
+     * @throws IOException
+     */
+    public WriteAheadLog(final String dirName, final int segmentSize, final Object segmentHeader) throws IOException {
+        this.dir = new File(dirName);
+        this.segmentSize = segmentSize;
+        this.header = segmentHeader == null ? null : serialize(SEGMENT_HEADER_ID, segmentHeader);
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new IOException("Cannot create log directory " + dir.getAbsolutePath());
+        }
+        this.recovered = new ArrayList<File>();
+        final File[] files = dir.listFiles();
+        int nextId = 0;
+        if (files != null) {
+            Arrays.sort(files);
+            for (final File f : files) {
+                if (f.getName().endsWith(SEGMENT_SUFFIX)) {
+                    recovered.add(f);
+                    nextId = segmentId(f) + 1;
+                }
+            }
+        }
+        this.active = newSegment(nextId, HEADER_SIZE);
+    }
+
+    public WriteAheadLog(final String dirName, final int segmentSize) throws IOException {
+        this(dirName, segmentSize, null);
+    }
+
+    public WriteAheadLog(final String dirName) throws IOException {
+        this(dirName, DEFAULT_SEGMENT_SIZE);
+    }
+
+    @Override
+    public void writeEntry(final long transactionId, final Object entry) {
+        final Record r = serialize(transactionId, entry);
+
+        final boolean spill;
+        synchronized (this) {
+            queued.add(r);
+            queuedSeq++;
+            queuedBytes += r.length;
+            spill = queuedBytes >= SPILL_SIZE;
+        }
+        if (spill) {
+            write(false, 0);
+        }
+    }
+
+    private static Record serialize(final long transactionId, final Object entry) {
+        final Output out = new Output(1 << 8, -1);
+        out.setPosition(HEADER_SIZE);
+        KryoLib.kryo().writeClassAndObject(out, entry);
+        return new Record(transactionId, isTerminal(entry), out.getBuffer(), out.position());
+    }
+
+    @Override
+    public void flush() {
+        final long seq;
+        synchronized (this) {
+            seq = queuedSeq;
+        }
+        if (durableSeq < seq) {
+            write(true, seq);
+        }
+    }
+
+    @Override
+    public void close() {
+        flush();
+        synchronized (ioLock) {
+            closed = true;
+            active.close();
+        }
+    }
+
+    /**
+     * Reads all the valid entries of the segments present when the log was
+     * created.
+     *
+     * @param handler
+     *            receives the entries in log order, segment headers included
+     * @return number of entries replayed
+     */
+    public int replay(final EntryHandler handler) throws IOException {
+        int count = 0;
+        for (final File f : recovered) {
+            final RandomAccessFile raf = new RandomAccessFile(f, "r");
+            try {
+                final ByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+                for (int pos = 0; pos + HEADER_SIZE <= buf.limit();) {
+                    final int length = buf.getInt(pos);
+                    if (length < HEADER_SIZE || pos + length > buf.limit()) {
+                        break;
+                    }
+                    final byte[] data = new byte[length];
+                    buf.position(pos);
+                    buf.get(data);
+                    if (checksum(data, length) != buf.getInt(pos + 4)) {
+                        logger.warning("Corrupted log record in " + f + " at offset " + pos + ", skipping the rest");
+                        break;
+                    }
+                    final Input in = new Input(data, HEADER_SIZE, length - HEADER_SIZE);
+                    handler.onEntry(buf.getLong(pos + 8), KryoLib.kryo().readClassAndObject(in));
+                    count++;
+                    pos += length;
+                }
+            } finally {
+                raf.close();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Deletes the segments present when the log was created, once their
+     * entries are no longer needed.
+     */
+    public void discardRecovered() {
+        for (final File f : recovered) {
+            if (!f.delete()) {
+                logger.warning("Could not delete recovered log segment " + f);
+            }
+        }
+        recovered.clear();
+    }
+
+    /**
+     * Writes all the queued records; the thread that gets the ioLock writes
+     * on behalf of all the others.
+     */
+    private void write(final boolean force, final long seq) {
+        synchronized (ioLock) {
+            if (closed) {
+                throw new IllegalStateException("Log is closed");
+            }
+            if (force && durableSeq >= seq) {
+                // written by another thread's group commit
+                return;
+            }
+            final List<Record> batch;
+            final long batchSeq;
+            synchronized (this) {
+                batch = queued;
+                batchSeq = queuedSeq;
+                queued = new ArrayList<Record>();
+                queuedBytes = 0;
+            }
+            try {
+                append(batch);
+                if (force) {
+                    active.channel.force(false);
+                    durableSeq = batchSeq;
+                }
+            } catch (IOException x) {
+                throw new IllegalStateException("Could not write the log", x);
+            }
+            recycle();
+        }
+    }
+
+    private void append(final List<Record> batch) throws IOException {
+        int size = 0;
+        for (final Record r : batch) {
+            size += r.length;
+        }
+        final ByteBuffer buf = ByteBuffer.allocate(size);
+        for (final Record r : batch) {
+            if (active.position + buf.position() + r.length > active.capacity) {
+                buf.flip();
+                active.write(buf);
+                buf.clear();
+                roll(r.length);
+            }
+            buf.put(r.data, 0, r.length);
+            track(r);
+        }
+        buf.flip();
+        active.write(buf);
+    }
+
+    private void roll(final int minCapacity) throws IOException {
+        active.channel.force(false);
+        active.close();
+        sealed.add(active);
+        active = newSegment(active.id + 1, minCapacity);
+    }
+
+    private Segment newSegment(final int id, final int minCapacity) throws IOException {
+        if (header == null) {
+            return new Segment(id, minCapacity);
+        }
+        final Segment s = new Segment(id, header.length + minCapacity);
+        s.write(ByteBuffer.wrap(header.data, 0, header.length));
+        return s;
+    }
+
+    private void track(final Record r) {
+        List<Segment> segments = txnSegments.get(r.transactionId);
+        if (r.terminal) {
+            if (segments != null) {
+                txnSegments.remove(r.transactionId);
+                for (final Segment s : segments) {
+                    s.liveTxns.remove(r.transactionId);
+                }
+            }
+        } else if (active.liveTxns.add(r.transactionId)) {
+            if (segments == null) {
+                txnSegments.put(r.transactionId, segments = new ArrayList<Segment>(2));
+            }
+            segments.add(active);
+        }
+    }
+
+    private void recycle() {
+        for (final Iterator<Segment> it = sealed.iterator(); it.hasNext();) {
+            final Segment s = it.next();
+            if (s.liveTxns.isEmpty()) {
+                it.remove();
+                if (!s.file.delete()) {
+                    logger.warning("Could not delete log segment " + s.file);
+                }
+            }
+        }
+    }
+
+    private static boolean isTerminal(final Object entry) {
+        return entry == TxnStatus.COMMITTED_GLOBAL || entry == TxnStatus.CANCELLED;
+    }
+
+    private static int segmentId(final File f) {
+        final String name = f.getName();
+        return Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    static int checksum(final byte[] data, final int length) {
+        final CRC32 crc = new CRC32();
+        crc.update(data, 8, length - 8);
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Serialized log record, with the header filled in.
+     */
+    static class Record {
+        final long transactionId;
+        final boolean terminal;
+        final byte[] data;
+        final int length;
+
+        Record(final long transactionId, final boolean terminal, final byte[] data, final int length) {
+            this.transactionId = transactionId;
+            this.terminal = terminal;
+            this.data = data;
+            this.length = length;
+            final ByteBuffer header = ByteBuffer.wrap(data);
+            header.putInt(0, length);
+            header.putLong(8, transactionId);
+            header.putInt(4, checksum(data, length));
+        }
+    }
+
+    /**
+     * Preallocated segment file, written sequentially. The unwritten space is
+     * zero-filled, which marks the end of the records.
+     */
+    class Segment {
+        final int id;
+        final File file;
+        final int capacity;
+        final FileChannel channel;
+        final Set<Long> liveTxns = new HashSet<Long>();
+        long position;
+
+        Segment(final int id, final int minCapacity) throws IOException {
+            this.id = id;
+            this.file = new File(dir, String.format("%08d%s", id, SEGMENT_SUFFIX));
+            this.capacity = Math.max(segmentSize, minCapacity);
+            final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            raf.setLength(capacity);
+            this.channel = raf.getChannel();
+        }
+
+        void write(final ByteBuffer buf) throws IOException {
+            while (buf.hasRemaining()) {
+                position += channel.write(buf, position);
+            }
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException x) {
+                // do nothing
+            }
+        }
+    }
+}
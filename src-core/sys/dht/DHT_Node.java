@@ -16,10 +16,7 @@
  *****************************************************************************/
 package sys.dht;
 
-import java.math.BigInteger;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.Set;
+import java.util.List;
 import java.util.logging.Logger;
 
 import sys.herd.Herd;
@@ -29,60 +26,114 @@ import sys.utils.IP;
 public class DHT_Node {
     public static int DHT_PORT = 29999;
 
+    public static final int DEFAULT_VIRTUAL_NODES = 128;
+
     private static Logger Log = Logger.getLogger(DHT_Node.class.getName());
 
     static Node self;
-    static OrdinalDB db;
+    static String datacenter;
+    static volatile HashRing ring;
+
+    // the ring before this node joined, to find where its keys came from
+    static volatile HashRing previous;
 
     protected DHT_Node() {
     }
 
     public static void init(String dc, String herd, Endpoint selfEndpoint) {
+        init(dc, herd, selfEndpoint, DEFAULT_VIRTUAL_NODES);
+    }
+
+    /**
+     * Joins the herd of data servers and builds the initial ring from the
+     * membership found.
+     * 
+     * @param virtualNodes
+     *            number of positions of each node in the ring
+     */
+    public static void init(String dc, String herd, Endpoint selfEndpoint, int virtualNodes) {
         Herd.joinHerd(dc, herd, selfEndpoint);
 
         int delay = 15;
         Herd h = Herd.getHerd(dc, herd, delay, true);
-        db = new OrdinalDB().populate(h, selfEndpoint);
-        self = db.self();
-        Log.info(String.format(IP.localHostname() + " Found %d node(s): %s\n", db.nodes().size(), db.nodes()));
+
+        HashRing r = new HashRing(virtualNodes);
+        for (Endpoint i : h.sheep())
+            r = r.with(new Node(i, h.dc()));
+
+        datacenter = h.dc();
+        self = new Node(selfEndpoint, datacenter);
+        previous = r.without(self);
+        ring = r.with(self);
+        Log.info(String.format(IP.localHostname() + " Found %s\n", ring));
+    }
+
+    public static Node self() {
+        return self;
     }
 
-    public static Set<Long> nodeKeys() {
-        return db.nodeKeys();
+    public static List<Node> nodes() {
+        return ring.nodes();
+    }
+
+    /**
+     * Adds a data server to the ring, moving to it the keys it now owns.
+     * 
+     * @param endpoint
+     *            the endpoint of the surrogate of the new node
+     * @return true if the node was not yet in the ring
+     */
+    synchronized public static boolean addNode(Endpoint endpoint) {
+        Node n = new Node(endpoint, datacenter);
+        if (ring.contains(n))
+            return false;
+
+        ring = ring.with(n);
+        Log.info(String.format(IP.localHostname() + " Added node: %s, now %s\n", n, ring));
+        return true;
     }
 
     static public boolean isHandledLocally(final String key) {
-        return resolveNextHop(key).key == self.key;
+        return resolveNode(key).equals(self);
     }
 
     static public Endpoint resolveKey(final String key) {
-        Node nextHop = resolveNextHop(key);
-        return self.key == nextHop.key ? null : nextHop.dhtEndpoint;
+        Node nextHop = resolveNode(key);
+        return self.equals(nextHop) ? null : nextHop.dhtEndpoint;
     }
 
-    static Node resolveNextHop(String key) {
-        long key2key = longHashValue(key) & Node.MAX_KEY;
-        for (Node i : db.nodes(key2key))
-            if (i.isOnline())
-                return i;
-
-        return self;
+    /**
+     * @return the node owning a key
+     */
+    static public Node resolveNode(String key) {
+        Node res = ring.owner(key);
+        return res == null ? self : res;
     }
 
-    static public long longHashValue(String key) {
-        synchronized (digest) {
-            digest.reset();
-            digest.update(key.getBytes());
-            return new BigInteger(1, digest.digest()).longValue() >>> 1;
-        }
+    /**
+     * @return the node that owned a key before this node joined, or null if
+     *         this node was alone
+     */
+    static public Node previousOwner(String key) {
+        return previous.owner(key);
     }
 
-    private static MessageDigest digest;
-    static {
-        try {
-            digest = java.security.MessageDigest.getInstance("MD5");
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
+    /**
+     * 64-bit FNV-1a of the characters of a key, followed by the finalizer of
+     * MurmurHash3 to spread the bits; non-negative. Unlike a message digest it
+     * has no state to share among threads.
+     */
+    static public long longHashValue(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
         }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h >>> 1;
     }
 }
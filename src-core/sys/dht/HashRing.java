@@ -0,0 +1,151 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package sys.dht;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Consistent hashing ring. Each node owns a number of virtual nodes, placed at
+ * the hashes of its locator, and a key belongs to the node of the first
+ * virtual node at or after the hash of the key, wrapping around.
+ * <p>
+ * Rings are immutable: adding a node makes a new ring, which only moves to the
+ * new node the keys between its virtual nodes and their predecessors, about
+ * 1/n of the keys, taken evenly from all other nodes.
+ */
+public final class HashRing {
+
+    final int virtualNodes;
+    final List<Node> nodes;
+
+    // sorted positions of the virtual nodes, and their owners
+    final long[] points;
+    final Node[] owners;
+
+    public HashRing(int virtualNodes) {
+        this(virtualNodes, Collections.<Node> emptyList());
+    }
+
+    private HashRing(int virtualNodes, List<Node> nodes) {
+        if (virtualNodes < 1)
+            throw new IllegalArgumentException("virtualNodes: " + virtualNodes);
+
+        this.virtualNodes = virtualNodes;
+        this.nodes = Collections.unmodifiableList(nodes);
+
+        final VirtualNode[] vnodes = new VirtualNode[nodes.size() * virtualNodes];
+        int j = 0;
+        for (Node n : nodes)
+            for (int i = 0; i < virtualNodes; i++)
+                vnodes[j++] = new VirtualNode(point(n, i), n);
+        Arrays.sort(vnodes);
+
+        this.points = new long[vnodes.length];
+        this.owners = new Node[vnodes.length];
+        for (int i = 0; i < vnodes.length; i++) {
+            points[i] = vnodes[i].point;
+            owners[i] = vnodes[i].owner;
+        }
+    }
+
+    /**
+     * @return a ring with the given node added; this ring if it already has it
+     */
+    public HashRing with(Node node) {
+        if (contains(node))
+            return this;
+
+        final List<Node> res = new ArrayList<Node>(nodes);
+        res.add(node);
+        return new HashRing(virtualNodes, res);
+    }
+
+    /**
+     * @return a ring with the given node removed; this ring if it does not
+     *         have it
+     */
+    public HashRing without(Node node) {
+        if (!contains(node))
+            return this;
+
+        final List<Node> res = new ArrayList<Node>(nodes);
+        res.remove(node);
+        return new HashRing(virtualNodes, res);
+    }
+
+    public boolean contains(Node node) {
+        return nodes.contains(node);
+    }
+
+    public List<Node> nodes() {
+        return nodes;
+    }
+
+    public boolean isEmpty() {
+        return nodes.isEmpty();
+    }
+
+    /**
+     * @return the node owning a hash value, or null if the ring is empty
+     */
+    public Node owner(long hash) {
+        if (points.length == 0)
+            return null;
+
+        int i = Arrays.binarySearch(points, hash);
+        if (i < 0)
+            i = -i - 1;
+        return owners[i == points.length ? 0 : i];
+    }
+
+    /**
+     * @return the node owning a key, or null if the ring is empty
+     */
+    public Node owner(String key) {
+        return owner(DHT_Node.longHashValue(key));
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d node(s) x %d virtual: %s", nodes.size(), virtualNodes, nodes);
+    }
+
+    static long point(Node node, int replica) {
+        return DHT_Node.longHashValue(node.endpoint.locator() + "#" + replica);
+    }
+
+    static final class VirtualNode implements Comparable<VirtualNode> {
+        final long point;
+        final Node owner;
+
+        VirtualNode(long point, Node owner) {
+            this.point = point;
+            this.owner = owner;
+        }
+
+        @Override
+        public int compareTo(VirtualNode other) {
+            // ties broken by node, so every member builds the same ring
+            if (point != other.point)
+                return point < other.point ? -1 : 1;
+            return owner.key < other.owner.key ? -1 : (owner.key == other.owner.key ? 0 : 1);
+        }
+    }
+}
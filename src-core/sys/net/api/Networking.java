@@ -48,7 +48,7 @@ abstract public class Networking {
     }
 
     public enum TransportProvider {
-        DEFAULT, OIO_TCP, NETTY_IO_TCP, LZ4_OIO_TCP, INPROC
+        DEFAULT, OIO_TCP, NETTY_IO_TCP, LZ4_OIO_TCP, NIO_TCP, INPROC
 
     }
 
@@ -48,6 +48,15 @@ public interface TransportConnection {
      */
     boolean send(final Message m);
 
+    /**
+     * Obtains the number of bytes of the messages sent that are queued for
+     * writing to the connection.
+     * 
+     * @return the number of bytes queued, always zero for connections that
+     *         write messages in the sending thread
+     */
+    long queuedBytes();
+
     /**
      * Obtains the local endpoint for this connection
      * 
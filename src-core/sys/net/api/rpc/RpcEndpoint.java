@@ -16,6 +16,8 @@
  *****************************************************************************/
 package sys.net.api.rpc;
 
+import java.util.concurrent.CompletableFuture;
+
 import sys.net.api.Endpoint;
 
 /**
@@ -45,6 +47,58 @@ public interface RpcEndpoint {
      */
     <T extends RpcMessage> T request(final Endpoint dst, final RpcMessage m);
 
+    /**
+     * Sends a request message to a destination endpoint, without waiting for
+     * the reply, using the default timeout.
+     * 
+     * @param dst
+     *            - the endpoint that will receive the message request
+     * @param m
+     *            - the message that defines the request.
+     * @return a future completed with the reply to the request; or
+     *         exceptionally, with a TimeoutException if no reply arrives
+     *         before the timeout, or if the request could not be sent.
+     */
+    <T extends RpcMessage> CompletableFuture<T> requestAsync(final Endpoint dst, final RpcMessage m);
+
+    /**
+     * Sends a request message to a destination endpoint, without waiting for
+     * the reply.
+     * 
+     * @param dst
+     *            - the endpoint that will receive the message request
+     * @param m
+     *            - the message that defines the request.
+     * @param timeout
+     *            - number of milliseconds to wait for the reply; 0 for no
+     *            deadline, in which case the request only fails once its
+     *            handler becomes stale.
+     * @return a future completed with the reply to the request; or
+     *         exceptionally, with a TimeoutException if no reply arrives
+     *         before the timeout, or if the request could not be sent.
+     */
+    <T extends RpcMessage> CompletableFuture<T> requestAsync(final Endpoint dst, final RpcMessage m, int timeout);
+
+    /**
+     * Sends an invocation message to a (listening) destination endpoint,
+     * without waiting for the reply. The handler of the reply is removed when
+     * the reply arrives, the timeout expires or the future is cancelled.
+     * 
+     * @param dst
+     *            the destination of the invocation message
+     * @param m
+     *            the message being sent
+     * @param timeout
+     *            - number of milliseconds to wait for the reply; 0 for no
+     *            deadline, in which case the message only fails once its
+     *            handler becomes stale.
+     * @return a future completed with the handle of the reply, which may be
+     *         used to reply back; or exceptionally, with a TimeoutException
+     *         if no reply arrives before the timeout, or if the message could
+     *         not be sent.
+     */
+    CompletableFuture<RpcHandle> sendAsync(final Endpoint dst, final RpcMessage m, int timeout);
+
     /**
      * 
      * Sends an invocation message to a (listening) destination endpoint
@@ -0,0 +1,229 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package sys.net.impl;
+
+import static sys.net.impl.NetworkingConstants.COMPRESSION_MAX_RATIO;
+import static sys.net.impl.NetworkingConstants.COMPRESSION_MIN_SIZE;
+import static sys.net.impl.NetworkingConstants.COMPRESSION_PROBE_INTERVAL;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import sys.net.api.Message;
+import sys.net.api.rpc.RpcHandle;
+import sys.stats.Stats;
+import sys.stats.StatsImpl;
+import sys.stats.sources.PollingBasedValueProvider;
+
+/**
+ * Decides which messages a transport compresses.
+ * <p>
+ * In adaptive mode, messages smaller than a threshold are sent as they are.
+ * Larger ones are compressed while the compression ratio observed for their
+ * class, the class of the rpc payload, pays off; for classes that do not
+ * compress well, only one message in every few is compressed, to notice if
+ * that changes.
+ * <p>
+ * Each connection keeps {@link Counters} of its traffic, which can be exported
+ * with {@link #export(Stats, String)}.
+ */
+public final class CompressionPolicy {
+
+    public enum Mode {
+        OFF, ADAPTIVE, ALWAYS
+    }
+
+    /**
+     * System property with the compression mode of the transports that
+     * compress: off, adaptive or always.
+     */
+    public static final String MODE_PROPERTY = "sys.net.compression";
+
+    private static final double ALPHA = 0.1;
+
+    private static final ConcurrentHashMap<String, Counters> connections = new ConcurrentHashMap<String, Counters>();
+    private static volatile Stats stats;
+    private static volatile String statsPrefix;
+
+    final Mode mode;
+    final ConcurrentHashMap<Class<?>, Ratio> ratios = new ConcurrentHashMap<Class<?>, Ratio>();
+
+    public CompressionPolicy(Mode mode) {
+        this.mode = mode;
+    }
+
+    /**
+     * Returns the policy set by the {@link #MODE_PROPERTY} system property,
+     * or the given mode if the property is not set.
+     */
+    public static CompressionPolicy fromProperty(Mode defaultMode) {
+        String mode = System.getProperty(MODE_PROPERTY);
+        return new CompressionPolicy(mode == null ? defaultMode : Mode.valueOf(mode.toUpperCase()));
+    }
+
+    public boolean isEnabled() {
+        return mode != Mode.OFF;
+    }
+
+    /**
+     * Tells if a message, serialized with the given size, should be
+     * compressed.
+     */
+    public boolean shouldCompress(Message msg, int size) {
+        switch (mode) {
+        case OFF:
+            return false;
+        case ALWAYS:
+            return true;
+        default:
+            if (size < COMPRESSION_MIN_SIZE)
+                return false;
+            Ratio r = ratio(msg);
+            return r.value < COMPRESSION_MAX_RATIO || r.skipped.incrementAndGet() % COMPRESSION_PROBE_INTERVAL == 0;
+        }
+    }
+
+    /**
+     * Records the outcome of compressing a message.
+     * 
+     * @return true if the compressed form is worth sending
+     */
+    public boolean compressed(Message msg, int size, int compressedSize) {
+        double ratio = (double) compressedSize / size;
+        Ratio r = ratio(msg);
+        r.value = r.value * (1 - ALPHA) + ratio * ALPHA;
+        return mode == Mode.ALWAYS || ratio < COMPRESSION_MAX_RATIO;
+    }
+
+    private Ratio ratio(Message msg) {
+        Class<?> cls = msg instanceof RpcHandle && ((RpcHandle) msg).getPayload() != null ? ((RpcHandle) msg)
+                .getPayload().getClass() : msg.getClass();
+        Ratio res = ratios.get(cls);
+        if (res == null) {
+            Ratio nr = new Ratio();
+            res = ratios.putIfAbsent(cls, nr);
+            if (res == null)
+                res = nr;
+        }
+        return res;
+    }
+
+    /**
+     * Returns the counters of a new connection, exported along with the others
+     * if the stats of the transports are being exported.
+     */
+    public static Counters counters(String connection) {
+        Counters res = new Counters(connection.replaceAll("[^A-Za-z0-9.-]", "_"));
+        connections.put(res.connection, res);
+        Stats target = stats;
+        if (target != null)
+            res.register(target, statsPrefix);
+        return res;
+    }
+
+    /**
+     * Stops tracking the counters of a closed connection.
+     */
+    public static void release(Counters counters) {
+        connections.remove(counters.connection, counters);
+    }
+
+    /**
+     * Exports the compression ratio and bytes saved by all connections, and by
+     * each connection, present or future.
+     */
+    public static synchronized void export(Stats target, String prefix) {
+        statsPrefix = prefix;
+        stats = target;
+        target.registerPollingBasedValueProvider(prefix + "compression-ratio", new PollingBasedValueProvider() {
+            public double poll() {
+                long raw = 0, wire = 0;
+                for (Counters i : connections.values()) {
+                    raw += i.rawBytes.get();
+                    wire += i.wireBytes.get();
+                }
+                return raw == 0 ? 1.0 : (double) wire / raw;
+            }
+        }, StatsImpl.SAMPLING_INTERVAL_MILLIS);
+        target.registerPollingBasedValueProvider(prefix + "compression-saved-bytes", new PollingBasedValueProvider() {
+            public double poll() {
+                long saved = 0;
+                for (Counters i : connections.values())
+                    saved += i.rawBytes.get() - i.wireBytes.get();
+                return saved;
+            }
+        }, StatsImpl.SAMPLING_INTERVAL_MILLIS);
+        for (Counters i : connections.values())
+            i.register(target, prefix);
+    }
+
+    /**
+     * Outgoing traffic of a connection, before and after compression.
+     */
+    public static final class Counters {
+        final String connection;
+        public final AtomicLong messages = new AtomicLong();
+        public final AtomicLong compressedMessages = new AtomicLong();
+        public final AtomicLong rawBytes = new AtomicLong();
+        public final AtomicLong wireBytes = new AtomicLong();
+
+        Counters(String connection) {
+            this.connection = connection;
+        }
+
+        public void sent(int rawSize, int wireSize, boolean compressed) {
+            messages.incrementAndGet();
+            rawBytes.addAndGet(rawSize);
+            wireBytes.addAndGet(wireSize);
+            if (compressed)
+                compressedMessages.incrementAndGet();
+        }
+
+        void register(Stats target, String prefix) {
+            target.registerPollingBasedValueProvider(prefix + connection + "-compression-ratio",
+                    new PollingBasedValueProvider() {
+                        public double poll() {
+                            long raw = rawBytes.get();
+                            return raw == 0 ? 1.0 : (double) wireBytes.get() / raw;
+                        }
+                    }, StatsImpl.SAMPLING_INTERVAL_MILLIS);
+            target.registerPollingBasedValueProvider(prefix + connection + "-compressed-messages",
+                    new PollingBasedValueProvider() {
+                        public double poll() {
+                            return compressedMessages.get();
+                        }
+                    }, StatsImpl.SAMPLING_INTERVAL_MILLIS);
+        }
+    }
+
+    static final class Ratio {
+        volatile double value;
+        final AtomicInteger skipped = new AtomicInteger();
+    }
+
+    /**
+     * Returns the compression ratio observed for each message class.
+     */
+    public Map<Class<?>, Double> ratios() {
+        Map<Class<?>, Double> res = new ConcurrentHashMap<Class<?>, Double>();
+        for (Map.Entry<Class<?>, Ratio> e : ratios.entrySet())
+            res.put(e.getKey(), e.getValue().value);
+        return res;
+    }
+}
@@ -17,6 +17,7 @@
 package sys.net.impl;
 
 import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.Registration;
 import com.esotericsoftware.kryo.Serializer;
 
 import java.util.*;
@@ -60,11 +61,24 @@ public class KryoLib {
     private static Kryo newInstance(boolean autoReset) {
         commitRegistries();
         Kryo kryo = new Kryo();
+        final int defaults = kryo.getNextRegistrationId();
+        final List<Registration> defaultRegistrations = new ArrayList<>();
+        for (int id = 0; id < defaults; id++)
+            defaultRegistrations.add(kryo.getRegistration(id));
+
         int counter = 0;
         for (Entry<?> e: entries) {
             if (e.serializer == null) kryo.register(e.clazz, ++counter);
             else kryo.register(e.clazz, e.serializer, ++counter);
         }
+        // registered classes keep the ids they always had, which are in stored
+        // data; the default registrations (String, boxed primitives) they take
+        // over move past them, to be read back from fields of type Object
+        counter = Math.max(counter + 1, defaults);
+        for (Registration r : defaultRegistrations) {
+            if (kryo.getRegistration(r.getId()).getType() != r.getType())
+                kryo.register(r.getType(), r.getSerializer(), counter++);
+        }
         kryo.setAsmEnabled(true);
         kryo.setReferences(true);
         kryo.setAutoReset(autoReset);
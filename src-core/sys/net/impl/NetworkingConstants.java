@@ -22,15 +22,30 @@ public interface NetworkingConstants {
 
     static final int NETTY_EXECUTOR_THREADS = 64;
 
+    static final int NIO_IO_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors() / 2);
+    static final int NIO_READ_BUFFER_SIZE = 1 << 16;
+    static final int NIO_BUFFER_SIZE = 1 << 14;
+    static final int NIO_MAX_POOLED_BUFFERS = 4096;
+    static final int NIO_MAX_QUEUED_BYTES = 1 << 23;
+    static final int NIO_MAX_GATHERED_BUFFERS = 64;
+    static final int NIO_MAX_FRAME_SIZE = 1 << 28;
+
+    static final int COMPRESSION_MIN_SIZE = 512;
+    static final double COMPRESSION_MAX_RATIO = 0.9;
+    static final int COMPRESSION_PROBE_INTERVAL = 64;
+
     static final int RPC_DEFAULT_TIMEOUT = 1000 * 30;
     static final long RPC_MAX_SERVICE_ID = 1L << 16;
     static final long RPC_MAX_SERVICE_ID_MASK = (1L << 16) - 1L;
 
     static final int RPC_GC_STALE_HANDLERS_TIMEOUT = 20 * 60;
-    static final int RPC_GC_STALE_HANDLERS_PERIOD = 60;
+    static final int RPC_DEADLINES_TICK = 10;
+    static final int RPC_DEADLINES_WHEEL_SIZE = 512;
 
     static final int RPC_CONNECTION_RETRIES = 3;
     static final int RPC_CONNECTION_RETRY_DELAY = 250;
+    static final int RPC_CONNECTIONS_PER_ENDPOINT = 1;
+    static final int RPC_CONNECTION_GROWTH_DELAY = 5000;
 
     static final int DHT_CLIENT_RETRIES = 3;
     static final int DHT_CLIENT_TIMEOUT = 250;
@@ -90,5 +90,11 @@ public class NetworkingImpl extends Networking {
             throw new NetworkingException("Invalid argument...");
     }
 
-    static TransportProvider defaultProvider = TransportProvider.OIO_TCP;
+    /**
+     * System property naming the transport provider used by default.
+     */
+    public static final String PROVIDER_PROPERTY = "sys.net.provider";
+
+    static TransportProvider defaultProvider = TransportProvider.valueOf(System.getProperty(PROVIDER_PROPERTY,
+            TransportProvider.OIO_TCP.name()));
 }
@@ -42,6 +42,11 @@ public abstract class AbstractTransport implements TransportConnection {
         throw new NetworkingException("Invalid connection state...");
     }
 
+    @Override
+    public long queuedBytes() {
+        return 0;
+    }
+
     @Override
     public boolean failed() {
         return isBroken;
@@ -23,7 +23,6 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -33,16 +32,18 @@ import sys.net.api.Message;
 import sys.net.api.TransportConnection;
 import sys.net.impl.AbstractEndpoint;
 import sys.net.impl.AbstractLocalEndpoint;
+import sys.net.impl.CompressionPolicy;
 import sys.net.impl.FailedTransportConnection;
 import sys.net.impl.KryoLib;
 import sys.net.impl.Lz4Lib;
 import sys.net.impl.providers.AbstractTransport;
 import sys.net.impl.providers.InitiatorInfo;
 import sys.net.impl.providers.RemoteEndpointUpdater;
-import sys.scheduler.PeriodicTask;
 import sys.utils.IO;
 import sys.utils.Threading;
 
+import net.jpountz.lz4.LZ4Compressor;
+
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
 
@@ -50,16 +51,8 @@ final public class TcpEndpoint extends AbstractLocalEndpoint implements Runnable
 
     private static Logger Log = Logger.getLogger(TcpEndpoint.class.getName());
 
-    public static AtomicLong totalU = new AtomicLong(1);
-    public static AtomicLong totalC = new AtomicLong(1);
+    final CompressionPolicy compression = CompressionPolicy.fromProperty(CompressionPolicy.Mode.ADAPTIVE);
 
-    static {
-        new PeriodicTask(0, 1) {
-            public void run() {
-                System.err.printf("Compression Ratio: %.1f%%\n", 100 - 100.0 * totalC.get() / totalU.get());
-            }
-        };
-    }
     ServerSocket ss;
 
     public TcpEndpoint(Endpoint local, int tcpPort) throws IOException {
@@ -133,6 +126,7 @@ final public class TcpEndpoint extends AbstractLocalEndpoint implements Runnable
 
         DataInputStream dis;
         DataOutputStream dos;
+        CompressionPolicy.Counters counters;
 
         public AbstractConnection() throws IOException {
             super(localEndpoint, null);
@@ -159,13 +153,15 @@ final public class TcpEndpoint extends AbstractLocalEndpoint implements Runnable
                 handler.onFailure(this);
             }
             isBroken = true;
+            if (counters != null)
+                CompressionPolicy.release(counters);
             IO.close(socket);
             Log.fine("Closed connection to: " + remote);
         }
 
         synchronized public boolean send(final Message msg) {
             try {
-                int msgSize = outBuf.writeClassAndObject(msg, dos);
+                int msgSize = outBuf.writeClassAndObject(msg, dos, compression, counters);
                 Sys.getInstance().uploadedBytes.getAndAdd(msgSize);
                 outgoingBytesCounter.getAndAdd(msgSize);
                 msg.setSize(msgSize);
@@ -208,6 +204,8 @@ final public class TcpEndpoint extends AbstractLocalEndpoint implements Runnable
             outBuf = new KryoOutputBuffer();
             dis = new DataInputStream(socket.getInputStream());
             dos = new DataOutputStream(socket.getOutputStream());
+            counters = CompressionPolicy.counters("lz4-in-" + socket.getLocalPort() + "-"
+                    + socket.getRemoteSocketAddress());
             workers.execute(this);
             // Threading.newThread("incoming-tcp-channel-reader:" + local +
             // " <-> " + remote, true, this).start();
@@ -230,6 +228,8 @@ final public class TcpEndpoint extends AbstractLocalEndpoint implements Runnable
                 outBuf = new KryoOutputBuffer();
                 dis = new DataInputStream(socket.getInputStream());
                 dos = new DataOutputStream(socket.getOutputStream());
+                counters = CompressionPolicy.counters("lz4-out-" + socket.getLocalPort() + "-"
+                        + socket.getRemoteSocketAddress());
 
             } catch (IOException x) {
                 cause = x;
@@ -247,10 +247,15 @@ final public class TcpEndpoint extends AbstractLocalEndpoint implements Runnable
 
 }
 
+/**
+ * Reads frames made of the frame length, the uncompressed length, negative if
+ * the message is not compressed, and the message.
+ */
 final class KryoInputBuffer {
 
     Input in;
     int msgSize;
+    byte[] tmp = new byte[1 << 16];
 
     KryoInputBuffer() {
     }
@@ -263,37 +268,50 @@ final class KryoInputBuffer {
     public <T> T readClassAndObject(DataInputStream dis) throws Exception {
         msgSize = dis.readInt();
         int originalSize = dis.readInt();
-        byte[] tmp = new byte[msgSize - 4];
-        dis.readFully(tmp);
-        byte[] res = Lz4Lib.lz4Decompressor().decompress(tmp, originalSize);
+        if (tmp.length < msgSize - 4)
+            tmp = new byte[msgSize - 4];
+        dis.readFully(tmp, 0, msgSize - 4);
+        if (originalSize < 0)
+            return (T) KryoLib.kryo().readClassAndObject(new Input(tmp, 0, msgSize - 4));
+
+        byte[] res = Lz4Lib.lz4Decompressor().decompress(tmp, 0, msgSize - 4, originalSize);
         return (T) KryoLib.kryo().readClassAndObject(new Input(res));
     }
 }
 
 final class KryoOutputBuffer {
 
-    Output out;
     byte[] tmp = new byte[1 << 20];
+    byte[] compressed = new byte[1 << 16];
 
     public KryoOutputBuffer() {
     }
 
-    public int writeClassAndObject(Object object, DataOutputStream dos) throws Exception {
+    public int writeClassAndObject(Message msg, DataOutputStream dos, CompressionPolicy compression,
+            CompressionPolicy.Counters counters) throws Exception {
 
-        Output out = new Output(tmp);
-        KryoLib.kryo().writeClassAndObject(out, object);
+        Output out = new Output(tmp, -1);
+        KryoLib.kryo().writeClassAndObject(out, msg);
         int length = out.position();
-
-        TcpEndpoint.totalU.addAndGet(length);
-
-        byte[] res = Lz4Lib.lz4Compressor().compress(tmp, 0, length);
-
-        TcpEndpoint.totalC.addAndGet(res.length);
-
-        dos.writeInt(res.length + 4);
-        dos.writeInt(length);
-        dos.write(res);
-        return res.length + 4;
+        tmp = out.getBuffer();
+
+        if (compression.shouldCompress(msg, length)) {
+            LZ4Compressor lz4 = Lz4Lib.lz4FastCompressor();
+            if (compressed.length < lz4.maxCompressedLength(length))
+                compressed = new byte[lz4.maxCompressedLength(length)];
+            int compressedLength = lz4.compress(tmp, 0, length, compressed, 0, compressed.length);
+            if (compression.compressed(msg, length, compressedLength)) {
+                dos.writeInt(compressedLength + 4);
+                dos.writeInt(length);
+                dos.write(compressed, 0, compressedLength);
+                counters.sent(length + 8, compressedLength + 8, true);
+                return compressedLength + 4;
+            }
+        }
+        dos.writeInt(length + 4);
+        dos.writeInt(-1);
+        dos.write(tmp, 0, length);
+        counters.sent(length + 8, length + 8, false);
+        return length + 4;
     }
-
-}
\ No newline at end of file
+}
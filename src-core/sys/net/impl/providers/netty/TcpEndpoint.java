@@ -207,6 +207,11 @@ public class TcpEndpoint extends AbstractLocalEndpoint {
             return remote;
         }
 
+        @Override
+        public long queuedBytes() {
+            return 0;
+        }
+
         @Override
         public Throwable causeOfFailure() {
             return failureCause;
@@ -0,0 +1,64 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package sys.net.impl.providers.nio;
+
+import static sys.net.impl.NetworkingConstants.NIO_BUFFER_SIZE;
+import static sys.net.impl.NetworkingConstants.NIO_MAX_POOLED_BUFFERS;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of fixed size direct buffers, shared by all connections. Requests
+ * larger than the pooled size get a heap buffer of their own, which is not
+ * returned to the pool.
+ */
+final class BufferPool {
+
+    private static final ConcurrentLinkedQueue<ByteBuffer> pool = new ConcurrentLinkedQueue<ByteBuffer>();
+    private static final AtomicInteger pooled = new AtomicInteger();
+
+    private BufferPool() {
+    }
+
+    /**
+     * Returns a cleared buffer with at least the given capacity.
+     */
+    static ByteBuffer acquire(int size) {
+        if (size > NIO_BUFFER_SIZE)
+            return ByteBuffer.allocate(size);
+
+        ByteBuffer res = pool.poll();
+        if (res == null)
+            return ByteBuffer.allocateDirect(NIO_BUFFER_SIZE);
+
+        pooled.decrementAndGet();
+        res.clear();
+        return res;
+    }
+
+    static void release(ByteBuffer buf) {
+        if (!buf.isDirect() || buf.capacity() != NIO_BUFFER_SIZE)
+            return;
+
+        if (pooled.incrementAndGet() <= NIO_MAX_POOLED_BUFFERS)
+            pool.offer(buf);
+        else
+            pooled.decrementAndGet();
+    }
+}
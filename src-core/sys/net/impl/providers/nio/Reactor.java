@@ -0,0 +1,108 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package sys.net.impl.providers.nio;
+
+import static sys.net.impl.NetworkingConstants.NIO_IO_THREADS;
+import static sys.net.impl.NetworkingConstants.NIO_READ_BUFFER_SIZE;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import sys.utils.Threading;
+
+import com.esotericsoftware.kryo.io.ByteBufferInput;
+import com.esotericsoftware.kryo.io.Input;
+
+/**
+ * A selector and the thread that serves it. All connections of the process
+ * share a fixed number of reactors, assigned round robin.
+ * <p>
+ * Channels are only registered and have their interest set changed by the
+ * reactor thread; other threads submit those changes as tasks.
+ */
+final class Reactor implements Runnable {
+
+    private static Logger Log = Logger.getLogger(Reactor.class.getName());
+
+    /**
+     * Called by the reactor thread when a registered channel is ready.
+     */
+    interface Selectable {
+        void onReady(SelectionKey key);
+    }
+
+    private static Reactor[] reactors;
+    private static final AtomicInteger next = new AtomicInteger();
+
+    final Selector selector;
+    final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+    // scratch state, only used by the reactor thread
+    final ByteBuffer readBuffer = ByteBuffer.allocateDirect(NIO_READ_BUFFER_SIZE);
+    final ByteBufferInput input = new ByteBufferInput();
+    final Input heapInput = new Input();
+    byte[] compressed = new byte[NIO_READ_BUFFER_SIZE];
+    byte[] inflated = new byte[NIO_READ_BUFFER_SIZE];
+
+    private Reactor(String name) throws IOException {
+        this.selector = Selector.open();
+        Threading.newThread(name, true, this).start();
+    }
+
+    static synchronized Reactor next() throws IOException {
+        if (reactors == null) {
+            Reactor[] res = new Reactor[NIO_IO_THREADS];
+            for (int i = 0; i < res.length; i++)
+                res[i] = new Reactor("nio-reactor-" + i);
+            reactors = res;
+        }
+        return reactors[(next.getAndIncrement() & 0x7fffffff) % reactors.length];
+    }
+
+    void execute(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        for (;;) {
+            try {
+                selector.select();
+                Runnable task;
+                while ((task = tasks.poll()) != null)
+                    task.run();
+
+                for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext();) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (key.isValid())
+                        ((Selectable) key.attachment()).onReady(key);
+                }
+            } catch (Throwable t) {
+                Log.log(Level.SEVERE, "Unexpected error in reactor", t);
+            }
+        }
+    }
+}
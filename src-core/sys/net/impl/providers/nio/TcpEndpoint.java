@@ -0,0 +1,493 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package sys.net.impl.providers.nio;
+
+import static sys.net.impl.NetworkingConstants.NIO_MAX_FRAME_SIZE;
+import static sys.net.impl.NetworkingConstants.NIO_MAX_GATHERED_BUFFERS;
+import static sys.net.impl.NetworkingConstants.NIO_MAX_QUEUED_BYTES;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import sys.Sys;
+import sys.net.api.Endpoint;
+import sys.net.api.Message;
+import sys.net.api.NetworkingException;
+import sys.net.api.TransportConnection;
+import sys.net.impl.AbstractEndpoint;
+import sys.net.impl.AbstractLocalEndpoint;
+import sys.net.impl.CompressionPolicy;
+import sys.net.impl.FailedTransportConnection;
+import sys.net.impl.KryoLib;
+import sys.net.impl.Lz4Lib;
+import sys.net.impl.providers.AbstractTransport;
+import sys.net.impl.providers.InitiatorInfo;
+import sys.net.impl.providers.RemoteEndpointUpdater;
+import sys.utils.IO;
+import sys.utils.Threading;
+
+import net.jpountz.lz4.LZ4Compressor;
+
+import com.esotericsoftware.kryo.io.Output;
+
+/**
+ * TCP transport on non-blocking channels, served by a small fixed number of
+ * selector threads shared by all connections of the process.
+ * <p>
+ * Messages are framed by a 4 byte length prefix. Incoming frames are decoded
+ * straight from the buffer they were read into; only the tail of a frame split
+ * across reads is kept, in a pooled buffer of the connection. Decoded messages
+ * are delivered in order by one thread at a time per connection, taken from a
+ * shared pool, so a handler that blocks does not stall the selector.
+ * <p>
+ * A message is written by the sending thread when nothing is queued on the
+ * connection; otherwise, it is queued and the selector thread writes the queue
+ * with gathering writes as the socket drains. Senders block while too many
+ * bytes are queued.
+ * <p>
+ * Frames are compressed as decided by the {@link CompressionPolicy} set with
+ * the {@link CompressionPolicy#MODE_PROPERTY} system property; off by default,
+ * as this transport mostly carries scout traffic within a data center.
+ */
+final public class TcpEndpoint extends AbstractLocalEndpoint implements Reactor.Selectable {
+
+    private static Logger Log = Logger.getLogger(TcpEndpoint.class.getName());
+
+    private static final ExecutorService dispatchers = Executors.newCachedThreadPool(Threading
+            .factory("nio-dispatcher"));
+
+    // flags compressed frames, in the length prefix
+    private static final int COMPRESSED = 1 << 31;
+
+    final CompressionPolicy compression = CompressionPolicy.fromProperty(CompressionPolicy.Mode.OFF);
+
+    ServerSocketChannel ssc;
+
+    public TcpEndpoint(Endpoint local, int tcpPort) throws IOException {
+        this.localEndpoint = local;
+        this.gid = Sys.getInstance().rg.nextLong() >>> 1;
+
+        if (tcpPort >= 0) {
+            ssc = ServerSocketChannel.open();
+            ssc.socket().bind(new InetSocketAddress(tcpPort));
+            ssc.configureBlocking(false);
+        }
+        super.setSocketAddress(ssc == null ? 0 : ssc.socket().getLocalPort());
+    }
+
+    public void start() throws IOException {
+
+        handler = localEndpoint.getHandler();
+
+        if (ssc != null) {
+            final Reactor reactor = Reactor.next();
+            reactor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        ssc.register(reactor.selector, SelectionKey.OP_ACCEPT, TcpEndpoint.this);
+                    } catch (ClosedChannelException x) {
+                        Log.log(Level.SEVERE, "Unexpected error in incoming endpoint: " + localEndpoint, x);
+                    }
+                }
+            });
+        }
+    }
+
+    public TransportConnection connect(Endpoint remote) {
+        try {
+            if (((AbstractEndpoint) remote).isIncoming())
+                return new OutgoingConnection(remote);
+            else {
+                Log.info("Attempting to connect to an outgoing only endpoint. " + remote);
+            }
+            return new FailedTransportConnection(localEndpoint, remote, null);
+        } catch (Throwable t) {
+            Log.log(Level.WARNING, "Cannot connect to: <" + remote + "> :" + t.getMessage());
+            return new FailedTransportConnection(localEndpoint, remote, t);
+        }
+    }
+
+    @Override
+    public void onReady(SelectionKey key) {
+        try {
+            SocketChannel cs;
+            while ((cs = ssc.accept()) != null)
+                new IncomingConnection(cs);
+        } catch (IOException x) {
+            Log.log(Level.SEVERE, "Unexpected error in incoming endpoint: " + localEndpoint, x);
+        }
+    }
+
+    static void configureChannel(Socket cs) {
+        try {
+            cs.setTcpNoDelay(true);
+            cs.setReceiveBufferSize(1 << 20);
+            cs.setSendBufferSize(1 << 20);
+        } catch (Exception x) {
+            x.printStackTrace();
+        }
+    }
+
+    abstract class AbstractConnection extends AbstractTransport implements RemoteEndpointUpdater,
+            Reactor.Selectable, Runnable {
+
+        String type;
+        Throwable cause;
+        SocketChannel channel;
+        Reactor reactor;
+        SelectionKey key;
+
+        // tail of a frame split across reads; only used by the reactor thread
+        ByteBuffer pending;
+
+        final ArrayDeque<ByteBuffer> outQueue = new ArrayDeque<ByteBuffer>();
+        volatile long queuedBytes;
+
+        CompressionPolicy.Counters counters;
+
+        final ConcurrentLinkedQueue<Message> inbox = new ConcurrentLinkedQueue<Message>();
+        final AtomicBoolean dispatching = new AtomicBoolean();
+
+        public AbstractConnection() {
+            super(localEndpoint, null);
+        }
+
+        void init(SocketChannel channel) throws IOException {
+            this.channel = channel;
+            configureChannel(channel.socket());
+            channel.configureBlocking(false);
+            counters = CompressionPolicy.counters("nio-" + type + "-" + channel.socket().getLocalPort() + "-"
+                    + channel.socket().getRemoteSocketAddress());
+            reactor = Reactor.next();
+            reactor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        key = AbstractConnection.this.channel.register(reactor.selector, SelectionKey.OP_READ,
+                                AbstractConnection.this);
+                        if (!outQueue.isEmpty())
+                            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                    } catch (IOException x) {
+                        fail(x);
+                    }
+                }
+            });
+        }
+
+        @Override
+        public void onReady(SelectionKey key) {
+            try {
+                if (key.isReadable())
+                    read();
+                if (key.isValid() && key.isWritable())
+                    flush();
+            } catch (IOException x) {
+                fail(x);
+            } catch (Throwable t) {
+                Log.severe("Exception in connection to: " + remote + "/" + t);
+                fail(t);
+            }
+        }
+
+        private void read() throws IOException {
+            ByteBuffer buf = pending;
+            if (buf == null) {
+                buf = reactor.readBuffer;
+                buf.clear();
+            }
+            if (channel.read(buf) < 0) {
+                fail(new NetworkingException("Channel closed..."));
+                return;
+            }
+            buf.flip();
+            decode(buf);
+
+            if (!buf.hasRemaining()) {
+                if (pending != null) {
+                    BufferPool.release(pending);
+                    pending = null;
+                }
+                return;
+            }
+
+            int required = buf.remaining() < 4 ? 4 : 4 + (buf.getInt(buf.position()) & ~COMPRESSED);
+            if (buf == pending && required <= buf.capacity())
+                buf.compact();
+            else {
+                ByteBuffer tail = BufferPool.acquire(Math.max(required, buf.remaining()));
+                tail.put(buf);
+                if (pending != null)
+                    BufferPool.release(pending);
+                pending = tail;
+            }
+        }
+
+        private void decode(ByteBuffer buf) throws IOException {
+            while (buf.remaining() >= 4) {
+                final int pos = buf.position(), limit = buf.limit();
+                final int header = buf.getInt(pos), length = header & ~COMPRESSED;
+                if (length > NIO_MAX_FRAME_SIZE)
+                    throw new IOException("Invalid frame length: " + length);
+                if (buf.remaining() < 4 + length)
+                    return;
+
+                final Message msg;
+                buf.position(pos + 4).limit(pos + 4 + length);
+                if (header == length) {
+                    reactor.input.setBuffer(buf);
+                    msg = (Message) KryoLib.kryo().readClassAndObject(reactor.input);
+                } else
+                    msg = inflate(buf, length);
+                buf.limit(limit).position(pos + 4 + length);
+
+                Sys.getInstance().downloadedBytes.addAndGet(length + 4);
+                incomingBytesCounter.addAndGet(length + 4);
+                msg.setSize(length + 4);
+                inbox.add(msg);
+            }
+            if (!inbox.isEmpty() && dispatching.compareAndSet(false, true))
+                dispatchers.execute(this);
+        }
+
+        private Message inflate(ByteBuffer buf, int length) throws IOException {
+            final int originalLength = buf.getInt();
+            if (originalLength < 0 || originalLength > NIO_MAX_FRAME_SIZE)
+                throw new IOException("Invalid frame length: " + originalLength);
+
+            if (reactor.compressed.length < length)
+                reactor.compressed = new byte[length];
+            if (reactor.inflated.length < originalLength)
+                reactor.inflated = new byte[originalLength];
+            buf.get(reactor.compressed, 0, length - 4);
+
+            Lz4Lib.lz4Decompressor().decompress(reactor.compressed, 0, length - 4, reactor.inflated, 0,
+                    originalLength);
+            reactor.heapInput.setBuffer(reactor.inflated, 0, originalLength);
+            return (Message) KryoLib.kryo().readClassAndObject(reactor.heapInput);
+        }
+
+        /**
+         * Delivers the messages received, in order.
+         */
+        @Override
+        public void run() {
+            try {
+                Message msg;
+                while ((msg = inbox.poll()) != null) {
+                    try {
+                        msg.deliverTo(this, TcpEndpoint.this.handler);
+                    } catch (Exception x) {
+                        x.printStackTrace();
+                        Log.severe("Exception: " + x.getMessage());
+                    }
+                }
+            } finally {
+                dispatching.set(false);
+                if (!inbox.isEmpty() && dispatching.compareAndSet(false, true))
+                    dispatchers.execute(this);
+            }
+        }
+
+        public boolean send(final Message msg) {
+            if (isBroken)
+                return false;
+
+            final ByteBuffer buf = encode(msg, counters);
+            final int msgSize = buf.remaining();
+            try {
+                synchronized (this) {
+                    while (queuedBytes > NIO_MAX_QUEUED_BYTES && !isBroken)
+                        Threading.waitOn(this);
+
+                    if (isBroken) {
+                        BufferPool.release(buf);
+                        return false;
+                    }
+                    if (outQueue.isEmpty()) {
+                        channel.write(buf);
+                    }
+                    if (!buf.hasRemaining())
+                        BufferPool.release(buf);
+                    else {
+                        outQueue.add(buf);
+                        queuedBytes += buf.remaining();
+                        if (outQueue.size() == 1)
+                            reactor.execute(new Runnable() {
+                                public void run() {
+                                    if (key != null && key.isValid())
+                                        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                                }
+                            });
+                    }
+                }
+                Sys.getInstance().uploadedBytes.getAndAdd(msgSize);
+                outgoingBytesCounter.getAndAdd(msgSize);
+                msg.setSize(msgSize);
+                return true;
+            } catch (IOException x) {
+                Log.warning("Exception in connection to: " + remote + " " + x.getMessage());
+                fail(x);
+            }
+            return false;
+        }
+
+        synchronized private void flush() throws IOException {
+            final int n = Math.min(outQueue.size(), NIO_MAX_GATHERED_BUFFERS);
+            final ByteBuffer[] bufs = new ByteBuffer[n];
+            Iterator<ByteBuffer> it = outQueue.iterator();
+            for (int i = 0; i < n; i++)
+                bufs[i] = it.next();
+
+            queuedBytes -= channel.write(bufs);
+            while (!outQueue.isEmpty() && !outQueue.peek().hasRemaining())
+                BufferPool.release(outQueue.poll());
+
+            if (outQueue.isEmpty())
+                key.interestOps(SelectionKey.OP_READ);
+            Threading.notifyAllOn(this);
+        }
+
+        void fail(Throwable t) {
+            synchronized (this) {
+                if (isBroken)
+                    return;
+                isBroken = true;
+                cause = t;
+                for (ByteBuffer buf : outQueue)
+                    BufferPool.release(buf);
+                outQueue.clear();
+                queuedBytes = 0;
+                Threading.notifyAllOn(this);
+            }
+            if (key != null)
+                key.cancel();
+            if (counters != null)
+                CompressionPolicy.release(counters);
+            IO.close(channel);
+            Log.fine("Closed connection to: " + remote);
+            handler.onFailure(this);
+        }
+
+        @Override
+        public long queuedBytes() {
+            return queuedBytes;
+        }
+
+        @Override
+        public Throwable causeOfFailure() {
+            return failed() ? cause : new Exception("?");
+        }
+
+        public String toString() {
+            Socket socket = channel.socket();
+            return String.format("%s (%s->%s)", type, socket.getLocalPort(), socket.getRemoteSocketAddress());
+        }
+
+        public void setRemoteEndpoint(Endpoint remote) {
+            this.remote = remote;
+        }
+    }
+
+    final class IncomingConnection extends AbstractConnection {
+
+        public IncomingConnection(SocketChannel channel) throws IOException {
+            super.type = "in";
+            init(channel);
+        }
+    }
+
+    final class OutgoingConnection extends AbstractConnection {
+
+        public OutgoingConnection(Endpoint remote) throws IOException {
+            super.setRemoteEndpoint(remote);
+            super.type = "out";
+            SocketChannel channel = SocketChannel.open();
+            try {
+                channel.connect(((AbstractEndpoint) remote).sockAddress());
+                init(channel);
+            } catch (IOException x) {
+                cause = x;
+                isBroken = true;
+                IO.close(channel);
+                throw x;
+            }
+            this.send(new InitiatorInfo(localEndpoint));
+            handler.onConnect(this);
+        }
+    }
+
+    private static final ThreadLocal<Output> outBuf = new ThreadLocal<Output>() {
+        @Override
+        protected Output initialValue() {
+            return new Output(8192, -1);
+        }
+    };
+
+    private static final ThreadLocal<byte[]> compressBuf = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[8192];
+        }
+    };
+
+    /**
+     * Serializes a message into a length prefixed frame, in a pooled buffer
+     * ready for writing. Compressed frames have the top bit of the length set
+     * and start with the uncompressed length.
+     */
+    ByteBuffer encode(Message msg, CompressionPolicy.Counters counters) {
+        final Output out = outBuf.get();
+        out.setPosition(4);
+        KryoLib.kryo().writeClassAndObject(out, msg);
+        final int length = out.position() - 4;
+
+        if (compression.shouldCompress(msg, length)) {
+            final LZ4Compressor lz4 = Lz4Lib.lz4FastCompressor();
+            byte[] tmp = compressBuf.get();
+            if (tmp.length < lz4.maxCompressedLength(length))
+                compressBuf.set(tmp = new byte[lz4.maxCompressedLength(length)]);
+
+            final int compressedLength = lz4.compress(out.getBuffer(), 4, length, tmp, 0, tmp.length);
+            if (compression.compressed(msg, length, compressedLength)) {
+                final ByteBuffer res = BufferPool.acquire(compressedLength + 8);
+                res.putInt((compressedLength + 4) | COMPRESSED).putInt(length).put(tmp, 0, compressedLength);
+                res.flip();
+                counters.sent(length + 4, compressedLength + 8, true);
+                return res;
+            }
+        }
+        final ByteBuffer res = BufferPool.acquire(length + 4);
+        res.putInt(length);
+        res.put(out.getBuffer(), 4, length);
+        res.flip();
+        counters.sent(length + 4, length + 4, false);
+        return res;
+    }
+}
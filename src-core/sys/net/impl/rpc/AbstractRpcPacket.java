@@ -16,6 +16,8 @@
  *****************************************************************************/
 package sys.net.impl.rpc;
 
+import java.util.concurrent.CompletableFuture;
+
 import sys.Sys;
 import sys.net.api.Endpoint;
 import sys.net.api.Message;
@@ -106,6 +108,24 @@ abstract class AbstractRpcPacket extends AbstractMessage implements Message, Rpc
         return null;
     }
 
+    @Override
+    public <T extends RpcMessage> CompletableFuture<T> requestAsync(Endpoint dst, RpcMessage m) {
+        return requestAsync(dst, m, DEFAULT_TIMEOUT);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    public <T extends RpcMessage> CompletableFuture<T> requestAsync(Endpoint dst, RpcMessage m, int timeout) {
+        final CompletableFuture<RpcHandle> sent = sendAsync(dst, m, timeout);
+        final CompletableFuture<T> res = sent.thenApply(reply -> (T) reply.getPayload());
+        // cancelling the reply cancels the request, removing its handler
+        res.whenComplete((reply, failure) -> {
+            if (res.isCancelled())
+                sent.cancel(false);
+        });
+        return res;
+    }
+
     @Override
     public boolean failed() {
         return failed;
@@ -0,0 +1,280 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package sys.net.impl.rpc;
+
+import static sys.net.impl.NetworkingConstants.RPC_CONNECTIONS_PER_ENDPOINT;
+import static sys.net.impl.NetworkingConstants.RPC_CONNECTION_GROWTH_DELAY;
+import static sys.net.impl.NetworkingConstants.RPC_CONNECTION_RETRIES;
+import static sys.net.impl.NetworkingConstants.RPC_CONNECTION_RETRY_DELAY;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import sys.net.api.Endpoint;
+import sys.net.api.Message;
+import sys.net.api.TransportConnection;
+import sys.stats.Stats;
+import sys.stats.StatsImpl;
+import sys.stats.sources.PollingBasedValueProvider;
+import sys.utils.Threading;
+
+/**
+ * Connections to remote endpoints, used to send all the messages but replies,
+ * which go back through the connection of the request.
+ * <p>
+ * Up to {@link RpcFactoryImpl#CONNECTIONS_PROPERTY} connections are opened to
+ * each endpoint, one at a time as messages are sent, so that serializing and
+ * writing the messages to a busy endpoint is spread among them; messages sent
+ * through different connections may be delivered out of order. Connections
+ * are picked in turn, or the least loaded first, as set by
+ * {@link RpcFactoryImpl#CHANNEL_SELECTION_PROPERTY}. The load of a connection
+ * is the number of bytes queued by the transport, plus the messages being
+ * written by senders, weighted by the average size of the messages sent.
+ */
+final class ConnectionManager {
+
+    private static Logger Log = Logger.getLogger(ConnectionManager.class.getName());
+
+    enum Selection {
+        ROUND_ROBIN, LEAST_LOADED
+    }
+
+    static final AtomicInteger g_channels = new AtomicInteger();
+
+    final Endpoint localEndpoint;
+    final int connectionsPerEndpoint;
+    final Selection selection;
+
+    ConnectionManager(Endpoint localEndpoint) {
+        this(localEndpoint, Integer.getInteger(RpcFactoryImpl.CONNECTIONS_PROPERTY, RPC_CONNECTIONS_PER_ENDPOINT),
+                Selection.valueOf(System.getProperty(RpcFactoryImpl.CHANNEL_SELECTION_PROPERTY,
+                        Selection.ROUND_ROBIN.name()).toUpperCase()));
+    }
+
+    ConnectionManager(Endpoint localEndpoint, int connectionsPerEndpoint, Selection selection) {
+        this.localEndpoint = localEndpoint;
+        this.connectionsPerEndpoint = Math.max(1, connectionsPerEndpoint);
+        this.selection = selection;
+    }
+
+    boolean send(Endpoint remote, Message m) {
+        Pool pool = pool(remote);
+        for (int j = 0; j < RPC_CONNECTION_RETRIES; j++) {
+            if (pool.channels.length < connectionsPerEndpoint)
+                pool.grow();
+
+            Channel first = pool.select();
+            if (first == null) {
+                Threading.sleep((j + 1) * RPC_CONNECTION_RETRY_DELAY);
+                continue;
+            }
+            if (first.send(m))
+                return true;
+            for (Channel i : pool.channels)
+                if (i != first && i.send(m))
+                    return true;
+        }
+        return false;
+    }
+
+    void add(TransportConnection channel) {
+        pool(channel.remoteEndpoint()).add(channel);
+        Log.info("Added connection to: " + channel.remoteEndpoint());
+    }
+
+    void remove(TransportConnection channel) {
+        pool(channel.remoteEndpoint()).remove(channel);
+        Log.info("Removed connection to: " + channel.remoteEndpoint());
+    }
+
+    Pool pool(Endpoint remote) {
+        Pool res = connections.get(remote), nres;
+        if (res == null) {
+            res = connections.putIfAbsent(remote, nres = new Pool(remote));
+            if (res == null)
+                res = nres;
+        }
+        return res;
+    }
+
+    final ConcurrentHashMap<Endpoint, Pool> connections = new ConcurrentHashMap<Endpoint, Pool>();
+
+    /**
+     * The connections to a remote endpoint.
+     */
+    final class Pool {
+        final Endpoint remote;
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicBoolean connecting = new AtomicBoolean();
+        volatile Channel[] channels = new Channel[0];
+        volatile long nextGrowth;
+
+        Pool(Endpoint remote) {
+            this.remote = remote;
+        }
+
+        /**
+         * Opens another connection, unless one is being opened or, when the
+         * pool is not empty, opening the last one failed recently.
+         */
+        void grow() {
+            long now = System.currentTimeMillis();
+            if ((channels.length == 0 || now >= nextGrowth) && connecting.compareAndSet(false, true)) {
+                try {
+                    if (localEndpoint.connect(remote).failed())
+                        nextGrowth = now + RPC_CONNECTION_GROWTH_DELAY;
+                } finally {
+                    connecting.set(false);
+                }
+            }
+        }
+
+        Channel select() {
+            Channel[] cs = channels;
+            if (cs.length <= 1)
+                return cs.length == 0 ? null : cs[0];
+
+            int first = (next.getAndIncrement() & Integer.MAX_VALUE) % cs.length;
+            if (selection == Selection.ROUND_ROBIN)
+                return cs[first];
+
+            // starting in turn, to spread ties
+            Channel res = cs[first];
+            long min = res.load();
+            for (int i = 1; i < cs.length && min > 0; i++) {
+                Channel c = cs[(first + i) % cs.length];
+                long load = c.load();
+                if (load < min) {
+                    min = load;
+                    res = c;
+                }
+            }
+            return res;
+        }
+
+        synchronized void add(TransportConnection conn) {
+            Channel[] cs = Arrays.copyOf(channels, channels.length + 1);
+            cs[cs.length - 1] = new Channel(conn);
+            channels = cs;
+        }
+
+        synchronized void remove(TransportConnection conn) {
+            Channel[] cs = channels;
+            for (int i = 0; i < cs.length; i++)
+                if (cs[i].conn == conn) {
+                    RpcFactoryImpl.channels.remove(cs[i]);
+                    cs[i].unregister();
+                    Channel[] ncs = new Channel[cs.length - 1];
+                    System.arraycopy(cs, 0, ncs, 0, i);
+                    System.arraycopy(cs, i + 1, ncs, i, cs.length - i - 1);
+                    channels = cs = ncs;
+                    i--;
+                }
+        }
+
+        public String toString() {
+            return Arrays.toString(channels);
+        }
+    }
+
+    /**
+     * A connection, with the load of its senders.
+     */
+    static final class Channel {
+        final TransportConnection conn;
+        final String name;
+        final AtomicInteger senders = new AtomicInteger();
+        final AtomicLong messages = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        // where its stats are exported, if any; removed once closed
+        Stats stats;
+        String statsPrefix;
+        boolean closed;
+
+        Channel(TransportConnection conn) {
+            this.conn = conn;
+            this.name = "channel-" + g_channels.incrementAndGet() + "-"
+                    + String.valueOf(conn.remoteEndpoint()).replaceAll("[^A-Za-z0-9.-]", "_");
+            RpcFactoryImpl.channels.add(this);
+            Stats target = RpcFactoryImpl.stats;
+            if (target != null)
+                register(target, RpcFactoryImpl.statsPrefix);
+        }
+
+        boolean send(Message m) {
+            senders.incrementAndGet();
+            try {
+                if (conn.send(m)) {
+                    messages.incrementAndGet();
+                    bytes.addAndGet(m.getSize());
+                    return true;
+                }
+                return false;
+            } finally {
+                senders.decrementAndGet();
+            }
+        }
+
+        long load() {
+            long n = messages.get();
+            return conn.queuedBytes() + senders.get() * (n == 0 ? 1 : 1 + bytes.get() / n);
+        }
+
+        synchronized void register(Stats target, String prefix) {
+            if (closed)
+                return;
+            if (stats != null)
+                unregisterStats();
+            stats = target;
+            statsPrefix = prefix;
+            target.registerPollingBasedValueProvider(prefix + name + "-queued-bytes",
+                    new PollingBasedValueProvider() {
+                        public double poll() {
+                            return conn.queuedBytes();
+                        }
+                    }, StatsImpl.SAMPLING_INTERVAL_MILLIS);
+            target.registerPollingBasedValueProvider(prefix + name + "-senders", new PollingBasedValueProvider() {
+                public double poll() {
+                    return senders.get();
+                }
+            }, StatsImpl.SAMPLING_INTERVAL_MILLIS);
+        }
+
+        /**
+         * Stops exporting the stats of this connection, once removed.
+         */
+        synchronized void unregister() {
+            closed = true;
+            if (stats != null)
+                unregisterStats();
+        }
+
+        private void unregisterStats() {
+            stats.unregisterPollingBasedValueProvider(statsPrefix + name + "-queued-bytes");
+            stats.unregisterPollingBasedValueProvider(statsPrefix + name + "-senders");
+            stats = null;
+        }
+
+        public String toString() {
+            return String.valueOf(conn);
+        }
+    }
+}
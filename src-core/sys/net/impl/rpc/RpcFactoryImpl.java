@@ -16,14 +16,16 @@
  *****************************************************************************/
 package sys.net.impl.rpc;
 
-import static sys.net.impl.NetworkingConstants.RPC_CONNECTION_RETRIES;
-import static sys.net.impl.NetworkingConstants.RPC_CONNECTION_RETRY_DELAY;
+import static sys.net.impl.NetworkingConstants.RPC_DEADLINES_TICK;
+import static sys.net.impl.NetworkingConstants.RPC_DEADLINES_WHEEL_SIZE;
 import static sys.net.impl.NetworkingConstants.RPC_MAX_SERVICE_ID;
 
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import sys.Sys;
@@ -35,20 +37,34 @@ import sys.net.api.TransportConnection;
 import sys.net.api.rpc.RpcEndpoint;
 import sys.net.api.rpc.RpcFactory;
 import sys.net.api.rpc.RpcHandler;
+import sys.scheduler.HashedWheelTimer;
 import sys.scheduler.PeriodicTask;
-import sys.utils.Threading;
+import sys.stats.Stats;
+import sys.stats.StatsImpl;
+import sys.stats.sources.PollingBasedValueProvider;
 
 final public class RpcFactoryImpl implements RpcFactory, MessageHandler {
 
     private static Logger Log = Logger.getLogger(RpcFactoryImpl.class.getName());
 
+    /**
+     * System property setting the number of connections opened to each remote
+     * endpoint.
+     */
+    public static final String CONNECTIONS_PROPERTY = "sys.net.rpc.connections";
+
+    /**
+     * System property setting how a connection to a remote endpoint is picked,
+     * either round_robin or least_loaded.
+     */
+    public static final String CHANNEL_SELECTION_PROPERTY = "sys.net.rpc.channelSelection";
+
     Endpoint facEndpoint;
     ConnectionManager conMgr;
 
     Executor executor = null;
 
     public RpcFactoryImpl() {
-        initStaleHandlersGC_Task();
     }
 
     public void setEndpoint(Endpoint local) {
@@ -128,10 +144,15 @@ final public class RpcFactoryImpl implements RpcFactory, MessageHandler {
         final RpcPacket handler = hid < RPC_MAX_SERVICE_ID ? handlers.get(hid) : handlers.remove(hid);
 
         if (handler != null) {
+            if (hid >= RPC_MAX_SERVICE_ID)
+                inFlight.decrementAndGet();
             pkt.fac = this;
             pkt.conn = conn;
             pkt.remote = conn.remoteEndpoint();
             handler.deliver(pkt);
+        } else if (hid >= RPC_MAX_SERVICE_ID) {
+            if (Log.isLoggable(Level.FINE))
+                Log.fine(Sys.getInstance().mainClass + " - Late reply: " + pkt.payload.getClass() + " " + pkt.handlerId);
         } else {
             Log.warning(Sys.getInstance().mainClass + " - No handler for: " + pkt.payload.getClass() + " " + pkt.handlerId);
         }
@@ -149,72 +170,67 @@ final public class RpcFactoryImpl implements RpcFactory, MessageHandler {
 
     final ConcurrentHashMap<Long, RpcPacket> handlers = new ConcurrentHashMap<Long, RpcPacket>();
 
-    void initStaleHandlersGC_Task() {
-
-        // new PeriodicTask(0.0, RPC_GC_STALE_HANDLERS_PERIOD) {
-        // public void run() {
-        // double now = Sys.timeMillis();
-        // for (Iterator<RpcPacket> it = handlers.values().iterator();
-        // it.hasNext();) {
-        // RpcPacket p = it.next();
-        // if (p.handlerId > RPC_MAX_SERVICE_ID && (now - p.timestamp) >
-        // RPC_GC_STALE_HANDLERS_TIMEOUT) {
-        // it.remove();
-        // }
-        // }
-        // Log.finest("initStaleHandlersGC_Task(): DeferredReplies Handlers: " +
-        // handlers.size());
-        // }
-        // };
-    }
-}
-
-final class ConnectionManager {
-
-    private static Logger Log = Logger.getLogger(ConnectionManager.class.getName());
-
-    final Endpoint localEndpoint;
-
-    ConnectionManager(Endpoint localEndpoint) {
-        this.localEndpoint = localEndpoint;
-    }
-
-    boolean send(Endpoint remote, Message m) {
-        for (int j = 0; j < RPC_CONNECTION_RETRIES; j++) {
-            int channels = 0;
-            for (TransportConnection i : channels(remote)) {
-                channels++;
-                if (i.send(m))
-                    return true;
-            }
-            if (channels == 0) {
-                localEndpoint.connect(remote);
-                Threading.sleep((j + 1) * RPC_CONNECTION_RETRY_DELAY);
-            }
+    // deadlines of the reply handlers, shared by all factories
+    static final HashedWheelTimer deadlines = new HashedWheelTimer("rpc-deadlines", RPC_DEADLINES_TICK,
+            RPC_DEADLINES_WHEEL_SIZE);
+
+    static final AtomicInteger inFlight = new AtomicInteger();
+    static final AtomicLong timedOut = new AtomicLong();
+    static final AtomicLong reclaimed = new AtomicLong();
+
+    /**
+     * Registers the handler of the replies to a request.
+     */
+    void register(RpcPacket pkt) {
+        handlers.put(pkt.replyHandlerId, pkt);
+        if (pkt.replyHandlerId >= RPC_MAX_SERVICE_ID)
+            inFlight.incrementAndGet();
+    }
+
+    /**
+     * Removes the handler of the replies to a request, unless a reply removed
+     * it first.
+     * 
+     * @return true if the handler was removed
+     */
+    boolean unregister(RpcPacket pkt) {
+        if (handlers.remove(pkt.replyHandlerId, pkt)) {
+            if (pkt.replyHandlerId >= RPC_MAX_SERVICE_ID)
+                inFlight.decrementAndGet();
+            return true;
         }
         return false;
     }
 
-    void add(TransportConnection channel) {
-        channels(channel.remoteEndpoint()).add(channel);
-        Log.info("Added connection to: " + channel.remoteEndpoint());
-    }
-
-    void remove(TransportConnection channel) {
-        while (channels(channel.remoteEndpoint()).remove(channel))
-            ;
-        Log.info("Removed connection to: " + channel.remoteEndpoint());
-    }
-
-    CopyOnWriteArrayList<TransportConnection> channels(Endpoint remote) {
-        CopyOnWriteArrayList<TransportConnection> cs = connections.get(remote), ncs;
-        if (cs == null) {
-            cs = connections.putIfAbsent(remote, ncs = new CopyOnWriteArrayList<TransportConnection>());
-            if (cs == null)
-                cs = ncs;
-        }
-        return cs;
+    static final Set<ConnectionManager.Channel> channels = ConcurrentHashMap.newKeySet();
+    static volatile Stats stats;
+    static volatile String statsPrefix;
+
+    /**
+     * Exports the number of requests awaiting a reply, and the number of
+     * requests that timed out or whose handlers were reclaimed, in all the
+     * factories of this process; along with the queue depth of each
+     * connection, present or future.
+     */
+    public static synchronized void registerStats(Stats stats, String prefix) {
+        RpcFactoryImpl.statsPrefix = prefix;
+        RpcFactoryImpl.stats = stats;
+        for (ConnectionManager.Channel i : channels)
+            i.register(stats, prefix);
+        stats.registerPollingBasedValueProvider(prefix + "in-flight", new PollingBasedValueProvider() {
+            public double poll() {
+                return inFlight.get();
+            }
+        }, StatsImpl.SAMPLING_INTERVAL_MILLIS);
+        stats.registerPollingBasedValueProvider(prefix + "timed-out", new PollingBasedValueProvider() {
+            public double poll() {
+                return timedOut.get();
+            }
+        }, StatsImpl.SAMPLING_INTERVAL_MILLIS);
+        stats.registerPollingBasedValueProvider(prefix + "reclaimed", new PollingBasedValueProvider() {
+            public double poll() {
+                return reclaimed.get();
+            }
+        }, StatsImpl.SAMPLING_INTERVAL_MILLIS);
     }
-
-    final ConcurrentHashMap<Endpoint, CopyOnWriteArrayList<TransportConnection>> connections = new ConcurrentHashMap<Endpoint, CopyOnWriteArrayList<TransportConnection>>();
-}
\ No newline at end of file
+}
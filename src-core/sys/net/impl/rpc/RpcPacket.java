@@ -16,20 +16,25 @@
  *****************************************************************************/
 package sys.net.impl.rpc;
 
+import static sys.net.impl.NetworkingConstants.RPC_GC_STALE_HANDLERS_TIMEOUT;
 import static sys.net.impl.NetworkingConstants.RPC_MAX_SERVICE_ID;
 
-import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 
 import sys.net.api.Endpoint;
 import sys.net.api.MessageHandler;
+import sys.net.api.NetworkingException;
 import sys.net.api.TransportConnection;
 import sys.net.api.rpc.RpcFactory;
 import sys.net.api.rpc.RpcHandle;
 import sys.net.api.rpc.RpcHandler;
 import sys.net.api.rpc.RpcMessage;
+import sys.scheduler.HashedWheelTimer;
 
 import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.KryoCopyable;
@@ -38,7 +43,9 @@ final public class RpcPacket extends AbstractRpcPacket implements KryoCopyable<R
 
     private static Logger Log = Logger.getLogger(RpcPacket.class.getName());
 
-    SynchronousQueue<AbstractRpcPacket> queue;
+    // completed with the reply, or exceptionally if no reply arrives in time
+    CompletableFuture<RpcHandle> future;
+    HashedWheelTimer.Timeout deadline;
 
     RpcPacket() {
     }
@@ -64,7 +71,7 @@ final public class RpcPacket extends AbstractRpcPacket implements KryoCopyable<R
         if (replyhandler != null) {
             long id = g_handlers.incrementAndGet();
             this.replyHandlerId = streamingReplies ? -id : id;
-            fac.handlers.put(this.replyHandlerId, this);
+            fac.register(this);
         } else
             this.replyHandlerId = 0L;
     }
@@ -86,23 +93,39 @@ final public class RpcPacket extends AbstractRpcPacket implements KryoCopyable<R
 
     private RpcHandle send(Endpoint dst, RpcMessage msg, RpcHandler replyHandler, int timeout, boolean streamingReplies) {
         RpcPacket pkt = new RpcPacket(fac, dst, msg, this, replyHandler, timeout, streamingReplies);
-        if (timeout != 0) {
-            pkt.queue = new SynchronousQueue<AbstractRpcPacket>();
-            if (pkt.sendRpcPacket(null, this) == true) {
-                try {
-                    pkt.reply = pkt.queue.poll(timeout, TimeUnit.MILLISECONDS);
-                } catch (Exception x) {
-                    x.printStackTrace();
+        return pkt.send(null, this, timeout);
+    }
+
+    @Override
+    public CompletableFuture<RpcHandle> sendAsync(Endpoint dst, RpcMessage msg, final int timeout) {
+        final RpcPacket pkt = new RpcPacket(fac, dst, msg, this, RpcHandler.NONE, timeout, false);
+        final CompletableFuture<RpcHandle> res = pkt.future = new CompletableFuture<RpcHandle>();
+        // without a deadline, the handler is still reclaimed once stale
+        final long deadlineMillis = timeout > 0 ? timeout : RPC_GC_STALE_HANDLERS_TIMEOUT * 1000L;
+        pkt.deadline = RpcFactoryImpl.deadlines.schedule(new Runnable() {
+            public void run() {
+                if (pkt.fac.unregister(pkt)) {
+                    if (timeout > 0)
+                        RpcFactoryImpl.timedOut.incrementAndGet();
+                    else
+                        RpcFactoryImpl.reclaimed.incrementAndGet();
+                    res.completeExceptionally(new TimeoutException("No reply from " + pkt.remote() + " in "
+                            + deadlineMillis + " ms"));
                 }
-                if (pkt.reply != null)
-                    pkt.reply.payload.deliverTo(pkt.reply, pkt.handler);
             }
-            return pkt;
-        } else {
-            pkt.remote = dst;
-            pkt.sendRpcPacket(null, this);
-            return pkt;
+        }, deadlineMillis);
+        if (!pkt.sendRpcPacket(null, this)) {
+            pkt.deadline.cancel();
+            pkt.fac.unregister(pkt);
+            res.completeExceptionally(pkt.failureCause != null ? pkt.failureCause : new NetworkingException(
+                    "Could not send to " + pkt.remote()));
         }
+        // cancelled by the caller
+        res.whenComplete((reply, failure) -> {
+            if (res.isCancelled() && pkt.fac.unregister(pkt))
+                pkt.deadline.cancel();
+        });
+        return res;
     }
 
     @Override
@@ -111,35 +134,64 @@ final public class RpcPacket extends AbstractRpcPacket implements KryoCopyable<R
             return null;
 
         RpcPacket pkt = new RpcPacket(fac, remote(), msg, this, replyHandler, timeout, false);
-        if (timeout != 0) {
-            pkt.queue = new SynchronousQueue<AbstractRpcPacket>();
-            if (pkt.sendRpcPacket(conn, this) == true) {
-                try {
-                    pkt.reply = pkt.queue.poll(timeout, TimeUnit.MILLISECONDS);
-                } catch (Exception x) {
-                    x.printStackTrace();
+        return pkt.send(conn, this, timeout);
+    }
+
+    /**
+     * Sends this packet; if it expects a reply, waits for it with a positive
+     * timeout, or leaves it to be delivered to the reply handler otherwise.
+     * Handlers still waiting when the timeout expires are removed, or, for
+     * handlers not waited for, once they become stale, telling them with
+     * {@link RpcHandler#onFailure(RpcHandle)}; streaming handlers are kept.
+     */
+    private RpcHandle send(TransportConnection conn, AbstractRpcPacket handle, int timeout) {
+        if (replyHandlerId == 0L) {
+            sendRpcPacket(conn, handle);
+        } else if (timeout > 0) {
+            future = new CompletableFuture<RpcHandle>();
+            if (sendRpcPacket(conn, handle))
+                awaitReply(timeout);
+            else
+                fac.unregister(this);
+        } else if (replyHandlerId > 0) {
+            deadline = RpcFactoryImpl.deadlines.schedule(new Runnable() {
+                public void run() {
+                    if (fac.unregister(RpcPacket.this)) {
+                        RpcFactoryImpl.reclaimed.incrementAndGet();
+                        failed = true;
+                        failureCause = new TimeoutException("No reply from " + remote() + " in "
+                                + RPC_GC_STALE_HANDLERS_TIMEOUT + " s");
+                        handler.onFailure(RpcPacket.this);
+                    }
                 }
-                if (pkt.reply != null)
-                    pkt.reply.payload.deliverTo(pkt.reply, pkt.handler);
-            }
-            return pkt;
+            }, RPC_GC_STALE_HANDLERS_TIMEOUT * 1000L);
+            if (!sendRpcPacket(conn, handle) && fac.unregister(this))
+                deadline.cancel();
         } else {
-            pkt.sendRpcPacket(conn, this);
-            return pkt;
+            sendRpcPacket(conn, handle);
         }
+        return this;
+    }
 
+    private void awaitReply(int timeout) {
+        try {
+            reply = (AbstractRpcPacket) future.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException | InterruptedException | ExecutionException x) {
+            if (fac.unregister(this))
+                RpcFactoryImpl.timedOut.incrementAndGet();
+            else
+                // a reply removed the handler, about to complete the future
+                reply = (AbstractRpcPacket) future.join();
+        }
+        if (reply != null)
+            reply.payload.deliverTo(reply, handler);
     }
 
     final void deliver(AbstractRpcPacket pkt) {
-        if (queue != null) {
-            try {
-                reply = pkt;
-                if (!queue.offer(pkt, timeout, TimeUnit.MILLISECONDS)) {
-                    pkt.payload.deliverTo(pkt, this.handler);
-                }
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+        if (deadline != null)
+            deadline.cancel();
+        if (future != null) {
+            future.complete(pkt);
         } else {
             if (this.handler != null)
                 pkt.payload.deliverTo(pkt, this.handler);
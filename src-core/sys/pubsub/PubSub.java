@@ -42,6 +42,13 @@ public interface PubSub<T> {
         long nextSeqN();
 
         void onNotification(final Notifyable<T> info);
+
+        /**
+         * Called when notifications for this subscriber were discarded because
+         * it fell behind; the notifications that follow may not be contiguous
+         * with those delivered before.
+         */
+        void onResync();
     }
 
     interface Publisher<T, P extends Notifyable<T>> {
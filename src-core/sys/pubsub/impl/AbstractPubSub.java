@@ -18,29 +18,96 @@ package sys.pubsub.impl;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
 
 import sys.pubsub.PubSub;
 import sys.pubsub.PubSub.Notifyable;
 import sys.pubsub.PubSub.Publisher;
+import sys.stats.Stats;
+import sys.stats.StatsImpl;
+import sys.stats.sources.PollingBasedValueProvider;
 import sys.utils.ConcurrentHashSet;
+import sys.utils.MpscRingBuffer;
 import sys.utils.Threading;
 
+/**
+ * Publish/subscribe service delivering notifications to each subscriber
+ * independently.
+ * <p>
+ * Every subscriber has a bounded queue of notifications, drained by a pool of
+ * workers in FIFO order; a subscriber is drained by one worker at a time and
+ * gives its worker up after a bounded number of notifications, so a slow
+ * subscriber does not delay the others. Sequence numbers are assigned as the
+ * notifications are delivered. When the queue of a subscriber is full, the
+ * {@link OverflowPolicy} of the service applies.
+ */
 public abstract class AbstractPubSub<T> extends AbstractSubscriber<T> implements PubSub<T>,
-        Publisher<T, Notifyable<T>>, Runnable {
+        Publisher<T, Notifyable<T>> {
+    private static Logger logger = Logger.getLogger(AbstractPubSub.class.getName());
+
+    public static final int DEFAULT_WORKERS = 1;
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    // notifications delivered to a subscriber before its worker moves on
+    static final int DRAIN_BATCH = 64;
+    // wait of a blocked publisher before retrying
+    static final long BACKOFF_NANOS = 100 * 1000;
+
+    /**
+     * What happens to a notification for a subscriber whose queue is full.
+     */
+    public enum OverflowPolicy {
+        /**
+         * The publisher waits for the subscriber to catch up.
+         */
+        BLOCK,
+        /**
+         * The notification and those queued for the subscriber are discarded,
+         * and the subscriber is told with {@link Subscriber#onResync()}.
+         */
+        RESYNC
+    }
 
     protected final Map<T, Set<Subscriber<T>>> subscribers;
 
-    protected final LinkedList<Notification<T>> notificationQueue = new LinkedList<Notification<T>>();
+    private final ConcurrentHashMap<Subscriber<T>, Mailbox> mailboxes;
+    private final ThreadPoolExecutor workers;
+    private final int queueCapacity;
+    private final OverflowPolicy overflowPolicy;
+    private final AtomicLong resyncs = new AtomicLong();
 
     protected AbstractPubSub(String id) {
+        this(id, DEFAULT_WORKERS, DEFAULT_QUEUE_CAPACITY, OverflowPolicy.BLOCK);
+    }
+
+    /**
+     * @param workers
+     *            number of threads delivering notifications
+     * @param queueCapacity
+     *            maximum number of notifications queued per subscriber
+     * @param overflowPolicy
+     *            what to do when the queue of a subscriber is full
+     */
+    protected AbstractPubSub(String id, int workers, int queueCapacity, OverflowPolicy overflowPolicy) {
         super(id);
         this.subscribers = new ConcurrentHashMap<T, Set<Subscriber<T>>>();
-        Threading.newThread(true, this).start();
+        this.mailboxes = new ConcurrentHashMap<Subscriber<T>, Mailbox>();
+        this.queueCapacity = queueCapacity;
+        this.overflowPolicy = overflowPolicy;
+        this.workers = new ThreadPoolExecutor(workers, workers, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), Threading.factory("PubSub"));
+        this.workers.allowCoreThreadTimeOut(true);
     }
 
     @Override
@@ -49,32 +116,70 @@ public abstract class AbstractPubSub<T> extends AbstractSubscriber<T> implements
     }
 
     @Override
-    synchronized public void publish(Notifyable<T> info) {
+    public void publish(Notifyable<T> info) {
         Collection<Subscriber<T>> set = info.key() == null ? subscribers(info.keys()) : subscribers(info.key(), false);
-        if (set.size() > 0)
-            synchronized (notificationQueue) {
-                for (Subscriber<T> i : set) {
-                    notificationQueue.addLast(new Notification<>(info.clone(i.nextSeqN()), i));
-                }
-                Threading.notifyAllOn(notificationQueue);
-            }
+        for (Subscriber<T> i : set)
+            mailbox(i).offer(info);
     }
 
-    public void run() {
-        for (;;) {
-            Notification<T> head;
-            synchronized (notificationQueue) {
-                while (notificationQueue.isEmpty()) {
-                    Threading.waitOn(notificationQueue);
-                }
-                head = notificationQueue.removeFirst();
+    private Mailbox mailbox(Subscriber<T> subscriber) {
+        Mailbox res = mailboxes.get(subscriber), nbox;
+        if (res == null) {
+            res = mailboxes.putIfAbsent(subscriber, nbox = new Mailbox(subscriber));
+            if (res == null)
+                res = nbox;
+        }
+        return res;
+    }
+
+    /**
+     * Removes a subscriber from all the keys it is subscribed to, and discards
+     * its queued notifications.
+     */
+    public void unsubscribeAll(Subscriber<T> subscriber) {
+        for (Set<Subscriber<T>> set : subscribers.values())
+            set.remove(subscriber);
+        mailboxes.remove(subscriber);
+    }
+
+    /**
+     * @return number of notifications queued for each subscriber, by
+     *         subscriber id
+     */
+    public Map<String, Integer> queueDepths() {
+        Map<String, Integer> res = new HashMap<String, Integer>();
+        for (Mailbox i : mailboxes.values())
+            res.put(i.subscriber.id(), i.queue.size());
+        return res;
+    }
+
+    /**
+     * Registers polling sources for the delivery metrics: deepest subscriber
+     * queue, notifications queued for all subscribers, and subscribers resynced
+     * since the service started.
+     */
+    public void registerStats(Stats stats, String prefix) {
+        stats.registerPollingBasedValueProvider(prefix + "max-queue-depth", new PollingBasedValueProvider() {
+            public double poll() {
+                int max = 0;
+                for (Mailbox i : mailboxes.values())
+                    max = Math.max(max, i.queue.size());
+                return max;
             }
-            try {
-                head.e.notifyTo(head.s);
-            } catch (Throwable t) {
-                t.printStackTrace();
+        }, StatsImpl.SAMPLING_INTERVAL_MILLIS);
+        stats.registerPollingBasedValueProvider(prefix + "queued-notifications", new PollingBasedValueProvider() {
+            public double poll() {
+                int sum = 0;
+                for (Mailbox i : mailboxes.values())
+                    sum += i.queue.size();
+                return sum;
             }
-        }
+        }, StatsImpl.SAMPLING_INTERVAL_MILLIS);
+        stats.registerPollingBasedValueProvider(prefix + "resyncs", new PollingBasedValueProvider() {
+            public double poll() {
+                return resyncs.get();
+            }
+        }, StatsImpl.SAMPLING_INTERVAL_MILLIS);
     }
 
     @Override
@@ -136,17 +241,65 @@ public abstract class AbstractPubSub<T> extends AbstractSubscriber<T> implements
         return subscribers.containsKey(key);
     }
 
-    static class Notification<T> {
-        final Notifyable<T> e;
-        final Subscriber<T> s;
+    /**
+     * Queue of notifications of a subscriber, scheduled on the workers when
+     * not empty.
+     */
+    final class Mailbox implements Runnable {
+        final Subscriber<T> subscriber;
+        final MpscRingBuffer<Notifyable<T>> queue;
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        volatile boolean overflowed;
 
-        Notification(Notifyable<T> e, Subscriber<T> s) {
-            this.e = e;
-            this.s = s;
+        Mailbox(Subscriber<T> subscriber) {
+            this.subscriber = subscriber;
+            this.queue = new MpscRingBuffer<Notifyable<T>>(queueCapacity);
         }
 
-        public String toString() {
-            return s.getClass() + "/" + e.getClass();
+        void offer(Notifyable<T> info) {
+            while (!queue.offer(info)) {
+                if (overflowPolicy == OverflowPolicy.RESYNC) {
+                    overflowed = true;
+                    break;
+                }
+                schedule();
+                LockSupport.parkNanos(BACKOFF_NANOS);
+            }
+            schedule();
+        }
+
+        void schedule() {
+            if (scheduled.compareAndSet(false, true))
+                workers.execute(this);
+        }
+
+        public void run() {
+            try {
+                if (overflowed) {
+                    overflowed = false;
+                    int dropped = 0;
+                    while (queue.poll() != null)
+                        dropped++;
+                    resyncs.incrementAndGet();
+                    logger.warning("Subscriber " + subscriber.id() + " fell behind, discarded " + dropped
+                            + " notifications");
+                    subscriber.onResync();
+                }
+                for (int i = 0; i < DRAIN_BATCH; i++) {
+                    Notifyable<T> info = queue.poll();
+                    if (info == null)
+                        break;
+                    try {
+                        info.clone(subscriber.nextSeqN()).notifyTo(subscriber);
+                    } catch (Throwable t) {
+                        t.printStackTrace();
+                    }
+                }
+            } finally {
+                scheduled.set(false);
+                if (overflowed || !queue.isEmpty())
+                    schedule();
+            }
         }
     }
 }
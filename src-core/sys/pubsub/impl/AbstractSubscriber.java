@@ -37,4 +37,9 @@ public abstract class AbstractSubscriber<T> implements PubSub.Subscriber<T> {
         Thread.dumpStack();
     }
 
+    @Override
+    public void onResync() {
+        Thread.dumpStack();
+    }
+
 }
@@ -0,0 +1,199 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package sys.scheduler;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Timer for large numbers of short-lived timeouts, most of them cancelled
+ * before they expire, such as the deadlines of outstanding requests.
+ * <p>
+ * Scheduling and cancelling cost O(1), regardless of the number of pending
+ * timeouts. Timeouts are hashed by deadline into the buckets of a wheel, which
+ * a single thread advances one bucket per tick, expiring the timeouts of the
+ * bucket due in the current rotation; deadlines are thus rounded up to the
+ * tick. Cancelled timeouts are dropped when their bucket is next visited.
+ * Expired tasks run in the thread of the timer and must not block.
+ */
+public final class HashedWheelTimer {
+
+    private static Logger logger = Logger.getLogger(HashedWheelTimer.class.getName());
+
+    private static final int WAITING = 0, CANCELLED = 1, EXPIRED = 2;
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicIntegerFieldUpdater<HashedWheelTimer.Timeout> STATE = AtomicIntegerFieldUpdater
+            .newUpdater(HashedWheelTimer.Timeout.class, "state");
+
+    private final String name;
+    private final long tickNanos;
+    private final int mask;
+    private final ArrayList<Timeout>[] wheel;
+    private final ConcurrentLinkedQueue<Timeout> scheduled = new ConcurrentLinkedQueue<Timeout>();
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final long startNanos = System.nanoTime();
+    private volatile Thread worker;
+    private long tick;
+
+    /**
+     * @param tickMillis
+     *            the resolution of the timer
+     * @param wheelSize
+     *            the number of buckets, rounded up to a power of two; timeouts
+     *            further away than a rotation are kept in the bucket for
+     *            several rotations
+     */
+    @SuppressWarnings("unchecked")
+    public HashedWheelTimer(String name, long tickMillis, int wheelSize) {
+        this.name = name;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.mask = size - 1;
+        this.wheel = (ArrayList<Timeout>[]) new ArrayList<?>[size];
+        for (int i = 0; i < size; i++)
+            wheel[i] = new ArrayList<Timeout>();
+    }
+
+    /**
+     * Schedules a task to run after a delay, unless cancelled before.
+     */
+    public Timeout schedule(Runnable task, long delayMillis) {
+        Timeout res = new Timeout(task, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis)));
+        pending.incrementAndGet();
+        scheduled.add(res);
+        if (worker == null)
+            start();
+        return res;
+    }
+
+    /**
+     * Returns the number of timeouts neither expired nor cancelled.
+     */
+    public int pending() {
+        return pending.get();
+    }
+
+    private synchronized void start() {
+        if (worker == null) {
+            worker = new Thread(name) {
+                public void run() {
+                    HashedWheelTimer.this.run();
+                }
+            };
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    private void run() {
+        for (;;) {
+            long sleepNanos = startNanos + (tick + 1) * tickNanos - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    // do nothing
+                }
+                continue;
+            }
+            transferScheduled();
+            expire(wheel[(int) (tick & mask)]);
+            tick++;
+        }
+    }
+
+    private void transferScheduled() {
+        for (Timeout t; (t = scheduled.poll()) != null;) {
+            if (t.state == CANCELLED)
+                continue;
+            // overdue timeouts go to the current bucket
+            long ticks = Math.max(tick, (t.deadlineNanos - startNanos + tickNanos - 1) / tickNanos);
+            t.rounds = (ticks - tick) / wheel.length;
+            wheel[(int) (ticks & mask)].add(t);
+        }
+    }
+
+    private void expire(ArrayList<Timeout> bucket) {
+        int kept = 0;
+        for (int i = 0; i < bucket.size(); i++) {
+            Timeout t = bucket.get(i);
+            if (t.state == CANCELLED)
+                continue;
+            if (t.rounds > 0) {
+                t.rounds--;
+                bucket.set(kept++, t);
+            } else
+                t.expire();
+        }
+        for (int i = bucket.size(); --i >= kept;)
+            bucket.remove(i);
+    }
+
+    /**
+     * A task scheduled for execution.
+     */
+    public final class Timeout {
+        final Runnable task;
+        final long deadlineNanos;
+        volatile int state;
+        long rounds;
+
+        Timeout(Runnable task, long deadlineNanos) {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        /**
+         * Prevents the task from running.
+         * 
+         * @return false if the task expired or was cancelled before
+         */
+        public boolean cancel() {
+            if (STATE.compareAndSet(this, WAITING, CANCELLED)) {
+                pending.decrementAndGet();
+                return true;
+            }
+            return false;
+        }
+
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state == EXPIRED;
+        }
+
+        void expire() {
+            if (STATE.compareAndSet(this, WAITING, EXPIRED)) {
+                pending.decrementAndGet();
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    logger.log(Level.WARNING, name + ": timeout task failed", t);
+                }
+            }
+        }
+    }
+}
@@ -19,6 +19,10 @@ public class DummyStats implements Stats {
     public void registerPollingBasedValueProvider(String statName, PollingBasedValueProvider provider, int frequency) {
     }
 
+    @Override
+    public void unregisterPollingBasedValueProvider(String statName) {
+    }
+
     @Override
     public ValueSignalSource getValuesFrequencyOverTime(String statName, double... valueBins) {
         return new ValueSignalSource() {
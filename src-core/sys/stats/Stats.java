@@ -28,6 +28,15 @@ public interface Stats {
     public abstract void registerPollingBasedValueProvider(String statName, PollingBasedValueProvider provider,
             int frequency);
 
+    /**
+     * Stops polling a provider, e.g. when what it measures is gone, keeping
+     * the values gathered so far.
+     * 
+     * @param statName
+     *            the name of the polling based value provider
+     */
+    public abstract void unregisterPollingBasedValueProvider(String statName);
+
     /**
      * Returns an empty ValueSignalSource with the given name, or an already
      * existing one with the gathered values, ignoring the requested bins.
@@ -142,24 +142,29 @@ public final class StatsImpl implements Stats {
                 while (!terminate) {
                     long minDueTime = maxSamplingInterval;
                     try {
-                        for (Entry<String, Pair<FixedRateValueOverTime, PollingBasedValueProvider>> p : pollingProviders
-                                .entrySet()) {
-                            Pair<FixedRateValueOverTime, PollingBasedValueProvider> pollStats = p.getValue();
-                            Pair<Integer, Long> pollUpdate = pollingUpdates.get(p.getKey());
-
-                            long currTime = System.currentTimeMillis();
-                            long lastUpdate = pollUpdate.getSecond();
-                            long frequency = pollUpdate.getFirst();
-
-                            if (currTime - lastUpdate >= frequency) {
-                                double value = pollStats.getSecond().poll();
-                                pollStats.getFirst().setValue(value);
-                                pollUpdate.setSecond(currTime);
-                            }
-                            long dueTime = frequency - (currTime - lastUpdate);
-                            if (dueTime > 0 && dueTime <= minDueTime)
-                                minDueTime = dueTime;
+                        // providers may be (un)registered while polling
+                        synchronized (pollingProviders) {
+                            for (Entry<String, Pair<FixedRateValueOverTime, PollingBasedValueProvider>> p
+                                    : pollingProviders.entrySet()) {
+                                Pair<FixedRateValueOverTime, PollingBasedValueProvider> pollStats = p.getValue();
+                                Pair<Integer, Long> pollUpdate = pollingUpdates.get(p.getKey());
+                                if (pollUpdate == null)
+                                    continue;
+
+                                long currTime = System.currentTimeMillis();
+                                long lastUpdate = pollUpdate.getSecond();
+                                long frequency = pollUpdate.getFirst();
+
+                                if (currTime - lastUpdate >= frequency) {
+                                    double value = pollStats.getSecond().poll();
+                                    pollStats.getFirst().setValue(value);
+                                    pollUpdate.setSecond(currTime);
+                                }
+                                long dueTime = frequency - (currTime - lastUpdate);
+                                if (dueTime > 0 && dueTime <= minDueTime)
+                                    minDueTime = dueTime;
 
+                            }
                         }
                         Thread.sleep(minDueTime);
 
@@ -289,6 +294,18 @@ public final class StatsImpl implements Stats {
         }
     }
 
+    @Override
+    public void unregisterPollingBasedValueProvider(String statName) {
+        synchronized (pollingProviders) {
+            Pair<FixedRateValueOverTime, PollingBasedValueProvider> ps = pollingProviders.get(statName);
+            if (ps != null) {
+                // the values gathered are still dumped
+                pollingUpdates.remove(statName);
+                ps.setSecond(null);
+            }
+        }
+    }
+
     private BufferedFileDumper createFile(File dir, String key) throws FileNotFoundException {
         String[] filePath = key.split(":");
         String absolutPath = dir.getAbsolutePath();
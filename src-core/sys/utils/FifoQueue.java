@@ -16,38 +16,196 @@
  *****************************************************************************/
 package sys.utils;
 
-import java.util.SortedMap;
 import java.util.TreeMap;
 
+/**
+ * Reorders values tagged with consecutive sequence numbers, starting at 1,
+ * and processes them in sequence order. Values already processed are
+ * discarded.
+ * <p>
+ * Values waiting for a missing predecessor are kept in a circular array
+ * indexed by sequence number; only values too far ahead of the next expected
+ * one to fit in the array spill over to a sorted map. Values are processed
+ * outside the queue's lock, by one thread at a time: the thread that finds
+ * the queue idle keeps processing until it runs out of consecutive values,
+ * including those offered meanwhile by other threads.
+ * <p>
+ * Subclasses can override {@link #onGap(long, long, long)} to be told when a
+ * missing value holds back others for longer than the gap timeout, e.g. to
+ * request it again.
+ */
 public class FifoQueue<T> {
-    protected String name;
-    protected Long nextKey = 1L;
-    protected SortedMap<Long, T> queue = new TreeMap<Long, T>();
+    public static final int DEFAULT_CAPACITY = 64;
+
+    protected final String name;
+    protected long nextKey = 1L;
+
+    private final Object[] ring;
+    private final int mask;
+    private final TreeMap<Long, T> spill = new TreeMap<Long, T>();
+    private int buffered;
+    private boolean processing;
+
+    private volatile long gapTimeoutMs = Long.MAX_VALUE;
+    private long gapKey = -1L;
+    private long gapSince;
 
     public FifoQueue() {
         this("?");
     }
 
     public FifoQueue(String name) {
+        this(name, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity
+     *            number of out of order values kept in the circular array,
+     *            rounded up to a power of two
+     */
+    public FifoQueue(String name, int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
         this.name = name;
+        this.ring = new Object[size];
+        this.mask = size - 1;
+    }
+
+    /**
+     * Sets for how long a missing value may hold back others before
+     * {@link #onGap(long, long, long)} is called.
+     */
+    public void setGapTimeout(long timeoutMs) {
+        this.gapTimeoutMs = timeoutMs;
     }
 
-    synchronized public void offer(long seqN, T val) {
-        if (seqN >= nextKey) {
-            queue.put(seqN, val);
+    public void offer(long seqN, T val) {
+        synchronized (this) {
+            if (seqN < nextKey)
+                return;
+            if (seqN - nextKey < ring.length) {
+                int i = (int) seqN & mask;
+                if (ring[i] == null)
+                    buffered++;
+                ring[i] = val;
+            } else
+                spill.put(seqN, val);
 
-            Long headKey;
-            while (queue.size() > 0 && (headKey = queue.firstKey()).longValue() == nextKey) {
-                process(queue.remove(headKey));
+            if (processing) {
+                return;
+            }
+            processing = true;
+        }
+        drain();
+        if (gapTimeoutMs != Long.MAX_VALUE)
+            checkGaps();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void drain() {
+        for (;;) {
+            final T val;
+            synchronized (this) {
+                int i = (int) nextKey & mask;
+                val = (T) ring[i];
+                if (val == null) {
+                    processing = false;
+                    return;
+                }
+                ring[i] = null;
+                buffered--;
                 nextKey++;
+                if (!spill.isEmpty())
+                    refill();
+            }
+            try {
+                process(val);
+            } catch (RuntimeException e) {
+                synchronized (this) {
+                    processing = false;
+                }
+                throw e;
+            }
+        }
+    }
+
+    // moves the spilled values that now fit in the circular array
+    private void refill() {
+        Long key;
+        while (!spill.isEmpty() && (key = spill.firstKey()) - nextKey < ring.length) {
+            ring[(int) key.longValue() & mask] = spill.remove(key);
+            buffered++;
+        }
+    }
+
+    /**
+     * Calls {@link #onGap(long, long, long)} if values have been held back by
+     * a missing one for longer than the gap timeout. Invoked on offers when
+     * a gap timeout is set; may also be called periodically, so gaps are noticed when nothing else
+     * arrives.
+     */
+    public void checkGaps() {
+        final long missing, pending, waiting;
+        synchronized (this) {
+            if (buffered == 0 && spill.isEmpty()) {
+                gapKey = -1L;
+                return;
+            }
+            long now = System.currentTimeMillis();
+            if (gapKey != nextKey) {
+                gapKey = nextKey;
+                gapSince = now;
+                return;
             }
+            waiting = now - gapSince;
+            if (waiting < gapTimeoutMs)
+                return;
+            gapSince = now;
+            missing = nextKey;
+            pending = buffered + spill.size();
         }
+        onGap(missing, pending, waiting);
     }
 
+    /**
+     * Processes the values in sequence order; called outside the queue's
+     * lock, by one thread at a time.
+     */
     public void process(T val) {
     }
 
+    /**
+     * Called when the value with the given sequence number has been missing
+     * for longer than the gap timeout.
+     * 
+     * @param seqN
+     *            sequence number of the missing value
+     * @param pending
+     *            number of values held back
+     * @param waitingMs
+     *            time since the gap was first noticed
+     */
+    protected void onGap(long seqN, long pending, long waitingMs) {
+    }
+
+    /**
+     * Returns the number of values waiting for a missing predecessor.
+     */
+    public synchronized int pending() {
+        return buffered + spill.size();
+    }
+
     synchronized public String toString() {
-        return nextKey + ":" + queue.keySet().toString();
+        StringBuilder sb = new StringBuilder().append(nextKey).append(":[");
+        String sep = "";
+        for (long k = nextKey; k < nextKey + ring.length; k++)
+            if (ring[(int) k & mask] != null) {
+                sb.append(sep).append(k);
+                sep = ", ";
+            }
+        for (Long k : spill.keySet()) {
+            sb.append(sep).append(k);
+            sep = ", ";
+        }
+        return sb.append("]").toString();
     }
 }
@@ -0,0 +1,126 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package sys.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bounded, lock-free queue for many producers and a single consumer, backed
+ * by a ring buffer.
+ * <p>
+ * Each slot carries a sequence number telling whether it is free for the
+ * producer claiming that position or holds an element for the consumer.
+ * Producers claim positions with a CAS on the tail and publish the element by
+ * advancing the slot sequence; the consumer only reads and frees slots, so it
+ * never contends with producers. {@link #poll()} must only be called by one
+ * thread at a time.
+ */
+public class MpscRingBuffer<E> {
+
+    private final Object[] elements;
+    private final AtomicLongArray sequences;
+    private final int mask;
+
+    private final AtomicLong tail = new AtomicLong();
+    // written by the consumer only
+    private volatile long head;
+
+    /**
+     * @param capacity
+     *            maximum number of queued elements, rounded up to a power of
+     *            two
+     */
+    public MpscRingBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        int n = Integer.highestOneBit(capacity);
+        if (n < capacity)
+            n <<= 1;
+        this.elements = new Object[n];
+        this.sequences = new AtomicLongArray(n);
+        for (int i = 0; i < n; i++)
+            sequences.set(i, i);
+        this.mask = n - 1;
+    }
+
+    /**
+     * Appends an element, unless the queue is full.
+     * 
+     * @return false if the queue is full
+     */
+    public boolean offer(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        long pos = tail.get();
+        for (;;) {
+            final long seq = sequences.get((int) pos & mask);
+            if (seq == pos) {
+                if (tail.compareAndSet(pos, pos + 1))
+                    break;
+                pos = tail.get();
+            } else if (seq < pos) {
+                // slot still holds the element of the previous lap
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+        final int i = (int) pos & mask;
+        elements[i] = e;
+        sequences.set(i, pos + 1);
+        return true;
+    }
+
+    /**
+     * Removes the first element; single consumer only.
+     * 
+     * @return null if the queue is empty, or the first element is still being
+     *         appended
+     */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        final long pos = head;
+        final int i = (int) pos & mask;
+        if (sequences.get(i) != pos + 1) {
+            return null;
+        }
+        final E e = (E) elements[i];
+        elements[i] = null;
+        sequences.set(i, pos + mask + 1);
+        head = pos + 1;
+        return e;
+    }
+
+    /**
+     * @return number of queued elements, including those still being
+     *         appended; approximate under concurrent updates
+     */
+    public int size() {
+        return (int) Math.max(0, tail.get() - head);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int capacity() {
+        return elements.length;
+    }
+}
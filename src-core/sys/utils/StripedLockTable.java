@@ -0,0 +1,195 @@
+/*****************************************************************************
+ * Copyright 2011-2012 INRIA
+ * Copyright 2011-2012 Universidade Nova de Lisboa
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *****************************************************************************/
+package sys.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import sys.stats.Stats;
+import sys.stats.StatsImpl;
+import sys.stats.sources.PollingBasedValueProvider;
+
+/**
+ * Bounded table of per-object locks. Objects are mapped to a fixed number of
+ * stripes by hash code, so the memory used does not grow with the number of
+ * objects ever locked; two objects sharing a stripe simply serialize.
+ * <p>
+ * Each stripe is a reentrant read/write lock: {@link #lock(Object)} is
+ * exclusive, {@link #readLock(Object)} is shared among readers. A thread
+ * holding the exclusive lock may also take the shared one, but not the other
+ * way around. Callers must never hold locks of two different objects at once,
+ * as they may map to stripes in any order.
+ * <p>
+ * Contended acquisitions and exclusive hold times are counted and can be
+ * exported with {@link #registerStats(Stats, String)}.
+ */
+public class StripedLockTable {
+
+    public static final int DEFAULT_STRIPES = 1024;
+
+    private final ReentrantReadWriteLock[] stripes;
+    private final int mask;
+
+    // per stripe, guarded by the stripe's exclusive lock
+    private final long[] acquiredAt;
+    private final long[] acquisitions;
+    private final long[] holdNanos;
+
+    // updated only on the slow path
+    private final AtomicLong contended = new AtomicLong();
+    private final AtomicLong waitNanos = new AtomicLong();
+
+    /**
+     * @param stripes
+     *            number of locks, rounded up to a power of two
+     */
+    public StripedLockTable(int stripes) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("Invalid number of lock stripes: " + stripes);
+        }
+        int n = Integer.highestOneBit(stripes);
+        if (n < stripes)
+            n <<= 1;
+        this.stripes = new ReentrantReadWriteLock[n];
+        for (int i = 0; i < n; i++)
+            this.stripes[i] = new ReentrantReadWriteLock();
+        this.acquiredAt = new long[n];
+        this.acquisitions = new long[n];
+        this.holdNanos = new long[n];
+        this.mask = n - 1;
+    }
+
+    public StripedLockTable() {
+        this(DEFAULT_STRIPES);
+    }
+
+    public int size() {
+        return stripes.length;
+    }
+
+    int stripe(Object id) {
+        // spread the higher bits, as in HashMap
+        int h = id.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return h & mask;
+    }
+
+    /**
+     * Acquires the exclusive lock of the given object.
+     */
+    public void lock(Object id) {
+        final int i = stripe(id);
+        final ReentrantReadWriteLock.WriteLock l = stripes[i].writeLock();
+        if (!l.tryLock()) {
+            final long t0 = System.nanoTime();
+            l.lock();
+            contended.incrementAndGet();
+            waitNanos.addAndGet(System.nanoTime() - t0);
+        }
+        if (l.getHoldCount() == 1) {
+            acquisitions[i]++;
+            acquiredAt[i] = System.nanoTime();
+        }
+    }
+
+    public void unlock(Object id) {
+        final int i = stripe(id);
+        final ReentrantReadWriteLock.WriteLock l = stripes[i].writeLock();
+        if (!l.isHeldByCurrentThread())
+            throw new IllegalMonitorStateException("Unbalanced unlock for :" + id);
+        if (l.getHoldCount() == 1)
+            holdNanos[i] += System.nanoTime() - acquiredAt[i];
+        l.unlock();
+    }
+
+    /**
+     * Acquires the shared lock of the given object.
+     */
+    public void readLock(Object id) {
+        final ReentrantReadWriteLock.ReadLock l = stripes[stripe(id)].readLock();
+        if (!l.tryLock()) {
+            final long t0 = System.nanoTime();
+            l.lock();
+            contended.incrementAndGet();
+            waitNanos.addAndGet(System.nanoTime() - t0);
+        }
+    }
+
+    public void readUnlock(Object id) {
+        stripes[stripe(id)].readLock().unlock();
+    }
+
+    /**
+     * Registers polling sources for the lock metrics, as rates over each
+     * sampling interval: exclusive acquisitions, contended acquisitions, time
+     * spent waiting and time the exclusive locks were held, both in
+     * milliseconds. Per-stripe counters are read without locking, so samples
+     * are approximate.
+     */
+    public void registerStats(Stats stats, String prefix) {
+        stats.registerPollingBasedValueProvider(prefix + "lock-acquisitions", new Delta(1) {
+            long current() {
+                return sum(acquisitions);
+            }
+        }, StatsImpl.SAMPLING_INTERVAL_MILLIS);
+        stats.registerPollingBasedValueProvider(prefix + "lock-contended", new Delta(1) {
+            long current() {
+                return contended.get();
+            }
+        }, StatsImpl.SAMPLING_INTERVAL_MILLIS);
+        stats.registerPollingBasedValueProvider(prefix + "lock-wait-ms", new Delta(1e-6) {
+            long current() {
+                return waitNanos.get();
+            }
+        }, StatsImpl.SAMPLING_INTERVAL_MILLIS);
+        stats.registerPollingBasedValueProvider(prefix + "lock-hold-ms", new Delta(1e-6) {
+            long current() {
+                return sum(holdNanos);
+            }
+        }, StatsImpl.SAMPLING_INTERVAL_MILLIS);
+    }
+
+    private static long sum(long[] counters) {
+        long res = 0;
+        for (long c : counters)
+            res += c;
+        return res;
+    }
+
+    /**
+     * Reports the increment of a counter since the previous poll.
+     */
+    static abstract class Delta implements PollingBasedValueProvider {
+        final double scale;
+        long last;
+
+        Delta(double scale) {
+            this.scale = scale;
+        }
+
+        abstract long current();
+
+        @Override
+        public synchronized double poll() {
+            final long now = current();
+            final long d = now - last;
+            last = now;
+            return d * scale;
+        }
+    }
+}
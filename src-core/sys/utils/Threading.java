@@ -1,12 +1,10 @@
 package sys.utils;
 
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * A collection of convenience methods for dealing with threads.
@@ -173,24 +171,4 @@ final public class Threading {
             e.printStackTrace();
         }
     }
-
-    public static void lock(Object id) {
-        ReentrantLock lock = locks.get(id), newLock;
-        if (lock == null) {
-            lock = locks.putIfAbsent(id, newLock = new ReentrantLock(true));
-            if (lock == null)
-                lock = newLock;
-        }
-        lock.lock();
-    }
-
-    public static void unlock(Object id) {
-        ReentrantLock lock = locks.get(id);
-        if (lock == null)
-            throw new RuntimeException("Unbalanced unlock for :" + id);
-
-        lock.unlock();
-    }
-
-    static ConcurrentHashMap<Object, ReentrantLock> locks = new ConcurrentHashMap<Object, ReentrantLock>();
 }